@@ -0,0 +1,185 @@
+package edu.nyu;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.littleshoot.proxy.HttpFiltersSource;
+import org.littleshoot.proxy.HttpFiltersSourceAdapter;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the buffer allocators LittleProxy can run on, through {@link AllocatorFiltersSource}: pooled and unpooled,
+ * heap and direct, against {@code default}, which leaves Netty 4.0's unpooled allocator in place.
+ * <p>
+ * The scenarios are a {@code small} 1 KB response, a {@code large} 1 MB one streamed through, and a 64 KB one the
+ * proxy compresses with {@code gzip}. The pom's {@code -prof gc} reports the heap allocation rate and the time spent
+ * in GC, but direct buffers are off the heap, so each iteration also prints the JVM's direct memory, the number of
+ * GCs with their average pause and, for the pooled allocators, the bytes the arenas hold. Netty 4.0 can't free direct
+ * buffers itself on Java 9 and later, the unpooled direct ones are only returned when the GC collects them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(8)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+public class BufferAllocationBenchmark {
+
+    private static final String HTTP_SCHEME = "http";
+    private static final String LOCALHOST = "localhost";
+    private static final String ROOT_CONTEXT = "/";
+    private static final String GZIP = "gzip";
+    private static final int MAX_CONNECTIONS = 64;
+    private static final int ARENAS = 2 * Runtime.getRuntime().availableProcessors();
+    private static final int PAGE_SIZE = 8192;
+    private static final int MAX_ORDER = 11;
+
+    @Param({"default", "pooledDirect", "pooledHeap", "unpooledDirect", "unpooledHeap"})
+    public String allocator;
+
+    @Param({"small", "large", "gzip"})
+    public String scenario;
+
+    private ByteBufAllocator byteBufAllocator;
+    private HttpServer httpServer;
+    private HttpProxyServer proxyServer;
+    private CloseableHttpClient httpClient;
+    private HttpUriRequest request;
+    private final BufferPoolMXBean directPool = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+            .filter(pool -> "direct".equals(pool.getName())).findFirst().orElse(null);
+    private long gcCount;
+    private long gcTime;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        int bodySize = "small".equals(scenario) ? 1024 : "large".equals(scenario) ? 1024 * 1024 : 64 * 1024;
+        httpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler(ROOT_CONTEXT, (req, resp, context) -> {
+                    resp.setStatusCode(HttpStatus.SC_OK);
+                    resp.setEntity(new GeneratedEntity(bodySize, false));
+                })
+                .create();
+        httpServer.start();
+
+        HttpFiltersSource filtersSource = GZIP.equals(scenario)
+                ? new CompressingFiltersSource(1) : new HttpFiltersSourceAdapter();
+        byteBufAllocator = newAllocator();
+        proxyServer = DefaultHttpProxyServer.bootstrap().withPort(0).withFiltersSource(byteBufAllocator == null
+                ? filtersSource : new AllocatorFiltersSource(byteBufAllocator, filtersSource)).start();
+
+        // the client takes the body as it comes, compressed or not
+        httpClient = HttpClientBuilder.create()
+                .setProxy(new HttpHost(LOCALHOST, proxyServer.getListenAddress().getPort()))
+                .setMaxConnPerRoute(MAX_CONNECTIONS).setMaxConnTotal(MAX_CONNECTIONS)
+                .disableContentCompression()
+                .build();
+        RequestBuilder requestBuilder = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME).setHost(LOCALHOST)
+                .setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build());
+        if (GZIP.equals(scenario)) {
+            requestBuilder.addHeader(HttpHeaders.ACCEPT_ENCODING, GZIP);
+        }
+        request = requestBuilder.build();
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        httpClient.close();
+        proxyServer.stop();
+        httpServer.stop();
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        gcCount = 0;
+        gcTime = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += gc.getCollectionCount();
+            gcTime += gc.getCollectionTime();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportIteration() {
+        long count = -gcCount;
+        long time = -gcTime;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += gc.getCollectionCount();
+            time += gc.getCollectionTime();
+        }
+        System.out.printf("%n%s %s: %d GCs, %d ms average, direct memory %d KB in %d buffers%s%n", allocator,
+                scenario, count, count == 0 ? 0 : time / count,
+                directPool == null ? -1 : directPool.getMemoryUsed() / 1024,
+                directPool == null ? -1 : directPool.getCount(), arenaUsage());
+    }
+
+    @Benchmark
+    public int get() throws IOException {
+        try (CloseableHttpResponse httpResponse = httpClient.execute(request)) {
+            EntityUtils.consume(httpResponse.getEntity());
+            return httpResponse.getStatusLine().getStatusCode();
+        }
+    }
+
+    private ByteBufAllocator newAllocator() {
+        switch (allocator) {
+            case "pooledDirect":
+                return AllocatorFiltersSource.pooled(true, ARENAS, PAGE_SIZE, MAX_ORDER, true);
+            case "pooledHeap":
+                return AllocatorFiltersSource.pooled(false, ARENAS, PAGE_SIZE, MAX_ORDER, true);
+            case "unpooledDirect":
+                return AllocatorFiltersSource.unpooled(true);
+            case "unpooledHeap":
+                return AllocatorFiltersSource.unpooled(false);
+            default:
+                return null;
+        }
+    }
+
+    private String arenaUsage() {
+        if (!(byteBufAllocator instanceof PooledByteBufAllocator)) {
+            return "";
+        }
+        PooledByteBufAllocator pooled = (PooledByteBufAllocator) byteBufAllocator;
+        List<PoolArenaMetric> arenas = pooled.directArenas().isEmpty() ? pooled.heapArenas() : pooled.directArenas();
+        long allocations = arenas.stream().mapToLong(PoolArenaMetric::numAllocations).sum();
+        long activeBytes = arenas.stream().mapToLong(PoolArenaMetric::numActiveBytes).sum();
+        return ", arenas: " + allocations + " allocations, " + activeBytes / 1024 + " KB in chunks";
+    }
+
+}
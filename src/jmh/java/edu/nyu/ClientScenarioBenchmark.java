@@ -0,0 +1,234 @@
+package edu.nyu;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.FileEntity;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.ssl.SSLContextBuilder;
+import org.apache.http.util.EntityUtils;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.CertPathTrustManagerParameters;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.security.KeyStore;
+import java.security.cert.CertPathBuilder;
+import java.security.cert.PKIXBuilderParameters;
+import java.security.cert.PKIXRevocationChecker;
+import java.security.cert.X509CertSelector;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs the client scenarios of {@code HttpClientTest}, {@code ProxyHttpClientTest} and {@code SslHttpClientTest}
+ * against the same embedded servers, once with a fresh {@code HttpClientBuilder.create().build()} per call and once
+ * with a single pooled client shared by every call.
+ * <p>
+ * Run with {@code mvn -Pbenchmark test-compile exec:exec}; the default {@code jmh.args} add the GC profiler so the
+ * allocation rate per operation ({@code gc.alloc.rate.norm}) is reported next to ops/s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+public class ClientScenarioBenchmark {
+
+    private static final String HTTP_SCHEME = "http";
+    private static final String HTTPS_SCHEME = "https";
+    private static final String LOCALHOST = "localhost";
+    // the localhost certificate points its CRL distribution point at this port
+    private static final int CRL_PORT = 54321;
+    private static final String KEYSTORE_PASS = "changeit";
+    private static final String ROOT_CONTEXT = "/";
+
+    /**
+     * {@code fresh} builds and closes a client for every request, {@code pooled} shares one client per scenario
+     */
+    @Param({"fresh", "pooled"})
+    public String clientMode;
+
+    private HttpServer httpServer;
+    private HttpServer httpsServer;
+    private HttpServer crlHttpServer;
+    private HttpProxyServer proxyHttpServer;
+
+    private Scenario plain;
+    private Scenario proxy;
+    private Scenario https;
+    private Scenario crl;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        httpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler(ROOT_CONTEXT, (req, resp, context) -> resp.setStatusCode(HttpStatus.SC_OK))
+                .create();
+        httpServer.start();
+        httpsServer = ServerBootstrap.bootstrap()
+                .setSslContext(SSLContextBuilder.create()
+                        .loadKeyMaterial(getClass().getResource("/keystore.jks"),
+                                KEYSTORE_PASS.toCharArray(), KEYSTORE_PASS.toCharArray()).build())
+                .setListenerPort(0)
+                .registerHandler(ROOT_CONTEXT, (req, resp, context) -> resp.setStatusCode(HttpStatus.SC_OK))
+                .create();
+        httpsServer.start();
+        File crlFile = new File(getClass().getResource("/ca/ca.crl").toURI());
+        crlHttpServer = ReusableServerSocketFactory.configure(ServerBootstrap.bootstrap())
+                .setListenerPort(CRL_PORT)
+                .registerHandler("/ca.crl", (req, resp, context) -> resp.setEntity(new FileEntity(crlFile)))
+                .create();
+        crlHttpServer.start();
+        proxyHttpServer = DefaultHttpProxyServer.bootstrap().withPort(0).start();
+
+        SSLContext trustStoreSslContext = SSLContextBuilder.create()
+                .loadTrustMaterial(getClass().getResource("/keystore.jks"), KEYSTORE_PASS.toCharArray()).build();
+        SSLContext crlSslContext = buildCrlSslContext();
+        HttpHost proxyHost = new HttpHost(LOCALHOST, proxyHttpServer.getListenAddress().getPort());
+
+        plain = new Scenario(HttpClientBuilder::create, uri(HTTP_SCHEME, httpServer.getLocalPort()));
+        proxy = new Scenario(() -> HttpClientBuilder.create().setProxy(proxyHost),
+                uri(HTTP_SCHEME, httpServer.getLocalPort()));
+        https = new Scenario(() -> HttpClientBuilder.create().setSSLContext(trustStoreSslContext),
+                uri(HTTPS_SCHEME, httpsServer.getLocalPort()));
+        crl = new Scenario(() -> HttpClientBuilder.create().setSSLContext(crlSslContext),
+                uri(HTTPS_SCHEME, httpsServer.getLocalPort()));
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        for (Scenario scenario : new Scenario[] {plain, proxy, https, crl}) {
+            scenario.close();
+        }
+        proxyHttpServer.stop();
+        crlHttpServer.stop();
+        httpsServer.stop();
+        httpServer.stop();
+    }
+
+    @Benchmark
+    public int plainGet() throws IOException {
+        return plain.execute();
+    }
+
+    @Benchmark
+    public int proxyGet() throws IOException {
+        return proxy.execute();
+    }
+
+    @Benchmark
+    public int httpsGet() throws IOException {
+        return https.execute();
+    }
+
+    /**
+     * The localhost certificate is revoked, so this measures how long it takes to reject it, CRL download included
+     */
+    @Benchmark
+    public Object httpsCrlCheck() throws IOException {
+        try {
+            return crl.execute();
+        } catch (SSLHandshakeException e) {
+            return e;
+        }
+    }
+
+    private URI uri(String scheme, int port) throws Exception {
+        return new URIBuilder().setScheme(scheme).setHost(LOCALHOST).setPort(port).setPath(ROOT_CONTEXT).build();
+    }
+
+    /**
+     * Same revocation checking setup as {@code SslHttpClientTest.testCrlCheck}
+     */
+    private SSLContext buildCrlSslContext() throws Exception {
+        KeyStore ts = KeyStore.getInstance("JKS");
+        try (InputStream tfis = new FileInputStream(new File(getClass().getResource("/keystore.jks").toURI()))) {
+            ts.load(tfis, KEYSTORE_PASS.toCharArray());
+        }
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        PKIXRevocationChecker rc = (PKIXRevocationChecker) CertPathBuilder.getInstance("PKIX").getRevocationChecker();
+        rc.setOptions(EnumSet.of(
+                PKIXRevocationChecker.Option.PREFER_CRLS,
+                PKIXRevocationChecker.Option.ONLY_END_ENTITY,
+                PKIXRevocationChecker.Option.SOFT_FAIL,
+                PKIXRevocationChecker.Option.NO_FALLBACK));
+        PKIXBuilderParameters pkixParams = new PKIXBuilderParameters(ts, new X509CertSelector());
+        pkixParams.addCertPathChecker(rc);
+        tmf.init(new CertPathTrustManagerParameters(pkixParams));
+        SSLContext ctx = SSLContext.getInstance("TLS");
+        ctx.init(null, tmf.getTrustManagers(), null);
+        return ctx;
+    }
+
+    /**
+     * A request plus the way clients for it are built, honouring {@link #clientMode}
+     */
+    private class Scenario {
+
+        private final Supplier<HttpClientBuilder> builder;
+        private final HttpUriRequest request;
+        private final CloseableHttpClient pooledClient;
+
+        private Scenario(Supplier<HttpClientBuilder> builder, URI uri) {
+            this.builder = builder;
+            this.request = RequestBuilder.get(uri).build();
+            // enough pooled connections for benchmarks run with several threads
+            this.pooledClient = "pooled".equals(clientMode)
+                    ? builder.get().setMaxConnPerRoute(64).setMaxConnTotal(64).build() : null;
+        }
+
+        private int execute() throws IOException {
+            if (pooledClient != null) {
+                return execute(pooledClient);
+            }
+            try (CloseableHttpClient httpClient = builder.get().build()) {
+                return execute(httpClient);
+            }
+        }
+
+        private int execute(CloseableHttpClient httpClient) throws IOException {
+            try (CloseableHttpResponse httpResponse = httpClient.execute(request)) {
+                // consume the entity so the connection goes back to the pool
+                EntityUtils.consume(httpResponse.getEntity());
+                return httpResponse.getStatusLine().getStatusCode();
+            }
+        }
+
+        private void close() throws IOException {
+            if (pooledClient != null) {
+                pooledClient.close();
+            }
+        }
+
+    }
+
+}
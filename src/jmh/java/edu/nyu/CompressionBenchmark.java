@@ -0,0 +1,150 @@
+package edu.nyu;
+
+import com.sun.management.OperatingSystemMXBean;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.HttpProxyServerBootstrap;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares plain responses with responses compressed by the embedded server ({@link ResponseCompression}) and by
+ * LittleProxy ({@link CompressingFiltersSource}), over compression levels and payload sizes. The client always goes
+ * through the proxy and inflates as it reads.
+ * <p>
+ * Next to ops/s, every iteration prints the bytes the proxy sent to the client per response, taken from a
+ * {@link MetricsActivityTracker}, and the process CPU time per response. Client, proxy and server share the JVM, so
+ * the CPU figure is the cost of the whole chain; the difference to {@code none} is what compression adds. The level
+ * doesn't apply to {@code none}, restrict the sweep with e.g. {@code -p placement=none -p level=1}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+public class CompressionBenchmark {
+
+    private static final String HTTP_SCHEME = "http";
+    private static final String LOCALHOST = "localhost";
+    private static final String ROOT_CONTEXT = "/";
+    private static final int MAX_CONNECTIONS = 64;
+
+    /**
+     * {@code none} sends the body as is, {@code server} compresses at the origin, {@code proxy} in LittleProxy
+     */
+    @Param({"none", "server", "proxy"})
+    public String placement;
+
+    @Param({"1", "6", "9"})
+    public int level;
+
+    @Param({"1024", "65536", "1048576"})
+    public int size;
+
+    private final MetricsActivityTracker tracker = new MetricsActivityTracker();
+    private final OperatingSystemMXBean os =
+            (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    private HttpServer httpServer;
+    private HttpProxyServer proxyServer;
+    private CloseableHttpClient httpClient;
+    private HttpUriRequest request;
+    private long cpuTime;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        byte[] body = GeneratedEntity.text(size).getBytes(StandardCharsets.US_ASCII);
+        ServerBootstrap serverBootstrap = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler(ROOT_CONTEXT, (req, resp, context) -> {
+                    resp.setStatusCode(HttpStatus.SC_OK);
+                    resp.setEntity(new ByteArrayEntity(body, ContentType.TEXT_PLAIN));
+                });
+        httpServer = ("server".equals(placement) ? ResponseCompression.configure(serverBootstrap, level)
+                : serverBootstrap).create();
+        httpServer.start();
+
+        HttpProxyServerBootstrap proxyBootstrap = DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .plusActivityTracker(tracker);
+        if ("proxy".equals(placement)) {
+            proxyBootstrap.withFiltersSource(new CompressingFiltersSource(level));
+        }
+        proxyServer = proxyBootstrap.start();
+
+        httpClient = HttpClientBuilder.create()
+                .setMaxConnPerRoute(MAX_CONNECTIONS).setMaxConnTotal(MAX_CONNECTIONS)
+                .setProxy(new HttpHost(LOCALHOST, proxyServer.getListenAddress().getPort()))
+                .build();
+        request = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME).setHost(LOCALHOST)
+                .setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        tracker.reset();
+        cpuTime = os.getProcessCpuTime();
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportIteration() {
+        MetricsActivityTracker.Snapshot snapshot = tracker.snapshot();
+        long cpu = os.getProcessCpuTime() - cpuTime;
+        long responses = Math.max(1, snapshot.getResponsesSent());
+        System.out.printf("%n%s level=%d size=%d: %d wire bytes/response (%.1f%%), %d us CPU/response%n",
+                placement, level, size, snapshot.getBytesSentToClients() / responses,
+                100.0 * snapshot.getBytesSentToClients() / responses / size,
+                TimeUnit.NANOSECONDS.toMicros(cpu / responses));
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        httpClient.close();
+        proxyServer.stop();
+        httpServer.stop();
+    }
+
+    @Benchmark
+    public long get() throws IOException {
+        try (CloseableHttpResponse httpResponse = httpClient.execute(request);
+             InputStream inputStream = httpResponse.getEntity().getContent()) {
+            // inflate through one buffer rather than materializing the body
+            byte[] buffer = new byte[8192];
+            long length = 0;
+            for (int read = inputStream.read(buffer); read != -1; read = inputStream.read(buffer)) {
+                length += read;
+            }
+            return length;
+        }
+    }
+
+}
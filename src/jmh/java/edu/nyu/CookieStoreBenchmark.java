@@ -0,0 +1,132 @@
+package edu.nyu;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.config.CookieSpecs;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.protocol.RequestAddCookies;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.util.PublicSuffixMatcher;
+import org.apache.http.conn.util.PublicSuffixMatcherLoader;
+import org.apache.http.cookie.CookieSpecProvider;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.cookie.BasicClientCookie;
+import org.apache.http.impl.cookie.DefaultCookieSpecProvider;
+import org.apache.http.message.BasicHttpRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures public suffix matching with the full Mozilla list and what {@code RequestAddCookies} costs per request
+ * with {@code BasicCookieStore} versus {@link DomainIndexedCookieStore}.
+ * <p>
+ * The list is read from the file named by the {@code psl.file} system property, e.g. a fresh copy of
+ * https://publicsuffix.org/list/public_suffix_list.dat passed with
+ * {@code -Djmh.args="-jvmArgsAppend -Dpsl.file=/path/to/public_suffix_list.dat CookieStoreBenchmark"}, falling back
+ * to the copy bundled with HttpClient.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+public class CookieStoreBenchmark {
+
+    private static final int COOKIES_PER_DOMAIN = 4;
+    private static final String[] HOSTS = {
+            "www.example.com", "a.b.c.example.co.uk", "user.github.io", "x.y.blogspot.com", "shop.example.com.au",
+            "localhost", "www.city.kawasaki.jp", "deep.sub.domain.example.org"
+    };
+
+    @Param({"1000", "50000"})
+    public int cookies;
+
+    private PublicSuffixMatcher publicSuffixMatcher;
+    private String[] domains;
+    private CookieStore basicCookieStore;
+    private DomainIndexedCookieStore indexedCookieStore;
+    private RegistryBuilder<CookieSpecProvider> cookieSpecRegistry;
+    private RequestAddCookies requestAddCookies;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        String pslFile = System.getProperty("psl.file");
+        publicSuffixMatcher = pslFile != null
+                ? PublicSuffixMatcherLoader.load(new File(pslFile)) : PublicSuffixMatcherLoader.getDefault();
+        domains = new String[cookies / COOKIES_PER_DOMAIN];
+        basicCookieStore = new BasicCookieStore();
+        indexedCookieStore = new DomainIndexedCookieStore(publicSuffixMatcher);
+        for (int i = 0; i < domains.length; i++) {
+            domains[i] = "site" + i + (i % 3 == 0 ? ".co.uk" : ".com");
+            for (int j = 0; j < COOKIES_PER_DOMAIN; j++) {
+                BasicClientCookie cookie = new BasicClientCookie("cookie" + j, "value");
+                cookie.setDomain(domains[i]);
+                cookie.setPath(j % 2 == 0 ? "/" : "/app");
+                basicCookieStore.addCookie(cookie);
+                indexedCookieStore.addCookie(cookie);
+            }
+        }
+        cookieSpecRegistry = RegistryBuilder.<CookieSpecProvider>create()
+                .register(CookieSpecs.DEFAULT, new DefaultCookieSpecProvider(publicSuffixMatcher));
+        requestAddCookies = new RequestAddCookies();
+    }
+
+    @Benchmark
+    public String domainRoot() {
+        return publicSuffixMatcher.getDomainRoot(HOSTS[ThreadLocalRandom.current().nextInt(HOSTS.length)]);
+    }
+
+    @Benchmark
+    public boolean publicSuffixMatch() {
+        return publicSuffixMatcher.matches(HOSTS[ThreadLocalRandom.current().nextInt(HOSTS.length)]);
+    }
+
+    @Benchmark
+    public HttpRequest basicStoreRequest() throws Exception {
+        HttpRequest request = new BasicHttpRequest("GET", "/app/index.html");
+        requestAddCookies.process(request, context(basicCookieStore));
+        return request;
+    }
+
+    @Benchmark
+    public HttpRequest indexedStoreRequest() throws Exception {
+        HttpRequest request = new BasicHttpRequest("GET", "/app/index.html");
+        HttpClientContext context = context(indexedCookieStore);
+        indexedCookieStore.scopingInterceptor().process(request, context);
+        requestAddCookies.process(request, context);
+        return request;
+    }
+
+    /**
+     * The parts of the context {@code RequestAddCookies} needs, as the exec chain would set them up
+     */
+    private HttpClientContext context(CookieStore cookieStore) {
+        HttpHost target = new HttpHost("www." + domains[ThreadLocalRandom.current().nextInt(domains.length)]);
+        HttpClientContext context = HttpClientContext.create();
+        context.setCookieStore(cookieStore);
+        context.setCookieSpecRegistry(cookieSpecRegistry.build());
+        context.setRequestConfig(RequestConfig.custom().setCookieSpec(CookieSpecs.DEFAULT).build());
+        context.setAttribute(HttpClientContext.HTTP_TARGET_HOST, target);
+        context.setAttribute(HttpClientContext.HTTP_ROUTE, new HttpRoute(target));
+        return context;
+    }
+
+}
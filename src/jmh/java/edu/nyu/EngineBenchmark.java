@@ -0,0 +1,200 @@
+package edu.nyu;
+
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.URIScheme;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.AsyncEntityProducers;
+import org.apache.hc.core5.http.nio.entity.StringAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.AsyncResponseBuilder;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.http2.ssl.H2ServerTlsStrategy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.ListenerEndpoint;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link HttpEngine} implementations on the same requests: directly to the embedded server, through
+ * LittleProxy, and over TLS to an HttpCore 5 server that negotiates HTTP/2 or HTTP/1.1 with ALPN.
+ * <p>
+ * Each operation fires {@code concurrency} requests with {@link HttpEngine#executeAsync(URI)} and waits for all of
+ * them, so ops/s times {@code concurrency} is requests per second. Every iteration prints the live and peak thread
+ * count of the JVM, which is where the blocking engine's thread per request shows. The protocol only matters for
+ * {@code tls}, engines that can't do HTTP/2 fall back to HTTP/1.1; restrict the sweep with e.g.
+ * {@code -p scenario=tls -p protocol=HTTP_2}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+public class EngineBenchmark {
+
+    private static final String HTTP_SCHEME = "http";
+    private static final String HTTPS_SCHEME = "https";
+    private static final String LOCALHOST = "localhost";
+    private static final String ROOT_CONTEXT = "/";
+    private static final String KEYSTORE_PASS = "changeit";
+    private static final byte[] BODY = new byte[1024];
+
+    @Param({"BLOCKING", "ASYNC", "JDK"})
+    public HttpEngine.Type engine;
+
+    @Param({"HTTP_1_1", "HTTP_2"})
+    public HttpEngine.Protocol protocol;
+
+    /**
+     * {@code plain} talks to the server, {@code proxy} goes through LittleProxy, {@code tls} uses HTTPS
+     */
+    @Param({"plain", "proxy", "tls"})
+    public String scenario;
+
+    @Param({"1", "64"})
+    public int concurrency;
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private HttpServer httpServer;
+    private HttpAsyncServer h2Server;
+    private HttpProxyServer proxyServer;
+    private HttpEngine httpEngine;
+    private URI uri;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        if (!engine.isAvailable()) {
+            throw new IllegalStateException(engine + " engine isn't available on this JVM");
+        }
+        HttpEngineConfig config = new HttpEngineConfig().setProtocol(protocol).setMaxConnections(concurrency);
+        if ("tls".equals(scenario)) {
+            URL keyStore = getClass().getResource("/keystore.jks");
+            SSLContext serverSslContext = SslContextFactory.getDefault().getKeyStoreSslContext(keyStore,
+                    KEYSTORE_PASS.toCharArray(), KEYSTORE_PASS.toCharArray());
+            h2Server = H2ServerBootstrap.bootstrap()
+                    .setVersionPolicy(HttpVersionPolicy.NEGOTIATE)
+                    .setTlsStrategy(new H2ServerTlsStrategy(serverSslContext))
+                    .register("*", new BodyHandler())
+                    .create();
+            h2Server.start();
+            ListenerEndpoint endpoint = h2Server.listen(new InetSocketAddress(0), URIScheme.HTTPS).get();
+            config.setSslContext(SslContextFactory.getDefault().getTrustStoreSslContext(keyStore,
+                    KEYSTORE_PASS.toCharArray()));
+            uri = new URI(HTTPS_SCHEME, null, LOCALHOST, ((InetSocketAddress) endpoint.getAddress()).getPort(),
+                    ROOT_CONTEXT, null, null);
+        } else {
+            httpServer = ServerBootstrap.bootstrap()
+                    .setListenerPort(0)
+                    .registerHandler(ROOT_CONTEXT, (req, resp, context) -> {
+                        resp.setStatusCode(HttpStatus.SC_OK);
+                        resp.setEntity(new ByteArrayEntity(BODY, ContentType.APPLICATION_OCTET_STREAM));
+                    })
+                    .create();
+            httpServer.start();
+            if ("proxy".equals(scenario)) {
+                proxyServer = DefaultHttpProxyServer.bootstrap().withPort(0).start();
+                config.setProxy(LOCALHOST, proxyServer.getListenAddress().getPort());
+            }
+            uri = new URI(HTTP_SCHEME, null, LOCALHOST, httpServer.getLocalPort(), ROOT_CONTEXT, null, null);
+        }
+        httpEngine = engine.create(config);
+        HttpEngine.Response response = httpEngine.execute(uri);
+        System.out.printf("%n%s %s %s: %s negotiated%n", engine, protocol, scenario, response.getProtocol());
+    }
+
+    @Setup(Level.Iteration)
+    public void startIteration() {
+        threads.resetPeakThreadCount();
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportIteration() {
+        System.out.printf("%n%s %s %s concurrency=%d: %d live threads, %d peak%n", engine, protocol, scenario,
+                concurrency, threads.getThreadCount(), threads.getPeakThreadCount());
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        httpEngine.close();
+        if (proxyServer != null) {
+            proxyServer.stop();
+        }
+        if (httpServer != null) {
+            httpServer.stop();
+        }
+        if (h2Server != null) {
+            h2Server.close(CloseMode.GRACEFUL);
+        }
+    }
+
+    @Benchmark
+    public int get() throws IOException {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            futures[i] = httpEngine.executeAsync(uri);
+        }
+        try {
+            CompletableFuture.allOf(futures).join();
+        } catch (RuntimeException e) {
+            throw HttpEngine.unwrap(e);
+        }
+        return futures.length;
+    }
+
+    /**
+     * Answers every request with {@link #BODY}, on HTTP/1.1 and HTTP/2 alike
+     */
+    private static class BodyHandler
+            implements AsyncServerRequestHandler<Message<org.apache.hc.core5.http.HttpRequest, String>> {
+
+        @Override
+        public AsyncRequestConsumer<Message<org.apache.hc.core5.http.HttpRequest, String>> prepare(
+                org.apache.hc.core5.http.HttpRequest request, EntityDetails entityDetails,
+                org.apache.hc.core5.http.protocol.HttpContext context) {
+            return new BasicRequestConsumer<>(entityDetails != null ? new StringAsyncEntityConsumer() : null);
+        }
+
+        @Override
+        public void handle(Message<org.apache.hc.core5.http.HttpRequest, String> message,
+                           ResponseTrigger responseTrigger, org.apache.hc.core5.http.protocol.HttpContext context)
+                throws org.apache.hc.core5.http.HttpException, IOException {
+            responseTrigger.submitResponse(AsyncResponseBuilder.create(HttpStatus.SC_OK)
+                    .setEntity(AsyncEntityProducers.create(BODY,
+                            org.apache.hc.core5.http.ContentType.APPLICATION_OCTET_STREAM))
+                    .build(), context);
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+package edu.nyu;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what a new HTTPS connection costs with and without TLS session resumption.
+ * <p>
+ * Connections are never reused, so every call performs a handshake. In {@code full} mode the client session cache is
+ * emptied before every call; in {@code resumed} mode it is left alone and all but the first handshake are abbreviated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+public class HandshakeBenchmark {
+
+    private static final String HTTPS_SCHEME = "https";
+    private static final String LOCALHOST = "localhost";
+    private static final String KEYSTORE_PASS = "changeit";
+    private static final String ROOT_CONTEXT = "/";
+
+    @Param({"full", "resumed"})
+    public String sessionMode;
+
+    private HttpServer httpsServer;
+    private SSLSessionContext clientSessions;
+    private HandshakeTrackingSocketFactory socketFactory;
+    private CloseableHttpClient httpClient;
+    private HttpUriRequest request;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        URL keyStore = getClass().getResource("/keystore.jks");
+        SslContextFactory sslContextFactory = new SslContextFactory(SslContextFactory.DEFAULT_SESSION_CACHE_SIZE,
+                SslContextFactory.DEFAULT_SESSION_TIMEOUT_SECONDS);
+        httpsServer = ServerBootstrap.bootstrap()
+                .setSslContext(sslContextFactory.getKeyStoreSslContext(keyStore,
+                        KEYSTORE_PASS.toCharArray(), KEYSTORE_PASS.toCharArray()))
+                .setListenerPort(0)
+                .registerHandler(ROOT_CONTEXT, (req, resp, context) -> resp.setStatusCode(HttpStatus.SC_OK))
+                .create();
+        httpsServer.start();
+
+        SSLContext sslContext = sslContextFactory.getTrustStoreSslContext(keyStore, KEYSTORE_PASS.toCharArray());
+        clientSessions = sslContext.getClientSessionContext();
+        socketFactory = new HandshakeTrackingSocketFactory(sslContext);
+        httpClient = HttpClientBuilder.create()
+                .setSSLSocketFactory(socketFactory)
+                .setConnectionReuseStrategy(NoConnectionReuseStrategy.INSTANCE)
+                .build();
+        request = RequestBuilder.get(new URIBuilder().setScheme(HTTPS_SCHEME).setHost(LOCALHOST)
+                .setPort(httpsServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
+    }
+
+    /**
+     * A handshake takes milliseconds, so the per-invocation overhead of this fixture doesn't show up in the results
+     */
+    @Setup(Level.Invocation)
+    public void forgetSessions() {
+        if ("full".equals(sessionMode)) {
+            for (byte[] id : Collections.list(clientSessions.getIds())) {
+                SSLSession session = clientSessions.getSession(id);
+                if (session != null) {
+                    session.invalidate();
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        System.out.printf("%n%d full handshakes (%s), %d resumed handshakes (%s)%n",
+                socketFactory.getFullHandshakes(), socketFactory.getFullHandshakeTime().summary(TimeUnit.MICROSECONDS),
+                socketFactory.getResumedHandshakes(),
+                socketFactory.getResumedHandshakeTime().summary(TimeUnit.MICROSECONDS));
+        httpClient.close();
+        httpsServer.stop();
+    }
+
+    @Benchmark
+    public int httpsGet() throws IOException {
+        try (CloseableHttpResponse httpResponse = httpClient.execute(request)) {
+            EntityUtils.consume(httpResponse.getEntity());
+            return httpResponse.getStatusLine().getStatusCode();
+        }
+    }
+
+}
@@ -0,0 +1,182 @@
+package edu.nyu;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.DefaultConnectionReuseStrategy;
+import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.HttpProxyServerBootstrap;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures what TLS interception costs compared to a plain CONNECT tunnel.
+ * <p>
+ * In {@code tunnel} mode the proxy relays the client's TLS bytes to the server; in {@code mitm} mode it terminates
+ * TLS with a certificate from a {@link HostCertificateCache} and opens a connection of its own upstream. With
+ * {@code new} connections every call pays the handshakes, with {@code keepAlive} only the first one does. The client
+ * handshake latencies, taken with the proxy in {@code mitm} mode, include the proxy's handshake with the server.
+ * <p>
+ * The proxy is always asked for the one host the server's certificate names, so its certificate is only issued once.
+ * {@link CertificateLookup} measures certificate misses on their own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+public class MitmBenchmark {
+
+    private static final String HTTPS_SCHEME = "https";
+    private static final String LOCALHOST = "localhost";
+    private static final String KEYSTORE_PASS = "changeit";
+    private static final String ROOT_CONTEXT = "/";
+
+    @Param({"tunnel", "mitm"})
+    public String mode;
+
+    @Param({"new", "keepAlive"})
+    public String connections;
+
+    private HttpServer httpsServer;
+    private HttpProxyServer proxyServer;
+    private HostCertificateCache certificates;
+    private HandshakeTrackingSocketFactory socketFactory;
+    private CloseableHttpClient httpClient;
+    private HttpUriRequest request;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        URL keyStore = getClass().getResource("/keystore.jks");
+        httpsServer = ServerBootstrap.bootstrap()
+                .setSslContext(SslContextFactory.getDefault().getKeyStoreSslContext(keyStore,
+                        KEYSTORE_PASS.toCharArray(), KEYSTORE_PASS.toCharArray()))
+                .setListenerPort(0)
+                .registerHandler(ROOT_CONTEXT, (req, resp, context) -> resp.setStatusCode(HttpStatus.SC_OK))
+                .create();
+        httpsServer.start();
+
+        SSLContext trustStoreSslContext = SslContextFactory.getDefault().getTrustStoreSslContext(keyStore,
+                KEYSTORE_PASS.toCharArray());
+        HttpProxyServerBootstrap proxyBootstrap = DefaultHttpProxyServer.bootstrap().withPort(0);
+        if ("mitm".equals(mode)) {
+            // one host, so its key pair is generated during warmup; a generator thread would only compete for CPU
+            certificates = new HostCertificateCache(CertificateAuthority.load(getClass().getResource("/ca/ca.crt"),
+                    getClass().getResource("/ca/ca.key"), KEYSTORE_PASS.toCharArray()),
+                    HostCertificateCache.DEFAULT_MAX_HOSTS, 0, "RSA", 2048);
+            proxyBootstrap.withManInTheMiddle(new CertificateMitmManager(certificates, trustStoreSslContext));
+        }
+        proxyServer = proxyBootstrap.start();
+
+        socketFactory = new HandshakeTrackingSocketFactory(trustStoreSslContext);
+        httpClient = HttpClientBuilder.create()
+                .setProxy(new HttpHost(LOCALHOST, proxyServer.getListenAddress().getPort()))
+                .setSSLSocketFactory(socketFactory)
+                .setConnectionReuseStrategy("new".equals(connections) ? NoConnectionReuseStrategy.INSTANCE
+                        : DefaultConnectionReuseStrategy.INSTANCE)
+                .build();
+        request = RequestBuilder.get(new URIBuilder().setScheme(HTTPS_SCHEME).setHost(LOCALHOST)
+                .setPort(httpsServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        System.out.printf("%n%d full handshakes (%s), %d resumed handshakes (%s)%n",
+                socketFactory.getFullHandshakes(), socketFactory.getFullHandshakeTime().summary(TimeUnit.MICROSECONDS),
+                socketFactory.getResumedHandshakes(),
+                socketFactory.getResumedHandshakeTime().summary(TimeUnit.MICROSECONDS));
+        if (certificates != null) {
+            System.out.printf("%d certificates issued, %d cached lookups, %d key pairs generated inline%n",
+                    certificates.getMisses(), certificates.getHits(), certificates.getInlineKeyPairs());
+            certificates.close();
+        }
+        httpClient.close();
+        proxyServer.stop();
+        httpsServer.stop();
+    }
+
+    @Benchmark
+    public int httpsGet() throws IOException {
+        try (CloseableHttpResponse httpResponse = httpClient.execute(request)) {
+            EntityUtils.consume(httpResponse.getEntity());
+            return httpResponse.getStatusLine().getStatusCode();
+        }
+    }
+
+    /**
+     * Looks up certificates straight from a {@link HostCertificateCache}, from several threads at once. The threads
+     * take turns through {@code hosts} names: with one, every lookup after the first is a hit, with more than the
+     * cache keeps, every lookup is a miss that issues a certificate. {@code keyPairs} are kept ready by the
+     * background generator, with {@code 0} every miss generates its key pair itself. Once misses come faster than
+     * the generator keeps up with, the ready key pairs run out, the teardown prints how many were generated inline.
+     */
+    @State(Scope.Benchmark)
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Threads(4)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+    public static class CertificateLookup {
+
+        @Param({"1", "4096"})
+        public int hosts;
+
+        @Param({"0", "16"})
+        public int keyPairs;
+
+        private final AtomicInteger next = new AtomicInteger();
+        private HostCertificateCache certificates;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            certificates = new HostCertificateCache(CertificateAuthority.load(getClass().getResource("/ca/ca.crt"),
+                    getClass().getResource("/ca/ca.key"), KEYSTORE_PASS.toCharArray()),
+                    HostCertificateCache.DEFAULT_MAX_HOSTS, keyPairs, "RSA", 2048);
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() {
+            System.out.printf("%n%d certificates issued, %d cached lookups, %d key pairs generated inline%n",
+                    certificates.getMisses(), certificates.getHits(), certificates.getInlineKeyPairs());
+            certificates.close();
+        }
+
+        @Benchmark
+        public SSLContext get() throws GeneralSecurityException {
+            return certificates.get("host" + Math.floorMod(next.getAndIncrement(), hosts) + ".example");
+        }
+
+    }
+
+}
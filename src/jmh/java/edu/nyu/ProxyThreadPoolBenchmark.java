@@ -0,0 +1,147 @@
+package edu.nyu;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.littleshoot.proxy.ChainedProxyAdapter;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.HttpProxyServerBootstrap;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.littleshoot.proxy.impl.ThreadPoolConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares requests sent directly to the embedded server with requests through one LittleProxy instance and through
+ * two chained instances, sweeping the proxies' acceptor, client-to-proxy and proxy-to-server worker thread counts.
+ * <p>
+ * Throughput and sampled latency are reported together, the added latency of a topology is the difference to
+ * {@code direct}. The thread counts don't apply to {@code direct}, so restrict the sweep when only the baseline is
+ * needed, e.g. {@code -Djmh.args="ProxyThreadPoolBenchmark -p topology=direct -p acceptorThreads=1
+ * -p clientToProxyWorkerThreads=2 -p proxyToServerWorkerThreads=2"}. JMH's {@code -t} sets the number of client
+ * threads, which should exceed the worker counts for the sweep to mean anything.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(16)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+public class ProxyThreadPoolBenchmark {
+
+    private static final String HTTP_SCHEME = "http";
+    private static final String LOCALHOST = "localhost";
+    private static final String ROOT_CONTEXT = "/";
+    private static final int MAX_CONNECTIONS = 64;
+
+    /**
+     * {@code direct} talks to the server, {@code proxy} goes through one proxy, {@code chained} through two
+     */
+    @Param({"direct", "proxy", "chained"})
+    public String topology;
+
+    @Param({"1", "2"})
+    public int acceptorThreads;
+
+    @Param({"2", "8"})
+    public int clientToProxyWorkerThreads;
+
+    @Param({"2", "8"})
+    public int proxyToServerWorkerThreads;
+
+    private HttpServer httpServer;
+    private final List<HttpProxyServer> proxyServers = new ArrayList<>();
+    private CloseableHttpClient httpClient;
+    private HttpUriRequest request;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        httpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler(ROOT_CONTEXT, (req, resp, context) -> resp.setStatusCode(HttpStatus.SC_OK))
+                .create();
+        httpServer.start();
+
+        HttpClientBuilder httpClientBuilder = HttpClientBuilder.create()
+                .setMaxConnPerRoute(MAX_CONNECTIONS).setMaxConnTotal(MAX_CONNECTIONS);
+        if (!"direct".equals(topology)) {
+            HttpProxyServer proxyServer = null;
+            if ("chained".equals(topology)) {
+                // the client talks to the downstream proxy, which forwards everything to the upstream one
+                HttpProxyServer upstream = proxyBootstrap().start();
+                proxyServers.add(upstream);
+                InetSocketAddress upstreamAddress = upstream.getListenAddress();
+                proxyServer = proxyBootstrap()
+                        .withChainProxyManager((httpRequest, chainedProxies) ->
+                                chainedProxies.add(new ChainedProxyAdapter() {
+                                    @Override
+                                    public InetSocketAddress getChainedProxyAddress() {
+                                        return upstreamAddress;
+                                    }
+                                }))
+                        .start();
+            } else {
+                proxyServer = proxyBootstrap().start();
+            }
+            proxyServers.add(proxyServer);
+            httpClientBuilder.setProxy(new HttpHost(LOCALHOST, proxyServer.getListenAddress().getPort()));
+        }
+        httpClient = httpClientBuilder.build();
+        request = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME).setHost(LOCALHOST)
+                .setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void teardown() throws IOException {
+        httpClient.close();
+        for (HttpProxyServer proxyServer : proxyServers) {
+            proxyServer.stop();
+        }
+        httpServer.stop();
+    }
+
+    @Benchmark
+    public int get() throws IOException {
+        try (CloseableHttpResponse httpResponse = httpClient.execute(request)) {
+            EntityUtils.consume(httpResponse.getEntity());
+            return httpResponse.getStatusLine().getStatusCode();
+        }
+    }
+
+    private HttpProxyServerBootstrap proxyBootstrap() {
+        return DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .withThreadPoolConfiguration(new ThreadPoolConfiguration()
+                        .withAcceptorThreads(acceptorThreads)
+                        .withClientToProxyWorkerThreads(clientToProxyWorkerThreads)
+                        .withProxyToServerWorkerThreads(proxyToServerWorkerThreads));
+    }
+
+}
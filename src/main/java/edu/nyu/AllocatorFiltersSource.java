@@ -0,0 +1,312 @@
+package edu.nyu;
+
+import io.netty.buffer.AbstractByteBufAllocator;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import org.littleshoot.proxy.HttpFilters;
+import org.littleshoot.proxy.HttpFiltersSource;
+import org.littleshoot.proxy.HttpFiltersSourceAdapter;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Makes LittleProxy read and write through a {@link ByteBufAllocator} of our choosing on both of its connections,
+ * typically a {@link PooledByteBufAllocator} of direct buffers from {@link #pooled}.
+ * <p>
+ * LittleProxy 1.1.2 builds its Netty bootstraps without letting us set channel options, so the allocator is put on
+ * the client channel when its request is filtered and on the server channel once it connects. The first read of a
+ * client connection, and a TLS handshake with the server, still use Netty's default allocator, which
+ * {@code -Dio.netty.allocator.type=pooled} changes for the whole JVM. Every other filter method goes to the wrapped
+ * source, so this combines with any of the other filters sources.
+ * <p>
+ * Netty 4.0 only hands out direct buffers for socket I/O when it can reach {@code sun.misc.Unsafe}, which it can't on
+ * Java 9 and later. The allocators from {@link #pooled} and {@link #unpooled} give I/O the kind of buffer asked for
+ * regardless.
+ */
+public class AllocatorFiltersSource implements HttpFiltersSource {
+
+    private final ByteBufAllocator allocator;
+    private final HttpFiltersSource delegate;
+
+    /**
+     * @param allocator allocator of the proxy's channels
+     */
+    public AllocatorFiltersSource(ByteBufAllocator allocator) {
+        this(allocator, new HttpFiltersSourceAdapter());
+    }
+
+    /**
+     * @param allocator allocator of the proxy's channels
+     * @param delegate  filters source doing the actual filtering
+     */
+    public AllocatorFiltersSource(ByteBufAllocator allocator, HttpFiltersSource delegate) {
+        this.allocator = allocator;
+        this.delegate = delegate;
+    }
+
+    /**
+     * Pooled allocator with one kind of arena. A chunk is {@code pageSize << maxOrder} bytes, 16 MB with Netty's
+     * defaults of 8192 and 11, and buffers larger than a chunk aren't pooled.
+     *
+     * @param direct       direct arenas rather than heap ones
+     * @param arenas       arenas to spread the event loops over, Netty defaults to twice the cores
+     * @param pageSize     smallest run of a chunk handed out, a power of two of at least 4096
+     * @param maxOrder     chunk size as a power of two of the page size, at most 14
+     * @param threadCaches whether each thread keeps released buffers for reuse; without them every release is
+     *                     returned to its arena, so {@code numActiveAllocations} of the arenas is exact
+     * @return allocator that gives I/O buffers of the chosen kind too
+     */
+    public static PooledByteBufAllocator pooled(boolean direct, int arenas, int pageSize, int maxOrder,
+                                                boolean threadCaches) {
+        return new PooledAllocator(direct, arenas, pageSize, maxOrder, threadCaches);
+    }
+
+    /**
+     * @param direct direct buffers rather than heap ones
+     * @return allocator creating a buffer for every request, which gives I/O buffers of the chosen kind too
+     */
+    public static ByteBufAllocator unpooled(boolean direct) {
+        return new UnpooledAllocator(direct);
+    }
+
+    @Override
+    public HttpFilters filterRequest(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+        use(ctx);
+        return new AllocatorFilters(delegate.filterRequest(originalRequest, ctx));
+    }
+
+    @Override
+    public int getMaximumRequestBufferSizeInBytes() {
+        return delegate.getMaximumRequestBufferSizeInBytes();
+    }
+
+    @Override
+    public int getMaximumResponseBufferSizeInBytes() {
+        return delegate.getMaximumResponseBufferSizeInBytes();
+    }
+
+    public ByteBufAllocator getAllocator() {
+        return allocator;
+    }
+
+    private void use(ChannelHandlerContext ctx) {
+        ChannelConfig config = ctx.channel().config();
+        if (config.getAllocator() != allocator) {
+            config.setAllocator(allocator);
+        }
+    }
+
+    /**
+     * Hands out the buffers of its arenas wherever Netty would pick heap or direct by itself
+     */
+    private static class PooledAllocator extends PooledByteBufAllocator {
+
+        private final boolean direct;
+
+        private PooledAllocator(boolean direct, int arenas, int pageSize, int maxOrder, boolean threadCaches) {
+            // every thread uses the arenas, not only Netty's own FastThreadLocalThreads
+            super(direct, direct ? 0 : arenas, direct ? arenas : 0, pageSize, maxOrder,
+                    threadCaches ? defaultTinyCacheSize() : 0, threadCaches ? defaultSmallCacheSize() : 0,
+                    threadCaches ? defaultNormalCacheSize() : 0, true);
+            this.direct = direct;
+        }
+
+        @Override
+        public ByteBuf buffer() {
+            return direct ? directBuffer() : heapBuffer();
+        }
+
+        @Override
+        public ByteBuf buffer(int initialCapacity) {
+            return direct ? directBuffer(initialCapacity) : heapBuffer(initialCapacity);
+        }
+
+        @Override
+        public ByteBuf buffer(int initialCapacity, int maxCapacity) {
+            return direct ? directBuffer(initialCapacity, maxCapacity) : heapBuffer(initialCapacity, maxCapacity);
+        }
+
+        @Override
+        public ByteBuf ioBuffer() {
+            return buffer();
+        }
+
+        @Override
+        public ByteBuf ioBuffer(int initialCapacity) {
+            return buffer(initialCapacity);
+        }
+
+        @Override
+        public ByteBuf ioBuffer(int initialCapacity, int maxCapacity) {
+            return buffer(initialCapacity, maxCapacity);
+        }
+
+    }
+
+    /**
+     * Netty's {@link UnpooledByteBufAllocator} is final, so this one hands out its buffers
+     */
+    private static class UnpooledAllocator extends AbstractByteBufAllocator {
+
+        private final boolean direct;
+        private final UnpooledByteBufAllocator buffers;
+
+        private UnpooledAllocator(boolean direct) {
+            super(direct);
+            this.direct = direct;
+            this.buffers = new UnpooledByteBufAllocator(direct);
+        }
+
+        @Override
+        protected ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity) {
+            return buffers.heapBuffer(initialCapacity, maxCapacity);
+        }
+
+        @Override
+        protected ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity) {
+            return buffers.directBuffer(initialCapacity, maxCapacity);
+        }
+
+        @Override
+        public boolean isDirectBufferPooled() {
+            return false;
+        }
+
+        @Override
+        public ByteBuf buffer() {
+            return direct ? directBuffer() : heapBuffer();
+        }
+
+        @Override
+        public ByteBuf buffer(int initialCapacity) {
+            return direct ? directBuffer(initialCapacity) : heapBuffer(initialCapacity);
+        }
+
+        @Override
+        public ByteBuf buffer(int initialCapacity, int maxCapacity) {
+            return direct ? directBuffer(initialCapacity, maxCapacity) : heapBuffer(initialCapacity, maxCapacity);
+        }
+
+        @Override
+        public ByteBuf ioBuffer() {
+            return buffer();
+        }
+
+        @Override
+        public ByteBuf ioBuffer(int initialCapacity) {
+            return buffer(initialCapacity);
+        }
+
+        @Override
+        public ByteBuf ioBuffer(int initialCapacity, int maxCapacity) {
+            return buffer(initialCapacity, maxCapacity);
+        }
+
+    }
+
+    private class AllocatorFilters implements HttpFilters {
+
+        private final HttpFilters filters;
+
+        private AllocatorFilters(HttpFilters filters) {
+            this.filters = filters;
+        }
+
+        @Override
+        public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+            return filters.clientToProxyRequest(httpObject);
+        }
+
+        @Override
+        public HttpResponse proxyToServerRequest(HttpObject httpObject) {
+            return filters.proxyToServerRequest(httpObject);
+        }
+
+        @Override
+        public void proxyToServerRequestSending() {
+            filters.proxyToServerRequestSending();
+        }
+
+        @Override
+        public void proxyToServerRequestSent() {
+            filters.proxyToServerRequestSent();
+        }
+
+        @Override
+        public HttpObject serverToProxyResponse(HttpObject httpObject) {
+            return filters.serverToProxyResponse(httpObject);
+        }
+
+        @Override
+        public void serverToProxyResponseTimedOut() {
+            filters.serverToProxyResponseTimedOut();
+        }
+
+        @Override
+        public void serverToProxyResponseReceiving() {
+            filters.serverToProxyResponseReceiving();
+        }
+
+        @Override
+        public void serverToProxyResponseReceived() {
+            filters.serverToProxyResponseReceived();
+        }
+
+        @Override
+        public HttpObject proxyToClientResponse(HttpObject httpObject) {
+            return filters.proxyToClientResponse(httpObject);
+        }
+
+        @Override
+        public void proxyToServerConnectionQueued() {
+            filters.proxyToServerConnectionQueued();
+        }
+
+        @Override
+        public InetSocketAddress proxyToServerResolutionStarted(String resolvingServerHostAndPort) {
+            return filters.proxyToServerResolutionStarted(resolvingServerHostAndPort);
+        }
+
+        @Override
+        public void proxyToServerResolutionFailed(String hostAndPort) {
+            filters.proxyToServerResolutionFailed(hostAndPort);
+        }
+
+        @Override
+        public void proxyToServerResolutionSucceeded(String serverHostAndPort,
+                                                     InetSocketAddress resolvedRemoteAddress) {
+            filters.proxyToServerResolutionSucceeded(serverHostAndPort, resolvedRemoteAddress);
+        }
+
+        @Override
+        public void proxyToServerConnectionStarted() {
+            filters.proxyToServerConnectionStarted();
+        }
+
+        @Override
+        public void proxyToServerConnectionSSLHandshakeStarted() {
+            filters.proxyToServerConnectionSSLHandshakeStarted();
+        }
+
+        @Override
+        public void proxyToServerConnectionFailed() {
+            filters.proxyToServerConnectionFailed();
+        }
+
+        @Override
+        public void proxyToServerConnectionSucceeded(ChannelHandlerContext serverCtx) {
+            // a new server connection, it hasn't read the response yet
+            use(serverCtx);
+            filters.proxyToServerConnectionSucceeded(serverCtx);
+        }
+
+    }
+
+}
@@ -0,0 +1,116 @@
+package edu.nyu;
+
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.auth.AuthScope;
+import org.apache.hc.client5.http.auth.UsernamePasswordCredentials;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.cookie.BasicCookieStore;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClientBuilder;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.auth.BasicCredentialsProvider;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.ProtocolVersion;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.io.CloseMode;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link HttpEngine} on HttpClient 5's {@code CloseableHttpAsyncClient}, which multiplexes every connection on one I/O
+ * reactor instead of blocking a thread per request.
+ * <p>
+ * HTTP/2 is negotiated with ALPN on TLS connections when asked for; cleartext connections stay on HTTP/1.1 since the
+ * embedded servers don't speak HTTP/2 with prior knowledge.
+ */
+public class AsyncHttpEngine implements HttpEngine {
+
+    private final CloseableHttpAsyncClient httpClient;
+
+    public AsyncHttpEngine(HttpEngineConfig config) {
+        PoolingAsyncClientConnectionManagerBuilder connectionManagerBuilder =
+                PoolingAsyncClientConnectionManagerBuilder.create()
+                        .setMaxConnPerRoute(config.getMaxConnections())
+                        .setMaxConnTotal(config.getMaxConnections())
+                        .setDefaultTlsConfig(TlsConfig.custom()
+                                .setVersionPolicy(config.getProtocol() == Protocol.HTTP_2
+                                        ? HttpVersionPolicy.NEGOTIATE : HttpVersionPolicy.FORCE_HTTP_1)
+                                .build());
+        if (config.getSslContext() != null) {
+            connectionManagerBuilder.setTlsStrategy(ClientTlsStrategyBuilder.create()
+                    .setSslContext(config.getSslContext()).build());
+        }
+        HttpAsyncClientBuilder httpClientBuilder = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManagerBuilder.build());
+        if (config.getProxy() != null) {
+            HttpHost proxy = new HttpHost(config.getProxy().getHostString(), config.getProxy().getPort());
+            httpClientBuilder.setProxy(proxy);
+            if (config.getProxyUser() != null) {
+                BasicCredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+                credentialsProvider.setCredentials(new AuthScope(proxy), new UsernamePasswordCredentials(
+                        config.getProxyUser(), config.getProxyPassword().toCharArray()));
+                httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
+            }
+        }
+        if (config.isCookies()) {
+            httpClientBuilder.setDefaultCookieStore(new BasicCookieStore());
+        } else {
+            httpClientBuilder.disableCookieManagement();
+        }
+        if (!config.isRedirects()) {
+            httpClientBuilder.disableRedirectHandling();
+        }
+        httpClient = httpClientBuilder.build();
+        httpClient.start();
+    }
+
+    @Override
+    public CompletableFuture<Response> executeAsync(URI uri) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        HttpClientContext context = HttpClientContext.create();
+        httpClient.execute(SimpleRequestBuilder.get(uri).build(), context, new FutureCallback<SimpleHttpResponse>() {
+
+            @Override
+            public void completed(SimpleHttpResponse httpResponse) {
+                Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                for (Header header : httpResponse.getHeaders()) {
+                    headers.computeIfAbsent(header.getName(), name -> new ArrayList<>()).add(header.getValue());
+                }
+                // HTTP/2 responses carry no version of their own, the context has the one negotiated
+                ProtocolVersion version = context.getProtocolVersion();
+                Protocol protocol = version != null && version.getMajor() >= 2 ? Protocol.HTTP_2 : Protocol.HTTP_1_1;
+                future.complete(new Response(httpResponse.getCode(), protocol, headers,
+                        httpResponse.getBodyBytes()));
+            }
+
+            @Override
+            public void failed(Exception e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                future.cancel(false);
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpClient.close(CloseMode.GRACEFUL);
+    }
+
+}
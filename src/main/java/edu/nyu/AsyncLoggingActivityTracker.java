@@ -0,0 +1,362 @@
+package edu.nyu;
+
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import org.littleshoot.proxy.ActivityTracker;
+import org.littleshoot.proxy.FlowContext;
+import org.littleshoot.proxy.FullFlowContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLSession;
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous variant of {@link LoggingActivityTracker} meant for proxies under real load.
+ * <p>
+ * Callbacks coming from the Netty event loop only copy a few references into a pre-allocated, bounded ring buffer
+ * and return. A single background thread drains the buffer, folds the per-chunk byte callbacks into one summary
+ * line per flow and does all of the logging. When the buffer is full the event is dropped and counted instead of
+ * blocking the event loop; the drainer periodically logs how many events were lost.
+ */
+public class AsyncLoggingActivityTracker implements ActivityTracker, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncLoggingActivityTracker.class);
+
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    private static final int CLIENT_CONNECTED = 1;
+    private static final int CLIENT_SSL_HANDSHAKE_SUCCEEDED = 2;
+    private static final int CLIENT_DISCONNECTED = 3;
+    private static final int BYTES_RECEIVED_FROM_CLIENT = 4;
+    private static final int REQUEST_RECEIVED_FROM_CLIENT = 5;
+    private static final int BYTES_SENT_TO_SERVER = 6;
+    private static final int REQUEST_SENT_TO_SERVER = 7;
+    private static final int BYTES_RECEIVED_FROM_SERVER = 8;
+    private static final int RESPONSE_RECEIVED_FROM_SERVER = 9;
+    private static final int BYTES_SENT_TO_CLIENT = 10;
+    private static final int RESPONSE_SENT_TO_CLIENT = 11;
+
+    private static final long IDLE_PARK_NANOS = 1_000_000L;
+
+    // ring buffer laid out as parallel arrays so publishing an event allocates nothing
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final int[] types;
+    private final Object[] clientAddresses;
+    private final Object[] firstValues;
+    private final Object[] secondValues;
+    private final int[] amounts;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicLong flowSummaries = new AtomicLong();
+    private final Thread drainer;
+    private volatile boolean running = true;
+
+    // only touched by the drainer thread
+    private final Map<InetSocketAddress, FlowSummary> flows = new HashMap<>();
+    private long reportedDropped;
+
+    public AsyncLoggingActivityTracker() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of events that can be buffered, rounded up to the next power of two
+     */
+    public AsyncLoggingActivityTracker(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        types = new int[size];
+        clientAddresses = new Object[size];
+        firstValues = new Object[size];
+        secondValues = new Object[size];
+        amounts = new int[size];
+        drainer = new Thread(this::drain, "activity-tracker-drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * @return number of events discarded because the ring buffer was full
+     */
+    public long getDroppedEvents() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return number of per-flow summary lines logged so far
+     */
+    public long getFlowSummaries() {
+        return flowSummaries.get();
+    }
+
+    /**
+     * Stops the background thread after it has drained everything published so far
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void clientConnected(InetSocketAddress inetSocketAddress) {
+        publish(CLIENT_CONNECTED, inetSocketAddress, null, null, 0);
+    }
+
+    @Override
+    public void clientSSLHandshakeSucceeded(InetSocketAddress inetSocketAddress, SSLSession sslSession) {
+        publish(CLIENT_SSL_HANDSHAKE_SUCCEEDED, inetSocketAddress, null, null, 0);
+    }
+
+    @Override
+    public void clientDisconnected(InetSocketAddress inetSocketAddress, SSLSession sslSession) {
+        publish(CLIENT_DISCONNECTED, inetSocketAddress, null, null, 0);
+    }
+
+    @Override
+    public void bytesReceivedFromClient(FlowContext flowContext, int i) {
+        publish(BYTES_RECEIVED_FROM_CLIENT, flowContext.getClientAddress(), null, null, i);
+    }
+
+    @Override
+    public void requestReceivedFromClient(FlowContext flowContext, HttpRequest httpRequest) {
+        publish(REQUEST_RECEIVED_FROM_CLIENT, flowContext.getClientAddress(),
+                httpRequest.getMethod(), httpRequest.getUri(), 0);
+    }
+
+    @Override
+    public void bytesSentToServer(FullFlowContext fullFlowContext, int i) {
+        publish(BYTES_SENT_TO_SERVER, fullFlowContext.getClientAddress(),
+                fullFlowContext.getServerHostAndPort(), null, i);
+    }
+
+    @Override
+    public void requestSentToServer(FullFlowContext fullFlowContext, HttpRequest httpRequest) {
+        publish(REQUEST_SENT_TO_SERVER, fullFlowContext.getClientAddress(),
+                fullFlowContext.getServerHostAndPort(), null, 0);
+    }
+
+    @Override
+    public void bytesReceivedFromServer(FullFlowContext fullFlowContext, int i) {
+        publish(BYTES_RECEIVED_FROM_SERVER, fullFlowContext.getClientAddress(),
+                fullFlowContext.getServerHostAndPort(), null, i);
+    }
+
+    @Override
+    public void responseReceivedFromServer(FullFlowContext fullFlowContext, HttpResponse httpResponse) {
+        publish(RESPONSE_RECEIVED_FROM_SERVER, fullFlowContext.getClientAddress(),
+                fullFlowContext.getServerHostAndPort(), httpResponse.getStatus(), 0);
+    }
+
+    @Override
+    public void bytesSentToClient(FlowContext flowContext, int i) {
+        publish(BYTES_SENT_TO_CLIENT, flowContext.getClientAddress(), null, null, i);
+    }
+
+    @Override
+    public void responseSentToClient(FlowContext flowContext, HttpResponse httpResponse) {
+        publish(RESPONSE_SENT_TO_CLIENT, flowContext.getClientAddress(), null, httpResponse.getStatus(), 0);
+    }
+
+    /**
+     * Claims a slot with a CAS on the tail and publishes it by advancing the slot sequence, dropping the event if
+     * the drainer has not yet released the slot
+     */
+    private void publish(int type, InetSocketAddress clientAddress, Object first, Object second, int amount) {
+        long position;
+        int index;
+        while (true) {
+            position = tail.get();
+            index = (int) position & mask;
+            long sequence = sequences.get(index);
+            if (sequence < position) {
+                dropped.increment();
+                return;
+            }
+            // a larger sequence means another producer claimed this slot after we read the tail
+            if (sequence == position && tail.compareAndSet(position, position + 1)) {
+                break;
+            }
+        }
+        types[index] = type;
+        clientAddresses[index] = clientAddress;
+        firstValues[index] = first;
+        secondValues[index] = second;
+        amounts[index] = amount;
+        sequences.lazySet(index, position + 1);
+    }
+
+    private void drain() {
+        while (true) {
+            boolean stopping = !running;
+            int drained = drainAvailable();
+            reportDropped();
+            if (stopping && drained == 0) {
+                break;
+            }
+            if (drained == 0) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+        for (Map.Entry<InetSocketAddress, FlowSummary> entry : flows.entrySet()) {
+            if (entry.getValue().hasActivity()) {
+                logSummary(entry.getKey(), entry.getValue());
+            }
+        }
+        flows.clear();
+    }
+
+    private int drainAvailable() {
+        int drained = 0;
+        while (true) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                return drained;
+            }
+            InetSocketAddress clientAddress = (InetSocketAddress) clientAddresses[index];
+            handle(types[index], clientAddress, firstValues[index], secondValues[index], amounts[index]);
+            clientAddresses[index] = null;
+            firstValues[index] = null;
+            secondValues[index] = null;
+            sequences.lazySet(index, head + mask + 1);
+            head++;
+            drained++;
+        }
+    }
+
+    private void handle(int type, InetSocketAddress clientAddress, Object first, Object second, int amount) {
+        switch (type) {
+            case CLIENT_CONNECTED:
+                LOGGER.info("clientConnected: {}", clientAddress);
+                break;
+            case CLIENT_SSL_HANDSHAKE_SUCCEEDED:
+                LOGGER.info("clientSSLHandshakeSucceeded: {}", clientAddress);
+                break;
+            case CLIENT_DISCONNECTED:
+                FlowSummary remaining = flows.remove(clientAddress);
+                if (remaining != null && remaining.hasActivity()) {
+                    logSummary(clientAddress, remaining);
+                }
+                LOGGER.info("clientDisconnected: {}", clientAddress);
+                break;
+            case BYTES_RECEIVED_FROM_CLIENT:
+                flow(clientAddress).bytesReceivedFromClient += amount;
+                break;
+            case REQUEST_RECEIVED_FROM_CLIENT:
+                FlowSummary flow = flow(clientAddress);
+                if (flow.responded) {
+                    // a keep-alive connection starting its next exchange
+                    logSummary(clientAddress, flow);
+                    flow.reset();
+                }
+                flow.method = first;
+                flow.uri = second;
+                break;
+            case BYTES_SENT_TO_SERVER:
+                FlowSummary outbound = flow(clientAddress);
+                outbound.server = first;
+                outbound.bytesSentToServer += amount;
+                break;
+            case REQUEST_SENT_TO_SERVER:
+                flow(clientAddress).server = first;
+                break;
+            case BYTES_RECEIVED_FROM_SERVER:
+                flow(clientAddress).bytesReceivedFromServer += amount;
+                break;
+            case RESPONSE_RECEIVED_FROM_SERVER:
+                flow(clientAddress).status = second;
+                break;
+            case BYTES_SENT_TO_CLIENT:
+                flow(clientAddress).bytesSentToClient += amount;
+                break;
+            case RESPONSE_SENT_TO_CLIENT:
+                // the write completes after this callback, so the summary is logged once the next exchange starts
+                // or the client goes away
+                FlowSummary completed = flow(clientAddress);
+                completed.status = second;
+                completed.responded = true;
+                break;
+            default:
+                LOGGER.warn("Unknown activity event type {}", type);
+        }
+    }
+
+    private FlowSummary flow(InetSocketAddress clientAddress) {
+        return flows.computeIfAbsent(clientAddress, address -> new FlowSummary());
+    }
+
+    private void logSummary(InetSocketAddress clientAddress, FlowSummary flow) {
+        LOGGER.info("flow: {} -> {} {} {} {} clientIn={} serverOut={} serverIn={} clientOut={}",
+                clientAddress, flow.server, flow.method, flow.uri, flow.status, flow.bytesReceivedFromClient,
+                flow.bytesSentToServer, flow.bytesReceivedFromServer, flow.bytesSentToClient);
+        flowSummaries.incrementAndGet();
+    }
+
+    private void reportDropped() {
+        long total = dropped.sum();
+        if (total != reportedDropped) {
+            LOGGER.warn("Dropped {} activity events because the buffer was full ({} in total)",
+                    total - reportedDropped, total);
+            reportedDropped = total;
+        }
+    }
+
+    /**
+     * Accumulates everything observed for a single request/response exchange on a client connection
+     */
+    private static class FlowSummary {
+
+        private Object server;
+        private Object method;
+        private Object uri;
+        private Object status;
+        private long bytesReceivedFromClient;
+        private long bytesSentToServer;
+        private long bytesReceivedFromServer;
+        private long bytesSentToClient;
+        private boolean responded;
+
+        private boolean hasActivity() {
+            return bytesReceivedFromClient + bytesSentToServer + bytesReceivedFromServer + bytesSentToClient > 0;
+        }
+
+        private void reset() {
+            method = null;
+            uri = null;
+            status = null;
+            bytesReceivedFromClient = 0;
+            bytesSentToServer = 0;
+            bytesReceivedFromServer = 0;
+            bytesSentToClient = 0;
+            responded = false;
+        }
+
+    }
+
+}
@@ -0,0 +1,104 @@
+package edu.nyu;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHost;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link HttpEngine} on HttpClient 4.5's {@link HttpClientBuilder}, the client every other test uses.
+ * <p>
+ * {@link #execute(URI)} runs on the caller's thread; {@link #executeAsync(URI)} hands each request to a thread of its
+ * own from an unbounded pool, which is what running many requests at once costs with a blocking client. HTTP/2 isn't
+ * supported, asking for it gets HTTP/1.1.
+ */
+public class BlockingHttpEngine implements HttpEngine {
+
+    private static final AtomicInteger ENGINES = new AtomicInteger();
+
+    private final CloseableHttpClient httpClient;
+    private final ExecutorService executorService;
+
+    public BlockingHttpEngine(HttpEngineConfig config) {
+        HttpClientBuilder httpClientBuilder = HttpClientBuilder.create()
+                .setMaxConnPerRoute(config.getMaxConnections())
+                .setMaxConnTotal(config.getMaxConnections());
+        if (config.getProxy() != null) {
+            HttpHost proxy = new HttpHost(config.getProxy().getHostString(), config.getProxy().getPort());
+            httpClientBuilder.setProxy(proxy);
+            if (config.getProxyUser() != null) {
+                CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+                credentialsProvider.setCredentials(new AuthScope(proxy),
+                        new UsernamePasswordCredentials(config.getProxyUser(), config.getProxyPassword()));
+                httpClientBuilder.setDefaultCredentialsProvider(credentialsProvider);
+            }
+        }
+        if (config.getSslContext() != null) {
+            httpClientBuilder.setSSLContext(config.getSslContext());
+        }
+        if (!config.isCookies()) {
+            httpClientBuilder.disableCookieManagement();
+        }
+        if (!config.isRedirects()) {
+            httpClientBuilder.disableRedirectHandling();
+        }
+        httpClient = httpClientBuilder.build();
+        String prefix = "blocking-engine-" + ENGINES.incrementAndGet() + "-";
+        AtomicInteger threads = new AtomicInteger();
+        executorService = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, prefix + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public Response execute(URI uri) throws IOException {
+        try (CloseableHttpResponse httpResponse = httpClient.execute(new HttpGet(uri))) {
+            Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (Header header : httpResponse.getAllHeaders()) {
+                headers.computeIfAbsent(header.getName(), name -> new ArrayList<>()).add(header.getValue());
+            }
+            byte[] body = httpResponse.getEntity() != null ? EntityUtils.toByteArray(httpResponse.getEntity()) : null;
+            return new Response(httpResponse.getStatusLine().getStatusCode(), Protocol.HTTP_1_1, headers, body);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Response> executeAsync(URI uri) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        executorService.execute(() -> {
+            try {
+                future.complete(execute(uri));
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public void close() throws IOException {
+        executorService.shutdownNow();
+        httpClient.close();
+    }
+
+}
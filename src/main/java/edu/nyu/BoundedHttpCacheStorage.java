@@ -0,0 +1,123 @@
+package edu.nyu;
+
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheStorage;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.apache.http.client.cache.Resource;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link HttpCacheStorage} evicting the least recently used entries once either a byte or an entry budget is
+ * exceeded.
+ * <p>
+ * The entries, with their headers, stay on the heap; bodies live wherever the configured
+ * {@link org.apache.http.client.cache.ResourceFactory} puts them, e.g. {@link OffHeapResourceFactory}. The byte budget
+ * counts {@link Resource#length()}, which is what actually grows with the traffic. Resources of evicted, removed and
+ * replaced entries are disposed, responses already being read from them are not affected.
+ */
+public class BoundedHttpCacheStorage implements HttpCacheStorage {
+
+    private final long maxBytes;
+    private final int maxEntries;
+    // access ordered, the eldest entry is the least recently used one
+    private final LinkedHashMap<String, HttpCacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LongAdder evictions = new LongAdder();
+    private long bytes;
+
+    /**
+     * @param maxBytes   budget for the bodies of all entries
+     * @param maxEntries budget for the number of entries, variants and their parents count separately
+     */
+    public BoundedHttpCacheStorage(long maxBytes, int maxEntries) {
+        if (maxBytes < 1 || maxEntries < 1) {
+            throw new IllegalArgumentException("Budgets must be positive");
+        }
+        this.maxBytes = maxBytes;
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public synchronized void putEntry(String key, HttpCacheEntry entry) {
+        replace(key, entry);
+        evict();
+    }
+
+    @Override
+    public synchronized HttpCacheEntry getEntry(String key) {
+        return entries.get(key);
+    }
+
+    @Override
+    public synchronized void removeEntry(String key) {
+        HttpCacheEntry removed = entries.remove(key);
+        if (removed != null) {
+            release(removed);
+        }
+    }
+
+    @Override
+    public synchronized void updateEntry(String key, HttpCacheUpdateCallback callback) throws IOException {
+        HttpCacheEntry updated = callback.update(entries.get(key));
+        if (updated != null) {
+            replace(key, updated);
+            evict();
+        }
+    }
+
+    /**
+     * @return bytes of the bodies currently stored
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return entries dropped to stay within the budgets
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private void replace(String key, HttpCacheEntry entry) {
+        HttpCacheEntry previous = entries.put(key, entry);
+        bytes += length(entry);
+        if (previous != null && previous.getResource() != entry.getResource()) {
+            release(previous);
+        } else if (previous != null) {
+            bytes -= length(previous);
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, HttpCacheEntry>> eldest = entries.entrySet().iterator();
+        // the entry just stored is the most recent one and is kept, the cache is about to serve the response from it
+        while ((bytes > maxBytes || entries.size() > maxEntries) && entries.size() > 1) {
+            HttpCacheEntry evicted = eldest.next().getValue();
+            eldest.remove();
+            release(evicted);
+            evictions.increment();
+        }
+    }
+
+    private void release(HttpCacheEntry entry) {
+        bytes -= length(entry);
+        Resource resource = entry.getResource();
+        if (resource != null) {
+            resource.dispose();
+        }
+    }
+
+    private static long length(HttpCacheEntry entry) {
+        return entry.getResource() == null ? 0 : entry.getResource().length();
+    }
+
+}
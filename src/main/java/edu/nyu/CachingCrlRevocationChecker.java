@@ -0,0 +1,406 @@
+package edu.nyu;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.cert.CRLReason;
+import java.security.cert.CertPathValidatorException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.PKIXCertPathChecker;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CRL based revocation checking that downloads each CRL once instead of on every handshake.
+ * <p>
+ * Parsed CRLs are cached per distribution point URI. Only the first handshake against a distribution point waits for
+ * the download (concurrent handshakes wait for the same download), afterwards a background thread refreshes the CRL
+ * shortly before its {@code nextUpdate}, or after {@code maxAge} if that comes first. Handshakes keep using the last
+ * good CRL while a refresh is in flight or when it fails. If the first download fails, handshakes go on without a CRL
+ * rather than each trying again and the background refresh retries every 30 seconds. A CRL found past its
+ * {@code nextUpdate} moves the pending refresh forward to right away, at most once per retry interval.
+ * <p>
+ * Add it to the {@code PKIXBuilderParameters} of the trust manager and turn the built-in revocation checking off:
+ * <pre>
+ * PKIXBuilderParameters pkixParams = new PKIXBuilderParameters(trustStore, new X509CertSelector());
+ * pkixParams.setRevocationEnabled(false);
+ * pkixParams.addCertPathChecker(new CachingCrlRevocationChecker(pkixParams.getTrustAnchors()));
+ * </pre>
+ * The parameters hand out clones of the checker, all of them share the cache and the refresh thread, so closing the
+ * original instance stops refreshing for all of them.
+ */
+public class CachingCrlRevocationChecker extends PKIXCertPathChecker implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachingCrlRevocationChecker.class);
+
+    private static final String CRL_DISTRIBUTION_POINTS_OID = "2.5.29.31";
+    private static final long DEFAULT_MAX_AGE_MINUTES = 60;
+    // how long before nextUpdate the refresh is started, and how long to wait before retrying a failed one
+    private static final long REFRESH_AHEAD_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final long RETRY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    private static final int DER_OCTET_STRING = 0x04;
+    private static final int DER_CONSTRUCTED = 0x20;
+    private static final int DER_URI = 0x86;
+    private static final int DER_CRL_ISSUER = 0xa2;
+
+    private final Set<TrustAnchor> trustAnchors;
+    private final boolean softFail;
+    private final long maxAgeMillis;
+    private final ConcurrentMap<URI, CachedCrl> crls = new ConcurrentHashMap<>();
+    private final LongAdder fetches = new LongAdder();
+    private final ScheduledExecutorService refresher;
+    private final CloseableHttpClient httpClient;
+
+    // issuer of the next certificate, the path is checked from the trust anchor towards the end entity
+    private X509Certificate previousCertificate;
+
+    /**
+     * Soft failing checker refreshing CRLs at least once an hour
+     *
+     * @param trustAnchors anchors the CRLs of directly issued certificates are verified with
+     */
+    public CachingCrlRevocationChecker(Set<TrustAnchor> trustAnchors) {
+        this(trustAnchors, true, DEFAULT_MAX_AGE_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @param trustAnchors anchors the CRLs of directly issued certificates are verified with
+     * @param softFail     accept certificates whose revocation status cannot be determined, e.g. when there is no
+     *                     distribution point or the CRL has never been downloaded successfully
+     * @param maxAge       refresh a CRL after this long even if its {@code nextUpdate} is further away
+     * @param unit         unit of {@code maxAge}
+     */
+    public CachingCrlRevocationChecker(Set<TrustAnchor> trustAnchors, boolean softFail, long maxAge, TimeUnit unit) {
+        this.trustAnchors = trustAnchors;
+        this.softFail = softFail;
+        this.maxAgeMillis = unit.toMillis(maxAge);
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "crl-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        this.refresher = executor;
+        RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(TIMEOUT_MILLIS)
+                .setSocketTimeout(TIMEOUT_MILLIS).build();
+        this.httpClient = HttpClientBuilder.create().setDefaultRequestConfig(requestConfig).build();
+    }
+
+    @Override
+    public void init(boolean forward) throws CertPathValidatorException {
+        if (forward) {
+            throw new CertPathValidatorException("Forward checking is not supported");
+        }
+        previousCertificate = null;
+    }
+
+    @Override
+    public boolean isForwardCheckingSupported() {
+        return false;
+    }
+
+    @Override
+    public Set<String> getSupportedExtensions() {
+        return null;
+    }
+
+    @Override
+    public void check(Certificate cert, Collection<String> unresolvedCritExts) throws CertPathValidatorException {
+        X509Certificate certificate = (X509Certificate) cert;
+        try {
+            check(certificate, issuerKey(certificate));
+        } finally {
+            previousCertificate = certificate;
+        }
+    }
+
+    /**
+     * @return number of CRL downloads attempted so far, initial ones and refreshes
+     */
+    public long getFetches() {
+        return fetches.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        refresher.shutdownNow();
+        httpClient.close();
+    }
+
+    private void check(X509Certificate certificate, PublicKey issuerKey) throws CertPathValidatorException {
+        List<URI> distributionPoints = getDistributionPoints(certificate);
+        if (distributionPoints.isEmpty()) {
+            undetermined(certificate, "no CRL distribution point");
+            return;
+        }
+        for (URI distributionPoint : distributionPoints) {
+            X509CRL crl = getCrl(distributionPoint);
+            if (crl == null || !crl.getIssuerX500Principal().equals(certificate.getIssuerX500Principal())) {
+                continue;
+            }
+            if (issuerKey == null) {
+                undetermined(certificate, "unknown issuer");
+                return;
+            }
+            if (!crls.get(distributionPoint).verify(crl, issuerKey)) {
+                undetermined(certificate, "invalid signature on CRL from " + distributionPoint);
+                return;
+            }
+            X509CRLEntry entry = crl.getRevokedCertificate(certificate);
+            if (entry != null) {
+                CRLReason reason = entry.getRevocationReason() != null
+                        ? entry.getRevocationReason() : CRLReason.UNSPECIFIED;
+                throw new CertPathValidatorException("Certificate has been revoked, reason: " + reason
+                        + ", revocation date: " + entry.getRevocationDate()
+                        + ", authority: " + crl.getIssuerX500Principal(),
+                        null, null, -1, CertPathValidatorException.BasicReason.REVOKED);
+            }
+            return;
+        }
+        undetermined(certificate, "no usable CRL at " + distributionPoints);
+    }
+
+    private void undetermined(X509Certificate certificate, String why) throws CertPathValidatorException {
+        if (softFail) {
+            LOGGER.debug("Revocation status of {} undetermined: {}", certificate.getSubjectX500Principal(), why);
+            return;
+        }
+        throw new CertPathValidatorException("Revocation status of " + certificate.getSubjectX500Principal()
+                + " undetermined: " + why, null, null, -1,
+                CertPathValidatorException.BasicReason.UNDETERMINED_REVOCATION_STATUS);
+    }
+
+    private PublicKey issuerKey(X509Certificate certificate) {
+        if (previousCertificate != null) {
+            return previousCertificate.getPublicKey();
+        }
+        for (TrustAnchor trustAnchor : trustAnchors) {
+            if (trustAnchor.getTrustedCert() != null) {
+                if (trustAnchor.getTrustedCert().getSubjectX500Principal()
+                        .equals(certificate.getIssuerX500Principal())) {
+                    return trustAnchor.getTrustedCert().getPublicKey();
+                }
+            } else if (trustAnchor.getCA().equals(certificate.getIssuerX500Principal())) {
+                return trustAnchor.getCAPublicKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the cached CRL, downloading it if this is the first time the distribution point is seen
+     *
+     * @param distributionPoint
+     * @return X509CRL or null when it has never been downloaded successfully
+     */
+    private X509CRL getCrl(URI distributionPoint) {
+        CachedCrl cachedCrl = crls.computeIfAbsent(distributionPoint, CachedCrl::new);
+        X509CRL crl = cachedCrl.crl;
+        if (crl == null) {
+            synchronized (cachedCrl) {
+                // after a failed first download the background retries take over
+                if (cachedCrl.crl == null && cachedCrl.lastAttemptMillis == 0) {
+                    cachedCrl.refresh();
+                }
+                crl = cachedCrl.crl;
+            }
+        } else if (crl.getNextUpdate() != null && crl.getNextUpdate().before(new Date())
+                && System.currentTimeMillis() - cachedCrl.lastAttemptMillis >= RETRY_MILLIS) {
+            // the scheduled refresh didn't make it in time, keep going with what we have
+            if (cachedCrl.refreshNow()) {
+                LOGGER.warn("Using CRL from {} past its next update {}", distributionPoint, crl.getNextUpdate());
+            }
+        }
+        return crl;
+    }
+
+    /**
+     * Extracts the URIs of the full names from the CRL distribution points extension, ignoring CRL issuers
+     *
+     * @param certificate
+     * @return list of URIs, empty when the extension is missing or can't be parsed
+     */
+    static List<URI> getDistributionPoints(X509Certificate certificate) {
+        byte[] extension = certificate.getExtensionValue(CRL_DISTRIBUTION_POINTS_OID);
+        if (extension == null) {
+            return Collections.emptyList();
+        }
+        List<URI> uris = new ArrayList<>();
+        try {
+            ByteBuffer der = ByteBuffer.wrap(extension);
+            // extension values come wrapped in an OCTET STRING
+            if ((der.get() & 0xff) != DER_OCTET_STRING) {
+                return Collections.emptyList();
+            }
+            int length = readLength(der);
+            der.limit(der.position() + length);
+            collectUris(der, uris);
+        } catch (RuntimeException | URISyntaxException e) {
+            LOGGER.warn("Could not parse CRL distribution points of {}", certificate.getSubjectX500Principal(), e);
+        }
+        return uris;
+    }
+
+    private static void collectUris(ByteBuffer der, List<URI> uris) throws URISyntaxException {
+        while (der.hasRemaining()) {
+            int tag = der.get() & 0xff;
+            int length = readLength(der);
+            int end = der.position() + length;
+            if (tag == DER_URI) {
+                byte[] uri = new byte[length];
+                der.get(uri);
+                uris.add(new URI(new String(uri, StandardCharsets.US_ASCII)));
+            } else if ((tag & DER_CONSTRUCTED) != 0 && tag != DER_CRL_ISSUER) {
+                ByteBuffer content = der.duplicate();
+                content.limit(end);
+                collectUris(content, uris);
+            }
+            der.position(end);
+        }
+    }
+
+    private static int readLength(ByteBuffer der) {
+        int length = der.get() & 0xff;
+        if (length < 0x80) {
+            return length;
+        }
+        int bytes = length & 0x7f;
+        if (bytes > 3) {
+            throw new IllegalArgumentException("DER length too large");
+        }
+        length = 0;
+        for (int i = 0; i < bytes; i++) {
+            length = (length << 8) | (der.get() & 0xff);
+        }
+        return length;
+    }
+
+    /**
+     * Last good CRL of one distribution point plus its refresh state
+     */
+    private class CachedCrl {
+
+        private final URI distributionPoint;
+        // the next refresh, scheduled or running, there is never more than one
+        private ScheduledFuture<?> scheduled;
+        private volatile long lastAttemptMillis;
+        private volatile X509CRL crl;
+        // the key the current CRL was verified with, the signature is only checked once per download
+        private volatile PublicKey verifiedWith;
+
+        private CachedCrl(URI distributionPoint) {
+            this.distributionPoint = distributionPoint;
+        }
+
+        private boolean verify(X509CRL crl, PublicKey issuerKey) {
+            if (issuerKey.equals(verifiedWith) && crl == this.crl) {
+                return true;
+            }
+            try {
+                crl.verify(issuerKey);
+            } catch (GeneralSecurityException e) {
+                LOGGER.warn("CRL from {} is not signed by its issuer", distributionPoint, e);
+                return false;
+            }
+            if (crl == this.crl) {
+                verifiedWith = issuerKey;
+            }
+            return true;
+        }
+
+        /**
+         * Moves the pending refresh forward to right away
+         *
+         * @return false when a refresh is already running or was moved forward by another handshake
+         */
+        private synchronized boolean refreshNow() {
+            if (scheduled != null && (scheduled.getDelay(TimeUnit.MILLISECONDS) <= 0 || !scheduled.cancel(false))) {
+                return false;
+            }
+            schedule(0);
+            return true;
+        }
+
+        private synchronized void schedule(long delayMillis) {
+            try {
+                scheduled = refresher.schedule(this::refresh, delayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // closed, the cached CRL stays as it is
+                scheduled = null;
+            }
+        }
+
+        private void refresh() {
+            fetches.increment();
+            lastAttemptMillis = System.currentTimeMillis();
+            long delay;
+            try {
+                X509CRL fetched = fetch();
+                crl = fetched;
+                verifiedWith = null;
+                delay = maxAgeMillis;
+                if (fetched.getNextUpdate() != null) {
+                    // don't hammer a server handing out CRLs that are about to expire
+                    long untilNextUpdate = fetched.getNextUpdate().getTime() - REFRESH_AHEAD_MILLIS
+                            - System.currentTimeMillis();
+                    delay = Math.min(delay, Math.max(untilNextUpdate, RETRY_MILLIS));
+                }
+                LOGGER.debug("Fetched CRL from {} with {} entries", distributionPoint,
+                        fetched.getRevokedCertificates() != null ? fetched.getRevokedCertificates().size() : 0);
+            } catch (IOException | GeneralSecurityException e) {
+                LOGGER.warn("Could not fetch CRL from {}, retrying in {} ms", distributionPoint, RETRY_MILLIS, e);
+                delay = RETRY_MILLIS;
+            }
+            // nothing moves a running refresh, so this replaces the future that ran it
+            schedule(delay);
+        }
+
+        private X509CRL fetch() throws IOException, GeneralSecurityException {
+            try (CloseableHttpResponse httpResponse = httpClient.execute(new HttpGet(distributionPoint))) {
+                if (httpResponse.getStatusLine().getStatusCode() != HttpStatus.SC_OK
+                        || httpResponse.getEntity() == null) {
+                    throw new IOException("Unexpected response " + httpResponse.getStatusLine());
+                }
+                try (InputStream content = httpResponse.getEntity().getContent()) {
+                    return (X509CRL) CertificateFactory.getInstance("X.509").generateCRL(content);
+                }
+            }
+        }
+
+    }
+
+}
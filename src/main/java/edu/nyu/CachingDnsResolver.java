@@ -0,0 +1,172 @@
+package edu.nyu;
+
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link DnsResolver} caching the results of a delegate resolver.
+ * <p>
+ * Successful lookups are kept for {@code ttl}, failed ones for the usually much shorter {@code negativeTtl}, so a
+ * missing host doesn't cost a lookup per connection attempt either. Concurrent lookups of a host that is not cached
+ * wait for the one resolution already in flight instead of each going to the delegate. A delegate returning
+ * {@code null} or no addresses is treated like one throwing {@link UnknownHostException}.
+ */
+public class CachingDnsResolver implements DnsResolver {
+
+    private final DnsResolver delegate;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final ConcurrentMap<String, Resolution> cache = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<Resolution>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Caches the system resolver for a minute and failures for five seconds
+     */
+    public CachingDnsResolver() {
+        this(SystemDefaultDnsResolver.INSTANCE, 60, 5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param delegate    resolver doing the actual lookups
+     * @param ttl         how long resolved addresses are used
+     * @param negativeTtl how long a failed lookup is remembered
+     * @param unit        unit of both TTLs
+     */
+    public CachingDnsResolver(DnsResolver delegate, long ttl, long negativeTtl, TimeUnit unit) {
+        if (ttl < 0 || negativeTtl < 0) {
+            throw new IllegalArgumentException("TTLs must not be negative");
+        }
+        this.delegate = delegate;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.negativeTtlNanos = unit.toNanos(negativeTtl);
+    }
+
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        Resolution resolution = cache.get(host);
+        if (resolution != null && !resolution.isExpired(System.nanoTime())) {
+            hits.increment();
+            return resolution.get();
+        }
+        CompletableFuture<Resolution> lookup = new CompletableFuture<>();
+        CompletableFuture<Resolution> existing = inFlight.putIfAbsent(host, lookup);
+        if (existing != null) {
+            coalesced.increment();
+            try {
+                return existing.join().get();
+            } catch (CompletionException e) {
+                // the delegate failed with something other than UnknownHostException, pass it on unchanged
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw (RuntimeException) e.getCause();
+            }
+        }
+        try {
+            // another thread may have finished its lookup between our cache check and claiming the slot
+            Resolution cached = cache.get(host);
+            if (cached != null && !cached.isExpired(System.nanoTime())) {
+                hits.increment();
+                lookup.complete(cached);
+                return cached.get();
+            }
+            misses.increment();
+            resolution = lookup(host);
+            cache.put(host, resolution);
+            lookup.complete(resolution);
+        } catch (RuntimeException | Error e) {
+            // waiting threads must not hang on a lookup that will never complete
+            lookup.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(host, lookup);
+        }
+        return resolution.get();
+    }
+
+    /**
+     * Drops all cached results, lookups in flight are not affected
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * @return lookups answered from the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return lookups that went to the delegate
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return lookups that waited for a resolution started by another thread
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    private Resolution lookup(String host) {
+        // TTLs count from the answer, a slow lookup must not eat into them
+        try {
+            InetAddress[] addresses = delegate.resolve(host);
+            if (addresses == null || addresses.length == 0) {
+                return new Resolution(null, new UnknownHostException(host), System.nanoTime() + negativeTtlNanos);
+            }
+            return new Resolution(addresses.clone(), null, System.nanoTime() + ttlNanos);
+        } catch (UnknownHostException e) {
+            return new Resolution(null, e, System.nanoTime() + negativeTtlNanos);
+        }
+    }
+
+    /**
+     * Addresses or the failure of a single lookup
+     */
+    private static class Resolution {
+
+        private final InetAddress[] addresses;
+        private final UnknownHostException failure;
+        private final long expiresAt;
+
+        private Resolution(InetAddress[] addresses, UnknownHostException failure, long expiresAt) {
+            this.addresses = addresses;
+            this.failure = failure;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+
+        private InetAddress[] get() throws UnknownHostException {
+            if (failure != null) {
+                // a new exception each time, so callers get their own stack trace
+                UnknownHostException e = new UnknownHostException(failure.getMessage());
+                e.initCause(failure);
+                throw e;
+            }
+            // callers are free to reorder the array, e.g. to rotate through the addresses
+            return addresses.clone();
+        }
+
+    }
+
+}
@@ -0,0 +1,107 @@
+package edu.nyu;
+
+import org.littleshoot.proxy.ProxyAuthenticator;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link ProxyAuthenticator} remembering credentials its delegate has accepted.
+ * <p>
+ * LittleProxy calls {@code authenticate} once per client connection, so with clients that don't keep connections
+ * alive for long a delegate that checks against a directory or a slow password hash is paid for on nearly every
+ * request.
+ * Accepted credentials are kept for {@code ttl} as a salted SHA-256 digest of the password, never in the clear.
+ * Rejections are not cached, a user fixing a typo gets through right away.
+ */
+public class CachingProxyAuthenticator implements ProxyAuthenticator {
+
+    // forgetting everyone at once is cheaper than tracking recency, it only costs a round of delegate calls
+    private static final int MAX_CACHED_USERS = 10_000;
+
+    private final ProxyAuthenticator delegate;
+    private final long ttlNanos;
+    private final byte[] salt = new byte[16];
+    private final ConcurrentMap<String, Verified> verified = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder delegateCalls = new LongAdder();
+
+    /**
+     * @param delegate authenticator doing the actual verification
+     * @param ttl      how long accepted credentials are trusted without asking the delegate again
+     * @param unit     unit of {@code ttl}
+     */
+    public CachingProxyAuthenticator(ProxyAuthenticator delegate, long ttl, TimeUnit unit) {
+        this.delegate = delegate;
+        this.ttlNanos = unit.toNanos(ttl);
+        new SecureRandom().nextBytes(salt);
+    }
+
+    @Override
+    public boolean authenticate(String userName, String password) {
+        byte[] digest = digest(password);
+        Verified entry = verified.get(userName);
+        if (entry != null && System.nanoTime() - entry.expiresAt < 0 && MessageDigest.isEqual(digest, entry.digest)) {
+            hits.increment();
+            return true;
+        }
+        delegateCalls.increment();
+        if (!delegate.authenticate(userName, password)) {
+            return false;
+        }
+        if (verified.size() >= MAX_CACHED_USERS) {
+            verified.clear();
+        }
+        verified.put(userName, new Verified(digest, System.nanoTime() + ttlNanos));
+        return true;
+    }
+
+    @Override
+    public String getRealm() {
+        return delegate.getRealm();
+    }
+
+    /**
+     * @return authentications answered from the cache
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return authentications passed on to the delegate
+     */
+    public long getDelegateCalls() {
+        return delegateCalls.sum();
+    }
+
+    private byte[] digest(String password) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            messageDigest.update(salt);
+            return messageDigest.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // every JRE has to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Verified {
+
+        private final byte[] digest;
+        private final long expiresAt;
+
+        private Verified(byte[] digest, long expiresAt) {
+            this.digest = digest;
+            this.expiresAt = expiresAt;
+        }
+
+    }
+
+}
@@ -0,0 +1,146 @@
+package edu.nyu;
+
+import org.apache.http.conn.util.InetAddressUtils;
+import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x500.X500NameBuilder;
+import org.bouncycastle.asn1.x500.style.BCStyle;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.PEMKeyPair;
+import org.bouncycastle.openssl.PEMParser;
+import org.bouncycastle.openssl.jcajce.JcaPEMKeyConverter;
+import org.bouncycastle.openssl.jcajce.JceOpenSSLPKCS8DecryptorProviderBuilder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.pkcs.PKCS8EncryptedPrivateKeyInfo;
+import org.bouncycastle.pkcs.PKCSException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Issues server certificates for any host, signed by a CA whose certificate and PEM private key are given, e.g.
+ * {@code src/test/resources/ca/ca.crt} and {@code ca.key}.
+ * <p>
+ * Leaf certificates name the host as common name and subject alternative name (DNS or IP), are valid from a day
+ * before issuing for {@link #VALIDITY_DAYS} and carry the key usages browsers and HttpClient expect of a TLS server.
+ */
+public class CertificateAuthority {
+
+    public static final int VALIDITY_DAYS = 365;
+
+    private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+
+    private final X509Certificate certificate;
+    private final PrivateKey privateKey;
+    private final JcaX509ExtensionUtils extensionUtils;
+    private final SecureRandom random = new SecureRandom();
+
+    public CertificateAuthority(X509Certificate certificate, PrivateKey privateKey) throws GeneralSecurityException {
+        this.certificate = certificate;
+        this.privateKey = privateKey;
+        this.extensionUtils = new JcaX509ExtensionUtils();
+    }
+
+    /**
+     * @param certificate PEM or DER certificate of the CA
+     * @param privateKey  PEM private key of the CA, PKCS#8 (encrypted or not) or traditional OpenSSL
+     * @param password    to decrypt an encrypted key with, may be null otherwise
+     * @return CertificateAuthority
+     * @throws IOException
+     * @throws GeneralSecurityException if the certificate or key can't be read
+     */
+    public static CertificateAuthority load(URL certificate, URL privateKey, char[] password) throws IOException,
+            GeneralSecurityException {
+        X509Certificate caCertificate;
+        try (InputStream inputStream = certificate.openStream()) {
+            caCertificate = (X509Certificate) CertificateFactory.getInstance("X.509")
+                    .generateCertificate(inputStream);
+        }
+        try (Reader reader = new InputStreamReader(privateKey.openStream(), StandardCharsets.US_ASCII);
+             PEMParser parser = new PEMParser(reader)) {
+            Object pem = parser.readObject();
+            PrivateKeyInfo keyInfo;
+            if (pem instanceof PKCS8EncryptedPrivateKeyInfo) {
+                if (password == null) {
+                    throw new GeneralSecurityException(privateKey + " is encrypted, a password is needed");
+                }
+                keyInfo = ((PKCS8EncryptedPrivateKeyInfo) pem).decryptPrivateKeyInfo(
+                        new JceOpenSSLPKCS8DecryptorProviderBuilder().setProvider(new BouncyCastleProvider())
+                                .build(password));
+            } else if (pem instanceof PEMKeyPair) {
+                keyInfo = ((PEMKeyPair) pem).getPrivateKeyInfo();
+            } else if (pem instanceof PrivateKeyInfo) {
+                keyInfo = (PrivateKeyInfo) pem;
+            } else {
+                throw new GeneralSecurityException(privateKey + " holds no private key");
+            }
+            return new CertificateAuthority(caCertificate, new JcaPEMKeyConverter().getPrivateKey(keyInfo));
+        } catch (OperatorCreationException | PKCSException e) {
+            throw new GeneralSecurityException("Can't decrypt " + privateKey, e);
+        }
+    }
+
+    /**
+     * @param host      host name or IP address the certificate is for
+     * @param publicKey key of the certificate
+     * @return certificate signed by this CA
+     * @throws GeneralSecurityException
+     */
+    public X509Certificate issue(String host, PublicKey publicKey) throws GeneralSecurityException {
+        long now = System.currentTimeMillis();
+        // back-dated a day so clients with a clock a little behind accept it
+        Date notBefore = new Date(now - TimeUnit.DAYS.toMillis(1));
+        Date notAfter = new Date(now + TimeUnit.DAYS.toMillis(VALIDITY_DAYS));
+        X500Name subject = new X500NameBuilder(BCStyle.INSTANCE).addRDN(BCStyle.CN, host).build();
+        boolean address = InetAddressUtils.isIPv4Address(host) || InetAddressUtils.isIPv6Address(host);
+        try {
+            X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(certificate,
+                    new BigInteger(64, random).abs(), notBefore, notAfter, subject, publicKey)
+                    .addExtension(Extension.subjectAlternativeName, false, new GeneralNames(
+                            new GeneralName(address ? GeneralName.iPAddress : GeneralName.dNSName, host)))
+                    .addExtension(Extension.basicConstraints, true, new BasicConstraints(false))
+                    .addExtension(Extension.keyUsage, true,
+                            new KeyUsage(KeyUsage.digitalSignature | KeyUsage.keyEncipherment))
+                    .addExtension(Extension.extendedKeyUsage, false,
+                            new ExtendedKeyUsage(KeyPurposeId.id_kp_serverAuth))
+                    .addExtension(Extension.subjectKeyIdentifier, false,
+                            extensionUtils.createSubjectKeyIdentifier(publicKey))
+                    .addExtension(Extension.authorityKeyIdentifier, false,
+                            extensionUtils.createAuthorityKeyIdentifier(certificate));
+            return new JcaX509CertificateConverter().getCertificate(
+                    builder.build(new JcaContentSignerBuilder(SIGNATURE_ALGORITHM).build(privateKey)));
+        } catch (IOException | OperatorCreationException e) {
+            throw new GeneralSecurityException("Can't issue a certificate for " + host, e);
+        }
+    }
+
+    public X509Certificate getCertificate() {
+        return certificate;
+    }
+
+}
@@ -0,0 +1,90 @@
+package edu.nyu;
+
+import io.netty.handler.codec.http.HttpRequest;
+import org.littleshoot.proxy.MitmManager;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import java.security.GeneralSecurityException;
+
+/**
+ * Lets LittleProxy decrypt CONNECT tunnels: the client is handed a certificate for the host it asked for, issued by
+ * our CA through a {@link HostCertificateCache}, and the proxy opens its own TLS connection upstream.
+ * <p>
+ * Clients have to trust the CA, and the upstream context decides which servers the proxy trusts in turn; their
+ * certificates must also name the host the client asked for, as a client's own hostname check would require. Use with
+ * {@code DefaultHttpProxyServer.bootstrap().withManInTheMiddle(...)}.
+ */
+public class CertificateMitmManager implements MitmManager {
+
+    private static final String HTTPS = "HTTPS";
+
+    private final HostCertificateCache certificates;
+    private final SSLContext upstreamSslContext;
+
+    /**
+     * @param certificates       contexts presented to clients
+     * @param upstreamSslContext context of the connections to the servers, e.g. a trust store context
+     */
+    public CertificateMitmManager(HostCertificateCache certificates, SSLContext upstreamSslContext) {
+        this.certificates = certificates;
+        this.upstreamSslContext = upstreamSslContext;
+    }
+
+    @Override
+    public SSLEngine serverSslEngine(String peerHost, int peerPort) {
+        SSLEngine sslEngine = tls12(upstreamSslContext.createSSLEngine(peerHost, peerPort));
+        // the client only ever sees our certificate, so the proxy checks the server's certificate names the host
+        SSLParameters sslParameters = sslEngine.getSSLParameters();
+        sslParameters.setEndpointIdentificationAlgorithm(HTTPS);
+        sslEngine.setSSLParameters(sslParameters);
+        return sslEngine;
+    }
+
+    /**
+     * Only called by LittleProxy when it doesn't know the host, so there is no name to check the certificate against
+     */
+    @Override
+    public SSLEngine serverSslEngine() {
+        return tls12(upstreamSslContext.createSSLEngine());
+    }
+
+    @Override
+    public SSLEngine clientSslEngineFor(HttpRequest httpRequest, SSLSession serverSslSession) {
+        String host = host(httpRequest.getUri());
+        try {
+            return tls12(certificates.get(host).createSSLEngine());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Can't intercept " + host, e);
+        }
+    }
+
+    public HostCertificateCache getCertificates() {
+        return certificates;
+    }
+
+    /**
+     * The SslHandler of LittleProxy's Netty 4.0 predates TLS 1.3 and can sit on a 1.3 handshake until its 10 second
+     * handshake timeout, so intercepted connections stay on 1.2
+     */
+    private static SSLEngine tls12(SSLEngine sslEngine) {
+        sslEngine.setEnabledProtocols(HandshakeTrackingSocketFactory.TLS_V12);
+        return sslEngine;
+    }
+
+    /**
+     * @param authority CONNECT target, {@code host:port} or {@code [address]:port}
+     * @return host without brackets and port
+     */
+    static String host(String authority) {
+        if (authority.startsWith("[")) {
+            int end = authority.indexOf(']');
+            return authority.substring(1, end > 0 ? end : authority.length());
+        }
+        int colon = authority.lastIndexOf(':');
+        return colon > 0 ? authority.substring(0, colon) : authority;
+    }
+
+}
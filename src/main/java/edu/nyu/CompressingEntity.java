@@ -0,0 +1,153 @@
+package edu.nyu;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HTTP;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Entity compressing the wrapped one with {@code gzip} or {@code deflate} while it is written.
+ * <p>
+ * Like HttpClient's {@code GzipCompressingEntity}, but with a choice of encoding and {@link Deflater} level, so the
+ * bandwidth saved can be traded against CPU. The compressed length isn't known up front, the entity is sent chunked.
+ * {@link #getContent()} compresses as it is read instead, for callers that pull the body rather than have it written.
+ */
+public class CompressingEntity extends HttpEntityWrapper {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private static final int BUFFER_SIZE = 8192;
+    // no file name, modification time or extra flags, and an unknown operating system
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final String encoding;
+    private final int level;
+
+    /**
+     * @param wrappedEntity entity to compress
+     * @param encoding      {@link #GZIP} or {@link #DEFLATE}, the latter being the zlib format HTTP means by it
+     * @param level         {@link Deflater} level, 1 (fastest) to 9 (smallest), or -1 for zlib's default
+     */
+    public CompressingEntity(HttpEntity wrappedEntity, String encoding, int level) {
+        super(wrappedEntity);
+        if (!GZIP.equals(encoding) && !DEFLATE.equals(encoding)) {
+            throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+        }
+        if (level != Deflater.DEFAULT_COMPRESSION
+                && (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid level: " + level);
+        }
+        this.encoding = encoding;
+        this.level = level;
+    }
+
+    @Override
+    public Header getContentEncoding() {
+        return new BasicHeader(HTTP.CONTENT_ENCODING, encoding);
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public boolean isChunked() {
+        return true;
+    }
+
+    /**
+     * @return the wrapped entity's content, compressed while it is read
+     * @throws IOException
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        boolean gzip = GZIP.equals(encoding);
+        Deflater deflater = new Deflater(level, gzip);
+        CRC32 crc = new CRC32();
+        InputStream content = wrappedEntity.getContent();
+        InputStream compressed = new DeflaterInputStream(gzip ? new CheckedInputStream(content, crc) : content,
+                deflater, BUFFER_SIZE);
+        // the trailer is only known once the content is used up
+        Iterator<Supplier<InputStream>> parts = gzip
+                ? Arrays.<Supplier<InputStream>>asList(() -> new ByteArrayInputStream(GZIP_HEADER), () -> compressed,
+                        () -> gzipTrailer(crc, deflater)).iterator()
+                : Arrays.<Supplier<InputStream>>asList(() -> compressed).iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return parts.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                return parts.next().get();
+            }
+        }) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        Deflater deflater = new Deflater(level, GZIP.equals(encoding));
+        try {
+            DeflaterOutputStream compressed = GZIP.equals(encoding)
+                    ? new LeveledGzipOutputStream(outputStream, deflater)
+                    : new DeflaterOutputStream(outputStream, deflater, BUFFER_SIZE);
+            wrappedEntity.writeTo(compressed);
+            // finish, not close, the connection owns the stream underneath
+            compressed.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static InputStream gzipTrailer(CRC32 crc, Deflater deflater) {
+        // the size is modulo 2^32, as gzip stores it
+        return new ByteArrayInputStream(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN)
+                .putInt((int) crc.getValue()).putInt((int) deflater.getBytesRead()).array());
+    }
+
+    /**
+     * {@link GZIPOutputStream} on a caller supplied {@link Deflater}, it only ever uses the default level itself
+     */
+    private static class LeveledGzipOutputStream extends GZIPOutputStream {
+
+        private LeveledGzipOutputStream(OutputStream outputStream, Deflater deflater) throws IOException {
+            super(outputStream, BUFFER_SIZE);
+            // swap before anything is compressed, GZIPOutputStream only wrote the header so far
+            def.end();
+            def = deflater;
+        }
+
+    }
+
+}
@@ -0,0 +1,164 @@
+package edu.nyu;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.compression.ZlibCodecFactory;
+import io.netty.handler.codec.compression.ZlibWrapper;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMessage;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.littleshoot.proxy.HttpFilters;
+import org.littleshoot.proxy.HttpFiltersAdapter;
+import org.littleshoot.proxy.HttpFiltersSourceAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Makes LittleProxy compress responses for clients that accept {@code gzip} or {@code deflate}, so the origin can send
+ * them plain.
+ * <p>
+ * The client's {@code Accept-Encoding} is taken off the request before it is forwarded, and each chunk of the response
+ * goes through Netty's zlib encoder on its way back, the same {@link EmbeddedChannel} arrangement Netty's own
+ * {@code HttpContentCompressor} uses. Nothing is buffered: every chunk is flushed out of the encoder, which costs a
+ * little ratio compared to compressing the whole body at once. Responses the origin already encoded, and responses
+ * the proxy aggregated into a {@link FullHttpResponse}, pass through untouched; the others are marked
+ * {@code Vary: Accept-Encoding} whether or not this client got them compressed. An encoder left with part of a body,
+ * because the origin timed out or the client went away, is released along with what it still holds.
+ */
+public class CompressingFiltersSource extends HttpFiltersSourceAdapter {
+
+    private final int level;
+
+    /**
+     * @param level {@link Deflater} level, 1 (fastest) to 9 (smallest), or -1 for zlib's default
+     */
+    public CompressingFiltersSource(int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION
+                && (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid level: " + level);
+        }
+        // Netty's encoders want the default spelled out
+        this.level = level == Deflater.DEFAULT_COMPRESSION ? 6 : level;
+    }
+
+    @Override
+    public HttpFilters filterRequest(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+        return new CompressingFilters(originalRequest, ctx);
+    }
+
+    /**
+     * @param httpMessage
+     * @param name
+     * @return the message's headers of that name, for the HttpCore parsing of {@link ResponseCompression}
+     */
+    private static Header[] headers(HttpMessage httpMessage, String name) {
+        return httpMessage.headers().getAll(name).stream().map(value -> new BasicHeader(name, value))
+                .toArray(Header[]::new);
+    }
+
+    private class CompressingFilters extends HttpFiltersAdapter {
+
+        private final ChannelFutureListener release = future -> release();
+        private String encoding;
+        // the server's event loop compresses, the client's closes the connection
+        private EmbeddedChannel encoder;
+
+        private CompressingFilters(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+            super(originalRequest, ctx);
+        }
+
+        @Override
+        public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+            if (httpObject instanceof HttpRequest) {
+                HttpRequest httpRequest = (HttpRequest) httpObject;
+                encoding = HttpMethod.HEAD.equals(httpRequest.getMethod()) ? null
+                        : ResponseCompression.negotiate(headers(httpRequest, HttpHeaders.Names.ACCEPT_ENCODING));
+                if (encoding != null) {
+                    httpRequest.headers().remove(HttpHeaders.Names.ACCEPT_ENCODING);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public synchronized HttpObject serverToProxyResponse(HttpObject httpObject) {
+            if (httpObject instanceof HttpResponse && !(httpObject instanceof FullHttpResponse)) {
+                start((HttpResponse) httpObject);
+            } else if (httpObject instanceof HttpContent && encoder != null) {
+                return compress((HttpContent) httpObject);
+            }
+            return httpObject;
+        }
+
+        @Override
+        public void serverToProxyResponseTimedOut() {
+            release();
+        }
+
+        private void start(HttpResponse httpResponse) {
+            int status = httpResponse.getStatus().code();
+            if (httpResponse.headers().contains(HttpHeaders.Names.CONTENT_ENCODING)
+                    || status < 200 || status == 204 || status == 304) {
+                return;
+            }
+            if (!ResponseCompression.variesByEncoding(headers(httpResponse, HttpHeaders.Names.VARY))) {
+                httpResponse.headers().add(HttpHeaders.Names.VARY, HttpHeaders.Names.ACCEPT_ENCODING);
+            }
+            if (encoding == null) {
+                return;
+            }
+            encoder = new EmbeddedChannel(ZlibCodecFactory.newZlibEncoder(
+                    CompressingEntity.GZIP.equals(encoding) ? ZlibWrapper.GZIP : ZlibWrapper.ZLIB, level));
+            ctx.channel().closeFuture().addListener(release);
+            httpResponse.headers().set(HttpHeaders.Names.CONTENT_ENCODING, encoding);
+            httpResponse.headers().remove(HttpHeaders.Names.CONTENT_LENGTH);
+            HttpHeaders.setTransferEncodingChunked(httpResponse);
+        }
+
+        private HttpContent compress(HttpContent httpContent) {
+            // the encoder takes its own reference, LittleProxy releases the original once the filters are done
+            encoder.writeOutbound(httpContent.content().retain());
+            boolean last = httpContent instanceof LastHttpContent;
+            if (last) {
+                encoder.finish();
+            }
+            List<ByteBuf> outbound = new ArrayList<>();
+            for (Object out = encoder.readOutbound(); out != null; out = encoder.readOutbound()) {
+                outbound.add((ByteBuf) out);
+            }
+            ByteBuf compressed = Unpooled.wrappedBuffer(outbound.toArray(new ByteBuf[0]));
+            if (!last) {
+                return new DefaultHttpContent(compressed);
+            }
+            release();
+            LastHttpContent lastHttpContent = new DefaultLastHttpContent(compressed);
+            lastHttpContent.trailingHeaders().set(((LastHttpContent) httpContent).trailingHeaders());
+            return lastHttpContent;
+        }
+
+        private synchronized void release() {
+            if (encoder != null) {
+                encoder.finishAndReleaseAll();
+                encoder = null;
+                ctx.channel().closeFuture().removeListener(release);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,422 @@
+package edu.nyu;
+
+import io.netty.handler.codec.http.HttpRequest;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpConnectionFactory;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.impl.ConnSupport;
+import org.apache.http.impl.DefaultBHttpServerConnection;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+import org.littleshoot.proxy.ActivityTracker;
+import org.littleshoot.proxy.ActivityTrackerAdapter;
+import org.littleshoot.proxy.FlowContext;
+
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts connections and the requests they carry on each hop of a client, LittleProxy, server setup, so a test can
+ * assert keep-alive works instead of finding out from a latency regression.
+ * <p>
+ * Each hop is wired in where it opens connections: the client through {@link #newClientConnectionManager()}, whose
+ * {@code connect} only runs for a new socket, the proxy through {@link #proxyTracker()}, which pairs
+ * {@code clientConnected} and {@code clientDisconnected}, and the embedded server through
+ * {@link #serverConnectionFactory()} for {@code ServerBootstrap.setConnectionFactory}. A request is new when it is the
+ * first on its connection and reused otherwise; with keep-alive working, a hop sends many requests per connection.
+ * The client also records how long leases wait for the pool and how many connections were leased at once; pools
+ * leave the snapshot when they are shut down.
+ */
+public class ConnectionAccounting {
+
+    private final Counters client = new Counters();
+    private final Counters proxy = new Counters();
+    private final Counters server = new Counters();
+    private final LatencyHistogram leaseWait = new LatencyHistogram();
+    private final LongAccumulator peakLeased = new LongAccumulator(Math::max, 0);
+    private final List<PoolingHttpClientConnectionManager> connectionManagers = new CopyOnWriteArrayList<>();
+    // requests seen so far on each client connection to the proxy
+    private final ConcurrentMap<InetSocketAddress, AtomicLong> proxyConnections = new ConcurrentHashMap<>();
+
+    /**
+     * @return pool with the default socket factories, for {@code HttpClientBuilder.setConnectionManager}
+     */
+    public PoolingHttpClientConnectionManager newClientConnectionManager() {
+        return register(new AccountingConnectionManager());
+    }
+
+    /**
+     * @param registry socket factories, e.g. with an {@code SSLConnectionSocketFactory} of a custom context
+     * @return pool for {@code HttpClientBuilder.setConnectionManager}
+     */
+    public PoolingHttpClientConnectionManager newClientConnectionManager(Registry<ConnectionSocketFactory> registry) {
+        return register(new AccountingConnectionManager(registry));
+    }
+
+    /**
+     * @return tracker for {@code plusActivityTracker}, counting the connections clients open to the proxy
+     */
+    public ActivityTracker proxyTracker() {
+        return new ProxyTracker();
+    }
+
+    /**
+     * @return factory for {@code ServerBootstrap.setConnectionFactory}, with the default buffer size and charset
+     */
+    public HttpConnectionFactory<DefaultBHttpServerConnection> serverConnectionFactory() {
+        return serverConnectionFactory(ConnectionConfig.DEFAULT);
+    }
+
+    /**
+     * @param connectionConfig buffer size, charset and message constraints, the bootstrap only applies its own
+     *                         {@code setConnectionConfig} to the factory it creates itself
+     * @return factory for {@code ServerBootstrap.setConnectionFactory}
+     */
+    public HttpConnectionFactory<DefaultBHttpServerConnection> serverConnectionFactory(
+            ConnectionConfig connectionConfig) {
+        return socket -> {
+            DefaultBHttpServerConnection connection = new ServerConnection(connectionConfig);
+            connection.bind(socket);
+            return connection;
+        };
+    }
+
+    /**
+     * @return immutable copy of the counters recorded so far
+     */
+    public Snapshot snapshot() {
+        int leased = 0;
+        int available = 0;
+        int pending = 0;
+        for (PoolingHttpClientConnectionManager connectionManager : connectionManagers) {
+            PoolStats poolStats = connectionManager.getTotalStats();
+            leased += poolStats.getLeased();
+            available += poolStats.getAvailable();
+            pending += poolStats.getPending();
+        }
+        return new Snapshot(client.stats(leased + available), proxy.stats(proxyConnections.size()),
+                server.stats(server.open.sum()), leaseWait.copy(), peakLeased.get(), leased, available, pending);
+    }
+
+    /**
+     * Clears the counters, connections already open count as reused from then on
+     */
+    public void reset() {
+        client.reset();
+        proxy.reset();
+        server.reset();
+        leaseWait.reset();
+        peakLeased.reset();
+    }
+
+    private PoolingHttpClientConnectionManager register(PoolingHttpClientConnectionManager connectionManager) {
+        connectionManagers.add(connectionManager);
+        return connectionManager;
+    }
+
+    private class AccountingConnectionManager extends PoolingHttpClientConnectionManager {
+
+        private AccountingConnectionManager() {
+            super();
+        }
+
+        private AccountingConnectionManager(Registry<ConnectionSocketFactory> registry) {
+            super(registry);
+        }
+
+        @Override
+        public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+            long start = System.nanoTime();
+            ConnectionRequest connectionRequest = super.requestConnection(route, state);
+            return new ConnectionRequest() {
+                @Override
+                public HttpClientConnection get(long timeout, TimeUnit timeUnit) throws InterruptedException,
+                        ExecutionException, ConnectionPoolTimeoutException {
+                    HttpClientConnection connection = connectionRequest.get(timeout, timeUnit);
+                    leaseWait.record(System.nanoTime() - start);
+                    client.requests.increment();
+                    peakLeased.accumulate(getTotalStats().getLeased());
+                    return connection;
+                }
+
+                @Override
+                public boolean cancel() {
+                    return connectionRequest.cancel();
+                }
+            };
+        }
+
+        @Override
+        public void shutdown() {
+            connectionManagers.remove(this);
+            super.shutdown();
+        }
+
+        @Override
+        public void connect(HttpClientConnection managedConn, HttpRoute route, int connectTimeout,
+                            HttpContext context) throws IOException {
+            // only called when the leased connection has no socket yet
+            client.opened.increment();
+            client.firstRequests.increment();
+            super.connect(managedConn, route, connectTimeout, context);
+        }
+
+    }
+
+    private class ProxyTracker extends ActivityTrackerAdapter {
+
+        @Override
+        public void clientConnected(InetSocketAddress clientAddress) {
+            proxy.opened.increment();
+            proxyConnections.put(clientAddress, new AtomicLong());
+        }
+
+        @Override
+        public void clientDisconnected(InetSocketAddress clientAddress, SSLSession sslSession) {
+            proxyConnections.remove(clientAddress);
+        }
+
+        @Override
+        public void requestReceivedFromClient(FlowContext flowContext, HttpRequest httpRequest) {
+            proxy.requests.increment();
+            AtomicLong requests = proxyConnections.get(flowContext.getClientAddress());
+            if (requests != null && requests.getAndIncrement() == 0) {
+                proxy.firstRequests.increment();
+            }
+        }
+
+    }
+
+    private class ServerConnection extends DefaultBHttpServerConnection {
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private boolean served;
+
+        private ServerConnection(ConnectionConfig connectionConfig) {
+            // as DefaultBHttpServerConnectionFactory creates them
+            super(connectionConfig.getBufferSize(), connectionConfig.getFragmentSizeHint(),
+                    ConnSupport.createDecoder(connectionConfig), ConnSupport.createEncoder(connectionConfig),
+                    connectionConfig.getMessageConstraints(), null, null, null, null);
+        }
+
+        @Override
+        public void bind(Socket socket) throws IOException {
+            super.bind(socket);
+            server.opened.increment();
+            server.open.increment();
+        }
+
+        @Override
+        protected void onRequestReceived(org.apache.http.HttpRequest request) {
+            // a server connection is served by a single worker thread
+            server.requests.increment();
+            if (!served) {
+                served = true;
+                server.firstRequests.increment();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            countClosed();
+            super.close();
+        }
+
+        @Override
+        public void shutdown() throws IOException {
+            countClosed();
+            super.shutdown();
+        }
+
+        private void countClosed() {
+            if (closed.compareAndSet(false, true)) {
+                server.open.decrement();
+            }
+        }
+
+    }
+
+    private static class Counters {
+        private final LongAdder opened = new LongAdder();
+        // not reset, the connections stay open
+        private final LongAdder open = new LongAdder();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder firstRequests = new LongAdder();
+
+        private HopStats stats(long open) {
+            return new HopStats(opened.sum(), open, requests.sum(), firstRequests.sum());
+        }
+
+        private void reset() {
+            opened.reset();
+            requests.reset();
+            firstRequests.reset();
+        }
+    }
+
+    /**
+     * Connections and requests of one hop
+     */
+    public static class HopStats {
+
+        private final long connectionsOpened;
+        private final long openConnections;
+        private final long requests;
+        private final long newConnectionRequests;
+
+        public HopStats(long connectionsOpened, long openConnections, long requests, long newConnectionRequests) {
+            this.connectionsOpened = connectionsOpened;
+            this.openConnections = openConnections;
+            this.requests = requests;
+            this.newConnectionRequests = newConnectionRequests;
+        }
+
+        public long getConnectionsOpened() {
+            return connectionsOpened;
+        }
+
+        /**
+         * @return connections open when the snapshot was taken, for the client the ones held by the pool
+         */
+        public long getOpenConnections() {
+            return openConnections;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        /**
+         * @return requests that were the first on their connection
+         */
+        public long getNewConnectionRequests() {
+            return newConnectionRequests;
+        }
+
+        /**
+         * @return requests sent over a connection that had carried one before
+         */
+        public long getReusedConnectionRequests() {
+            return Math.max(0, requests - newConnectionRequests);
+        }
+
+        /**
+         * @return share of requests that reused a connection, 0 when every request opened a socket
+         */
+        public double getReuseRatio() {
+            return requests == 0 ? 0 : (double) getReusedConnectionRequests() / requests;
+        }
+
+        @Override
+        public String toString() {
+            return "connectionsOpened=" + connectionsOpened + " openConnections=" + openConnections + " requests="
+                    + requests + " newConnectionRequests=" + newConnectionRequests + " reusedConnectionRequests="
+                    + getReusedConnectionRequests();
+        }
+
+    }
+
+    /**
+     * Point-in-time copy of every hop and the client pool
+     */
+    public static class Snapshot {
+
+        private final HopStats client;
+        private final HopStats proxy;
+        private final HopStats server;
+        private final LatencyHistogram leaseWait;
+        private final long peakLeased;
+        private final int leased;
+        private final int available;
+        private final int pending;
+
+        private Snapshot(HopStats client, HopStats proxy, HopStats server, LatencyHistogram leaseWait,
+                         long peakLeased, int leased, int available, int pending) {
+            this.client = client;
+            this.proxy = proxy;
+            this.server = server;
+            this.leaseWait = leaseWait;
+            this.peakLeased = peakLeased;
+            this.leased = leased;
+            this.available = available;
+            this.pending = pending;
+        }
+
+        /**
+         * @return connections the client pools opened and the requests leased on them
+         */
+        public HopStats getClient() {
+            return client;
+        }
+
+        /**
+         * @return connections clients opened to the proxy and the requests they sent
+         */
+        public HopStats getProxy() {
+            return proxy;
+        }
+
+        /**
+         * @return connections the server accepted, from clients or the proxy, and the requests it received
+         */
+        public HopStats getServer() {
+            return server;
+        }
+
+        /**
+         * @return nanoseconds from asking the pool for a connection to getting one
+         */
+        public LatencyHistogram getLeaseWait() {
+            return leaseWait;
+        }
+
+        /**
+         * @return most connections leased from the client pools at once
+         */
+        public long getPeakLeased() {
+            return peakLeased;
+        }
+
+        public int getLeased() {
+            return leased;
+        }
+
+        public int getAvailable() {
+            return available;
+        }
+
+        /**
+         * @return requests waiting for a connection
+         */
+        public int getPending() {
+            return pending;
+        }
+
+        @Override
+        public String toString() {
+            return "client: " + client + ", proxy: " + proxy + ", server: " + server + ", pool: leased=" + leased
+                    + " available=" + available + " pending=" + pending + " peakLeased=" + peakLeased
+                    + ", lease wait " + leaseWait.summary(TimeUnit.MICROSECONDS);
+        }
+
+    }
+
+}
@@ -0,0 +1,292 @@
+package edu.nyu;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.client.CookieStore;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.util.PublicSuffixMatcher;
+import org.apache.http.conn.util.PublicSuffixMatcherLoader;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.protocol.HttpContext;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cookie store indexed by registrable domain (as determined by a {@link PublicSuffixMatcher}) and path.
+ * <p>
+ * {@code BasicCookieStore} hands every cookie to {@code RequestAddCookies}, which then matches each of them against
+ * the request, so every request costs O(cookies). {@link #configure(HttpClientBuilder)} installs this store together
+ * with an interceptor that, right before {@code RequestAddCookies} runs, replaces the context's cookie store with a
+ * view that only returns the cookies of the request's registrable domain whose path is a prefix of the request path.
+ * The cookie spec still does the exact domain and path matching on that much smaller list.
+ * <p>
+ * Supercookie protection stays with the cookie spec: {@code PublicSuffixDomainFilter} refuses to send cookies whose
+ * domain is a public suffix. Such cookies are still stored, indexed under the suffix itself, so they aren't even
+ * offered to the hosts below it. Use the same matcher for the spec and this store, which is what
+ * {@link #configure(HttpClientBuilder)} does, otherwise a cookie can end up indexed under a different domain than
+ * the hosts it would be sent to.
+ */
+public class DomainIndexedCookieStore implements CookieStore {
+
+    private static final String DEFAULT_PATH = "/";
+
+    private final PublicSuffixMatcher publicSuffixMatcher;
+    private final ConcurrentMap<String, DomainCookies> domains = new ConcurrentHashMap<>();
+
+    /**
+     * Store indexed with the Mozilla public suffix list bundled with HttpClient
+     */
+    public DomainIndexedCookieStore() {
+        this(PublicSuffixMatcherLoader.getDefault());
+    }
+
+    public DomainIndexedCookieStore(PublicSuffixMatcher publicSuffixMatcher) {
+        this.publicSuffixMatcher = publicSuffixMatcher;
+    }
+
+    /**
+     * Sets this store as the default cookie store of the builder, its matcher as the builder's public suffix matcher
+     * and adds the interceptor scoping each request to its domain
+     *
+     * @param httpClientBuilder
+     * @return HttpClientBuilder
+     */
+    public HttpClientBuilder configure(HttpClientBuilder httpClientBuilder) {
+        return httpClientBuilder
+                .setPublicSuffixMatcher(publicSuffixMatcher)
+                .setDefaultCookieStore(this)
+                .addInterceptorFirst(this::scope);
+    }
+
+    /**
+     * Request interceptor replacing this store in the context with the view for the request's target. Requests whose
+     * context holds a different store are left alone. It has to run before {@code RequestAddCookies}, i.e. be added
+     * with {@code addInterceptorFirst}.
+     *
+     * @return HttpRequestInterceptor
+     */
+    public HttpRequestInterceptor scopingInterceptor() {
+        return this::scope;
+    }
+
+    /**
+     * Returns the cookies that may be sent with a request to the given host and path
+     *
+     * @param host
+     * @param path
+     * @return cookies, expired ones included
+     */
+    public List<Cookie> getCookies(String host, String path) {
+        DomainCookies domainCookies = domains.get(indexKey(host));
+        return domainCookies != null ? domainCookies.getCookies(path) : new ArrayList<>();
+    }
+
+    @Override
+    public void addCookie(Cookie cookie) {
+        if (cookie == null) {
+            return;
+        }
+        String key = indexKey(cookie.getDomain());
+        DomainCookies domainCookies = domains.computeIfAbsent(key, k -> new DomainCookies());
+        domainCookies.add(cookie, new Date());
+    }
+
+    @Override
+    public List<Cookie> getCookies() {
+        List<Cookie> cookies = new ArrayList<>();
+        for (DomainCookies domainCookies : domains.values()) {
+            domainCookies.addAllTo(cookies);
+        }
+        return cookies;
+    }
+
+    @Override
+    public boolean clearExpired(Date date) {
+        boolean removed = false;
+        for (DomainCookies domainCookies : domains.values()) {
+            removed |= domainCookies.clearExpired(date);
+        }
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        domains.clear();
+    }
+
+    /**
+     * @return number of registrable domains holding cookies
+     */
+    public int getDomainCount() {
+        return domains.size();
+    }
+
+    @Override
+    public String toString() {
+        return getCookies().toString();
+    }
+
+    private void scope(HttpRequest request, HttpContext context) {
+        HttpClientContext clientContext = HttpClientContext.adapt(context);
+        CookieStore cookieStore = clientContext.getCookieStore();
+        // a view left behind by an earlier request executed with the same context has to be replaced as well
+        boolean ours = cookieStore == this
+                || cookieStore instanceof ScopedView && ((ScopedView) cookieStore).owner() == this;
+        HttpHost targetHost = clientContext.getTargetHost();
+        if (!ours || targetHost == null) {
+            return;
+        }
+        String path = null;
+        try {
+            URI requestUri = request instanceof HttpUriRequest ? ((HttpUriRequest) request).getURI()
+                    : new URI(request.getRequestLine().getUri());
+            path = requestUri.getPath();
+        } catch (URISyntaxException e) {
+            // RequestAddCookies falls back to the root path as well
+        }
+        clientContext.setCookieStore(new ScopedView(targetHost.getHostName(), path));
+    }
+
+    /**
+     * Maps a host or cookie domain to the registrable domain it is indexed under, or to itself if it has none (public
+     * suffixes, single labels)
+     */
+    private String indexKey(String domain) {
+        if (domain == null) {
+            return "";
+        }
+        String normalized = domain.toLowerCase(Locale.ROOT);
+        if (normalized.startsWith(".")) {
+            normalized = normalized.substring(1);
+        }
+        String domainRoot = publicSuffixMatcher.getDomainRoot(normalized);
+        return domainRoot != null ? domainRoot : normalized;
+    }
+
+    private static String identity(Cookie cookie) {
+        // CookieIdentityComparator identity minus the path, which is the key of the enclosing map
+        String domain = cookie.getDomain() != null ? cookie.getDomain().toLowerCase(Locale.ROOT) : "";
+        if (domain.indexOf('.') == -1) {
+            domain += ".local";
+        }
+        return cookie.getName() + ';' + domain;
+    }
+
+    private static String pathOf(Cookie cookie) {
+        return cookie.getPath() != null ? cookie.getPath() : DEFAULT_PATH;
+    }
+
+    /**
+     * Cookies of one registrable domain grouped by path
+     */
+    private static class DomainCookies {
+
+        private final Map<String, Map<String, Cookie>> byPath = new TreeMap<>();
+
+        private synchronized void add(Cookie cookie, Date now) {
+            String path = pathOf(cookie);
+            Map<String, Cookie> cookies = byPath.get(path);
+            if (cookie.isExpired(now)) {
+                // an expired cookie deletes the one it replaces, like in BasicCookieStore
+                if (cookies != null) {
+                    cookies.remove(identity(cookie));
+                }
+                return;
+            }
+            if (cookies == null) {
+                cookies = new HashMap<>();
+                byPath.put(path, cookies);
+            }
+            cookies.put(identity(cookie), cookie);
+        }
+
+        private synchronized List<Cookie> getCookies(String requestPath) {
+            String path = requestPath == null || requestPath.isEmpty() ? DEFAULT_PATH : requestPath;
+            List<Cookie> cookies = new ArrayList<>();
+            for (Map.Entry<String, Map<String, Cookie>> entry : byPath.entrySet()) {
+                // a prefix check is enough here, the cookie spec applies the exact path-match rules afterwards
+                String cookiePath = entry.getKey();
+                int length = cookiePath.length() > 1 && cookiePath.endsWith("/")
+                        ? cookiePath.length() - 1 : cookiePath.length();
+                if (path.regionMatches(0, cookiePath, 0, length)) {
+                    cookies.addAll(entry.getValue().values());
+                }
+            }
+            return cookies;
+        }
+
+        private synchronized void addAllTo(List<Cookie> cookies) {
+            for (Map<String, Cookie> pathCookies : byPath.values()) {
+                cookies.addAll(pathCookies.values());
+            }
+        }
+
+        private synchronized boolean clearExpired(Date date) {
+            boolean removed = false;
+            for (Iterator<Map<String, Cookie>> paths = byPath.values().iterator(); paths.hasNext(); ) {
+                Map<String, Cookie> pathCookies = paths.next();
+                removed |= pathCookies.values().removeIf(cookie -> cookie.isExpired(date));
+                if (pathCookies.isEmpty()) {
+                    paths.remove();
+                }
+            }
+            return removed;
+        }
+
+    }
+
+    /**
+     * The store as seen by a single request, writes go to the whole store
+     */
+    private class ScopedView implements CookieStore {
+
+        private final String host;
+        private final String path;
+
+        private ScopedView(String host, String path) {
+            this.host = host;
+            this.path = path;
+        }
+
+        private DomainIndexedCookieStore owner() {
+            return DomainIndexedCookieStore.this;
+        }
+
+        @Override
+        public void addCookie(Cookie cookie) {
+            DomainIndexedCookieStore.this.addCookie(cookie);
+        }
+
+        @Override
+        public List<Cookie> getCookies() {
+            return DomainIndexedCookieStore.this.getCookies(host, path);
+        }
+
+        @Override
+        public boolean clearExpired(Date date) {
+            DomainCookies domainCookies = domains.get(indexKey(host));
+            return domainCookies != null && domainCookies.clearExpired(date);
+        }
+
+        @Override
+        public void clear() {
+            DomainIndexedCookieStore.this.clear();
+        }
+
+    }
+
+}
@@ -0,0 +1,381 @@
+package edu.nyu;
+
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.protocol.HttpRequestHandler;
+
+import javax.net.ServerSocketFactory;
+import javax.net.ssl.SSLContext;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request handler for the embedded {@link ServerBootstrap} that misbehaves the way slow backends do: per-request
+ * latency drawn from a {@link Latency} distribution, bodies throttled to a bandwidth, bodies that stall halfway,
+ * connections reset instead of answered, and a delay before the first byte of every connection is read, which on TLS
+ * connections is a slow handshake.
+ * <p>
+ * Every setting can be changed while the server runs, so a scenario can turn the slowness on and off under load. Use
+ * {@link #configure(ServerBootstrap, SSLContext)} to register it; the handshake delay needs its server sockets, which
+ * also take over TLS from {@code ServerBootstrap.setSslContext}.
+ */
+public class FaultyBackend implements HttpRequestHandler {
+
+    private volatile Latency latency = Latency.fixed(0);
+    private volatile long bodyLength;
+    private volatile long bytesPerSecond;
+    private volatile double stallProbability;
+    private volatile long stallMillis;
+    private volatile double resetProbability;
+    private volatile long handshakeDelayMillis;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder resets = new LongAdder();
+    private final LongAdder stalls = new LongAdder();
+
+    /**
+     * Registers this backend for every path and installs its server sockets
+     *
+     * @param serverBootstrap
+     * @param sslContext      server context to terminate TLS with, or null for plain HTTP
+     * @return ServerBootstrap
+     */
+    public ServerBootstrap configure(ServerBootstrap serverBootstrap, SSLContext sslContext) {
+        return serverBootstrap
+                .setServerSocketFactory(new FaultyServerSocketFactory(sslContext))
+                .registerHandler("*", this);
+    }
+
+    /**
+     * @param latency time to wait before answering each request
+     * @return FaultyBackend
+     */
+    public FaultyBackend setLatency(Latency latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    /**
+     * @param bodyLength length of the generated response body, see {@link GeneratedEntity}
+     * @return FaultyBackend
+     */
+    public FaultyBackend setBodyLength(long bodyLength) {
+        if (bodyLength < 0) {
+            throw new IllegalArgumentException("Body length must not be negative: " + bodyLength);
+        }
+        this.bodyLength = bodyLength;
+        return this;
+    }
+
+    /**
+     * @param bytesPerSecond rate the body is written at, in slices every 100 ms, or 0 for unthrottled
+     * @return FaultyBackend
+     */
+    public FaultyBackend setBandwidth(long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Bandwidth must not be negative: " + bytesPerSecond);
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Makes a share of the responses stop after the headers and half the body, then carry on after a while
+     *
+     * @param probability chance of a response stalling, 0 to 1
+     * @param millis      how long it stalls
+     * @return FaultyBackend
+     */
+    public FaultyBackend setStall(double probability, long millis) {
+        this.stallProbability = probability;
+        this.stallMillis = millis;
+        return this;
+    }
+
+    /**
+     * @param probability chance of a request being answered with a TCP reset instead of a response, 0 to 1
+     * @return FaultyBackend
+     */
+    public FaultyBackend setResetProbability(double probability) {
+        this.resetProbability = probability;
+        return this;
+    }
+
+    /**
+     * @param millis delay before the first read on each new connection, i.e. before the ClientHello is answered
+     * @return FaultyBackend
+     */
+    public FaultyBackend setHandshakeDelay(long millis) {
+        this.handshakeDelayMillis = millis;
+        return this;
+    }
+
+    @Override
+    public void handle(HttpRequest request, HttpResponse response, HttpContext context) throws IOException {
+        requests.increment();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < resetProbability) {
+            resets.increment();
+            // shutdown sets SO_LINGER to 0 before closing, the client gets a RST rather than a FIN
+            HttpCoreContext.adapt(context).getConnection().shutdown();
+            return;
+        }
+        sleep(latency.nextMillis(random));
+        long stall = -1;
+        if (random.nextDouble() < stallProbability) {
+            stalls.increment();
+            stall = stallMillis;
+        }
+        response.setStatusCode(HttpStatus.SC_OK);
+        response.setEntity(new FaultyEntity(bodyLength, bytesPerSecond, stall));
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    public long getResets() {
+        return resets.sum();
+    }
+
+    public long getStalls() {
+        return stalls.sum();
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while delaying");
+        }
+    }
+
+    /**
+     * Distribution of per-request latencies in milliseconds
+     */
+    @FunctionalInterface
+    public interface Latency {
+
+        long nextMillis(ThreadLocalRandom random);
+
+        static Latency fixed(long millis) {
+            return random -> millis;
+        }
+
+        static Latency uniform(long minMillis, long maxMillis) {
+            return random -> random.nextLong(minMillis, maxMillis + 1);
+        }
+
+        static Latency exponential(double meanMillis) {
+            return random -> Math.round(-meanMillis * Math.log(1 - random.nextDouble()));
+        }
+
+        /**
+         * @param medianMillis
+         * @param sigma        spread of the underlying normal distribution, 1 puts p99 at about 10x the median
+         * @return Latency with the long right tail typical of service response times
+         */
+        static Latency logNormal(double medianMillis, double sigma) {
+            return random -> Math.round(medianMillis * Math.exp(sigma * random.nextGaussian()));
+        }
+
+    }
+
+    /**
+     * Generated body written through a {@link PacedOutputStream}
+     */
+    private static class FaultyEntity extends HttpEntityWrapper {
+
+        private final long bytesPerSecond;
+        private final long stallMillis;
+
+        private FaultyEntity(long length, long bytesPerSecond, long stallMillis) {
+            super(new GeneratedEntity(length, false));
+            this.bytesPerSecond = bytesPerSecond;
+            this.stallMillis = stallMillis;
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            long stallAt = stallMillis >= 0 ? getContentLength() / 2 : -1;
+            wrappedEntity.writeTo(new PacedOutputStream(outputStream, bytesPerSecond, stallAt, stallMillis));
+        }
+
+    }
+
+    /**
+     * Writes in slices of a tenth of the bandwidth, flushing and sleeping until each slice is due, and pauses once at
+     * a given offset
+     */
+    private static class PacedOutputStream extends FilterOutputStream {
+
+        private final long bytesPerSecond;
+        private final int sliceSize;
+        private final long stallMillis;
+        private final long start = System.nanoTime();
+        private long stallAt;
+        private long written;
+
+        private PacedOutputStream(OutputStream outputStream, long bytesPerSecond, long stallAt, long stallMillis) {
+            super(outputStream);
+            this.bytesPerSecond = bytesPerSecond;
+            this.sliceSize = bytesPerSecond > 0 ? (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytesPerSecond / 10))
+                    : 0;
+            this.stallAt = stallAt;
+            this.stallMillis = stallMillis;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (written == stallAt) {
+                    // the headers and everything so far have to reach the client before it starts waiting
+                    out.flush();
+                    sleep(stallMillis);
+                    stallAt = -1;
+                }
+                int slice = sliceSize > 0 ? Math.min(len, sliceSize) : len;
+                if (written < stallAt) {
+                    slice = (int) Math.min(slice, stallAt - written);
+                }
+                out.write(b, off, slice);
+                written += slice;
+                off += slice;
+                len -= slice;
+                if (sliceSize > 0) {
+                    out.flush();
+                    long due = start + written * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+                    sleep(TimeUnit.NANOSECONDS.toMillis(due - System.nanoTime()));
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Binds {@link DelayedServerSocket}s, so the handshake delay can be read when each connection is accepted
+     */
+    private class FaultyServerSocketFactory extends ServerSocketFactory {
+
+        private final SSLContext sslContext;
+
+        private FaultyServerSocketFactory(SSLContext sslContext) {
+            this.sslContext = sslContext;
+        }
+
+        @Override
+        public ServerSocket createServerSocket() throws IOException {
+            return new DelayedServerSocket(sslContext);
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port) throws IOException {
+            return createServerSocket(port, 50, null);
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port, int backlog) throws IOException {
+            return createServerSocket(port, backlog, null);
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port, int backlog, InetAddress ifAddress) throws IOException {
+            ServerSocket serverSocket = createServerSocket();
+            try {
+                serverSocket.bind(new InetSocketAddress(ifAddress, port), backlog);
+            } catch (IOException e) {
+                serverSocket.close();
+                throw e;
+            }
+            return serverSocket;
+        }
+
+    }
+
+    /**
+     * Accepts {@link DelayedSocket}s and layers TLS over them in server mode, the handshake then happens on
+     * {@code HttpServer}'s worker thread when the request is first read, behind the delay
+     */
+    private class DelayedServerSocket extends ServerSocket {
+
+        private final SSLContext sslContext;
+
+        private DelayedServerSocket(SSLContext sslContext) throws IOException {
+            this.sslContext = sslContext;
+        }
+
+        @Override
+        public Socket accept() throws IOException {
+            if (isClosed()) {
+                throw new IOException("Socket is closed");
+            }
+            DelayedSocket socket = new DelayedSocket();
+            implAccept(socket);
+            // read once accepted, the listener thread blocks in here long before the next connection arrives
+            socket.delayMillis = handshakeDelayMillis;
+            return sslContext == null ? socket : sslContext.getSocketFactory().createSocket(socket, null, true);
+        }
+
+    }
+
+    /**
+     * Socket sleeping before its first read
+     */
+    private static class DelayedSocket extends Socket {
+
+        private volatile long delayMillis;
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new FilterInputStream(super.getInputStream()) {
+
+                @Override
+                public int read() throws IOException {
+                    delay();
+                    return super.read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    delay();
+                    return super.read(b, off, len);
+                }
+            };
+        }
+
+        private void delay() throws InterruptedIOException {
+            if (delayMillis > 0) {
+                long millis = delayMillis;
+                delayMillis = 0;
+                sleep(millis);
+            }
+        }
+
+    }
+
+}
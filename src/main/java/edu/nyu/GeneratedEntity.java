@@ -0,0 +1,138 @@
+package edu.nyu;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Entity of any length generated on the fly, for pushing large bodies through clients, proxies and servers without
+ * holding them anywhere.
+ * <p>
+ * The byte at position {@code p} is {@code p % 251}, a prime so the pattern doesn't line up with buffer sizes and a
+ * dropped or repeated buffer shows up in {@link #consume(InputStream)}. Chunked entities report an unknown length so
+ * HttpClient and HttpCore send them with {@code Transfer-Encoding: chunked}.
+ */
+public class GeneratedEntity extends AbstractHttpEntity {
+
+    private static final int PERIOD = 251;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // one buffer holding the pattern, any slice starting at (position % PERIOD) continues it
+    private static final byte[] PATTERN = new byte[BUFFER_SIZE + PERIOD];
+
+    static {
+        for (int i = 0; i < PATTERN.length; i++) {
+            PATTERN[i] = (byte) (i % PERIOD);
+        }
+    }
+
+    private final long length;
+
+    /**
+     * @param length  bytes to generate
+     * @param chunked whether to hide the length and have the body sent chunked
+     */
+    public GeneratedEntity(long length, boolean chunked) {
+        if (length < 0) {
+            throw new IllegalArgumentException("length must not be negative: " + length);
+        }
+        this.length = length;
+        setChunked(chunked);
+        setContentType(ContentType.APPLICATION_OCTET_STREAM.toString());
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return isChunked() ? -1 : length;
+    }
+
+    @Override
+    public InputStream getContent() {
+        return new InputStream() {
+
+            private long position;
+
+            @Override
+            public int read() {
+                return position < length ? (int) (position++ % PERIOD) : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (position >= length) {
+                    return -1;
+                }
+                int read = (int) Math.min(Math.min(len, BUFFER_SIZE), length - position);
+                System.arraycopy(PATTERN, (int) (position % PERIOD), b, off, read);
+                position += read;
+                return read;
+            }
+        };
+    }
+
+    @Override
+    public void writeTo(OutputStream outputStream) throws IOException {
+        for (long position = 0; position < length; ) {
+            int write = (int) Math.min(BUFFER_SIZE, length - position);
+            outputStream.write(PATTERN, (int) (position % PERIOD), write);
+            position += write;
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * Text to compress, the same for the same length
+     *
+     * @param length
+     * @return words drawn from a small vocabulary, compressible about as well as markup
+     */
+    public static String text(int length) {
+        String[] words = {"proxy", "client", "server", "request", "response", "header", "body", "chunk", "the", "a"};
+        Random random = new Random(length);
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            text.append(words[random.nextInt(words.length)]).append(' ');
+        }
+        text.setLength(length);
+        return text.toString();
+    }
+
+    /**
+     * Reads a stream to its end through one small buffer, checking every byte against the pattern
+     *
+     * @param inputStream
+     * @return number of bytes read
+     * @throws IOException if a byte doesn't match
+     */
+    public static long consume(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long position = 0;
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            int expected = (int) (position % PERIOD);
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] != (byte) expected) {
+                    throw new IOException("Unexpected byte at " + (position + i));
+                }
+                if (++expected == PERIOD) {
+                    expected = 0;
+                }
+            }
+            position += read;
+        }
+        return position;
+    }
+
+}
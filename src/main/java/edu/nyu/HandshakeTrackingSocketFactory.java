@@ -0,0 +1,92 @@
+package edu.nyu;
+
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.protocol.HttpContext;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link SSLConnectionSocketFactory} that times every TLS handshake and tells full handshakes from resumed ones.
+ * <p>
+ * A handshake counts as resumed when it ends up with a session ID this factory has already seen. That only holds
+ * for TLS 1.2 and earlier, TLS 1.3 hands out a fresh session for every resumption, which is why
+ * {@link #TLS_V12} is pinned unless other protocols are requested explicitly.
+ */
+public class HandshakeTrackingSocketFactory extends SSLConnectionSocketFactory {
+
+    public static final String[] TLS_V12 = {"TLSv1.2"};
+
+    // bounds the memory spent on remembering session IDs, forgetting them only costs accuracy
+    private static final int MAX_TRACKED_SESSIONS = 100_000;
+
+    private final Set<ByteBuffer> seenSessionIds = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final LongAdder fullHandshakes = new LongAdder();
+    private final LongAdder resumedHandshakes = new LongAdder();
+    private final LatencyHistogram fullHandshakeTime = new LatencyHistogram();
+    private final LatencyHistogram resumedHandshakeTime = new LatencyHistogram();
+
+    public HandshakeTrackingSocketFactory(SSLContext sslContext) {
+        this(sslContext, TLS_V12);
+    }
+
+    public HandshakeTrackingSocketFactory(SSLContext sslContext, String[] supportedProtocols) {
+        super(sslContext, supportedProtocols, null, getDefaultHostnameVerifier());
+    }
+
+    @Override
+    public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context)
+            throws IOException {
+        long start = System.nanoTime();
+        // the handshake and hostname verification both happen in here
+        Socket layered = super.createLayeredSocket(socket, target, port, context);
+        long elapsed = System.nanoTime() - start;
+        if (layered instanceof SSLSocket) {
+            SSLSession sslSession = ((SSLSocket) layered).getSession();
+            ByteBuffer sessionId = ByteBuffer.wrap(sslSession.getId());
+            if (seenSessionIds.contains(sessionId)) {
+                resumedHandshakes.increment();
+                resumedHandshakeTime.record(elapsed);
+            } else {
+                if (seenSessionIds.size() >= MAX_TRACKED_SESSIONS) {
+                    seenSessionIds.clear();
+                }
+                seenSessionIds.add(sessionId);
+                fullHandshakes.increment();
+                fullHandshakeTime.record(elapsed);
+            }
+        }
+        return layered;
+    }
+
+    public long getFullHandshakes() {
+        return fullHandshakes.sum();
+    }
+
+    public long getResumedHandshakes() {
+        return resumedHandshakes.sum();
+    }
+
+    /**
+     * @return nanoseconds spent in full handshakes, including hostname verification
+     */
+    public LatencyHistogram getFullHandshakeTime() {
+        return fullHandshakeTime;
+    }
+
+    /**
+     * @return nanoseconds spent in abbreviated handshakes, including hostname verification
+     */
+    public LatencyHistogram getResumedHandshakeTime() {
+        return resumedHandshakeTime;
+    }
+
+}
@@ -0,0 +1,232 @@
+package edu.nyu;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server {@link SSLContext}s for intercepted hosts, each with a key pair and a certificate issued by a
+ * {@link CertificateAuthority}, kept for the least recently used {@code maxHosts} hosts.
+ * <p>
+ * A miss costs a key pair and a signature. Key pairs are taken from a queue that a background thread keeps filled, so
+ * only the signature is left on the caller's path while the queue keeps up; a key pair is generated inline when it
+ * doesn't. Concurrent misses for one host wait for the context already being made instead of each issuing their own.
+ * The map is guarded by its monitor, which is never held while issuing.
+ */
+public class HostCertificateCache implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HostCertificateCache.class);
+
+    public static final int DEFAULT_MAX_HOSTS = 1024;
+    public static final int DEFAULT_PREGENERATED_KEY_PAIRS = 16;
+
+    private static final char[] KEY_PASSWORD = "mitm".toCharArray();
+
+    private final CertificateAuthority certificateAuthority;
+    private final int maxHosts;
+    private final String keyAlgorithm;
+    private final int keySize;
+    // access ordered, the eldest entry is the least recently used host
+    private final LinkedHashMap<String, CompletableFuture<SSLContext>> contexts =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private final BlockingQueue<KeyPair> keyPairs;
+    private final Thread generator;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder inlineKeyPairs = new LongAdder();
+
+    /**
+     * RSA 2048 keys, {@link #DEFAULT_MAX_HOSTS} hosts and {@link #DEFAULT_PREGENERATED_KEY_PAIRS} key pairs ahead
+     *
+     * @param certificateAuthority issues the certificates
+     */
+    public HostCertificateCache(CertificateAuthority certificateAuthority) {
+        this(certificateAuthority, DEFAULT_MAX_HOSTS, DEFAULT_PREGENERATED_KEY_PAIRS, "RSA", 2048);
+    }
+
+    /**
+     * @param certificateAuthority issues the certificates
+     * @param maxHosts             hosts to keep contexts for
+     * @param pregeneratedKeyPairs key pairs to keep ready, 0 generates each one when it is needed
+     * @param keyAlgorithm         {@code RSA} or {@code EC}, EC keys are much cheaper to generate
+     * @param keySize              e.g. 2048 for RSA or 256 for EC
+     */
+    public HostCertificateCache(CertificateAuthority certificateAuthority, int maxHosts, int pregeneratedKeyPairs,
+                                String keyAlgorithm, int keySize) {
+        if (maxHosts < 1 || pregeneratedKeyPairs < 0) {
+            throw new IllegalArgumentException("Max hosts must be positive and pregenerated key pairs not negative");
+        }
+        this.certificateAuthority = certificateAuthority;
+        this.maxHosts = maxHosts;
+        this.keyAlgorithm = keyAlgorithm;
+        this.keySize = keySize;
+        if (pregeneratedKeyPairs > 0) {
+            keyPairs = new ArrayBlockingQueue<>(pregeneratedKeyPairs);
+            generator = new Thread(this::pregenerate, "mitm-key-pair-generator");
+            generator.setDaemon(true);
+            generator.start();
+        } else {
+            keyPairs = null;
+            generator = null;
+        }
+    }
+
+    /**
+     * @param host host name or IP address the client asked for
+     * @return server context presenting a certificate for the host
+     * @throws GeneralSecurityException if no certificate could be issued
+     */
+    public SSLContext get(String host) throws GeneralSecurityException {
+        CompletableFuture<SSLContext> context;
+        CompletableFuture<SSLContext> created = null;
+        synchronized (contexts) {
+            context = contexts.get(host);
+            if (context == null) {
+                created = new CompletableFuture<>();
+                contexts.put(host, created);
+                evict();
+            }
+        }
+        if (created == null) {
+            if (context.isDone()) {
+                hits.increment();
+            } else {
+                coalesced.increment();
+            }
+            try {
+                return context.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof GeneralSecurityException ? (GeneralSecurityException) e.getCause()
+                        : new GeneralSecurityException(e.getCause());
+            }
+        }
+        misses.increment();
+        try {
+            SSLContext sslContext = create(host);
+            created.complete(sslContext);
+            return sslContext;
+        } catch (GeneralSecurityException | IOException | RuntimeException e) {
+            // let the next request for the host try again
+            synchronized (contexts) {
+                contexts.remove(host, created);
+            }
+            created.completeExceptionally(e);
+            throw e instanceof GeneralSecurityException ? (GeneralSecurityException) e
+                    : new GeneralSecurityException("Can't create a context for " + host, e);
+        }
+    }
+
+    public int size() {
+        synchronized (contexts) {
+            return contexts.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return requests that waited for a context another request was creating
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return key pairs generated on a caller's path because none was ready
+     */
+    public long getInlineKeyPairs() {
+        return inlineKeyPairs.sum();
+    }
+
+    /**
+     * @return key pairs ready to be used
+     */
+    public int getReadyKeyPairs() {
+        return keyPairs != null ? keyPairs.size() : 0;
+    }
+
+    /**
+     * Stops generating key pairs, contexts already handed out keep working
+     */
+    @Override
+    public void close() {
+        if (generator != null) {
+            generator.interrupt();
+        }
+    }
+
+    private SSLContext create(String host) throws GeneralSecurityException, IOException {
+        KeyPair keyPair = keyPairs != null ? keyPairs.poll() : null;
+        if (keyPair == null) {
+            inlineKeyPairs.increment();
+            keyPair = generateKeyPair();
+        }
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry(host, keyPair.getPrivate(), KEY_PASSWORD, new Certificate[]{
+                certificateAuthority.issue(host, keyPair.getPublic()), certificateAuthority.getCertificate()});
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, KEY_PASSWORD);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+        return sslContext;
+    }
+
+    private KeyPair generateKeyPair() throws GeneralSecurityException {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(keyAlgorithm);
+        keyPairGenerator.initialize(keySize);
+        return keyPairGenerator.generateKeyPair();
+    }
+
+    private void pregenerate() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                keyPairs.put(generateKeyPair());
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (GeneralSecurityException e) {
+            LOGGER.error("Can't generate {} key pairs, every miss generates its own", keyAlgorithm, e);
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, CompletableFuture<SSLContext>>> eldest = contexts.entrySet().iterator();
+        while (contexts.size() > maxHosts && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+}
@@ -0,0 +1,216 @@
+package edu.nyu;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * The part of an HTTP client the scenarios need, so the same scenario runs on HttpClient 4.5's blocking client
+ * ({@link BlockingHttpEngine}), HttpClient 5's non-blocking client ({@link AsyncHttpEngine}) and the JDK's
+ * {@code java.net.http} client ({@code JdkHttpEngine}).
+ * <p>
+ * The project targets Java 8, so {@code JdkHttpEngine} lives in {@code src/main/java11} and is only compiled by the
+ * {@code jdk11} profile, which Maven activates on JDK 11 and later; {@link Type#JDK} loads it by name.
+ * <p>
+ * Engines are built from an {@link HttpEngineConfig} through {@link Type#create(HttpEngineConfig)}, buffer the whole
+ * response body, and own their connection pools and threads until they are closed.
+ */
+public interface HttpEngine extends Closeable {
+
+    /**
+     * Sends a GET without blocking the caller; the blocking engine spends a thread per request in flight on it
+     *
+     * @param uri
+     * @return future completed with the response, or exceptionally with the engine's {@link IOException}
+     */
+    CompletableFuture<Response> executeAsync(URI uri);
+
+    /**
+     * Sends a GET and waits for the response
+     *
+     * @param uri
+     * @return Response
+     * @throws IOException
+     */
+    default Response execute(URI uri) throws IOException {
+        try {
+            return executeAsync(uri).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + uri);
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    /**
+     * @param throwable cause of a failed future
+     * @return the {@link IOException} the engine failed with, or one wrapping whatever else it was
+     */
+    static IOException unwrap(Throwable throwable) {
+        Throwable cause = throwable;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new IOException(cause);
+    }
+
+    enum Protocol {
+        HTTP_1_1, HTTP_2
+    }
+
+    enum Type {
+
+        /**
+         * HttpClient 4.5 {@code HttpClientBuilder}, thread-per-request, HTTP/1.1 only
+         */
+        BLOCKING(false) {
+            @Override
+            public HttpEngine create(HttpEngineConfig config) {
+                return new BlockingHttpEngine(config);
+            }
+        },
+        /**
+         * HttpClient 5 {@code HttpAsyncClients}, one I/O reactor, HTTP/2 negotiated over TLS
+         */
+        ASYNC(true) {
+            @Override
+            public HttpEngine create(HttpEngineConfig config) {
+                return new AsyncHttpEngine(config);
+            }
+        },
+        /**
+         * {@code java.net.http.HttpClient}, Java 11 and later, HTTP/2 negotiated over TLS or upgraded from HTTP/1.1
+         */
+        JDK(true) {
+            @Override
+            public HttpEngine create(HttpEngineConfig config) {
+                if (!isAvailable()) {
+                    throw new UnsupportedOperationException("java.net.http needs Java 11 or later, at build and run "
+                            + "time");
+                }
+                try {
+                    return (HttpEngine) Class.forName(JDK_ENGINE).getConstructor(HttpEngineConfig.class)
+                            .newInstance(config);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause() instanceof RuntimeException
+                            ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Can't create " + JDK_ENGINE, e);
+                }
+            }
+
+            @Override
+            public boolean isAvailable() {
+                try {
+                    Class.forName("java.net.http.HttpClient");
+                    // absent when the tree was built on Java 8
+                    Class.forName(JDK_ENGINE);
+                    return true;
+                } catch (ClassNotFoundException | LinkageError e) {
+                    return false;
+                }
+            }
+        };
+
+        private static final String JDK_ENGINE = "edu.nyu.JdkHttpEngine";
+
+        private final boolean http2;
+
+        Type(boolean http2) {
+            this.http2 = http2;
+        }
+
+        public abstract HttpEngine create(HttpEngineConfig config);
+
+        /**
+         * @return whether the engine can run on this JVM
+         */
+        public boolean isAvailable() {
+            return true;
+        }
+
+        /**
+         * @param protocol
+         * @return whether the engine speaks the protocol, engines asked for one they don't speak use HTTP/1.1
+         */
+        public boolean supports(Protocol protocol) {
+            return protocol == Protocol.HTTP_1_1 || http2;
+        }
+
+    }
+
+    /**
+     * Status, protocol, headers and buffered body of a response, whichever engine received it
+     */
+    class Response {
+
+        private final int statusCode;
+        private final Protocol protocol;
+        private final Map<String, List<String>> headers;
+        private final byte[] body;
+
+        /**
+         * @param statusCode
+         * @param protocol
+         * @param headers    values by header name, names are matched ignoring case
+         * @param body       null for none
+         */
+        public Response(int statusCode, Protocol protocol, Map<String, List<String>> headers, byte[] body) {
+            this.statusCode = statusCode;
+            this.protocol = protocol;
+            Map<String, List<String>> copy = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            copy.putAll(headers);
+            this.headers = Collections.unmodifiableMap(copy);
+            this.body = body != null ? body : new byte[0];
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public Protocol getProtocol() {
+            return protocol;
+        }
+
+        public Map<String, List<String>> getHeaders() {
+            return headers;
+        }
+
+        /**
+         * @param name
+         * @return first value of the header, or null if the response doesn't have it
+         */
+        public String getFirstHeader(String name) {
+            List<String> values = headers.get(name);
+            return values == null || values.isEmpty() ? null : values.get(0);
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        @Override
+        public String toString() {
+            return protocol + " " + statusCode + " (" + body.length + " bytes)";
+        }
+
+    }
+
+}
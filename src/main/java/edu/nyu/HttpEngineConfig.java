@@ -0,0 +1,116 @@
+package edu.nyu;
+
+import javax.net.ssl.SSLContext;
+import java.net.InetSocketAddress;
+
+/**
+ * Engine independent client settings, each {@link HttpEngine} maps them onto its own builder.
+ * <p>
+ * Defaults match {@code HttpClientBuilder.create()}: no proxy, the JVM's default trust, cookies kept and redirects
+ * followed, HTTP/1.1.
+ */
+public class HttpEngineConfig {
+
+    private InetSocketAddress proxy;
+    private String proxyUser;
+    private String proxyPassword;
+    private SSLContext sslContext;
+    private boolean cookies = true;
+    private boolean redirects = true;
+    private HttpEngine.Protocol protocol = HttpEngine.Protocol.HTTP_1_1;
+    private int maxConnections = 64;
+
+    /**
+     * @param host
+     * @param port
+     * @return HttpEngineConfig
+     */
+    public HttpEngineConfig setProxy(String host, int port) {
+        this.proxy = InetSocketAddress.createUnresolved(host, port);
+        return this;
+    }
+
+    /**
+     * @param user     sent with Basic authentication once the proxy asks for it
+     * @param password
+     * @return HttpEngineConfig
+     */
+    public HttpEngineConfig setProxyCredentials(String user, String password) {
+        this.proxyUser = user;
+        this.proxyPassword = password;
+        return this;
+    }
+
+    /**
+     * @param sslContext context to trust (and check revocation of) server certificates with, null for the default
+     * @return HttpEngineConfig
+     */
+    public HttpEngineConfig setSslContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+        return this;
+    }
+
+    public HttpEngineConfig setCookies(boolean cookies) {
+        this.cookies = cookies;
+        return this;
+    }
+
+    public HttpEngineConfig setRedirects(boolean redirects) {
+        this.redirects = redirects;
+        return this;
+    }
+
+    /**
+     * @param protocol protocol to prefer, engines fall back to HTTP/1.1 where the server or the engine can't do it
+     * @return HttpEngineConfig
+     */
+    public HttpEngineConfig setProtocol(HttpEngine.Protocol protocol) {
+        this.protocol = protocol;
+        return this;
+    }
+
+    /**
+     * @param maxConnections connections per route and in total, for the engines that pool them
+     * @return HttpEngineConfig
+     */
+    public HttpEngineConfig setMaxConnections(int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("Max connections must be positive: " + maxConnections);
+        }
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public InetSocketAddress getProxy() {
+        return proxy;
+    }
+
+    public String getProxyUser() {
+        return proxyUser;
+    }
+
+    public String getProxyPassword() {
+        return proxyPassword;
+    }
+
+    public SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    public boolean isCookies() {
+        return cookies;
+    }
+
+    public boolean isRedirects() {
+        return redirects;
+    }
+
+    public HttpEngine.Protocol getProtocol() {
+        return protocol;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+}
@@ -0,0 +1,158 @@
+package edu.nyu;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram of non-negative values (typically nanoseconds).
+ * <p>
+ * Values below 128 are counted exactly, larger values land in one of 64 linear sub-buckets per power of two, which
+ * bounds the relative error of any reported percentile to under 1.6% while keeping the whole histogram in a single
+ * fixed-size array.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int EXACT_LIMIT = SUB_BUCKET_COUNT << 1;
+    private static final int BUCKETS = EXACT_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalValue = new LongAdder();
+
+    /**
+     * Records a single value, negative values are clamped to zero
+     *
+     * @param value
+     */
+    public void record(long value) {
+        record(value, 1);
+    }
+
+    /**
+     * Records the same value {@code count} times
+     *
+     * @param value
+     * @param count
+     */
+    public void record(long value, long count) {
+        long clamped = Math.max(0, value);
+        counts.addAndGet(indexOf(clamped), count);
+        totalCount.add(count);
+        totalValue.add(clamped * count);
+    }
+
+    /**
+     * Adds every recorded value of another histogram to this one
+     *
+     * @param other
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.counts.get(i);
+            if (count > 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        totalCount.add(other.totalCount.sum());
+        totalValue.add(other.totalValue.sum());
+    }
+
+    /**
+     * @return an independent copy of the values recorded so far
+     */
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        copy.add(this);
+        return copy;
+    }
+
+    /**
+     * Forgets every recorded value, concurrent recordings may partially survive
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.reset();
+        totalValue.reset();
+    }
+
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) totalValue.sum() / count;
+    }
+
+    public long getMax() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) > 0) {
+                return highestValueAt(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the value at the given percentile, e.g. {@code 99.9}
+     *
+     * @param percentile between 0 and 100
+     * @return highest value equivalent to the bucket holding the percentile, 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return highestValueAt(i);
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Formats the usual percentiles of a histogram of nanoseconds in the given unit
+     *
+     * @param unit
+     * @return String
+     */
+    public String summary(TimeUnit unit) {
+        return String.format("count=%d mean=%.3f p50=%.3f p99=%.3f p99.9=%.3f max=%.3f (%s)", getCount(),
+                getMean() / unit.toNanos(1), convert(getValueAtPercentile(50), unit),
+                convert(getValueAtPercentile(99), unit), convert(getValueAtPercentile(99.9), unit),
+                convert(getMax(), unit), unit.name().toLowerCase());
+    }
+
+    private static double convert(long nanos, TimeUnit unit) {
+        return (double) nanos / unit.toNanos(1);
+    }
+
+    static int indexOf(long value) {
+        if (value < EXACT_LIMIT) {
+            return (int) value;
+        }
+        // shift so that the value keeps SUB_BUCKET_BITS + 1 significant bits
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return EXACT_LIMIT + (shift - 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+    }
+
+    static long highestValueAt(int index) {
+        if (index < EXACT_LIMIT) {
+            return index;
+        }
+        int shift = (index - EXACT_LIMIT) / SUB_BUCKET_COUNT + 1;
+        long subBucket = (index - EXACT_LIMIT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+}
@@ -0,0 +1,291 @@
+package edu.nyu;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-model load driver for an {@link HttpClient}.
+ * <p>
+ * Requests are scheduled at a fixed rate independent of how fast responses come back, and a pool of workers picks
+ * them up in order. Response time is measured from the moment a request was <em>scheduled</em> rather than the moment
+ * a worker got around to sending it, so queueing caused by a saturated client pool, proxy or server shows up in the
+ * percentiles instead of silently lowering the offered load (coordinated omission). Service time, measured from the
+ * actual send, is kept separately for comparison.
+ * <p>
+ * {@link #main(String[])} sweeps a list of rates against an embedded {@code ServerBootstrap} server, optionally
+ * through a {@code DefaultHttpProxyServer}, and prints the throughput curve. It is configured with system
+ * properties: {@code load.rates} (comma separated requests/s), {@code load.duration} (seconds per rate),
+ * {@code load.workers} and {@code load.proxy}.
+ */
+public class LoadGenerator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadGenerator.class);
+
+    private final HttpClient httpClient;
+    private final URI uri;
+    private final int workers;
+
+    /**
+     * @param httpClient client shared by all workers, its pool should allow {@code workers} connections per route
+     * @param uri        target of every GET request
+     * @param workers    number of threads sending requests
+     */
+    public LoadGenerator(HttpClient httpClient, URI uri, int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be positive: " + workers);
+        }
+        this.httpClient = httpClient;
+        this.uri = uri;
+        this.workers = workers;
+    }
+
+    /**
+     * Offers {@code requestsPerSecond} for the given duration and waits for every scheduled request to finish
+     *
+     * @param requestsPerSecond above 0 and at most 1e9, one request per nanosecond
+     * @param duration
+     * @param unit
+     * @return Result
+     * @throws InterruptedException
+     */
+    public Result run(double requestsPerSecond, long duration, TimeUnit unit) throws InterruptedException {
+        // also rejects NaN, which would schedule nothing
+        if (!(requestsPerSecond > 0 && requestsPerSecond <= TimeUnit.SECONDS.toNanos(1))) {
+            throw new IllegalArgumentException("requestsPerSecond must be positive and at most 1e9: "
+                    + requestsPerSecond);
+        }
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+        long durationNanos = unit.toNanos(duration);
+        long scheduled = Math.max(1, durationNanos / intervalNanos);
+        Run run = new Run(System.nanoTime(), intervalNanos, scheduled, unit.toSeconds(duration) + 1);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                futures.add(executorService.submit(run::work));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Load worker failed", e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+        long elapsed = System.nanoTime() - run.startNanos;
+        return new Result(requestsPerSecond, run.completed.sum(), run.errors.sum(), elapsed, run.responseTime,
+                run.serviceTime, run.completedPerSecond);
+    }
+
+    /**
+     * State shared by the workers of a single {@link #run}
+     */
+    private class Run {
+
+        private final long startNanos;
+        private final long intervalNanos;
+        private final long scheduled;
+        private final AtomicLong next = new AtomicLong();
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LatencyHistogram responseTime = new LatencyHistogram();
+        private final LatencyHistogram serviceTime = new LatencyHistogram();
+        private final AtomicLongArray completedPerSecond;
+
+        private Run(long startNanos, long intervalNanos, long scheduled, long seconds) {
+            this.startNanos = startNanos;
+            this.intervalNanos = intervalNanos;
+            this.scheduled = scheduled;
+            // generous so a run that falls far behind still has somewhere to count its completions
+            this.completedPerSecond = new AtomicLongArray((int) seconds * 4 + 1);
+        }
+
+        private void work() {
+            for (long i = next.getAndIncrement(); i < scheduled; i = next.getAndIncrement()) {
+                long intendedStart = startNanos + i * intervalNanos;
+                long wait;
+                while ((wait = intendedStart - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                long actualStart = System.nanoTime();
+                try {
+                    HttpResponse httpResponse = httpClient.execute(RequestBuilder.get(uri).build());
+                    EntityUtils.consume(httpResponse.getEntity());
+                    if (httpResponse.getStatusLine().getStatusCode() >= HttpStatus.SC_BAD_REQUEST) {
+                        errors.increment();
+                    }
+                } catch (IOException e) {
+                    errors.increment();
+                    LOGGER.debug("Request {} failed", i, e);
+                }
+                long end = System.nanoTime();
+                responseTime.record(end - intendedStart);
+                serviceTime.record(end - actualStart);
+                completed.increment();
+                int second = (int) Math.min(TimeUnit.NANOSECONDS.toSeconds(end - startNanos),
+                        completedPerSecond.length() - 1);
+                completedPerSecond.incrementAndGet(second);
+            }
+        }
+
+    }
+
+    /**
+     * Outcome of a single run at a fixed offered rate
+     */
+    public static class Result {
+
+        private final double offeredRate;
+        private final long completed;
+        private final long errors;
+        private final long elapsedNanos;
+        private final LatencyHistogram responseTime;
+        private final LatencyHistogram serviceTime;
+        private final long[] completedPerSecond;
+
+        private Result(double offeredRate, long completed, long errors, long elapsedNanos,
+                       LatencyHistogram responseTime, LatencyHistogram serviceTime, AtomicLongArray perSecond) {
+            this.offeredRate = offeredRate;
+            this.completed = completed;
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+            this.responseTime = responseTime;
+            this.serviceTime = serviceTime;
+            int seconds = perSecond.length();
+            while (seconds > 0 && perSecond.get(seconds - 1) == 0) {
+                seconds--;
+            }
+            this.completedPerSecond = new long[seconds];
+            for (int i = 0; i < seconds; i++) {
+                this.completedPerSecond[i] = perSecond.get(i);
+            }
+        }
+
+        public double getOfferedRate() {
+            return offeredRate;
+        }
+
+        public double getAchievedRate() {
+            return completed / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return nanoseconds from the scheduled start of each request to its completion
+         */
+        public LatencyHistogram getResponseTime() {
+            return responseTime;
+        }
+
+        /**
+         * @return nanoseconds from the actual send of each request to its completion
+         */
+        public LatencyHistogram getServiceTime() {
+            return serviceTime;
+        }
+
+        /**
+         * @return completions bucketed by second since the run started
+         */
+        public long[] getCompletedPerSecond() {
+            return completedPerSecond.clone();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("offered=%.1f/s achieved=%.1f/s completed=%d errors=%d p50=%.3fms p99=%.3fms "
+                            + "p99.9=%.3fms service.p99=%.3fms", offeredRate, getAchievedRate(), completed, errors,
+                    millis(responseTime.getValueAtPercentile(50)), millis(responseTime.getValueAtPercentile(99)),
+                    millis(responseTime.getValueAtPercentile(99.9)), millis(serviceTime.getValueAtPercentile(99)));
+        }
+
+        private static double millis(long nanos) {
+            return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] rates = System.getProperty("load.rates", "100,500,1000,2000,4000").split(",");
+        long duration = Long.getLong("load.duration", 10);
+        int workers = Integer.getInteger("load.workers", Runtime.getRuntime().availableProcessors() * 4);
+        boolean proxied = Boolean.getBoolean("load.proxy");
+
+        HttpServer httpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler("/", (req, resp, context) -> resp.setStatusCode(HttpStatus.SC_OK))
+                .create();
+        httpServer.start();
+        HttpProxyServer proxyHttpServer = proxied ? DefaultHttpProxyServer.bootstrap().withPort(0).start() : null;
+
+        HttpClientBuilder httpClientBuilder = HttpClientBuilder.create()
+                .setMaxConnPerRoute(workers).setMaxConnTotal(workers);
+        if (proxyHttpServer != null) {
+            httpClientBuilder.setProxy(new HttpHost("localhost", proxyHttpServer.getListenAddress().getPort()));
+        }
+        URI uri = new URIBuilder().setScheme("http").setHost("localhost").setPort(httpServer.getLocalPort())
+                .setPath("/").build();
+        try (CloseableHttpClient httpClient = httpClientBuilder.build()) {
+            LoadGenerator loadGenerator = new LoadGenerator(httpClient, uri, workers);
+            List<Result> results = new ArrayList<>();
+            for (String rate : rates) {
+                Result result = loadGenerator.run(Double.parseDouble(rate.trim()), duration, TimeUnit.SECONDS);
+                results.add(result);
+                StringBuilder curve = new StringBuilder();
+                for (long perSecond : result.getCompletedPerSecond()) {
+                    curve.append(' ').append(perSecond);
+                }
+                System.out.printf("%s%n  completed per second:%s%n", result, curve);
+            }
+            System.out.printf("%n%-10s %-10s %-10s %-10s %-10s %-10s%n", "offered", "achieved", "p50 ms", "p99 ms",
+                    "p99.9 ms", "errors");
+            for (Result result : results) {
+                System.out.printf("%-10.1f %-10.1f %-10.3f %-10.3f %-10.3f %-10d%n", result.getOfferedRate(),
+                        result.getAchievedRate(), Result.millis(result.getResponseTime().getValueAtPercentile(50)),
+                        Result.millis(result.getResponseTime().getValueAtPercentile(99)),
+                        Result.millis(result.getResponseTime().getValueAtPercentile(99.9)), result.getErrors());
+            }
+        } finally {
+            if (proxyHttpServer != null) {
+                proxyHttpServer.stop();
+            }
+            httpServer.stop();
+        }
+    }
+
+}
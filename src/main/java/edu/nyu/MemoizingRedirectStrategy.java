@@ -0,0 +1,272 @@
+package edu.nyu;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.ProtocolException;
+import org.apache.http.client.CircularRedirectException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.UnsupportedSchemeException;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.DefaultRedirectStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
+import org.apache.http.impl.execchain.ClientExecChain;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link DefaultRedirectStrategy} remembering permanent redirects, so later requests skip the hops.
+ * <p>
+ * Targets of {@code 301} and {@code 308} responses are kept per absolute URI in a bounded LRU map once
+ * {@link #getLocationURI} has accepted them, i.e. after the circular redirect check. A redirect strategy only sees
+ * responses, it can't change where a request goes before it is sent; clients from {@link #builder()} do that in
+ * their protocol exec, inside the retry and redirect handling. It follows the remembered chain up front, failing
+ * with the same {@link CircularRedirectException} the default strategy would if the chain loops, and sends the
+ * request to the end of it, through the proxy of the original route. If that fails, or comes back with an error
+ * status, the chain is dropped and the request is sent to its original URI again. Requests with redirects disabled
+ * always go to their original URI. HttpClient 4.5 doesn't follow {@code 308} on its own, this strategy treats it like
+ * {@code 307}.
+ */
+public class MemoizingRedirectStrategy extends DefaultRedirectStrategy {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MemoizingRedirectStrategy.class);
+
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+    // not in httpcore 4.4's HttpStatus
+    public static final int SC_PERMANENT_REDIRECT = 308;
+    // same as RequestConfig's default for maxRedirects
+    private static final int MAX_HOPS = 50;
+
+    private final LinkedHashMap<String, URI> redirects;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public MemoizingRedirectStrategy() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries number of redirects remembered, the least recently used one goes first
+     */
+    public MemoizingRedirectStrategy(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.redirects = new LinkedHashMap<String, URI>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, URI> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return builder with this strategy set, whose clients send requests to remembered targets
+     */
+    public HttpClientBuilder builder() {
+        return new MemoizingClientBuilder().setRedirectStrategy(this);
+    }
+
+    @Override
+    public boolean isRedirected(HttpRequest request, HttpResponse response, HttpContext context)
+            throws ProtocolException {
+        if (response.getStatusLine().getStatusCode() == SC_PERMANENT_REDIRECT) {
+            return isRedirectable(request.getRequestLine().getMethod()) && response.getFirstHeader("location") != null;
+        }
+        return super.isRedirected(request, response, context);
+    }
+
+    @Override
+    public HttpUriRequest getRedirect(HttpRequest request, HttpResponse response, HttpContext context)
+            throws ProtocolException {
+        if (response.getStatusLine().getStatusCode() == SC_PERMANENT_REDIRECT) {
+            return RequestBuilder.copy(request).setUri(getLocationURI(request, response, context)).build();
+        }
+        return super.getRedirect(request, response, context);
+    }
+
+    @Override
+    public URI getLocationURI(HttpRequest request, HttpResponse response, HttpContext context)
+            throws ProtocolException {
+        URI location = super.getLocationURI(request, response, context);
+        int status = response.getStatusLine().getStatusCode();
+        if (status == HttpStatus.SC_MOVED_PERMANENTLY || status == SC_PERMANENT_REDIRECT) {
+            String source = key(HttpClientContext.adapt(context).getTargetHost(), requestUri(request));
+            if (source != null) {
+                synchronized (redirects) {
+                    redirects.put(source, location);
+                }
+            }
+        }
+        return location;
+    }
+
+    /**
+     * @return requests sent straight to a remembered target
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return remembered redirects dropped because the end of their chain failed
+     */
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    public int size() {
+        synchronized (redirects) {
+            return redirects.size();
+        }
+    }
+
+    /**
+     * Follows remembered redirects from {@code source}
+     *
+     * @param source absolute URI
+     * @return end of the chain, or null if nothing is remembered for {@code source}
+     * @throws CircularRedirectException if the chain loops
+     */
+    URI resolve(String source) throws CircularRedirectException {
+        // mirrors RedirectLocations: the original URI isn't in the list, a loop shows once a target repeats
+        List<URI> locations = new ArrayList<>();
+        URI current = null;
+        String key = source;
+        synchronized (redirects) {
+            for (URI next = redirects.get(key); next != null && locations.size() < MAX_HOPS;
+                 next = redirects.get(key)) {
+                if (locations.contains(next)) {
+                    throw new CircularRedirectException("Circular redirect to '" + next + "'");
+                }
+                locations.add(next);
+                current = next;
+                key = next.toString();
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Drops the remembered chain starting at {@code source}, it isn't known which of its hops went stale
+     *
+     * @param source absolute URI
+     */
+    void invalidate(String source) {
+        synchronized (redirects) {
+            // removing as we go also ends a looping chain
+            for (URI next = redirects.remove(source); next != null; next = redirects.remove(next.toString())) {
+                invalidations.increment();
+            }
+        }
+    }
+
+    private static URI requestUri(HttpRequest request) {
+        if (request instanceof HttpUriRequest) {
+            return ((HttpUriRequest) request).getURI();
+        }
+        try {
+            return new URI(request.getRequestLine().getUri());
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    private static String key(HttpHost target, URI uri) {
+        if (uri == null) {
+            return null;
+        }
+        try {
+            return (uri.isAbsolute() || target == null ? URIUtils.rewriteURI(uri) : URIUtils.rewriteURI(uri, target,
+                    true)).toString();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Builder of clients whose protocol exec sends requests to the end of their remembered redirect chain
+     */
+    private class MemoizingClientBuilder extends HttpClientBuilder {
+
+        @Override
+        protected ClientExecChain decorateProtocolExec(ClientExecChain protocolExec) {
+            return (route, request, context, execAware) -> {
+                String source = key(route.getTargetHost(), requestUri(request));
+                // a client that doesn't follow redirects wants to see them
+                if (source == null || !isRedirectable(request.getRequestLine().getMethod())
+                        || !HttpClientContext.adapt(context).getRequestConfig().isRedirectsEnabled()) {
+                    return protocolExec.execute(route, request, context, execAware);
+                }
+                URI remembered = resolve(source);
+                if (remembered == null) {
+                    return protocolExec.execute(route, request, context, execAware);
+                }
+                hits.increment();
+                HttpHost target = target(remembered);
+                // the same proxy and local address as the original request
+                HttpRoute rememberedRoute = route.getProxyHost() == null
+                        ? new HttpRoute(target, route.getLocalAddress(), isSecure(target))
+                        : new HttpRoute(target, route.getLocalAddress(), route.getProxyHost(), isSecure(target));
+                HttpRequestWrapper rewritten = HttpRequestWrapper.wrap(
+                        RequestBuilder.copy(request.getOriginal()).setUri(remembered).build(), target);
+                try {
+                    CloseableHttpResponse httpResponse = protocolExec.execute(rememberedRoute, rewritten, context,
+                            execAware);
+                    if (httpResponse.getStatusLine().getStatusCode() < HttpStatus.SC_BAD_REQUEST) {
+                        return httpResponse;
+                    }
+                    LOGGER.debug("Remembered target {} of {} answered {}", remembered, source,
+                            httpResponse.getStatusLine());
+                    EntityUtils.consume(httpResponse.getEntity());
+                    httpResponse.close();
+                } catch (IOException e) {
+                    LOGGER.debug("Remembered target {} of {} failed", remembered, source, e);
+                }
+                // GET and HEAD only, safe to send again
+                invalidate(source);
+                return protocolExec.execute(route, request, context, execAware);
+            };
+        }
+
+        private HttpHost target(URI uri) throws ProtocolException {
+            HttpHost target = URIUtils.extractHost(uri);
+            if (target == null) {
+                throw new ProtocolException("Remembered redirect without a host: " + uri);
+            }
+            if (target.getPort() > 0) {
+                return target;
+            }
+            try {
+                return new HttpHost(target.getHostName(), DefaultSchemePortResolver.INSTANCE.resolve(target),
+                        target.getSchemeName());
+            } catch (UnsupportedSchemeException e) {
+                throw new ProtocolException(e.getMessage(), e);
+            }
+        }
+
+        private boolean isSecure(HttpHost target) {
+            return "https".equalsIgnoreCase(target.getSchemeName());
+        }
+
+    }
+
+}
@@ -0,0 +1,79 @@
+package edu.nyu;
+
+import org.apache.http.client.cache.CacheResponseStatus;
+import org.apache.http.client.cache.HttpCacheContext;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.impl.client.cache.CachingHttpClientBuilder;
+import org.apache.http.impl.execchain.ClientExecChain;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link CachingHttpClientBuilder} counting how the cache answered each request.
+ * <p>
+ * The caching exec chain leaves a {@link CacheResponseStatus} in the context of every request it handles; the chain
+ * returned by {@link #decorateMainExec} wraps it and tallies those, so the counters cover every client built from this
+ * builder. A {@link CacheResponseStatus#VALIDATED} response came from the cache after the origin confirmed it with a
+ * 304, a revalidation that brought back a new body counts as a miss.
+ */
+public class MeteredCachingHttpClientBuilder extends CachingHttpClientBuilder {
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder validated = new LongAdder();
+    private final LongAdder moduleResponses = new LongAdder();
+
+    @Override
+    protected ClientExecChain decorateMainExec(ClientExecChain mainExec) {
+        ClientExecChain cachingExec = super.decorateMainExec(mainExec);
+        return (route, request, clientContext, execAware) -> {
+            CloseableHttpResponse httpResponse = cachingExec.execute(route, request, clientContext, execAware);
+            CacheResponseStatus status = HttpCacheContext.adapt(clientContext).getCacheResponseStatus();
+            if (status != null) {
+                switch (status) {
+                    case CACHE_HIT:
+                        hits.increment();
+                        break;
+                    case VALIDATED:
+                        validated.increment();
+                        break;
+                    case CACHE_MODULE_RESPONSE:
+                        moduleResponses.increment();
+                        break;
+                    default:
+                        misses.increment();
+                }
+            }
+            return httpResponse;
+        };
+    }
+
+    /**
+     * @return responses served from the cache without contacting the origin
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return responses fetched from the origin
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return responses served from the cache after a successful conditional request to the origin
+     */
+    public long getValidated() {
+        return validated.sum();
+    }
+
+    /**
+     * @return responses generated by the cache itself, e.g. a 504 for {@code only-if-cached}
+     */
+    public long getModuleResponses() {
+        return moduleResponses.sum();
+    }
+
+}
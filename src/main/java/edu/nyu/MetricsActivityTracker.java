@@ -0,0 +1,284 @@
+package edu.nyu;
+
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import org.littleshoot.proxy.ActivityTracker;
+import org.littleshoot.proxy.FlowContext;
+import org.littleshoot.proxy.FullFlowContext;
+
+import javax.net.ssl.SSLSession;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records what the proxy did as numbers rather than log lines.
+ * <p>
+ * Byte, request and response counts are kept per client address and per {@link FullFlowContext#getServerHostAndPort()}
+ * in striped {@link LongAdder}s so the Netty event loops never contend on a single counter. The time between
+ * {@link #requestReceivedFromClient} and {@link #responseSentToClient} is recorded in a latency histogram, both
+ * overall and per server. Use {@link #snapshot()} to read a consistent-enough copy of everything.
+ */
+public class MetricsActivityTracker implements ActivityTracker {
+
+    private final ConcurrentMap<String, Counters> clients = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counters> servers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> serverLatencies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<InetSocketAddress, InFlight> inFlight = new ConcurrentHashMap<>();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder sslHandshakes = new LongAdder();
+
+    /**
+     * @return immutable copy of the counters and histograms recorded so far
+     */
+    public Snapshot snapshot() {
+        Map<String, LatencyHistogram> latencies = new HashMap<>();
+        serverLatencies.forEach((server, histogram) -> latencies.put(server, histogram.copy()));
+        return new Snapshot(copy(clients), copy(servers), latency.copy(), latencies, connectionsOpened.sum(),
+                connectionsClosed.sum(), sslHandshakes.sum());
+    }
+
+    /**
+     * Clears everything, convenient between benchmark iterations
+     */
+    public void reset() {
+        clients.clear();
+        servers.clear();
+        serverLatencies.clear();
+        inFlight.clear();
+        latency.reset();
+        connectionsOpened.reset();
+        connectionsClosed.reset();
+        sslHandshakes.reset();
+    }
+
+    @Override
+    public void clientConnected(InetSocketAddress inetSocketAddress) {
+        connectionsOpened.increment();
+    }
+
+    @Override
+    public void clientSSLHandshakeSucceeded(InetSocketAddress inetSocketAddress, SSLSession sslSession) {
+        sslHandshakes.increment();
+    }
+
+    @Override
+    public void clientDisconnected(InetSocketAddress inetSocketAddress, SSLSession sslSession) {
+        connectionsClosed.increment();
+        inFlight.remove(inetSocketAddress);
+    }
+
+    @Override
+    public void bytesReceivedFromClient(FlowContext flowContext, int i) {
+        client(flowContext).bytesReceived.add(i);
+    }
+
+    @Override
+    public void requestReceivedFromClient(FlowContext flowContext, HttpRequest httpRequest) {
+        client(flowContext).requests.increment();
+        inFlight.put(flowContext.getClientAddress(), new InFlight(System.nanoTime()));
+    }
+
+    @Override
+    public void bytesSentToServer(FullFlowContext fullFlowContext, int i) {
+        server(fullFlowContext).bytesSent.add(i);
+    }
+
+    @Override
+    public void requestSentToServer(FullFlowContext fullFlowContext, HttpRequest httpRequest) {
+        server(fullFlowContext).requests.increment();
+        InFlight flight = inFlight.get(fullFlowContext.getClientAddress());
+        if (flight != null) {
+            flight.server = fullFlowContext.getServerHostAndPort();
+        }
+    }
+
+    @Override
+    public void bytesReceivedFromServer(FullFlowContext fullFlowContext, int i) {
+        server(fullFlowContext).bytesReceived.add(i);
+    }
+
+    @Override
+    public void responseReceivedFromServer(FullFlowContext fullFlowContext, HttpResponse httpResponse) {
+        server(fullFlowContext).responses.increment();
+    }
+
+    @Override
+    public void bytesSentToClient(FlowContext flowContext, int i) {
+        client(flowContext).bytesSent.add(i);
+    }
+
+    @Override
+    public void responseSentToClient(FlowContext flowContext, HttpResponse httpResponse) {
+        client(flowContext).responses.increment();
+        InFlight flight = inFlight.remove(flowContext.getClientAddress());
+        if (flight != null) {
+            long elapsed = System.nanoTime() - flight.startNanos;
+            latency.record(elapsed);
+            // responses the proxy answers itself (e.g. 407) never reach a server
+            if (flight.server != null) {
+                serverLatencies.computeIfAbsent(flight.server, server -> new LatencyHistogram()).record(elapsed);
+            }
+        }
+    }
+
+    private Counters client(FlowContext flowContext) {
+        return clients.computeIfAbsent(flowContext.getClientAddress().getAddress().getHostAddress(),
+                address -> new Counters());
+    }
+
+    private Counters server(FullFlowContext fullFlowContext) {
+        return servers.computeIfAbsent(fullFlowContext.getServerHostAndPort(), server -> new Counters());
+    }
+
+    private static Map<String, RouteStats> copy(Map<String, Counters> counters) {
+        Map<String, RouteStats> stats = new HashMap<>();
+        counters.forEach((route, c) -> stats.put(route, new RouteStats(c.bytesReceived.sum(), c.bytesSent.sum(),
+                c.requests.sum(), c.responses.sum())));
+        return Collections.unmodifiableMap(stats);
+    }
+
+    private static class Counters {
+        private final LongAdder bytesReceived = new LongAdder();
+        private final LongAdder bytesSent = new LongAdder();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder responses = new LongAdder();
+    }
+
+    private static class InFlight {
+        private final long startNanos;
+        private volatile String server;
+
+        private InFlight(long startNanos) {
+            this.startNanos = startNanos;
+        }
+    }
+
+    /**
+     * Counters for a single client address or server, seen from the proxy. For a client, bytes received are bytes
+     * read from the client and bytes sent are bytes written back to it; for a server it is the other way around.
+     */
+    public static class RouteStats {
+
+        private final long bytesReceived;
+        private final long bytesSent;
+        private final long requests;
+        private final long responses;
+
+        public RouteStats(long bytesReceived, long bytesSent, long requests, long responses) {
+            this.bytesReceived = bytesReceived;
+            this.bytesSent = bytesSent;
+            this.requests = requests;
+            this.responses = responses;
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getResponses() {
+            return responses;
+        }
+
+        @Override
+        public String toString() {
+            return "bytesReceived=" + bytesReceived + " bytesSent=" + bytesSent + " requests=" + requests
+                    + " responses=" + responses;
+        }
+
+    }
+
+    /**
+     * Point-in-time copy of everything the tracker recorded
+     */
+    public static class Snapshot {
+
+        private final Map<String, RouteStats> clients;
+        private final Map<String, RouteStats> servers;
+        private final LatencyHistogram latency;
+        private final Map<String, LatencyHistogram> serverLatencies;
+        private final long connectionsOpened;
+        private final long connectionsClosed;
+        private final long sslHandshakes;
+
+        private Snapshot(Map<String, RouteStats> clients, Map<String, RouteStats> servers, LatencyHistogram latency,
+                         Map<String, LatencyHistogram> serverLatencies, long connectionsOpened,
+                         long connectionsClosed, long sslHandshakes) {
+            this.clients = clients;
+            this.servers = servers;
+            this.latency = latency;
+            this.serverLatencies = Collections.unmodifiableMap(serverLatencies);
+            this.connectionsOpened = connectionsOpened;
+            this.connectionsClosed = connectionsClosed;
+            this.sslHandshakes = sslHandshakes;
+        }
+
+        /**
+         * @return stats keyed by client IP address
+         */
+        public Map<String, RouteStats> getClients() {
+            return clients;
+        }
+
+        /**
+         * @return stats keyed by server host and port
+         */
+        public Map<String, RouteStats> getServers() {
+            return servers;
+        }
+
+        public long getRequestsReceived() {
+            return clients.values().stream().mapToLong(RouteStats::getRequests).sum();
+        }
+
+        public long getResponsesSent() {
+            return clients.values().stream().mapToLong(RouteStats::getResponses).sum();
+        }
+
+        public long getBytesSentToClients() {
+            return clients.values().stream().mapToLong(RouteStats::getBytesSent).sum();
+        }
+
+        /**
+         * @return nanoseconds from request received from the client to response sent to the client
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return same as {@link #getLatency()} but split by server host and port
+         */
+        public Map<String, LatencyHistogram> getServerLatencies() {
+            return serverLatencies;
+        }
+
+        public long getConnectionsOpened() {
+            return connectionsOpened;
+        }
+
+        public long getConnectionsClosed() {
+            return connectionsClosed;
+        }
+
+        public long getSslHandshakes() {
+            return sslHandshakes;
+        }
+
+    }
+
+}
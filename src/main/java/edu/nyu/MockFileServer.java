@@ -0,0 +1,499 @@
+package edu.nyu;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Non-blocking HTTP/1.1 server that serves the files of a directory, meant as a local backend for throughput tests.
+ * <p>
+ * The listening socket is accepted on by the first of several selector threads and new connections are handed out
+ * round-robin, so one server can keep thousands of keep-alive connections busy across all cores. Bodies are sent with
+ * {@link FileChannel#transferTo}, which lets the kernel copy straight from the page cache to the socket. Only
+ * {@code GET} and {@code HEAD} are supported, as are single {@code Range: bytes=...} requests and pipelining.
+ */
+public class MockFileServer implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MockFileServer.class);
+
+    private static final int MAX_HEADER_BYTES = 8192;
+    private static final byte[] HEADER_END = {'\r', '\n', '\r', '\n'};
+    private static final Pattern DIGITS = Pattern.compile("\\d*");
+
+    private final Path root;
+    private final int port;
+    private final Reactor[] reactors;
+    private final AtomicLong acceptedConnections = new AtomicLong();
+    private final AtomicLong servedRequests = new AtomicLong();
+    private ServerSocketChannel serverSocketChannel;
+    private int nextReactor;
+
+    /**
+     * @param root directory to serve files from
+     * @param port port to listen on, 0 for an ephemeral one
+     */
+    public MockFileServer(Path root, int port) {
+        this(root, port, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param root            directory to serve files from
+     * @param port            port to listen on, 0 for an ephemeral one
+     * @param selectorThreads number of threads each running their own selector
+     */
+    public MockFileServer(Path root, int port, int selectorThreads) {
+        this.root = root.toAbsolutePath().normalize();
+        this.port = port;
+        this.reactors = new Reactor[Math.max(1, selectorThreads)];
+    }
+
+    public void start() throws IOException {
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.socket().setReuseAddress(true);
+        serverSocketChannel.bind(new InetSocketAddress(port), 1024);
+        serverSocketChannel.configureBlocking(false);
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new Reactor(i);
+        }
+        // the first reactor accepts for everybody
+        serverSocketChannel.register(reactors[0].selector, SelectionKey.OP_ACCEPT);
+        for (Reactor reactor : reactors) {
+            reactor.thread.start();
+        }
+    }
+
+    public int getLocalPort() {
+        return serverSocketChannel.socket().getLocalPort();
+    }
+
+    public long getAcceptedConnections() {
+        return acceptedConnections.get();
+    }
+
+    public long getServedRequests() {
+        return servedRequests.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Reactor reactor : reactors) {
+            if (reactor != null) {
+                reactor.running = false;
+                reactor.selector.wakeup();
+            }
+        }
+        for (Reactor reactor : reactors) {
+            if (reactor != null) {
+                try {
+                    reactor.thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        if (serverSocketChannel != null) {
+            serverSocketChannel.close();
+        }
+    }
+
+    /**
+     * Selector loop owning a subset of the connections
+     */
+    private class Reactor implements Runnable {
+
+        private final Selector selector;
+        private final Thread thread;
+        // connections accepted by the first reactor, registered by the owning thread to avoid blocking on select
+        private final Queue<SocketChannel> acceptQueue = new ConcurrentLinkedQueue<>();
+        private volatile boolean running = true;
+
+        private Reactor(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "mock-file-server-" + index);
+            thread.setDaemon(true);
+        }
+
+        private void hand(SocketChannel socketChannel) {
+            acceptQueue.add(socketChannel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    registerQueued();
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        try {
+                            if (!key.isValid()) {
+                                continue;
+                            }
+                            if (key.isAcceptable()) {
+                                accept();
+                            } else if (key.isReadable()) {
+                                ((Connection) key.attachment()).read();
+                            } else if (key.isWritable()) {
+                                ((Connection) key.attachment()).write();
+                            }
+                        } catch (IOException e) {
+                            LOGGER.debug("Closing connection after I/O error", e);
+                            closeQuietly(key);
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                LOGGER.error("Selector loop failed", e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    closeQuietly(key);
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    LOGGER.debug("Failed to close selector", e);
+                }
+            }
+        }
+
+        private void registerQueued() throws IOException {
+            SocketChannel socketChannel;
+            while ((socketChannel = acceptQueue.poll()) != null) {
+                register(socketChannel);
+            }
+        }
+
+        private void accept() throws IOException {
+            SocketChannel socketChannel;
+            while ((socketChannel = serverSocketChannel.accept()) != null) {
+                acceptedConnections.incrementAndGet();
+                socketChannel.configureBlocking(false);
+                socketChannel.socket().setTcpNoDelay(true);
+                Reactor target = reactors[nextReactor];
+                nextReactor = (nextReactor + 1) % reactors.length;
+                if (target == this) {
+                    register(socketChannel);
+                } else {
+                    target.hand(socketChannel);
+                }
+            }
+        }
+
+        private void register(SocketChannel socketChannel) throws IOException {
+            SelectionKey key = socketChannel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(key, socketChannel));
+        }
+
+        private void closeQuietly(SelectionKey key) {
+            key.cancel();
+            try {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).closeFile();
+                }
+                key.channel().close();
+            } catch (IOException e) {
+                LOGGER.debug("Failed to close channel", e);
+            }
+        }
+
+    }
+
+    /**
+     * Per-connection parser and response writer, only ever touched by its reactor thread
+     */
+    private class Connection {
+
+        private final SelectionKey key;
+        private final SocketChannel socketChannel;
+        private final ByteBuffer in = ByteBuffer.allocate(MAX_HEADER_BYTES);
+        private ByteBuffer head;
+        private FileChannel file;
+        private long position;
+        private long remaining;
+        private boolean keepAlive;
+
+        private Connection(SelectionKey key, SocketChannel socketChannel) {
+            this.key = key;
+            this.socketChannel = socketChannel;
+        }
+
+        private void read() throws IOException {
+            if (socketChannel.read(in) < 0) {
+                closeFile();
+                socketChannel.close();
+                return;
+            }
+            processRequest();
+        }
+
+        /**
+         * Parses the next complete request in the input buffer, if any, and starts writing its response
+         */
+        private void processRequest() throws IOException {
+            int end = indexOfHeaderEnd();
+            if (end < 0) {
+                if (!in.hasRemaining()) {
+                    respond(431, "Request Header Fields Too Large", false);
+                }
+                return;
+            }
+            String request = new String(in.array(), 0, end, StandardCharsets.ISO_8859_1);
+            // keep whatever pipelined bytes follow this request
+            int consumed = end + HEADER_END.length;
+            in.flip();
+            in.position(consumed);
+            in.compact();
+
+            String[] lines = request.split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3) {
+                respond(400, "Bad Request", false);
+                return;
+            }
+            keepAlive = !"HTTP/1.0".equals(requestLine[2]);
+            String range = null;
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = lines[i].substring(colon + 1).trim();
+                if ("connection".equals(name)) {
+                    keepAlive = "keep-alive".equalsIgnoreCase(value)
+                            || (keepAlive && !"close".equalsIgnoreCase(value));
+                } else if ("range".equals(name)) {
+                    range = value;
+                }
+            }
+            servedRequests.incrementAndGet();
+            boolean headOnly = "HEAD".equals(requestLine[0]);
+            if (!headOnly && !"GET".equals(requestLine[0])) {
+                respond(405, "Method Not Allowed", keepAlive);
+                return;
+            }
+            Path path = resolve(requestLine[1]);
+            if (path == null || !Files.isRegularFile(path)) {
+                respond(404, "Not Found", keepAlive);
+                return;
+            }
+            serveFile(path, range, headOnly);
+        }
+
+        private void serveFile(Path path, String range, boolean headOnly) throws IOException {
+            FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+            long length = fileChannel.size();
+            long start = 0;
+            long last = length - 1;
+            int status = 200;
+            String reason = "OK";
+            StringBuilder extraHeaders = new StringBuilder("Accept-Ranges: bytes\r\n");
+            if (range != null) {
+                long[] bounds = parseRange(range, length);
+                if (bounds == null) {
+                    fileChannel.close();
+                    respond(416, "Range Not Satisfiable", keepAlive,
+                            "Content-Range: bytes */" + length + "\r\n");
+                    return;
+                }
+                if (bounds.length == 2) {
+                    start = bounds[0];
+                    last = bounds[1];
+                    status = 206;
+                    reason = "Partial Content";
+                    extraHeaders.append("Content-Range: bytes ").append(start).append('-').append(last)
+                            .append('/').append(length).append("\r\n");
+                }
+            }
+            extraHeaders.append("Content-Type: ").append(contentType(path)).append("\r\n");
+            long contentLength = last - start + 1;
+            writeHead(status, reason, contentLength, keepAlive, extraHeaders.toString());
+            if (headOnly || contentLength == 0) {
+                fileChannel.close();
+            } else {
+                file = fileChannel;
+                position = start;
+                remaining = contentLength;
+            }
+            write();
+        }
+
+        private void respond(int status, String reason, boolean keepAlive) throws IOException {
+            respond(status, reason, keepAlive, "");
+        }
+
+        private void respond(int status, String reason, boolean keepAlive, String extraHeaders) throws IOException {
+            this.keepAlive = keepAlive;
+            writeHead(status, reason, 0, keepAlive, extraHeaders);
+            write();
+        }
+
+        private void writeHead(int status, String reason, long contentLength, boolean keepAlive,
+                               String extraHeaders) {
+            String response = "HTTP/1.1 " + status + " " + reason + "\r\n"
+                    + "Content-Length: " + contentLength + "\r\n"
+                    + "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n"
+                    + extraHeaders + "\r\n";
+            head = ByteBuffer.wrap(response.getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        private void write() throws IOException {
+            if (head.hasRemaining()) {
+                socketChannel.write(head);
+                if (head.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            while (remaining > 0) {
+                long sent = file.transferTo(position, remaining, socketChannel);
+                if (sent == 0) {
+                    // socket send buffer is full, wait until it drains
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                position += sent;
+                remaining -= sent;
+            }
+            closeFile();
+            if (!keepAlive) {
+                key.cancel();
+                socketChannel.close();
+                return;
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            if (in.position() > 0) {
+                processRequest();
+            }
+        }
+
+        private void closeFile() throws IOException {
+            if (file != null) {
+                file.close();
+                file = null;
+            }
+        }
+
+        private int indexOfHeaderEnd() {
+            byte[] bytes = in.array();
+            for (int i = 0; i + HEADER_END.length <= in.position(); i++) {
+                if (bytes[i] == '\r' && bytes[i + 1] == '\n' && bytes[i + 2] == '\r' && bytes[i + 3] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+    }
+
+    /**
+     * Maps a request target onto a file below the root, refusing anything that escapes it
+     */
+    private Path resolve(String target) {
+        try {
+            int query = target.indexOf('?');
+            String decoded = URLDecoder.decode(query < 0 ? target : target.substring(0, query),
+                    StandardCharsets.UTF_8.name());
+            Path path = root.resolve(decoded.replaceFirst("^/+", "")).normalize();
+            return path.startsWith(root) ? path : null;
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses a single byte range. A spec that isn't valid, {@code bytes=5-3} say, is ignored as RFC 7233 asks, only a
+     * valid one starting past the end of the file cannot be satisfied.
+     *
+     * @return {@code {first, last}} for a satisfiable range, an empty array when the header should be ignored and
+     * {@code null} when the range cannot be satisfied
+     */
+    static long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        String first = spec.substring(0, dash).trim();
+        String last = spec.substring(dash + 1).trim();
+        if (!DIGITS.matcher(first).matches() || !DIGITS.matcher(last).matches()
+                || (first.isEmpty() && last.isEmpty())) {
+            return new long[0];
+        }
+        try {
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                if (suffix == 0 || length == 0) {
+                    return null;
+                }
+                return new long[] {Math.max(0, length - suffix), length - 1};
+            }
+            long start = Long.parseLong(first);
+            if (!last.isEmpty() && Long.parseLong(last) < start) {
+                return new long[0];
+            }
+            if (start >= length) {
+                return null;
+            }
+            long end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            return new long[] {start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static String contentType(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".html") || name.endsWith(".htm")) {
+            return "text/html";
+        } else if (name.endsWith(".txt")) {
+            return "text/plain";
+        } else if (name.endsWith(".json")) {
+            return "application/json";
+        }
+        return "application/octet-stream";
+    }
+
+    /**
+     * Serves a directory until the process is killed
+     *
+     * @param args directory to serve and port to listen on
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 2) {
+            System.err.println("Usage: MockFileServer <directory> <port>");
+            System.exit(1);
+        }
+        MockFileServer server = new MockFileServer(Paths.get(args[0]), Integer.parseInt(args[1]));
+        server.start();
+        LOGGER.info("Serving {} on port {}", server.root, server.getLocalPort());
+        Thread.currentThread().join();
+    }
+
+}
@@ -0,0 +1,221 @@
+package edu.nyu;
+
+import org.apache.http.client.cache.InputLimit;
+import org.apache.http.client.cache.Resource;
+import org.apache.http.client.cache.ResourceFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ResourceFactory} keeping cached response bodies in direct buffers, outside the Java heap.
+ * <p>
+ * Bodies are read into fixed-size direct chunks, so a large cache doesn't inflate old generation collections and
+ * nothing is copied twice to find out how long a body is. The cache copies a resource whenever it updates an entry;
+ * copies share the chunks and count references, so only the last {@link Resource#dispose()} lets them go. Direct
+ * memory itself is returned once the chunks become unreachable, {@code -XX:MaxDirectMemorySize} caps it.
+ * <p>
+ * httpclient-cache never disposes resources itself, that is up to the storage, e.g. {@link BoundedHttpCacheStorage}.
+ */
+public class OffHeapResourceFactory implements ResourceFactory {
+
+    public static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+
+    private final int chunkSize;
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    public OffHeapResourceFactory() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize size of each direct buffer a body is split into
+     */
+    public OffHeapResourceFactory(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public Resource generate(String requestId, InputStream inputStream, InputLimit limit) throws IOException {
+        List<ByteBuffer> chunks = new ArrayList<>();
+        byte[] buffer = new byte[Math.min(chunkSize, 8192)];
+        long length = 0;
+        ByteBuffer chunk = null;
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            int offset = 0;
+            while (offset < read) {
+                if (chunk == null || !chunk.hasRemaining()) {
+                    chunk = ByteBuffer.allocateDirect(chunkSize);
+                    chunks.add(chunk);
+                }
+                int copied = Math.min(read - offset, chunk.remaining());
+                chunk.put(buffer, offset, copied);
+                offset += copied;
+            }
+            length += read;
+            // same contract as HeapResourceFactory: stop at the limit, the cache serves the rest from the stream
+            if (limit != null && length > limit.getValue()) {
+                limit.reached();
+                break;
+            }
+        }
+        for (ByteBuffer full : chunks) {
+            full.flip();
+        }
+        Block block = new Block(chunks, length);
+        retainedBytes.addAndGet((long) chunks.size() * chunkSize);
+        OffHeapResource resource = new OffHeapResource(block);
+        if (limit != null && limit.isReached()) {
+            // only read once as the head of the response, never stored, so nobody else would dispose it
+            resource.dispose();
+        }
+        return resource;
+    }
+
+    @Override
+    public Resource copy(String requestId, Resource resource) throws IOException {
+        if (resource instanceof OffHeapResource) {
+            OffHeapResource offHeapResource = (OffHeapResource) resource;
+            if (offHeapResource.block.retain()) {
+                return new OffHeapResource(offHeapResource.block);
+            }
+        }
+        try (InputStream inputStream = resource.getInputStream()) {
+            return generate(requestId, inputStream, null);
+        }
+    }
+
+    /**
+     * @return direct memory held by resources that haven't been disposed, in bytes
+     */
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    /**
+     * Chunks shared by a resource and its copies
+     */
+    private class Block {
+
+        private final List<ByteBuffer> chunks;
+        private final long length;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Block(List<ByteBuffer> chunks, long length) {
+            this.chunks = chunks;
+            this.length = length;
+        }
+
+        private boolean retain() {
+            for (int count = references.get(); count > 0; count = references.get()) {
+                if (references.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void release() {
+            if (references.decrementAndGet() == 0) {
+                retainedBytes.addAndGet(-(long) chunks.size() * chunkSize);
+            }
+        }
+
+    }
+
+    private class OffHeapResource implements Resource {
+
+        private static final long serialVersionUID = 1L;
+
+        // direct buffers can't be serialized, neither can a cache using this factory
+        private final transient Block block;
+        private transient boolean disposed;
+
+        private OffHeapResource(Block block) {
+            this.block = block;
+        }
+
+        /**
+         * Still works after {@link #dispose()}: another thread may have fetched the entry just before it was evicted,
+         * and the chunks stay valid for as long as anyone can reach them
+         */
+        @Override
+        public InputStream getInputStream() {
+            return new ChunkInputStream(block.chunks);
+        }
+
+        @Override
+        public long length() {
+            return block.length;
+        }
+
+        @Override
+        public synchronized void dispose() {
+            if (!disposed) {
+                disposed = true;
+                block.release();
+            }
+        }
+
+    }
+
+    /**
+     * Reads a list of buffers without touching their positions, any number of streams can read a block at once
+     */
+    private static class ChunkInputStream extends InputStream {
+
+        private final List<ByteBuffer> chunks;
+        private int index;
+        private ByteBuffer current;
+
+        private ChunkInputStream(List<ByteBuffer> chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public int read() {
+            ByteBuffer chunk = next();
+            return chunk == null ? -1 : chunk.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            ByteBuffer chunk = next();
+            if (chunk == null) {
+                return -1;
+            }
+            int read = Math.min(len, chunk.remaining());
+            chunk.get(b, off, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return current == null ? 0 : current.remaining();
+        }
+
+        private ByteBuffer next() {
+            while (current == null || !current.hasRemaining()) {
+                if (index == chunks.size()) {
+                    return null;
+                }
+                current = chunks.get(index++).duplicate();
+            }
+            return current;
+        }
+
+    }
+
+}
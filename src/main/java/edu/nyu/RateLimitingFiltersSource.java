@@ -0,0 +1,240 @@
+package edu.nyu;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import org.littleshoot.proxy.HttpFilters;
+import org.littleshoot.proxy.HttpFiltersAdapter;
+import org.littleshoot.proxy.HttpFiltersSourceAdapter;
+import org.littleshoot.proxy.impl.ProxyUtils;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the request rate of each client address and to each upstream {@code host:port} with {@link TokenBucket}s.
+ * <p>
+ * Buckets live in {@link ConcurrentHashMap}s and take a token with a single CAS, so the event loops never wait on each
+ * other. A request that finds its bucket empty is let through, but the client connection stops reading until the
+ * token it borrowed is due: further requests stay in the client's socket instead of piling up in the proxy, and a
+ * client never gets more than one request per connection ahead of its rate. Requests that would have to wait longer
+ * than {@code maxWaitMillis} are answered {@code 429 Too Many Requests} instead, and don't use up a client token when
+ * it's the upstream's bucket that turned them away. Full buckets are dropped once there are {@code maxBuckets} of a
+ * kind, and if that isn't enough, arbitrary ones, which then start over full.
+ * <p>
+ * A paused connection resumes with {@code autoRead} on, even if LittleProxy had turned it off for its own flow
+ * control in the meantime.
+ */
+public class RateLimitingFiltersSource extends HttpFiltersSourceAdapter {
+
+    public static final int DEFAULT_MAX_BUCKETS = 10000;
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 5000;
+
+    private static final String READ_THROTTLE = "rateLimitReadThrottle";
+
+    private final double clientRate;
+    private final int clientBurst;
+    private final double upstreamRate;
+    private final int upstreamBurst;
+    private final int maxBuckets;
+    private final long maxWaitNanos;
+    private final ConcurrentMap<String, TokenBucket> clients = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, TokenBucket> upstreams = new ConcurrentHashMap<>();
+    private final LongAdder paused = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param clientRate    requests per second each client address may send, 0 for no limit
+     * @param clientBurst   requests a client may send at once after being idle, at least 1
+     * @param upstreamRate  requests per second the proxy sends to each upstream, 0 for no limit
+     * @param upstreamBurst requests an upstream may receive at once after being idle, at least 1
+     */
+    public RateLimitingFiltersSource(double clientRate, int clientBurst, double upstreamRate, int upstreamBurst) {
+        this(clientRate, clientBurst, upstreamRate, upstreamBurst, DEFAULT_MAX_BUCKETS, DEFAULT_MAX_WAIT_MILLIS);
+    }
+
+    /**
+     * @param clientRate    requests per second each client address may send, 0 for no limit
+     * @param clientBurst   requests a client may send at once after being idle, at least 1
+     * @param upstreamRate  requests per second the proxy sends to each upstream, 0 for no limit
+     * @param upstreamBurst requests an upstream may receive at once after being idle, at least 1
+     * @param maxBuckets    buckets to keep of each kind
+     * @param maxWaitMillis longest a connection is paused before its request is rejected instead
+     */
+    public RateLimitingFiltersSource(double clientRate, int clientBurst, double upstreamRate, int upstreamBurst,
+                                     int maxBuckets, long maxWaitMillis) {
+        if (clientRate < 0 || upstreamRate < 0 || maxBuckets < 1 || maxWaitMillis < 0) {
+            throw new IllegalArgumentException("Rates and the maximum wait must not be negative, buckets positive");
+        }
+        if (clientBurst < 1 || upstreamBurst < 1) {
+            // caught here rather than by the first request's TokenBucket, on an event loop
+            throw new IllegalArgumentException("Bursts must be at least 1: " + clientBurst + ", " + upstreamBurst);
+        }
+        this.clientRate = clientRate;
+        this.clientBurst = clientBurst;
+        this.upstreamRate = upstreamRate;
+        this.upstreamBurst = upstreamBurst;
+        this.maxBuckets = maxBuckets;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+    @Override
+    public HttpFilters filterRequest(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+        return new RateLimitingFilters(originalRequest, ctx);
+    }
+
+    /**
+     * @return requests after which a client connection stopped reading
+     */
+    public long getPaused() {
+        return paused.sum();
+    }
+
+    /**
+     * @return requests answered with 429
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public int getClientBuckets() {
+        return clients.size();
+    }
+
+    public int getUpstreamBuckets() {
+        return upstreams.size();
+    }
+
+    private long reserve(ConcurrentMap<String, TokenBucket> buckets, String key, double rate, int burst,
+                         long nowNanos) {
+        if (rate == 0 || key == null) {
+            return 0;
+        }
+        TokenBucket bucket = buckets.get(key);
+        if (bucket == null) {
+            if (buckets.size() >= maxBuckets) {
+                evict(buckets, nowNanos);
+            }
+            bucket = buckets.computeIfAbsent(key, k -> new TokenBucket(rate, burst, nowNanos));
+        }
+        return bucket.reserve(nowNanos, maxWaitNanos);
+    }
+
+    private void evict(ConcurrentMap<String, TokenBucket> buckets, long nowNanos) {
+        buckets.values().removeIf(bucket -> bucket.isFull(nowNanos));
+        Iterator<TokenBucket> iterator = buckets.values().iterator();
+        while (buckets.size() >= maxBuckets && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Holds back reads on a client connection. Pausing turns {@code autoRead} off, and {@code read()} calls are
+     * swallowed until the pause is over, so the connection stays paused even when LittleProxy turns {@code autoRead}
+     * back on for its own flow control, the arrangement of Netty's traffic shaping handlers.
+     */
+    private static class ReadThrottle extends ChannelOutboundHandlerAdapter {
+
+        // only touched on the channel's event loop
+        private ChannelHandlerContext ctx;
+        private boolean paused;
+        private long resumeAt;
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            this.ctx = ctx;
+        }
+
+        @Override
+        public void read(ChannelHandlerContext ctx) {
+            if (!paused) {
+                ctx.read();
+            }
+        }
+
+        private void pause(long until) {
+            if (paused && resumeAt - until >= 0) {
+                return;
+            }
+            paused = true;
+            resumeAt = until;
+            ctx.channel().config().setAutoRead(false);
+            ctx.executor().schedule(() -> {
+                // a later pause schedules its own resume
+                if (paused && resumeAt == until) {
+                    paused = false;
+                    ctx.channel().config().setAutoRead(true);
+                }
+            }, until - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+    }
+
+    private class RateLimitingFilters extends HttpFiltersAdapter {
+
+        private RateLimitingFilters(HttpRequest originalRequest, ChannelHandlerContext ctx) {
+            super(originalRequest, ctx);
+        }
+
+        @Override
+        public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+            if (!(httpObject instanceof HttpRequest)) {
+                return null;
+            }
+            long now = System.nanoTime();
+            String clientAddress = clientAddress();
+            long clientWait = reserve(clients, clientAddress, clientRate, clientBurst, now);
+            long upstreamWait = clientWait < 0 ? 0 : reserve(upstreams,
+                    ProxyUtils.parseHostAndPort((HttpRequest) httpObject), upstreamRate, upstreamBurst, now);
+            if (upstreamWait < 0) {
+                // the client's token wasn't used, a bucket evicted since starts over full anyway
+                TokenBucket clientBucket = clientRate == 0 || clientAddress == null ? null : clients.get(clientAddress);
+                if (clientBucket != null) {
+                    clientBucket.refund();
+                }
+            }
+            if (clientWait < 0 || upstreamWait < 0) {
+                rejected.increment();
+                HttpResponse response = ProxyUtils.createFullHttpResponse(HttpVersion.HTTP_1_1,
+                        HttpResponseStatus.TOO_MANY_REQUESTS);
+                response.headers().set(HttpHeaders.Names.RETRY_AFTER,
+                        Math.max(1, TimeUnit.NANOSECONDS.toSeconds(maxWaitNanos)));
+                return response;
+            }
+            long wait = Math.max(clientWait, upstreamWait);
+            if (wait > 0) {
+                paused.increment();
+                throttle().pause(now + wait);
+            }
+            return null;
+        }
+
+        private ReadThrottle throttle() {
+            ReadThrottle throttle = ctx.pipeline().get(ReadThrottle.class);
+            if (throttle == null) {
+                throttle = new ReadThrottle();
+                ctx.pipeline().addFirst(READ_THROTTLE, throttle);
+            }
+            return throttle;
+        }
+
+        private String clientAddress() {
+            SocketAddress address = ctx.channel().remoteAddress();
+            return address instanceof InetSocketAddress
+                    ? ((InetSocketAddress) address).getAddress().getHostAddress() : null;
+        }
+
+    }
+
+}
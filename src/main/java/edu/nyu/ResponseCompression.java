@@ -0,0 +1,125 @@
+package edu.nyu;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpStatus;
+import org.apache.http.NameValuePair;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * Server side interceptor compressing response bodies with {@code gzip} or {@code deflate}, whichever the request's
+ * {@code Accept-Encoding} allows, {@code gzip} first.
+ * <p>
+ * It has to run before HttpCore's own {@code ResponseContent}, which derives the framing headers from the entity; use
+ * {@link #configure(ServerBootstrap, int)}, or {@code addInterceptorFirst}, to register it. Responses that already have
+ * a {@code Content-Encoding}, and {@code 1xx}, {@code 204} and {@code 304} responses, which have no body, are left
+ * alone. The others get {@code Vary: Accept-Encoding}, compressed or not, so a cache doesn't hand one client the
+ * encoding negotiated for another. Responses to {@code HEAD} aren't compressed, their headers would describe a body
+ * that is never sent.
+ */
+public class ResponseCompression implements HttpResponseInterceptor {
+
+    private final int level;
+
+    /**
+     * @param level {@link Deflater} level, 1 (fastest) to 9 (smallest), or -1 for zlib's default
+     */
+    public ResponseCompression(int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION
+                && (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid level: " + level);
+        }
+        this.level = level;
+    }
+
+    /**
+     * Registers a {@link ResponseCompression} ahead of the standard response interceptors
+     *
+     * @param serverBootstrap
+     * @param level
+     * @return ServerBootstrap
+     */
+    public static ServerBootstrap configure(ServerBootstrap serverBootstrap, int level) {
+        return serverBootstrap.addInterceptorFirst(new ResponseCompression(level));
+    }
+
+    @Override
+    public void process(HttpResponse response, HttpContext context) {
+        HttpEntity entity = response.getEntity();
+        HttpRequest request = HttpCoreContext.adapt(context).getRequest();
+        int status = response.getStatusLine().getStatusCode();
+        if (entity == null || entity.getContentEncoding() != null
+                || response.containsHeader(HTTP.CONTENT_ENCODING) || request == null || status < HttpStatus.SC_OK
+                || status == HttpStatus.SC_NO_CONTENT || status == HttpStatus.SC_NOT_MODIFIED) {
+            return;
+        }
+        if (!variesByEncoding(response.getHeaders(HttpHeaders.VARY))) {
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        String encoding = "HEAD".equalsIgnoreCase(request.getRequestLine().getMethod()) ? null
+                : negotiate(request.getHeaders(HttpHeaders.ACCEPT_ENCODING));
+        if (encoding != null) {
+            response.setEntity(new CompressingEntity(entity, encoding, level));
+        }
+    }
+
+    /**
+     * @param acceptEncodings {@code Accept-Encoding} headers of a request
+     * @return {@link CompressingEntity#GZIP}, {@link CompressingEntity#DEFLATE} or null if neither is acceptable
+     */
+    static String negotiate(Header[] acceptEncodings) {
+        boolean deflate = false;
+        for (Header acceptEncoding : acceptEncodings) {
+            for (HeaderElement element : acceptEncoding.getElements()) {
+                if (!acceptable(element)) {
+                    continue;
+                }
+                String coding = element.getName().toLowerCase(Locale.ROOT);
+                if (CompressingEntity.GZIP.equals(coding) || "x-gzip".equals(coding)) {
+                    return CompressingEntity.GZIP;
+                }
+                deflate |= CompressingEntity.DEFLATE.equals(coding);
+            }
+        }
+        return deflate ? CompressingEntity.DEFLATE : null;
+    }
+
+    /**
+     * @param varies {@code Vary} headers of a response
+     * @return whether they already name {@code Accept-Encoding}, or {@code *}
+     */
+    static boolean variesByEncoding(Header[] varies) {
+        for (Header vary : varies) {
+            for (HeaderElement element : vary.getElements()) {
+                if ("*".equals(element.getName()) || HttpHeaders.ACCEPT_ENCODING.equalsIgnoreCase(element.getName())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean acceptable(HeaderElement element) {
+        NameValuePair q = element.getParameterByName("q");
+        if (q == null) {
+            return true;
+        }
+        try {
+            return Double.parseDouble(q.getValue()) > 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+}
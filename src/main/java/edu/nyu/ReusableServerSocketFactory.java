@@ -0,0 +1,64 @@
+package edu.nyu;
+
+import org.apache.http.config.SocketConfig;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+
+import javax.net.ServerSocketFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+
+/**
+ * Server socket factory that enables {@code SO_REUSEADDR} before binding.
+ * <p>
+ * {@code org.apache.http.impl.bootstrap.HttpServer} only applies {@code SocketConfig.isSoReuseAddress()} after the
+ * socket is bound, which is too late: on Linux a fixed port cannot be bound again while connections from the
+ * previous server linger in TIME_WAIT. Use {@link #configure(ServerBootstrap)} for servers that have to come back on
+ * the same port, e.g. the CRL server baked into the localhost certificate.
+ */
+public class ReusableServerSocketFactory extends ServerSocketFactory {
+
+    /**
+     * Sets the factory on the bootstrap together with a matching {@code SocketConfig}, otherwise {@code HttpServer}
+     * turns the option off again right after binding and the accepted connections inherit that
+     *
+     * @param serverBootstrap
+     * @return ServerBootstrap
+     */
+    public static ServerBootstrap configure(ServerBootstrap serverBootstrap) {
+        return serverBootstrap
+                .setServerSocketFactory(new ReusableServerSocketFactory())
+                .setSocketConfig(SocketConfig.custom().setSoReuseAddress(true).build());
+    }
+
+    @Override
+    public ServerSocket createServerSocket() throws IOException {
+        ServerSocket serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        return serverSocket;
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+        return createServerSocket(port, 50, null);
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port, int backlog) throws IOException {
+        return createServerSocket(port, backlog, null);
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port, int backlog, InetAddress ifAddress) throws IOException {
+        ServerSocket serverSocket = createServerSocket();
+        try {
+            serverSocket.bind(new InetSocketAddress(ifAddress, port), backlog);
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+        return serverSocket;
+    }
+
+}
@@ -0,0 +1,77 @@
+package edu.nyu;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.auth.AUTH;
+import org.apache.http.auth.MalformedChallengeException;
+import org.apache.http.client.AuthCache;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.client.BasicAuthCache;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Request interceptor giving every request the same {@link AuthCache}.
+ * <p>
+ * HttpClient already authenticates preemptively against hosts found in the context's auth cache
+ * ({@code RequestAuthCache}), and {@code ProxyAuthenticationStrategy} puts the scheme there once a challenge has been
+ * answered successfully. But each {@code execute} without an explicit context starts with an empty context, so every
+ * request on a new connection gets a 407 first and is sent a second time with {@code Proxy-Authorization}. Sharing
+ * the cache across requests means only the very first request against a proxy is challenged.
+ */
+public class SharedAuthCacheInterceptor implements HttpRequestInterceptor {
+
+    private final AuthCache authCache;
+
+    public SharedAuthCacheInterceptor() {
+        this(new BasicAuthCache());
+    }
+
+    public SharedAuthCacheInterceptor(AuthCache authCache) {
+        this.authCache = authCache;
+    }
+
+    /**
+     * Adds the interceptor so it runs before {@code RequestAuthCache}
+     *
+     * @param httpClientBuilder
+     * @return HttpClientBuilder
+     */
+    public HttpClientBuilder configure(HttpClientBuilder httpClientBuilder) {
+        return httpClientBuilder.addInterceptorFirst(this);
+    }
+
+    /**
+     * Registers Basic authentication for the proxy without waiting for its first challenge, for proxies that are
+     * known to require it
+     *
+     * @param proxy
+     */
+    public void preemptBasic(HttpHost proxy) {
+        BasicScheme basicScheme = new BasicScheme();
+        try {
+            // answering a Proxy-Authenticate challenge is what makes the scheme send Proxy-Authorization
+            basicScheme.processChallenge(new BasicHeader(AUTH.PROXY_AUTH, "Basic"));
+        } catch (MalformedChallengeException e) {
+            throw new IllegalStateException(e);
+        }
+        authCache.put(proxy, basicScheme);
+    }
+
+    public AuthCache getAuthCache() {
+        return authCache;
+    }
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) {
+        HttpClientContext clientContext = HttpClientContext.adapt(context);
+        // a cache set up explicitly by the caller wins
+        if (clientContext.getAuthCache() == null) {
+            clientContext.setAuthCache(authCache);
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package edu.nyu;
+
+import org.apache.http.ssl.SSLContextBuilder;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Builds {@link SSLContext}s once and hands out the same instance for the same key material afterwards.
+ * <p>
+ * TLS sessions are cached per {@code SSLContext}, so building a new context for every client (as
+ * {@code SSLContextBuilder.create()...build()} in a test helper does) throws the session cache away and makes every
+ * connection pay for a full handshake. Client contexts built here share a session cache limited to
+ * {@code sessionCacheSize} entries that expire after {@code sessionTimeoutSeconds}, which is what allows abbreviated
+ * handshakes on new connections to a server we have talked to before.
+ */
+public class SslContextFactory {
+
+    /**
+     * Default JSSE limits, 0 would mean unlimited
+     */
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 20480;
+    public static final int DEFAULT_SESSION_TIMEOUT_SECONDS = 86400;
+
+    private static final SslContextFactory DEFAULT = new SslContextFactory(DEFAULT_SESSION_CACHE_SIZE,
+            DEFAULT_SESSION_TIMEOUT_SECONDS);
+
+    private final int sessionCacheSize;
+    private final int sessionTimeoutSeconds;
+    private final ConcurrentMap<String, SSLContext> contexts = new ConcurrentHashMap<>();
+
+    /**
+     * @param sessionCacheSize      maximum number of client sessions kept per context
+     * @param sessionTimeoutSeconds how long a cached client session may be resumed
+     */
+    public SslContextFactory(int sessionCacheSize, int sessionTimeoutSeconds) {
+        if (sessionCacheSize < 1 || sessionTimeoutSeconds < 1) {
+            throw new IllegalArgumentException("Session cache size and timeout must be positive");
+        }
+        this.sessionCacheSize = sessionCacheSize;
+        this.sessionTimeoutSeconds = sessionTimeoutSeconds;
+    }
+
+    /**
+     * @return factory shared by everything that doesn't care about the session cache settings
+     */
+    public static SslContextFactory getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the client context trusting the certificates of the given keystore, building it on first use
+     *
+     * @param trustStore
+     * @param storePassword
+     * @return SSLContext
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public SSLContext getTrustStoreSslContext(URL trustStore, char[] storePassword)
+            throws IOException, GeneralSecurityException {
+        String key = "trust:" + trustStore;
+        SSLContext sslContext = contexts.get(key);
+        if (sslContext == null) {
+            sslContext = SSLContextBuilder.create().loadTrustMaterial(trustStore, storePassword).build();
+            sslContext.getClientSessionContext().setSessionCacheSize(sessionCacheSize);
+            sslContext.getClientSessionContext().setSessionTimeout(sessionTimeoutSeconds);
+            sslContext = putIfAbsent(key, sslContext);
+        }
+        return sslContext;
+    }
+
+    /**
+     * Returns the server context presenting the key of the given keystore, building it on first use
+     *
+     * @param keyStore
+     * @param storePassword
+     * @param keyPassword
+     * @return SSLContext
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    public SSLContext getKeyStoreSslContext(URL keyStore, char[] storePassword, char[] keyPassword)
+            throws IOException, GeneralSecurityException {
+        String key = "key:" + keyStore;
+        SSLContext sslContext = contexts.get(key);
+        if (sslContext == null) {
+            sslContext = putIfAbsent(key, SSLContextBuilder.create()
+                    .loadKeyMaterial(keyStore, storePassword, keyPassword).build());
+        }
+        return sslContext;
+    }
+
+    public int getSessionCacheSize() {
+        return sessionCacheSize;
+    }
+
+    public int getSessionTimeoutSeconds() {
+        return sessionTimeoutSeconds;
+    }
+
+    private SSLContext putIfAbsent(String key, SSLContext sslContext) {
+        // a concurrent caller may have won the race, everybody has to end up with the same session cache
+        SSLContext existing = contexts.putIfAbsent(key, sslContext);
+        return existing != null ? existing : sslContext;
+    }
+
+}
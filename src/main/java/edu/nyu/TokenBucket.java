@@ -0,0 +1,72 @@
+package edu.nyu;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket kept as a single {@link AtomicLong}, so callers on different threads only ever race on one CAS.
+ * <p>
+ * Rather than a token count and a refill timestamp, which would have to change together, the bucket stores the
+ * theoretical arrival time of the next token (the generic cell rate algorithm). A request made at {@code now} conforms
+ * when that time is at most {@code burst - 1} intervals ahead of it, and each request pushes the time one interval
+ * further. When the time lies in the past the bucket is full, which is what {@link #isFull} reports so idle buckets
+ * can be dropped.
+ */
+public class TokenBucket {
+
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final AtomicLong theoreticalArrival;
+
+    /**
+     * @param tokensPerSecond sustained rate
+     * @param burst           tokens a full bucket holds, at least 1
+     * @param nowNanos        {@link System#nanoTime()} to start from, the bucket starts full
+     */
+    public TokenBucket(double tokensPerSecond, int burst, long nowNanos) {
+        if (tokensPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / tokensPerSecond));
+        this.toleranceNanos = intervalNanos * (burst - 1);
+        this.theoreticalArrival = new AtomicLong(nowNanos);
+    }
+
+    /**
+     * Takes a token, borrowing from the future when the bucket is empty
+     *
+     * @param nowNanos     {@link System#nanoTime()}
+     * @param maxWaitNanos longest the caller is prepared to wait for the token
+     * @return nanoseconds until the token is due, 0 if it was available, or -1 if it is further away than
+     * {@code maxWaitNanos}, in which case nothing was taken
+     */
+    public long reserve(long nowNanos, long maxWaitNanos) {
+        while (true) {
+            long arrival = theoreticalArrival.get();
+            long wait = Math.max(0, arrival - toleranceNanos - nowNanos);
+            if (wait > maxWaitNanos) {
+                return -1;
+            }
+            long next = (arrival - nowNanos > 0 ? arrival : nowNanos) + intervalNanos;
+            if (theoreticalArrival.compareAndSet(arrival, next)) {
+                return wait;
+            }
+        }
+    }
+
+    /**
+     * Gives back a token taken by {@link #reserve} but not used, as if it had never been taken
+     */
+    public void refund() {
+        theoreticalArrival.addAndGet(-intervalNanos);
+    }
+
+    /**
+     * @param nowNanos {@link System#nanoTime()}
+     * @return true if the bucket has refilled completely, so forgetting it changes nothing
+     */
+    public boolean isFull(long nowNanos) {
+        return theoreticalArrival.get() - nowNanos <= 0;
+    }
+
+}
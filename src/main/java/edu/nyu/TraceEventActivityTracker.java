@@ -0,0 +1,401 @@
+package edu.nyu;
+
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import org.littleshoot.proxy.ActivityTracker;
+import org.littleshoot.proxy.FlowContext;
+import org.littleshoot.proxy.FullFlowContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLSession;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timestamps every phase of a proxied exchange with {@link System#nanoTime()} and writes the timelines as Chrome
+ * trace events, which {@code chrome://tracing} and <a href="https://ui.perfetto.dev">Perfetto</a> open directly.
+ * <p>
+ * Each client connection is a track of its own. It shows a {@code connection} span and, for TLS clients, the
+ * {@code tls handshake} counted from the accept. Every exchange on it is an {@code exchange} span holding:
+ * <ul>
+ * <li>{@code proxy: request}, from the request being received until it is sent to the server (this includes
+ * resolving and connecting upstream)</li>
+ * <li>{@code upstream: first byte}, until the first byte of the response arrives from the server</li>
+ * <li>{@code proxy: response}, until the response head is sent to the client</li>
+ * <li>{@code response body}, until the last byte is handed to the client, this is where slow upstream bodies and slow
+ * clients show</li>
+ * </ul>
+ * Callbacks only store a timestamp in the exchange of their connection. Finished exchanges go through a bounded queue
+ * to a background thread that formats and writes them; when the queue is full they are dropped and counted rather
+ * than holding up the event loop. An exchange is finished once the next one starts on its connection or the client
+ * disconnects, since body bytes keep arriving after {@link #responseSentToClient}.
+ * <p>
+ * The output uses the JSON array format, whose closing bracket {@link #close()} writes but viewers don't require, so
+ * a trace cut short by a crash still loads.
+ */
+public class TraceEventActivityTracker implements ActivityTracker, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TraceEventActivityTracker.class);
+
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    private static final int PID = 1;
+    private static final long FLUSH_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final long originNanos = System.nanoTime();
+    private final ConcurrentMap<InetSocketAddress, Connection> connections = new ConcurrentHashMap<>();
+    private final AtomicInteger connectionIds = new AtomicInteger();
+    private final BlockingQueue<Timeline> finished;
+    private final Writer writer;
+    private final Thread drainer;
+    private volatile boolean running = true;
+
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicLong exchanges = new AtomicLong();
+
+    // only touched by the drainer thread
+    private final StringBuilder line = new StringBuilder(256);
+    private boolean firstEvent = true;
+
+    /**
+     * @param path file to write the trace to, replaced if it exists
+     * @throws IOException
+     */
+    public TraceEventActivityTracker(Path path) throws IOException {
+        this(Files.newBufferedWriter(path, StandardCharsets.UTF_8), DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param writer   receives the trace, closed with the tracker
+     * @param capacity finished timelines that can wait for the writer before new ones are dropped
+     */
+    public TraceEventActivityTracker(Writer writer, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.writer = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer);
+        finished = new ArrayBlockingQueue<>(capacity);
+        drainer = new Thread(this::drain, "trace-event-writer");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * @return number of exchanges written so far
+     */
+    public long getExchanges() {
+        return exchanges.get();
+    }
+
+    /**
+     * @return number of finished timelines discarded because the writer fell behind
+     */
+    public long getDroppedTimelines() {
+        return dropped.sum();
+    }
+
+    /**
+     * Finishes the connections still open, writes everything queued and closes the trace
+     */
+    @Override
+    public void close() {
+        for (InetSocketAddress clientAddress : connections.keySet()) {
+            Connection connection = connections.remove(clientAddress);
+            if (connection != null) {
+                connection.finish(System.nanoTime());
+            }
+        }
+        running = false;
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void clientConnected(InetSocketAddress inetSocketAddress) {
+        connections.put(inetSocketAddress, new Connection(connectionIds.incrementAndGet(), inetSocketAddress,
+                System.nanoTime()));
+    }
+
+    @Override
+    public void clientSSLHandshakeSucceeded(InetSocketAddress inetSocketAddress, SSLSession sslSession) {
+        Connection connection = connections.get(inetSocketAddress);
+        if (connection != null) {
+            connection.handshakeNanos = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void clientDisconnected(InetSocketAddress inetSocketAddress, SSLSession sslSession) {
+        Connection connection = connections.remove(inetSocketAddress);
+        if (connection != null) {
+            connection.finish(System.nanoTime());
+        }
+    }
+
+    @Override
+    public void bytesReceivedFromClient(FlowContext flowContext, int i) {
+    }
+
+    @Override
+    public void requestReceivedFromClient(FlowContext flowContext, HttpRequest httpRequest) {
+        long now = System.nanoTime();
+        Connection connection = connections.get(flowContext.getClientAddress());
+        if (connection != null) {
+            if (connection.exchange != null) {
+                // a keep-alive connection starting its next exchange
+                publish(connection.exchange);
+            }
+            connection.exchange = new Exchange(connection.id, now, httpRequest.getMethod().name(),
+                    httpRequest.getUri());
+        }
+    }
+
+    @Override
+    public void bytesSentToServer(FullFlowContext fullFlowContext, int i) {
+    }
+
+    @Override
+    public void requestSentToServer(FullFlowContext fullFlowContext, HttpRequest httpRequest) {
+        Exchange exchange = exchange(fullFlowContext);
+        if (exchange != null) {
+            exchange.server = fullFlowContext.getServerHostAndPort();
+            exchange.sentToServerNanos = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void bytesReceivedFromServer(FullFlowContext fullFlowContext, int i) {
+        Exchange exchange = exchange(fullFlowContext);
+        if (exchange != null && exchange.firstByteNanos == 0) {
+            exchange.firstByteNanos = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void responseReceivedFromServer(FullFlowContext fullFlowContext, HttpResponse httpResponse) {
+    }
+
+    @Override
+    public void bytesSentToClient(FlowContext flowContext, int i) {
+        Exchange exchange = exchange(flowContext);
+        if (exchange != null) {
+            exchange.lastByteToClientNanos = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void responseSentToClient(FlowContext flowContext, HttpResponse httpResponse) {
+        Exchange exchange = exchange(flowContext);
+        if (exchange != null) {
+            exchange.status = httpResponse.getStatus().code();
+            exchange.responseSentNanos = System.nanoTime();
+        }
+    }
+
+    private Exchange exchange(FlowContext flowContext) {
+        Connection connection = connections.get(flowContext.getClientAddress());
+        return connection != null ? connection.exchange : null;
+    }
+
+    private void publish(Timeline timeline) {
+        if (!finished.offer(timeline)) {
+            dropped.increment();
+        }
+    }
+
+    private void drain() {
+        try {
+            writer.write("[\n");
+            while (running || !finished.isEmpty()) {
+                Timeline timeline = finished.poll(FLUSH_NANOS, TimeUnit.NANOSECONDS);
+                if (timeline == null) {
+                    writer.flush();
+                } else {
+                    timeline.write(this);
+                }
+            }
+            writer.write("\n]\n");
+        } catch (IOException e) {
+            LOGGER.error("Could not write trace events, tracing stops", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                LOGGER.warn("Could not close the trace", e);
+            }
+        }
+        if (dropped.sum() > 0) {
+            LOGGER.warn("Dropped {} timelines because the trace writer fell behind", dropped.sum());
+        }
+    }
+
+    /**
+     * Writes a complete ({@code "ph":"X"}) event, skipped when either end of the span wasn't observed
+     */
+    private void span(int tid, String name, long startNanos, long endNanos, String args) throws IOException {
+        if (startNanos == 0 || endNanos < startNanos) {
+            return;
+        }
+        line.setLength(0);
+        line.append("{\"name\":\"").append(name).append("\",\"ph\":\"X\",\"pid\":").append(PID)
+                .append(",\"tid\":").append(tid).append(",\"ts\":");
+        appendMicros(startNanos - originNanos);
+        line.append(",\"dur\":");
+        appendMicros(endNanos - startNanos);
+        if (args != null) {
+            line.append(",\"args\":{").append(args).append('}');
+        }
+        line.append('}');
+        event();
+    }
+
+    private void threadName(int tid, String name) throws IOException {
+        line.setLength(0);
+        line.append("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":").append(PID).append(",\"tid\":").append(tid)
+                .append(",\"args\":{\"name\":\"").append(name).append("\"}}");
+        event();
+    }
+
+    private void event() throws IOException {
+        if (!firstEvent) {
+            writer.write(",\n");
+        }
+        firstEvent = false;
+        writer.append(line);
+    }
+
+    /**
+     * Trace timestamps are microseconds, kept to the nanosecond with three decimals
+     */
+    private void appendMicros(long nanos) {
+        line.append(nanos / 1000).append('.');
+        long fraction = nanos % 1000;
+        if (fraction < 100) {
+            line.append('0');
+        }
+        if (fraction < 10) {
+            line.append('0');
+        }
+        line.append(fraction);
+    }
+
+    private static String quote(Object value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder("\"");
+        String text = String.valueOf(value);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private abstract static class Timeline {
+
+        abstract void write(TraceEventActivityTracker tracker) throws IOException;
+
+    }
+
+    /**
+     * One client connection, its timestamps are written by the client's event loop only
+     */
+    private class Connection extends Timeline {
+
+        private final int id;
+        private final InetSocketAddress clientAddress;
+        private final long connectedNanos;
+        private volatile long handshakeNanos;
+        private volatile long disconnectedNanos;
+        private volatile Exchange exchange;
+
+        private Connection(int id, InetSocketAddress clientAddress, long connectedNanos) {
+            this.id = id;
+            this.clientAddress = clientAddress;
+            this.connectedNanos = connectedNanos;
+        }
+
+        private void finish(long nanos) {
+            disconnectedNanos = nanos;
+            if (exchange != null) {
+                publish(exchange);
+            }
+            publish(this);
+        }
+
+        @Override
+        void write(TraceEventActivityTracker tracker) throws IOException {
+            tracker.threadName(id, "client " + clientAddress.getHostString() + ":" + clientAddress.getPort());
+            tracker.span(id, "connection", connectedNanos, disconnectedNanos, null);
+            tracker.span(id, "tls handshake", connectedNanos, handshakeNanos, null);
+        }
+
+    }
+
+    /**
+     * One request/response exchange; the server side timestamps come from the proxy-to-server event loop, the fields
+     * are volatile so the writer sees them
+     */
+    private static class Exchange extends Timeline {
+
+        private final int connectionId;
+        private final long receivedNanos;
+        private final String method;
+        private final String uri;
+        private volatile String server;
+        private volatile int status;
+        private volatile long sentToServerNanos;
+        private volatile long firstByteNanos;
+        private volatile long responseSentNanos;
+        private volatile long lastByteToClientNanos;
+
+        private Exchange(int connectionId, long receivedNanos, String method, String uri) {
+            this.connectionId = connectionId;
+            this.receivedNanos = receivedNanos;
+            this.method = method;
+            this.uri = uri;
+        }
+
+        @Override
+        void write(TraceEventActivityTracker tracker) throws IOException {
+            long end = Math.max(responseSentNanos, lastByteToClientNanos);
+            String args = "\"method\":" + quote(method) + ",\"uri\":" + quote(uri) + ",\"server\":" + quote(server)
+                    + ",\"status\":" + status;
+            tracker.span(connectionId, "exchange", receivedNanos, end, args);
+            tracker.span(connectionId, "proxy: request", receivedNanos, sentToServerNanos, null);
+            tracker.span(connectionId, "upstream: first byte", sentToServerNanos, firstByteNanos, null);
+            tracker.span(connectionId, "proxy: response", firstByteNanos, responseSentNanos, null);
+            tracker.span(connectionId, "response body", responseSentNanos, lastByteToClientNanos, null);
+            tracker.exchanges.incrementAndGet();
+        }
+
+    }
+
+}
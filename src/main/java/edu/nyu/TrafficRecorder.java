@@ -0,0 +1,241 @@
+package edu.nyu;
+
+import io.netty.handler.codec.http.FullHttpMessage;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMessage;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import org.littleshoot.proxy.ActivityTrackerAdapter;
+import org.littleshoot.proxy.FlowContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLSession;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the exchanges going through a LittleProxy instance into a {@link TrafficRecording} file, for
+ * {@link TrafficReplayer} to play back later.
+ * <p>
+ * The request is captured in {@link #requestReceivedFromClient}, before the proxy rewrites it, and completed with
+ * the response in {@link #responseSentToClient}. The event loop only copies headers; encoding and file writes happen
+ * on a single writer thread, which also keeps the index that {@link #close()} appends to the file.
+ */
+public class TrafficRecorder extends ActivityTrackerAdapter implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TrafficRecorder.class);
+
+    private final ConcurrentMap<InetSocketAddress, Pending> inFlight = new ConcurrentHashMap<>();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "traffic-recorder");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final long startNanos = System.nanoTime();
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    // only touched by the writer thread
+    private final DataOutputStream out;
+    private final CountingOutputStream counter;
+    private final List<long[]> index = new ArrayList<>();
+
+    /**
+     * Creates (or overwrites) the recording
+     *
+     * @param path
+     * @throws IOException
+     */
+    public TrafficRecorder(Path path) throws IOException {
+        counter = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+        out = new DataOutputStream(counter);
+        out.writeInt(TrafficRecording.MAGIC);
+        out.writeInt(TrafficRecording.VERSION);
+    }
+
+    @Override
+    public void requestReceivedFromClient(FlowContext flowContext, HttpRequest httpRequest) {
+        inFlight.put(flowContext.getClientAddress(), new Pending(micros(), httpRequest.getMethod().name(),
+                httpRequest.getUri(), copyHeaders(httpRequest.headers()), bodyLength(httpRequest)));
+    }
+
+    @Override
+    public void responseSentToClient(FlowContext flowContext, HttpResponse httpResponse) {
+        Pending pending = inFlight.remove(flowContext.getClientAddress());
+        if (pending == null) {
+            return;
+        }
+        TrafficRecording.Exchange exchange = new TrafficRecording.Exchange(pending.startMicros,
+                micros() - pending.startMicros, pending.method, pending.uri, pending.headers, pending.bodyLength,
+                httpResponse.getStatus().code(), copyHeaders(httpResponse.headers()), bodyLength(httpResponse));
+        try {
+            writer.execute(() -> write(exchange));
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Recorder closed, dropping {}", exchange);
+        }
+    }
+
+    @Override
+    public void clientDisconnected(InetSocketAddress inetSocketAddress, SSLSession sslSession) {
+        inFlight.remove(inetSocketAddress);
+    }
+
+    /**
+     * @return exchanges written so far
+     */
+    public long getRecorded() {
+        return recorded.sum();
+    }
+
+    /**
+     * @return exchanges that couldn't be written
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Writes what is still queued and the index, exchanges completing afterwards are not recorded. If the writer
+     * doesn't get through the queue in time, the rest is dropped; if it is still busy after that, the file is left open
+     * rather than closed underneath it, and without an index.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+                // a write in progress isn't interrupted, blocking file writes don't notice
+                failed.add(writer.shutdownNow().size());
+                if (!writer.awaitTermination(5, TimeUnit.SECONDS)) {
+                    throw new IOException("Timed out writing the recording, the writer is still busy");
+                }
+            }
+        } catch (InterruptedException e) {
+            failed.add(writer.shutdownNow().size());
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted writing the recording", e);
+        }
+        try {
+            long indexOffset = counter.count;
+            index.sort((a, b) -> Long.compare(a[0], b[0]));
+            for (long[] entry : index) {
+                out.writeLong(entry[0]);
+                out.writeLong(entry[1]);
+            }
+            out.writeInt(index.size());
+            out.writeLong(indexOffset);
+            out.writeInt(TrafficRecording.MAGIC);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void write(TrafficRecording.Exchange exchange) {
+        long offset = counter.count;
+        try {
+            TrafficRecording.write(out, exchange);
+            index.add(new long[]{exchange.getStartMicros(), offset});
+            recorded.increment();
+        } catch (IOException e) {
+            // a partly written record is unreachable without an index entry, the file stays readable
+            failed.increment();
+            LOGGER.warn("Failed to record {}", exchange, e);
+        }
+    }
+
+    private long micros() {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+    }
+
+    private static List<Map.Entry<String, String>> copyHeaders(HttpHeaders headers) {
+        List<Map.Entry<String, String>> copy = new ArrayList<>();
+        for (Map.Entry<String, String> header : headers) {
+            copy.add(new AbstractMap.SimpleImmutableEntry<>(header.getKey(), header.getValue()));
+        }
+        return Collections.unmodifiableList(copy);
+    }
+
+    private static long bodyLength(HttpMessage httpMessage) {
+        if (httpMessage instanceof FullHttpMessage) {
+            return ((FullHttpMessage) httpMessage).content().readableBytes();
+        }
+        String contentLength = httpMessage.headers().get(HttpHeaders.Names.CONTENT_LENGTH);
+        if (contentLength != null) {
+            try {
+                return Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return HttpHeaders.isTransferEncodingChunked(httpMessage) ? -1 : 0;
+    }
+
+    private static class Pending {
+
+        private final long startMicros;
+        private final String method;
+        private final String uri;
+        private final List<Map.Entry<String, String>> headers;
+        private final long bodyLength;
+
+        private Pending(long startMicros, String method, String uri, List<Map.Entry<String, String>> headers,
+                        long bodyLength) {
+            this.startMicros = startMicros;
+            this.method = method;
+            this.uri = uri;
+            this.headers = headers;
+            this.bodyLength = bodyLength;
+        }
+
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+    }
+
+}
@@ -0,0 +1,241 @@
+package edu.nyu;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exchanges recorded by {@link TrafficRecorder}, read back through the index at the end of the file.
+ * <p>
+ * Layout: {@link #MAGIC}, {@link #VERSION}, then one record per exchange in the order the responses completed, then
+ * the index ({@code long startMicros, long offset} per exchange, sorted by start), then {@code int count,
+ * long indexOffset, int MAGIC}. Strings are modified UTF-8 as written by {@link DataOutput#writeUTF(String)}. Only
+ * the index is held in memory, exchanges are read on demand, so a recording can be much larger than the heap. Reads
+ * are positional and take no lock, so threads replaying the same recording don't wait on each other.
+ */
+public class TrafficRecording implements Closeable {
+
+    public static final int MAGIC = 0x54524146; // "TRAF"
+    public static final int VERSION = 1;
+
+    static final int TRAILER_SIZE = 4 + 8 + 4;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long[] startMicros;
+    private final long[] offsets;
+    private final int[] lengths;
+
+    /**
+     * @param path
+     * @throws IOException if the file is not a complete recording
+     */
+    public TrafficRecording(Path path) throws IOException {
+        file = new RandomAccessFile(path.toFile(), "r");
+        try {
+            if (file.length() < 8 + TRAILER_SIZE || file.readInt() != MAGIC) {
+                throw new IOException(path + " is not a traffic recording");
+            }
+            int version = file.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported traffic recording version " + version);
+            }
+            file.seek(file.length() - TRAILER_SIZE);
+            int count = file.readInt();
+            long indexOffset = file.readLong();
+            if (file.readInt() != MAGIC) {
+                throw new IOException(path + " has no index, the recorder wasn't closed");
+            }
+            startMicros = new long[count];
+            offsets = new long[count];
+            file.seek(indexOffset);
+            for (int i = 0; i < count; i++) {
+                startMicros[i] = file.readLong();
+                offsets[i] = file.readLong();
+            }
+            // records are contiguous in completion order, each ends where the next one in the file begins
+            long[] fileOrder = offsets.clone();
+            Arrays.sort(fileOrder);
+            lengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                int next = Arrays.binarySearch(fileOrder, offsets[i]) + 1;
+                lengths[i] = Math.toIntExact((next < count ? fileOrder[next] : indexOffset) - offsets[i]);
+            }
+            channel = file.getChannel();
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return number of exchanges
+     */
+    public int size() {
+        return offsets.length;
+    }
+
+    /**
+     * @return microseconds from the first request to the start of the last one
+     */
+    public long getSpanMicros() {
+        return offsets.length == 0 ? 0 : startMicros[offsets.length - 1] - startMicros[0];
+    }
+
+    /**
+     * @param index position in start order
+     * @return exchange
+     * @throws IOException
+     */
+    public Exchange get(int index) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(lengths[index]);
+        while (record.hasRemaining()) {
+            if (channel.read(record, offsets[index] + record.position()) < 0) {
+                throw new EOFException("Recording truncated in exchange " + index);
+            }
+        }
+        DataInput in = new DataInputStream(new ByteArrayInputStream(record.array()));
+        long start = in.readLong();
+        long duration = in.readLong();
+        String method = in.readUTF();
+        String uri = in.readUTF();
+        List<Map.Entry<String, String>> requestHeaders = readHeaders(in);
+        long requestBodyLength = in.readLong();
+        int status = in.readShort();
+        List<Map.Entry<String, String>> responseHeaders = readHeaders(in);
+        long responseBodyLength = in.readLong();
+        return new Exchange(start - startMicros[0], duration, method, uri, requestHeaders, requestBodyLength, status,
+                responseHeaders, responseBodyLength);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private static List<Map.Entry<String, String>> readHeaders(DataInput in) throws IOException {
+        int count = in.readShort();
+        List<Map.Entry<String, String>> headers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            headers.add(new AbstractMap.SimpleImmutableEntry<>(in.readUTF(), in.readUTF()));
+        }
+        return Collections.unmodifiableList(headers);
+    }
+
+    static void write(DataOutput out, Exchange exchange) throws IOException {
+        out.writeLong(exchange.startMicros);
+        out.writeLong(exchange.durationMicros);
+        out.writeUTF(exchange.method);
+        out.writeUTF(exchange.uri);
+        writeHeaders(out, exchange.requestHeaders);
+        out.writeLong(exchange.requestBodyLength);
+        out.writeShort(exchange.status);
+        writeHeaders(out, exchange.responseHeaders);
+        out.writeLong(exchange.responseBodyLength);
+    }
+
+    private static void writeHeaders(DataOutput out, List<Map.Entry<String, String>> headers) throws IOException {
+        out.writeShort(headers.size());
+        for (Map.Entry<String, String> header : headers) {
+            out.writeUTF(header.getKey());
+            out.writeUTF(header.getValue());
+        }
+    }
+
+    /**
+     * One request and the response the proxy sent back for it. Bodies are kept as lengths only, -1 when unknown
+     * (chunked), replays send that many filler bytes.
+     */
+    public static class Exchange {
+
+        private final long startMicros;
+        private final long durationMicros;
+        private final String method;
+        private final String uri;
+        private final List<Map.Entry<String, String>> requestHeaders;
+        private final long requestBodyLength;
+        private final int status;
+        private final List<Map.Entry<String, String>> responseHeaders;
+        private final long responseBodyLength;
+
+        public Exchange(long startMicros, long durationMicros, String method, String uri,
+                        List<Map.Entry<String, String>> requestHeaders, long requestBodyLength, int status,
+                        List<Map.Entry<String, String>> responseHeaders, long responseBodyLength) {
+            this.startMicros = startMicros;
+            this.durationMicros = durationMicros;
+            this.method = method;
+            this.uri = uri;
+            this.requestHeaders = requestHeaders;
+            this.requestBodyLength = requestBodyLength;
+            this.status = status;
+            this.responseHeaders = responseHeaders;
+            this.responseBodyLength = responseBodyLength;
+        }
+
+        /**
+         * @return microseconds since the first request of the recording
+         */
+        public long getStartMicros() {
+            return startMicros;
+        }
+
+        /**
+         * @return microseconds from the request reaching the proxy to the response leaving it
+         */
+        public long getDurationMicros() {
+            return durationMicros;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * @return request URI as the client sent it, absolute for a forward proxy
+         */
+        public String getUri() {
+            return uri;
+        }
+
+        public List<Map.Entry<String, String>> getRequestHeaders() {
+            return requestHeaders;
+        }
+
+        public long getRequestBodyLength() {
+            return requestBodyLength;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public List<Map.Entry<String, String>> getResponseHeaders() {
+            return responseHeaders;
+        }
+
+        public long getResponseBodyLength() {
+            return responseBodyLength;
+        }
+
+        @Override
+        public String toString() {
+            return startMicros + "us " + method + " " + uri + " -> " + status;
+        }
+
+    }
+
+}
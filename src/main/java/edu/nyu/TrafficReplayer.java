@@ -0,0 +1,380 @@
+package edu.nyu;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a {@link TrafficRecording} back through an {@link HttpClient}.
+ * <p>
+ * Like {@link LoadGenerator} this is an open model: every exchange is due at its recorded start time divided by the
+ * speed-up, independent of how fast earlier ones complete, and response time is measured from that moment so
+ * falling behind shows in the percentiles. A speed-up of {@link Double#POSITIVE_INFINITY} sends everything as fast as
+ * the workers can. {@link #startStandIn(TrafficRecording)} serves the recorded responses, so a replay needs nothing
+ * outside the JVM.
+ * <p>
+ * {@link #main(String[])} replays a recording file against a stand-in and prints the result, which makes throughput
+ * comparable across versions of the client and proxy: {@code TrafficReplayer <recording> [speed-up] [workers]}.
+ */
+public class TrafficReplayer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TrafficReplayer.class);
+
+    // managed per connection by client and server, or describing a body the replay doesn't reproduce byte for byte
+    private static final Set<String> SKIPPED_HEADERS = new HashSet<>(Arrays.asList("connection", "keep-alive",
+            "proxy-authenticate", "proxy-authorization", "proxy-connection", "te", "trailer", "transfer-encoding",
+            "upgrade", "host", "via", "content-length", "content-encoding"));
+
+    private final TrafficRecording recording;
+    private final HttpClient httpClient;
+    private final int workers;
+
+    /**
+     * @param recording
+     * @param httpClient client shared by all workers, its pool should allow {@code workers} connections per route
+     * @param workers    number of threads sending requests
+     */
+    public TrafficReplayer(TrafficRecording recording, HttpClient httpClient, int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("workers must be positive: " + workers);
+        }
+        this.recording = recording;
+        this.httpClient = httpClient;
+        this.workers = workers;
+    }
+
+    /**
+     * Replays every exchange against {@code target} and waits for all of them to finish
+     *
+     * @param target  host receiving the requests, whatever host they were recorded for
+     * @param speedUp 1 for the recorded pacing, 10 for ten times faster
+     * @return Result
+     * @throws InterruptedException
+     */
+    public Result replay(HttpHost target, double speedUp) throws InterruptedException {
+        if (!(speedUp > 0)) {
+            throw new IllegalArgumentException("speed-up must be positive: " + speedUp);
+        }
+        Run run = new Run(target, speedUp, System.nanoTime());
+        ExecutorService executorService = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                futures.add(executorService.submit(run::work));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Replay worker failed", e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+        return new Result(run.completed.sum(), run.errors.sum(), run.mismatches.sum(),
+                System.nanoTime() - run.startNanos, run.responseTime, run.serviceTime);
+    }
+
+    /**
+     * Starts a server on an ephemeral port answering each recorded request with its recorded status, headers and a
+     * body of the recorded length. Requests recorded more than once get their responses in turn, unknown ones a 404.
+     *
+     * @param recording
+     * @return started server
+     * @throws IOException
+     */
+    public static HttpServer startStandIn(TrafficRecording recording) throws IOException {
+        Map<String, List<TrafficRecording.Exchange>> responses = new HashMap<>();
+        for (int i = 0; i < recording.size(); i++) {
+            TrafficRecording.Exchange exchange = recording.get(i);
+            responses.computeIfAbsent(key(exchange.getMethod(), exchange.getUri()), key -> new ArrayList<>())
+                    .add(exchange);
+        }
+        Map<String, AtomicInteger> turns = new HashMap<>();
+        responses.keySet().forEach(key -> turns.put(key, new AtomicInteger()));
+
+        HttpServer httpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler("*", (req, resp, context) -> {
+                    String key = key(req.getRequestLine().getMethod(), req.getRequestLine().getUri());
+                    List<TrafficRecording.Exchange> candidates = responses.get(key);
+                    if (candidates == null) {
+                        resp.setStatusCode(404);
+                        return;
+                    }
+                    TrafficRecording.Exchange exchange = candidates.get(
+                            Math.floorMod(turns.get(key).getAndIncrement(), candidates.size()));
+                    resp.setStatusCode(exchange.getStatus());
+                    for (Map.Entry<String, String> header : exchange.getResponseHeaders()) {
+                        if (!SKIPPED_HEADERS.contains(header.getKey().toLowerCase(Locale.ROOT))) {
+                            resp.addHeader(header.getKey(), header.getValue());
+                        }
+                    }
+                    if (exchange.getResponseBodyLength() > 0) {
+                        resp.setEntity(new FillerEntity(exchange.getResponseBodyLength()));
+                    }
+                })
+                .create();
+        httpServer.start();
+        return httpServer;
+    }
+
+    private static String key(String method, String uri) {
+        // a forward proxy sees absolute URIs, the stand-in relative ones
+        try {
+            URI parsed = new URI(uri);
+            String path = parsed.getRawPath() == null || parsed.getRawPath().isEmpty() ? "/" : parsed.getRawPath();
+            return method + " " + (parsed.getRawQuery() == null ? path : path + "?" + parsed.getRawQuery());
+        } catch (URISyntaxException e) {
+            return method + " " + uri;
+        }
+    }
+
+    /**
+     * State shared by the workers of a single {@link #replay}
+     */
+    private class Run {
+
+        private final HttpHost target;
+        private final double speedUp;
+        private final long startNanos;
+        private final AtomicInteger next = new AtomicInteger();
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder mismatches = new LongAdder();
+        private final LatencyHistogram responseTime = new LatencyHistogram();
+        private final LatencyHistogram serviceTime = new LatencyHistogram();
+
+        private Run(HttpHost target, double speedUp, long startNanos) {
+            this.target = target;
+            this.speedUp = speedUp;
+            this.startNanos = startNanos;
+        }
+
+        private void work() {
+            for (int i = next.getAndIncrement(); i < recording.size(); i = next.getAndIncrement()) {
+                TrafficRecording.Exchange exchange;
+                try {
+                    exchange = recording.get(i);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Failed to read exchange " + i, e);
+                }
+                long intendedStart = startNanos
+                        + (long) (TimeUnit.MICROSECONDS.toNanos(exchange.getStartMicros()) / speedUp);
+                long wait;
+                while ((wait = intendedStart - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                long actualStart = System.nanoTime();
+                try {
+                    HttpResponse httpResponse = httpClient.execute(buildRequest(exchange).build());
+                    EntityUtils.consume(httpResponse.getEntity());
+                    if (httpResponse.getStatusLine().getStatusCode() != exchange.getStatus()) {
+                        mismatches.increment();
+                    }
+                } catch (IOException | URISyntaxException e) {
+                    errors.increment();
+                    LOGGER.debug("Replaying {} failed", exchange, e);
+                }
+                long end = System.nanoTime();
+                responseTime.record(end - intendedStart);
+                serviceTime.record(end - actualStart);
+                completed.increment();
+            }
+        }
+
+        private RequestBuilder buildRequest(TrafficRecording.Exchange exchange) throws URISyntaxException {
+            URI uri = new URIBuilder(exchange.getUri()).setScheme(target.getSchemeName())
+                    .setHost(target.getHostName()).setPort(target.getPort()).build();
+            RequestBuilder requestBuilder = RequestBuilder.create(exchange.getMethod()).setUri(uri);
+            for (Map.Entry<String, String> header : exchange.getRequestHeaders()) {
+                if (!SKIPPED_HEADERS.contains(header.getKey().toLowerCase(Locale.ROOT))) {
+                    requestBuilder.addHeader(header.getKey(), header.getValue());
+                }
+            }
+            if (exchange.getRequestBodyLength() > 0) {
+                requestBuilder.setEntity(new FillerEntity(exchange.getRequestBodyLength()));
+            }
+            return requestBuilder;
+        }
+
+    }
+
+    /**
+     * Repeatable entity of zero bytes standing in for a recorded body
+     */
+    private static class FillerEntity extends AbstractHttpEntity {
+
+        private static final byte[] FILLER = new byte[8192];
+
+        private final long length;
+
+        private FillerEntity(long length) {
+            this.length = length;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public long getContentLength() {
+            return length;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Body too large to buffer: " + length);
+            }
+            return new ByteArrayInputStream(new byte[(int) length]);
+        }
+
+        @Override
+        public void writeTo(OutputStream outputStream) throws IOException {
+            for (long remaining = length; remaining > 0; remaining -= FILLER.length) {
+                outputStream.write(FILLER, 0, (int) Math.min(remaining, FILLER.length));
+            }
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+
+    }
+
+    /**
+     * Outcome of a single replay
+     */
+    public static class Result {
+
+        private final long completed;
+        private final long errors;
+        private final long mismatches;
+        private final long elapsedNanos;
+        private final LatencyHistogram responseTime;
+        private final LatencyHistogram serviceTime;
+
+        private Result(long completed, long errors, long mismatches, long elapsedNanos,
+                       LatencyHistogram responseTime, LatencyHistogram serviceTime) {
+            this.completed = completed;
+            this.errors = errors;
+            this.mismatches = mismatches;
+            this.elapsedNanos = elapsedNanos;
+            this.responseTime = responseTime;
+            this.serviceTime = serviceTime;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        /**
+         * @return exchanges that failed with an exception
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return exchanges answered with a different status than recorded
+         */
+        public long getMismatches() {
+            return mismatches;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getThroughput() {
+            return completed / (elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1));
+        }
+
+        /**
+         * @return nanoseconds from the scheduled start of each exchange to its completion
+         */
+        public LatencyHistogram getResponseTime() {
+            return responseTime;
+        }
+
+        /**
+         * @return nanoseconds from the actual send of each exchange to its completion
+         */
+        public LatencyHistogram getServiceTime() {
+            return serviceTime;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("completed=%d errors=%d mismatches=%d elapsed=%.3fs throughput=%.1f/s p50=%.3fms "
+                            + "p99=%.3fms service.p99=%.3fms", completed, errors, mismatches,
+                    elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1), getThroughput(),
+                    millis(responseTime.getValueAtPercentile(50)), millis(responseTime.getValueAtPercentile(99)),
+                    millis(serviceTime.getValueAtPercentile(99)));
+        }
+
+        private static double millis(long nanos) {
+            return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("Usage: TrafficReplayer <recording> [speed-up] [workers]");
+            System.exit(1);
+        }
+        double speedUp = args.length > 1 ? Double.parseDouble(args[1]) : 1;
+        int workers = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors() * 4;
+        try (TrafficRecording recording = new TrafficRecording(Paths.get(args[0]))) {
+            HttpServer standIn = startStandIn(recording);
+            try (CloseableHttpClient httpClient = HttpClientBuilder.create()
+                    .setMaxConnPerRoute(workers).setMaxConnTotal(workers).build()) {
+                System.out.printf("%d exchanges over %.3fs recorded%n", recording.size(),
+                        recording.getSpanMicros() / (double) TimeUnit.SECONDS.toMicros(1));
+                Result result = new TrafficReplayer(recording, httpClient, workers)
+                        .replay(new HttpHost("localhost", standIn.getLocalPort()), speedUp);
+                System.out.println(result);
+            } finally {
+                standIn.stop();
+            }
+        }
+    }
+
+}
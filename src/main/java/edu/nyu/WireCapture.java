@@ -0,0 +1,131 @@
+package edu.nyu;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Append-only, memory-mapped binary file holding the raw bytes of HTTP connections.
+ * <p>
+ * A replacement for {@code org.apache.http.wire} DEBUG logging under load: instead of formatting every byte into a
+ * log line on the calling thread, writers reserve space with a single atomic add and copy the bytes into the mapping,
+ * the operating system takes care of getting them to disk. {@link WireCaptureReader} renders the file as the familiar
+ * {@code >>}/{@code <<} text afterwards.
+ * <p>
+ * Layout, all big endian: a 16 byte header ({@link #MAGIC}, {@link #VERSION}, end of the last record written before
+ * {@link #close()}, or 0 if the file wasn't closed), followed by records of
+ * {@code int length, byte direction, long connection id, long timestamp in epoch microseconds, byte[length] data}.
+ * The length of a record is written last, so a record with length 0 marks the end of what made it to the file. Once
+ * the file is full further records are dropped and counted.
+ */
+public class WireCapture implements Closeable {
+
+    public static final int MAGIC = 0x57495245; // "WIRE"
+    public static final int VERSION = 1;
+    public static final byte SENT = '>';
+    public static final byte RECEIVED = '<';
+
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_HEADER_SIZE = 4 + 1 + 8 + 8;
+
+    private final FileChannel fileChannel;
+    private final MappedByteBuffer buffer;
+    private final long capacity;
+    private final AtomicLong position = new AtomicLong(HEADER_SIZE);
+    private final AtomicLong connectionIds = new AtomicLong();
+    private final LongAdder droppedRecords = new LongAdder();
+    // microsecond timestamps from the monotonic clock, anchored at the wall clock time the file was opened
+    private final long startMicros = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * Creates (or overwrites) the capture file
+     *
+     * @param file
+     * @param capacity maximum file size in bytes, at most {@code Integer.MAX_VALUE}
+     * @throws IOException
+     */
+    public WireCapture(Path file, long capacity) throws IOException {
+        if (capacity <= HEADER_SIZE || capacity > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Capacity must be between " + HEADER_SIZE + " and 2 GB");
+        }
+        this.capacity = capacity;
+        this.fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.buffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(8, 0);
+    }
+
+    /**
+     * @return id for a new connection, unique within this file
+     */
+    public long nextConnectionId() {
+        return connectionIds.getAndIncrement();
+    }
+
+    /**
+     * Appends a record, safe to call from any number of threads
+     *
+     * @param connectionId
+     * @param direction    {@link #SENT} or {@link #RECEIVED}
+     * @param data
+     * @param offset
+     * @param length
+     */
+    public void append(long connectionId, byte direction, byte[] data, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+        long timestamp = startMicros + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        long start = position.getAndAdd(RECORD_HEADER_SIZE + length);
+        if (start + RECORD_HEADER_SIZE + length > capacity) {
+            droppedRecords.increment();
+            return;
+        }
+        int index = (int) start;
+        // absolute puts never touch the shared buffer's position, the duplicate is only needed for the bulk copy
+        buffer.put(index + 4, direction);
+        buffer.putLong(index + 5, connectionId);
+        buffer.putLong(index + 13, timestamp);
+        ByteBuffer target = buffer.duplicate();
+        target.position(index + RECORD_HEADER_SIZE);
+        target.put(data, offset, length);
+        buffer.putInt(index, length);
+    }
+
+    /**
+     * @return records that didn't fit into the file anymore
+     */
+    public long getDroppedRecords() {
+        return droppedRecords.sum();
+    }
+
+    /**
+     * @return bytes used so far, header included
+     */
+    public long getSize() {
+        return Math.min(position.get(), capacity);
+    }
+
+    /**
+     * Records where the data ends and flushes the mapping, appending afterwards is not allowed
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        buffer.putLong(8, getSize());
+        buffer.force();
+        fileChannel.close();
+    }
+
+}
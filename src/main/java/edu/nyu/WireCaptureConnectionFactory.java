@@ -0,0 +1,112 @@
+package edu.nyu;
+
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.conn.HttpConnectionFactory;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.DefaultManagedHttpClientConnection;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Connection factory copying everything sent and received into a {@link WireCapture}.
+ * <p>
+ * Takes the place of {@code ManagedHttpClientConnectionFactory}, whose connections log the wire through
+ * {@code org.apache.http.wire}, e.g.
+ * {@code HttpClientBuilder.setConnectionManager(new PoolingHttpClientConnectionManager(factory))}. Note that the
+ * builder's SSL settings don't apply to a connection manager set up this way, pass a socket factory registry to the
+ * manager for HTTPS.
+ */
+public class WireCaptureConnectionFactory implements HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection> {
+
+    private final WireCapture wireCapture;
+
+    public WireCaptureConnectionFactory(WireCapture wireCapture) {
+        this.wireCapture = wireCapture;
+    }
+
+    @Override
+    public ManagedHttpClientConnection create(HttpRoute route, ConnectionConfig config) {
+        ConnectionConfig connectionConfig = config != null ? config : ConnectionConfig.DEFAULT;
+        CharsetDecoder charsetDecoder = null;
+        CharsetEncoder charsetEncoder = null;
+        Charset charset = connectionConfig.getCharset();
+        if (charset != null) {
+            CodingErrorAction malformedInputAction = connectionConfig.getMalformedInputAction() != null
+                    ? connectionConfig.getMalformedInputAction() : CodingErrorAction.REPORT;
+            CodingErrorAction unmappableInputAction = connectionConfig.getUnmappableInputAction() != null
+                    ? connectionConfig.getUnmappableInputAction() : CodingErrorAction.REPORT;
+            charsetDecoder = charset.newDecoder()
+                    .onMalformedInput(malformedInputAction).onUnmappableCharacter(unmappableInputAction);
+            charsetEncoder = charset.newEncoder()
+                    .onMalformedInput(malformedInputAction).onUnmappableCharacter(unmappableInputAction);
+        }
+        long connectionId = wireCapture.nextConnectionId();
+        return new WireCaptureConnection(connectionId, connectionConfig, charsetDecoder, charsetEncoder);
+    }
+
+    private class WireCaptureConnection extends DefaultManagedHttpClientConnection {
+
+        private final long connectionId;
+
+        private WireCaptureConnection(long connectionId, ConnectionConfig connectionConfig,
+                                      CharsetDecoder charsetDecoder, CharsetEncoder charsetEncoder) {
+            super("wire-" + connectionId, connectionConfig.getBufferSize(), connectionConfig.getFragmentSizeHint(),
+                    charsetDecoder, charsetEncoder, connectionConfig.getMessageConstraints(),
+                    null, null, null, null);
+            this.connectionId = connectionId;
+        }
+
+        @Override
+        protected InputStream getSocketInputStream(Socket socket) throws IOException {
+            return new FilterInputStream(super.getSocketInputStream(socket)) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1) {
+                        wireCapture.append(connectionId, WireCapture.RECEIVED, new byte[]{(byte) b}, 0, 1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int read = super.read(b, off, len);
+                    if (read > 0) {
+                        wireCapture.append(connectionId, WireCapture.RECEIVED, b, off, read);
+                    }
+                    return read;
+                }
+            };
+        }
+
+        @Override
+        protected OutputStream getSocketOutputStream(Socket socket) throws IOException {
+            return new FilterOutputStream(super.getSocketOutputStream(socket)) {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    wireCapture.append(connectionId, WireCapture.SENT, new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    // FilterOutputStream would write byte by byte
+                    out.write(b, off, len);
+                    wireCapture.append(connectionId, WireCapture.SENT, b, off, len);
+                }
+            };
+        }
+
+    }
+
+}
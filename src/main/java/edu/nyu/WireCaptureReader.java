@@ -0,0 +1,148 @@
+package edu.nyu;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads {@link WireCapture} files and renders them the way {@code org.apache.http.wire} logs, one line per line of
+ * the protocol, e.g. {@code 2026-01-01T12:00:00.000123Z wire-0 >> "GET / HTTP/1.1[\r][\n]"}.
+ */
+public class WireCaptureReader {
+
+    private WireCaptureReader() {
+    }
+
+    /**
+     * Reads all complete records of a capture file, in the order they were reserved
+     *
+     * @param file
+     * @return records
+     * @throws IOException
+     */
+    public static List<Record> read(Path file) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+            if (buffer.limit() < WireCapture.HEADER_SIZE || buffer.getInt(0) != WireCapture.MAGIC) {
+                throw new IOException(file + " is not a wire capture");
+            }
+            if (buffer.getInt(4) != WireCapture.VERSION) {
+                throw new IOException("Unsupported wire capture version " + buffer.getInt(4));
+            }
+            // a file that wasn't closed is read up to the first record without a length
+            long end = buffer.getLong(8);
+            int limit = end > 0 ? (int) Math.min(end, buffer.limit()) : buffer.limit();
+            List<Record> records = new ArrayList<>();
+            int index = WireCapture.HEADER_SIZE;
+            while (index + WireCapture.RECORD_HEADER_SIZE <= limit) {
+                int length = buffer.getInt(index);
+                if (length <= 0 || index + WireCapture.RECORD_HEADER_SIZE + length > limit) {
+                    break;
+                }
+                byte[] data = new byte[length];
+                ByteBuffer source = buffer.duplicate();
+                source.position(index + WireCapture.RECORD_HEADER_SIZE);
+                source.get(data);
+                records.add(new Record(buffer.getLong(index + 5), buffer.get(index + 4),
+                        buffer.getLong(index + 13), data));
+                index += WireCapture.RECORD_HEADER_SIZE + length;
+            }
+            return records;
+        }
+    }
+
+    /**
+     * Prints a capture file as wire log lines
+     *
+     * @param file
+     * @param out
+     * @throws IOException
+     */
+    public static void render(Path file, PrintStream out) throws IOException {
+        for (Record record : read(file)) {
+            render(record, out);
+        }
+    }
+
+    static void render(Record record, PrintStream out) {
+        String prefix = record.getTimestamp() + " wire-" + record.getConnectionId() + " "
+                + (char) record.getDirection() + (char) record.getDirection() + " \"";
+        StringBuilder line = new StringBuilder();
+        for (byte b : record.getData()) {
+            int ch = b & 0xff;
+            if (ch == '\r') {
+                line.append("[\\r]");
+            } else if (ch == '\n') {
+                line.append("[\\n]");
+                out.println(prefix + line + "\"");
+                line.setLength(0);
+            } else if (ch < 32 || ch > 127) {
+                line.append("[0x").append(Integer.toHexString(ch)).append(']');
+            } else {
+                line.append((char) ch);
+            }
+        }
+        if (line.length() > 0) {
+            out.println(prefix + line + "\"");
+        }
+    }
+
+    /**
+     * Prints a capture file to standard out
+     *
+     * @param args capture file
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: WireCaptureReader <file>");
+            System.exit(1);
+        }
+        render(Paths.get(args[0]), System.out);
+    }
+
+    public static class Record {
+
+        private final long connectionId;
+        private final byte direction;
+        private final long timestampMicros;
+        private final byte[] data;
+
+        Record(long connectionId, byte direction, long timestampMicros, byte[] data) {
+            this.connectionId = connectionId;
+            this.direction = direction;
+            this.timestampMicros = timestampMicros;
+            this.data = data;
+        }
+
+        public long getConnectionId() {
+            return connectionId;
+        }
+
+        /**
+         * @return {@link WireCapture#SENT} or {@link WireCapture#RECEIVED}
+         */
+        public byte getDirection() {
+            return direction;
+        }
+
+        public Instant getTimestamp() {
+            return Instant.ofEpochSecond(TimeUnit.MICROSECONDS.toSeconds(timestampMicros),
+                    TimeUnit.MICROSECONDS.toNanos(timestampMicros % TimeUnit.SECONDS.toMicros(1)));
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+    }
+
+}
@@ -0,0 +1,83 @@
+package edu.nyu;
+
+import java.io.IOException;
+import java.net.Authenticator;
+import java.net.CookieManager;
+import java.net.InetSocketAddress;
+import java.net.PasswordAuthentication;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link HttpEngine} on the JDK's {@code java.net.http.HttpClient}; it needs Java 11 at run time, check
+ * {@link HttpEngine.Type#isAvailable()} before creating one.
+ * <p>
+ * Responses are completed on an executor owned by this engine and shut down with it; the client's own selector
+ * thread only ends once the client is unreachable, it has no {@code close()} before Java 21. HTTP/2 is negotiated
+ * with ALPN over TLS and attempted with an {@code h2c} upgrade on cleartext connections when asked for.
+ */
+public class JdkHttpEngine implements HttpEngine {
+
+    private static final AtomicInteger ENGINES = new AtomicInteger();
+
+    private final HttpClient httpClient;
+    private final ExecutorService executorService;
+
+    public JdkHttpEngine(HttpEngineConfig config) {
+        String prefix = "jdk-engine-" + ENGINES.incrementAndGet() + "-";
+        AtomicInteger threads = new AtomicInteger();
+        executorService = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, prefix + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        HttpClient.Builder httpClientBuilder = HttpClient.newBuilder()
+                .executor(executorService)
+                .version(config.getProtocol() == Protocol.HTTP_2 ? HttpClient.Version.HTTP_2
+                        : HttpClient.Version.HTTP_1_1)
+                .followRedirects(config.isRedirects() ? HttpClient.Redirect.NORMAL : HttpClient.Redirect.NEVER);
+        if (config.getProxy() != null) {
+            httpClientBuilder.proxy(ProxySelector.of(
+                    new InetSocketAddress(config.getProxy().getHostString(), config.getProxy().getPort())));
+            if (config.getProxyUser() != null) {
+                PasswordAuthentication credentials = new PasswordAuthentication(config.getProxyUser(),
+                        config.getProxyPassword().toCharArray());
+                httpClientBuilder.authenticator(new Authenticator() {
+                    @Override
+                    protected PasswordAuthentication getPasswordAuthentication() {
+                        return getRequestorType() == RequestorType.PROXY ? credentials : null;
+                    }
+                });
+            }
+        }
+        if (config.getSslContext() != null) {
+            httpClientBuilder.sslContext(config.getSslContext());
+        }
+        if (config.isCookies()) {
+            httpClientBuilder.cookieHandler(new CookieManager());
+        }
+        httpClient = httpClientBuilder.build();
+    }
+
+    @Override
+    public CompletableFuture<Response> executeAsync(URI uri) {
+        return httpClient.sendAsync(HttpRequest.newBuilder(uri).GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(httpResponse -> new Response(httpResponse.statusCode(),
+                        httpResponse.version() == HttpClient.Version.HTTP_2 ? Protocol.HTTP_2 : Protocol.HTTP_1_1,
+                        httpResponse.headers().map(), httpResponse.body()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        executorService.shutdownNow();
+    }
+
+}
@@ -0,0 +1,117 @@
+package edu.nyu;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.Logger;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.junit.Assert;
+import org.junit.Test;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URISyntaxException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class AsyncLoggingActivityTrackerTest {
+
+    private static final String HTTP_SCHEME = "http";
+    private static final String LOCALHOST = "localhost";
+    private static final String ROOT_CONTEXT = "/";
+    private static final String BLOCKED_HOST = "blocked-drainer";
+
+    /**
+     * Test confirming the byte callbacks of a proxied exchange are folded into a single flow summary
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testFlowSummaryForProxiedRequest() throws IOException, URISyntaxException {
+        AsyncLoggingActivityTracker activityTracker = new AsyncLoggingActivityTracker();
+        // setup proxy server and embedded server on ephemeral ports
+        HttpProxyServer proxyHttpServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0).plusActivityTracker(activityTracker).start();
+        HttpServer httpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler(ROOT_CONTEXT, (req, resp, context) -> resp.setStatusCode(HttpStatus.SC_OK))
+                .create();
+        httpServer.start();
+        try {
+            // setup HttpClient
+            HttpClient httpClient = HttpClientBuilder.create().setProxy(
+                    new HttpHost(LOCALHOST, proxyHttpServer.getListenAddress().getPort())).build();
+            HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME)
+                    .setHost(LOCALHOST).setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
+            HttpResponse httpResponse = httpClient.execute(httpUriRequest);
+            EntityUtils.consume(httpResponse.getEntity());
+            Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+        } finally {
+            proxyHttpServer.stop();
+            httpServer.stop();
+        }
+
+        // closing drains whatever is still buffered
+        activityTracker.close();
+        Assert.assertEquals(1, activityTracker.getFlowSummaries());
+        Assert.assertEquals(0, activityTracker.getDroppedEvents());
+    }
+
+    /**
+     * Test confirming events are dropped and counted rather than blocking the caller when the buffer is full
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testDroppedEventsWhenBufferIsFull() throws InterruptedException {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // holds the drainer in the log call of the first event, so its slot isn't freed
+        AbstractAppender blockingAppender = new AbstractAppender("BlockingAppender", null, null, false) {
+            @Override
+            public void append(LogEvent event) {
+                if (event.getMessage().getFormattedMessage().contains(BLOCKED_HOST) && writing.getCount() > 0) {
+                    writing.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+        blockingAppender.start();
+        Logger logger = (Logger) LogManager.getLogger(AsyncLoggingActivityTracker.class);
+        logger.addAppender(blockingAppender);
+        AsyncLoggingActivityTracker activityTracker = new AsyncLoggingActivityTracker(2);
+        InetSocketAddress clientAddress = InetSocketAddress.createUnresolved(BLOCKED_HOST, 1);
+        try {
+            activityTracker.clientConnected(clientAddress);
+            Assert.assertTrue(writing.await(10, TimeUnit.SECONDS));
+            // the other slot takes one more event, the rest find the buffer full
+            for (int i = 0; i < 10; i++) {
+                activityTracker.clientConnected(clientAddress);
+            }
+            Assert.assertEquals(9, activityTracker.getDroppedEvents());
+        } finally {
+            release.countDown();
+            activityTracker.close();
+            logger.removeAppender(blockingAppender);
+            blockingAppender.stop();
+        }
+    }
+
+}
@@ -0,0 +1,263 @@
+package edu.nyu;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.util.ResourceLeakDetector;
+import net.jcip.annotations.NotThreadSafe;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.Logger;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.littleshoot.proxy.HttpFiltersSource;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Netty reports the leaks of the whole JVM, so it runs once the parallel classes are done
+@NotThreadSafe
+public class BufferAllocationTest {
+
+    private static final String HTTP_SCHEME = "http";
+    private static final String LOCALHOST = "localhost";
+    private static final String ROOT_CONTEXT = "/";
+    private static final String GZIP = "gzip";
+    private static final int BODY_SIZE = 256 * 1024;
+    private static final int REQUESTS = 10;
+    private static final int ARENAS = 2;
+    private static final int PAGE_SIZE = 8192;
+    private static final int MAX_ORDER = 11;
+    private static final int LEAK_CHECKS = 3;
+    private static final long LEAK_CHECK_PAUSE_MILLIS = 50;
+    private static final LeakReports LEAK_REPORTS = new LeakReports();
+
+    private static ResourceLeakDetector.Level leakDetectionLevel;
+    private HttpServer httpServer;
+
+    @BeforeClass
+    public static void setupLeakDetection() throws InterruptedException {
+        leakDetectionLevel = ResourceLeakDetector.getLevel();
+        ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+        LEAK_REPORTS.start();
+        leakDetector().addAppender(LEAK_REPORTS);
+        // leaks of the classes that ran before aren't ours
+        leaks();
+    }
+
+    @AfterClass
+    public static void shutdownLeakDetection() {
+        leakDetector().removeAppender(LEAK_REPORTS);
+        LEAK_REPORTS.stop();
+        ResourceLeakDetector.setLevel(leakDetectionLevel);
+    }
+
+    @Before
+    public void setup() throws IOException {
+        httpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler(ROOT_CONTEXT, (req, resp, context) -> {
+                    resp.setStatusCode(HttpStatus.SC_OK);
+                    resp.setEntity(new GeneratedEntity(BODY_SIZE, false));
+                })
+                .create();
+        httpServer.start();
+    }
+
+    @After
+    public void shutdown() throws InterruptedException {
+        httpServer.stop();
+        List<String> leaks = leaks();
+        Assert.assertTrue(String.join(System.lineSeparator(), leaks), leaks.isEmpty());
+    }
+
+    /**
+     * Test confirming the proxy reads and writes both of its connections through a pooled direct allocator, and that
+     * every buffer it took is back in the pool once the proxy has stopped
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testProxyUsesPooledDirectBuffers() throws IOException, URISyntaxException {
+        PooledByteBufAllocator allocator = AllocatorFiltersSource.pooled(true, ARENAS, PAGE_SIZE, MAX_ORDER, false);
+        HttpProxyServer proxyHttpServer = startProxy(new AllocatorFiltersSource(allocator));
+        try (CloseableHttpClient httpClient = HttpClientBuilder.create().setProxy(proxyHost(proxyHttpServer))
+                .build()) {
+            for (int i = 0; i < REQUESTS; i++) {
+                try (CloseableHttpResponse httpResponse = httpClient.execute(request())) {
+                    Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+                    Assert.assertEquals(BODY_SIZE, GeneratedEntity.consume(httpResponse.getEntity().getContent()));
+                }
+            }
+        } finally {
+            proxyHttpServer.stop();
+        }
+
+        Assert.assertTrue(allocator.heapArenas().isEmpty());
+        // the body went through the pool on the way in and on the way out
+        Assert.assertTrue(allocations(allocator.directArenas()) >= 2 * REQUESTS);
+        Assert.assertEquals(0, activeAllocations(allocator.directArenas()));
+    }
+
+    /**
+     * Test confirming the wrapped filters source still filters, here compressing the response, with the proxy on a
+     * pooled heap allocator
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testDelegateStillFilters() throws IOException, URISyntaxException {
+        PooledByteBufAllocator allocator = AllocatorFiltersSource.pooled(false, ARENAS, PAGE_SIZE, MAX_ORDER, false);
+        HttpProxyServer proxyHttpServer = startProxy(new AllocatorFiltersSource(allocator,
+                new CompressingFiltersSource(1)));
+        try (CloseableHttpClient httpClient = HttpClientBuilder.create().setProxy(proxyHost(proxyHttpServer))
+                .disableContentCompression().build()) {
+            HttpUriRequest httpUriRequest = RequestBuilder.get(uri()).addHeader(HttpHeaders.ACCEPT_ENCODING, GZIP)
+                    .build();
+            try (CloseableHttpResponse httpResponse = httpClient.execute(httpUriRequest)) {
+                Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+                Assert.assertEquals(GZIP, httpResponse.getFirstHeader(HttpHeaders.CONTENT_ENCODING).getValue());
+                EntityUtils.consume(httpResponse.getEntity());
+            }
+        } finally {
+            proxyHttpServer.stop();
+        }
+
+        Assert.assertTrue(allocator.directArenas().isEmpty());
+        Assert.assertTrue(allocations(allocator.heapArenas()) > 0);
+        Assert.assertEquals(0, activeAllocations(allocator.heapArenas()));
+    }
+
+    /**
+     * Test confirming the allocators give I/O the kind of buffer asked for, even where Netty would fall back to heap
+     * buffers for lack of {@code sun.misc.Unsafe}
+     */
+    @Test
+    public void testAllocatorsHonourDirect() {
+        for (boolean direct : new boolean[]{true, false}) {
+            assertBuffers(AllocatorFiltersSource.pooled(direct, ARENAS, PAGE_SIZE, MAX_ORDER, true), direct);
+            assertBuffers(AllocatorFiltersSource.unpooled(direct), direct);
+        }
+    }
+
+    /**
+     * Test confirming a buffer dropped without being released is reported, so the other tests would fail on one
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testLeakIsReported() throws InterruptedException {
+        // dropped without a release
+        UnpooledByteBufAllocator.DEFAULT.directBuffer();
+        Assert.assertFalse(leaks().isEmpty());
+    }
+
+    private static void assertBuffers(ByteBufAllocator allocator, boolean direct) {
+        for (ByteBuf byteBuf : new ByteBuf[]{allocator.buffer(), allocator.buffer(PAGE_SIZE),
+                allocator.ioBuffer(), allocator.ioBuffer(PAGE_SIZE), allocator.ioBuffer(PAGE_SIZE, 2 * PAGE_SIZE)}) {
+            try {
+                Assert.assertEquals(byteBuf.toString(), direct, byteBuf.isDirect());
+            } finally {
+                byteBuf.release();
+            }
+        }
+    }
+
+    /**
+     * The detector only looks for collected buffers that weren't released when it tracks a new one
+     *
+     * @return leak reports since the last call
+     * @throws InterruptedException
+     */
+    private static List<String> leaks() throws InterruptedException {
+        for (int i = 0; i < LEAK_CHECKS; i++) {
+            System.gc();
+            Thread.sleep(LEAK_CHECK_PAUSE_MILLIS);
+            UnpooledByteBufAllocator.DEFAULT.directBuffer().release();
+        }
+        return LEAK_REPORTS.drain();
+    }
+
+    private static Logger leakDetector() {
+        return (Logger) LogManager.getLogger(ResourceLeakDetector.class);
+    }
+
+    private static long allocations(List<PoolArenaMetric> arenas) {
+        return arenas.stream().mapToLong(PoolArenaMetric::numAllocations).sum();
+    }
+
+    private static long activeAllocations(List<PoolArenaMetric> arenas) {
+        return arenas.stream().mapToLong(PoolArenaMetric::numActiveAllocations).sum();
+    }
+
+    private static HttpProxyServer startProxy(HttpFiltersSource filtersSource) {
+        return DefaultHttpProxyServer.bootstrap().withPort(0).withFiltersSource(filtersSource).start();
+    }
+
+    private static HttpHost proxyHost(HttpProxyServer proxyHttpServer) {
+        return new HttpHost(LOCALHOST, proxyHttpServer.getListenAddress().getPort());
+    }
+
+    private HttpUriRequest request() throws URISyntaxException {
+        return RequestBuilder.get(uri()).build();
+    }
+
+    private URI uri() throws URISyntaxException {
+        return new URIBuilder().setScheme(HTTP_SCHEME).setHost(LOCALHOST).setPort(httpServer.getLocalPort())
+                .setPath(ROOT_CONTEXT).build();
+    }
+
+    /**
+     * Keeps the {@code LEAK:} errors of {@link ResourceLeakDetector}, which only logs them
+     */
+    private static class LeakReports extends AbstractAppender {
+
+        private final List<String> reports = new ArrayList<>();
+
+        private LeakReports() {
+            super(LeakReports.class.getSimpleName(), null, null, false);
+        }
+
+        @Override
+        public synchronized void append(LogEvent event) {
+            if (event.getLevel().isMoreSpecificThan(Level.ERROR)) {
+                reports.add(event.getMessage().getFormattedMessage());
+            }
+        }
+
+        private synchronized List<String> drain() {
+            List<String> drained = new ArrayList<>(reports);
+            reports.clear();
+            return drained;
+        }
+
+    }
+
+}
@@ -0,0 +1,204 @@
+package edu.nyu;
+
+import net.jcip.annotations.NotThreadSafe;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// compares cached and uncached lookup times, so it runs once the parallel classes are done
+@NotThreadSafe
+public class CachingDnsResolverTest {
+
+    private static final String HTTP_SCHEME = "http";
+    private static final String GOOD_HOST = "good.localhost.com";
+    private static final String EVIL_HOST = "evil.localhost.com";
+    private static final String UNKNOWN_HOST = "unknown.localhost.com";
+    private static final String ROOT_CONTEXT = "/";
+    private static final long LOOKUP_MILLIS = 100;
+    private static final int CONCURRENCY = 32;
+    private static final int ROUNDS = 2;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachingDnsResolverTest.class);
+
+    private final AtomicInteger lookups = new AtomicInteger();
+    private HttpServer httpServer;
+
+    @Before
+    public void setup() throws IOException {
+        httpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler(ROOT_CONTEXT, (req, resp, context) -> resp.setStatusCode(HttpStatus.SC_OK))
+                .create();
+        httpServer.start();
+    }
+
+    @After
+    public void shutdown() {
+        httpServer.stop();
+    }
+
+    /**
+     * Test confirming concurrent connections share lookups and later connections skip them entirely
+     *
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    @Test
+    public void testConcurrentConnections() throws InterruptedException, ExecutionException {
+        LatencyHistogram uncached = connectConcurrently(buildSlowDnsResolver());
+        Assert.assertEquals(CONCURRENCY * ROUNDS, lookups.getAndSet(0));
+
+        CachingDnsResolver cachingDnsResolver = new CachingDnsResolver(buildSlowDnsResolver(), 60, 5,
+                TimeUnit.SECONDS);
+        LatencyHistogram cached = connectConcurrently(cachingDnsResolver);
+        // one lookup per host, everything else either waited for it or came from the cache
+        Assert.assertEquals(2, lookups.get());
+        Assert.assertEquals(2, cachingDnsResolver.getMisses());
+        Assert.assertTrue(cachingDnsResolver.getCoalesced() > 0);
+        Assert.assertEquals(CONCURRENCY * ROUNDS, cachingDnsResolver.getHits() + cachingDnsResolver.getMisses()
+                + cachingDnsResolver.getCoalesced());
+
+        LOGGER.info("Uncached {}", uncached.summary(TimeUnit.MILLISECONDS));
+        LOGGER.info("Cached {} ({} hits, {} misses, {} coalesced)", cached.summary(TimeUnit.MILLISECONDS),
+                cachingDnsResolver.getHits(), cachingDnsResolver.getMisses(), cachingDnsResolver.getCoalesced());
+        Assert.assertTrue(cached.getMean() < uncached.getMean());
+    }
+
+    /**
+     * Test confirming results expire after their TTL and failures after the shorter negative TTL
+     *
+     * @throws UnknownHostException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testTtlAndNegativeCaching() throws UnknownHostException, InterruptedException {
+        CachingDnsResolver cachingDnsResolver = new CachingDnsResolver(buildSlowDnsResolver(), 500, 100,
+                TimeUnit.MILLISECONDS);
+        InetAddress[] addresses = cachingDnsResolver.resolve(GOOD_HOST);
+        Assert.assertArrayEquals(addresses, cachingDnsResolver.resolve(GOOD_HOST));
+        for (int i = 0; i < 2; i++) {
+            try {
+                cachingDnsResolver.resolve(UNKNOWN_HOST);
+                Assert.fail();
+            } catch (UnknownHostException e) {
+                Assert.assertEquals(UNKNOWN_HOST, e.getMessage());
+            }
+        }
+        Assert.assertEquals(2, lookups.get());
+        Assert.assertEquals(2, cachingDnsResolver.getHits());
+
+        // past the negative TTL, within the positive one
+        Thread.sleep(250);
+        cachingDnsResolver.resolve(GOOD_HOST);
+        try {
+            cachingDnsResolver.resolve(UNKNOWN_HOST);
+            Assert.fail();
+        } catch (UnknownHostException e) {
+            Assert.assertEquals(3, lookups.get());
+        }
+
+        Thread.sleep(500);
+        cachingDnsResolver.resolve(GOOD_HOST);
+        Assert.assertEquals(4, lookups.get());
+        Assert.assertEquals(4, cachingDnsResolver.getMisses());
+    }
+
+    /**
+     * Sends {@link #ROUNDS} rounds of {@link #CONCURRENCY} simultaneous requests alternating between the good and the
+     * evil host, each on a new connection so that every request has to resolve its host
+     *
+     * @param dnsResolver
+     * @return request latencies in nanoseconds
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    private LatencyHistogram connectConcurrently(DnsResolver dnsResolver) throws InterruptedException,
+            ExecutionException {
+        LatencyHistogram latencies = new LatencyHistogram();
+        ExecutorService executorService = Executors.newFixedThreadPool(CONCURRENCY);
+        try (CloseableHttpClient httpClient = HttpClientBuilder.create()
+                .setDnsResolver(dnsResolver)
+                .setConnectionReuseStrategy(NoConnectionReuseStrategy.INSTANCE)
+                .setMaxConnPerRoute(CONCURRENCY).setMaxConnTotal(CONCURRENCY)
+                .build()) {
+            for (int round = 0; round < ROUNDS; round++) {
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<Integer>> futures = new ArrayList<>();
+                for (int i = 0; i < CONCURRENCY; i++) {
+                    String host = i % 2 == 0 ? GOOD_HOST : EVIL_HOST;
+                    futures.add(executorService.submit(() -> {
+                        HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME)
+                                .setHost(host).setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build())
+                                .build();
+                        start.await();
+                        long begin = System.nanoTime();
+                        try (CloseableHttpResponse httpResponse = httpClient.execute(httpUriRequest)) {
+                            EntityUtils.consume(httpResponse.getEntity());
+                            latencies.record(System.nanoTime() - begin);
+                            return httpResponse.getStatusLine().getStatusCode();
+                        }
+                    }));
+                }
+                start.countDown();
+                for (Future<Integer> future : futures) {
+                    Assert.assertEquals(HttpStatus.SC_OK, (int) future.get());
+                }
+            }
+        } catch (IOException e) {
+            Assert.fail(e.getMessage());
+        } finally {
+            executorService.shutdownNow();
+        }
+        return latencies;
+    }
+
+    /**
+     * Resolves the test hosts to the loopback address like a DNS server with a noticeable round-trip would
+     *
+     * @return DnsResolver
+     */
+    private DnsResolver buildSlowDnsResolver() {
+        return host -> {
+            lookups.incrementAndGet();
+            try {
+                Thread.sleep(LOOKUP_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (host.equals(EVIL_HOST) || host.equals(GOOD_HOST)) {
+                return new InetAddress[] {InetAddress.getByAddress(new byte[] {127, 0, 0, 1})};
+            }
+            throw new UnknownHostException(host);
+        };
+    }
+
+}
@@ -0,0 +1,198 @@
+package edu.nyu;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.cache.CacheConfig;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CachingHttpClientTest {
+
+    private static final String HTTP_SCHEME = "http";
+    private static final String LOCALHOST = "localhost";
+    private static final String FRESH_CONTEXT = "/fresh";
+    private static final String ETAG_CONTEXT = "/etag";
+    private static final String BLOB_CONTEXT = "/blob/*";
+    private static final String ETAG = "\"v1\"";
+    private static final String PAGE = "<html>cached</html>";
+    private static final int BLOB_SIZE = 40 * 1024;
+    private static final int MAX_BYTES = 100 * 1024;
+    private static final int MAX_OBJECT_SIZE = 1024 * 1024;
+
+    private final AtomicInteger originRequests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private HttpServer httpServer;
+    private OffHeapResourceFactory resourceFactory;
+    private BoundedHttpCacheStorage storage;
+    private MeteredCachingHttpClientBuilder builder;
+
+    @Before
+    public void setup() throws IOException {
+        httpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler(FRESH_CONTEXT, (req, resp, context) -> {
+                    originRequests.incrementAndGet();
+                    resp.setStatusCode(HttpStatus.SC_OK);
+                    resp.setHeader(HttpHeaders.CACHE_CONTROL, "max-age=60");
+                    resp.setEntity(new StringEntity(PAGE));
+                })
+                .registerHandler(ETAG_CONTEXT, (req, resp, context) -> {
+                    originRequests.incrementAndGet();
+                    resp.setHeader(HttpHeaders.CACHE_CONTROL, "max-age=0, must-revalidate");
+                    resp.setHeader(HttpHeaders.ETAG, ETAG);
+                    if (req.getFirstHeader(HttpHeaders.IF_NONE_MATCH) != null
+                            && ETAG.equals(req.getFirstHeader(HttpHeaders.IF_NONE_MATCH).getValue())) {
+                        notModified.incrementAndGet();
+                        resp.setStatusCode(HttpStatus.SC_NOT_MODIFIED);
+                    } else {
+                        resp.setStatusCode(HttpStatus.SC_OK);
+                        resp.setEntity(new StringEntity(PAGE));
+                    }
+                })
+                .registerHandler(BLOB_CONTEXT, (req, resp, context) -> {
+                    originRequests.incrementAndGet();
+                    resp.setStatusCode(HttpStatus.SC_OK);
+                    resp.setHeader(HttpHeaders.CACHE_CONTROL, "max-age=60");
+                    byte[] blob = new byte[BLOB_SIZE];
+                    Arrays.fill(blob, (byte) req.getRequestLine().getUri().hashCode());
+                    resp.setEntity(new ByteArrayEntity(blob));
+                })
+                .create();
+        httpServer.start();
+
+        resourceFactory = new OffHeapResourceFactory();
+        storage = new BoundedHttpCacheStorage(MAX_BYTES, 1000);
+        builder = new MeteredCachingHttpClientBuilder();
+        builder.setResourceFactory(resourceFactory).setHttpCacheStorage(storage)
+                .setCacheConfig(CacheConfig.custom().setMaxObjectSize(MAX_OBJECT_SIZE).build());
+    }
+
+    @After
+    public void shutdown() {
+        httpServer.stop();
+    }
+
+    /**
+     * Test confirming a fresh response is served from the cache without asking the origin again
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testCacheControlMaxAge() throws IOException, URISyntaxException {
+        try (CloseableHttpClient httpClient = builder.build()) {
+            for (int i = 0; i < 3; i++) {
+                Assert.assertEquals(PAGE, get(httpClient, FRESH_CONTEXT));
+            }
+        }
+        Assert.assertEquals(1, originRequests.get());
+        Assert.assertEquals(1, builder.getMisses());
+        Assert.assertEquals(2, builder.getHits());
+        Assert.assertEquals(1, storage.size());
+        Assert.assertEquals(PAGE.length(), storage.getBytes());
+    }
+
+    /**
+     * Test confirming a response that must be revalidated is confirmed with If-None-Match and served from the cache
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testETagRevalidation() throws IOException, URISyntaxException {
+        try (CloseableHttpClient httpClient = builder.build()) {
+            for (int i = 0; i < 3; i++) {
+                Assert.assertEquals(PAGE, get(httpClient, ETAG_CONTEXT));
+            }
+        }
+        Assert.assertEquals(3, originRequests.get());
+        Assert.assertEquals(2, notModified.get());
+        Assert.assertEquals(1, builder.getMisses());
+        Assert.assertEquals(2, builder.getValidated());
+        Assert.assertEquals(0, builder.getHits());
+        // each revalidation replaces the entry with a copy sharing the same off-heap block
+        Assert.assertEquals(OffHeapResourceFactory.DEFAULT_CHUNK_SIZE, resourceFactory.getRetainedBytes());
+    }
+
+    /**
+     * Test confirming least recently used bodies are evicted, and their direct memory released, to stay under the
+     * byte budget
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testEvictionUnderMemoryCap() throws IOException, URISyntaxException {
+        try (CloseableHttpClient httpClient = builder.build()) {
+            for (int i = 0; i < 5; i++) {
+                Assert.assertEquals(BLOB_SIZE, getBytes(httpClient, "/blob/" + i).length);
+                Assert.assertTrue(storage.getBytes() <= MAX_BYTES);
+            }
+            Assert.assertEquals(3, storage.getEvictions());
+            Assert.assertEquals(2, storage.size());
+            Assert.assertEquals(2 * BLOB_SIZE, storage.getBytes());
+            int chunksPerBlob = (BLOB_SIZE + OffHeapResourceFactory.DEFAULT_CHUNK_SIZE - 1)
+                    / OffHeapResourceFactory.DEFAULT_CHUNK_SIZE;
+            Assert.assertEquals(2L * chunksPerBlob * OffHeapResourceFactory.DEFAULT_CHUNK_SIZE,
+                    resourceFactory.getRetainedBytes());
+
+            // the most recent blob is still cached, the first one has to come from the origin again
+            byte[] blob = getBytes(httpClient, "/blob/4");
+            Assert.assertEquals((byte) "/blob/4".hashCode(), blob[BLOB_SIZE - 1]);
+            Assert.assertEquals(5, originRequests.get());
+            getBytes(httpClient, "/blob/0");
+            Assert.assertEquals(6, originRequests.get());
+        }
+        Assert.assertEquals(6, builder.getMisses());
+        Assert.assertEquals(1, builder.getHits());
+    }
+
+    /**
+     * Test confirming bodies over the object size limit are passed through in full and not kept
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testOversizedBodyNotCached() throws IOException, URISyntaxException {
+        builder.setCacheConfig(CacheConfig.custom().setMaxObjectSize(BLOB_SIZE / 2).build());
+        try (CloseableHttpClient httpClient = builder.build()) {
+            Assert.assertEquals(BLOB_SIZE, getBytes(httpClient, "/blob/0").length);
+            Assert.assertEquals(BLOB_SIZE, getBytes(httpClient, "/blob/0").length);
+        }
+        Assert.assertEquals(2, originRequests.get());
+        Assert.assertEquals(0, storage.size());
+        Assert.assertEquals(0, resourceFactory.getRetainedBytes());
+    }
+
+    private String get(CloseableHttpClient httpClient, String path) throws IOException, URISyntaxException {
+        return new String(getBytes(httpClient, path), "UTF-8");
+    }
+
+    private byte[] getBytes(CloseableHttpClient httpClient, String path) throws IOException, URISyntaxException {
+        HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME)
+                .setHost(LOCALHOST).setPort(httpServer.getLocalPort()).setPath(path).build()).build();
+        try (CloseableHttpResponse httpResponse = httpClient.execute(httpUriRequest)) {
+            Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+            return EntityUtils.toByteArray(httpResponse.getEntity());
+        }
+    }
+
+}
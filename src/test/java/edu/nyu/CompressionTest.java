@@ -0,0 +1,258 @@
+package edu.nyu;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.HttpProxyServerBootstrap;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+public class CompressionTest {
+
+    private static final String HTTP_SCHEME = "http";
+    private static final String LOCALHOST = "localhost";
+    private static final String ROOT_CONTEXT = "/";
+    private static final int LEVEL = 6;
+    private static final String PAGE = GeneratedEntity.text(64 * 1024);
+
+    private final List<String> acceptEncodings = new ArrayList<>();
+    private final MetricsActivityTracker tracker = new MetricsActivityTracker();
+    private HttpServer httpServer;
+    private HttpProxyServer proxyHttpServer;
+
+    @After
+    public void shutdown() {
+        if (proxyHttpServer != null) {
+            proxyHttpServer.stop();
+            httpServer.stop();
+        }
+    }
+
+    /**
+     * Test confirming the server gzips the response and the client inflates it, with only compressed bytes on the wire
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testServerGzip() throws IOException, URISyntaxException {
+        start(true, DefaultHttpProxyServer.bootstrap());
+        try (CloseableHttpClient httpClient = client()) {
+            Assert.assertEquals(PAGE, get(httpClient, null));
+        }
+        Assert.assertEquals("gzip,deflate", acceptEncodings.get(0));
+        Assert.assertTrue(wireBytes() < PAGE.length() / 2);
+    }
+
+    /**
+     * Test confirming the server falls back to deflate when the client doesn't accept gzip
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testServerDeflate() throws IOException, URISyntaxException {
+        start(true, DefaultHttpProxyServer.bootstrap());
+        try (CloseableHttpClient httpClient = client()) {
+            Assert.assertEquals(PAGE, get(httpClient, "gzip;q=0, deflate"));
+        }
+        Assert.assertTrue(wireBytes() < PAGE.length() / 2);
+    }
+
+    /**
+     * Test confirming the proxy compresses a plain response from the origin for a client accepting gzip
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testProxyGzip() throws IOException, URISyntaxException {
+        start(false, DefaultHttpProxyServer.bootstrap().withFiltersSource(new CompressingFiltersSource(LEVEL)));
+        try (CloseableHttpClient httpClient = client()) {
+            Assert.assertEquals(PAGE, get(httpClient, null));
+            Assert.assertEquals(PAGE, get(httpClient, null));
+        }
+        // the origin was asked for the plain body
+        Assert.assertEquals(2, acceptEncodings.size());
+        Assert.assertNull(acceptEncodings.get(0));
+        Assert.assertTrue(wireBytes() < PAGE.length());
+    }
+
+    /**
+     * Test confirming neither server nor proxy compress for a client that doesn't send Accept-Encoding, though the
+     * response still varies by it
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testIdentityWithoutAcceptEncoding() throws IOException, URISyntaxException {
+        start(true, DefaultHttpProxyServer.bootstrap().withFiltersSource(new CompressingFiltersSource(LEVEL)));
+        HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME)
+                .setHost(LOCALHOST).setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
+        try (CloseableHttpClient httpClient = proxied(HttpClientBuilder.create().disableContentCompression());
+             CloseableHttpResponse httpResponse = httpClient.execute(httpUriRequest)) {
+            Assert.assertNull(httpResponse.getFirstHeader(HttpHeaders.CONTENT_ENCODING));
+            // the server's Vary already covers what the proxy would add
+            Assert.assertEquals(1, httpResponse.getHeaders(HttpHeaders.VARY).length);
+            Assert.assertEquals(HttpHeaders.ACCEPT_ENCODING, httpResponse.getFirstHeader(HttpHeaders.VARY).getValue());
+            Assert.assertEquals(PAGE, EntityUtils.toString(httpResponse.getEntity()));
+        }
+        Assert.assertTrue(wireBytes() > PAGE.length());
+    }
+
+    /**
+     * Test confirming the entity's content can be read compressed, with either encoding, as well as written
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testEntityContent() throws IOException {
+        for (String encoding : new String[]{CompressingEntity.GZIP, CompressingEntity.DEFLATE}) {
+            CompressingEntity entity = new CompressingEntity(new StringEntity(PAGE), encoding, LEVEL);
+            byte[] read;
+            try (InputStream content = entity.getContent()) {
+                read = read(content);
+            }
+            Assert.assertTrue(read.length < PAGE.length() / 2);
+            try (InputStream inflated = CompressingEntity.GZIP.equals(encoding)
+                    ? new GZIPInputStream(new ByteArrayInputStream(read))
+                    : new InflaterInputStream(new ByteArrayInputStream(read))) {
+                Assert.assertEquals(PAGE, new String(read(inflated), StandardCharsets.ISO_8859_1));
+            }
+        }
+    }
+
+    /**
+     * Test confirming the server side interceptor rejects a level zlib doesn't have
+     */
+    @Test
+    public void testInvalidLevel() {
+        try {
+            new ResponseCompression(Deflater.BEST_COMPRESSION + 1);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Invalid level: 10", e.getMessage());
+        }
+    }
+
+    /**
+     * Test confirming the server side interceptor leaves responses without a body alone, and doesn't compress the
+     * response to a HEAD request though it still varies by encoding
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testBodilessResponsesNotCompressed() throws IOException {
+        for (int status : new int[]{HttpStatus.SC_NO_CONTENT, HttpStatus.SC_NOT_MODIFIED}) {
+            HttpResponse httpResponse = intercept(HttpGet.METHOD_NAME, status);
+            Assert.assertFalse(httpResponse.getEntity() instanceof CompressingEntity);
+            Assert.assertNull(httpResponse.getFirstHeader(HttpHeaders.VARY));
+        }
+        HttpResponse httpResponse = intercept(HttpHead.METHOD_NAME, HttpStatus.SC_OK);
+        Assert.assertFalse(httpResponse.getEntity() instanceof CompressingEntity);
+        Assert.assertEquals(HttpHeaders.ACCEPT_ENCODING, httpResponse.getFirstHeader(HttpHeaders.VARY).getValue());
+        Assert.assertTrue(intercept(HttpGet.METHOD_NAME, HttpStatus.SC_OK).getEntity() instanceof CompressingEntity);
+    }
+
+    /**
+     * Runs the server side interceptor on a response to a request accepting gzip
+     */
+    private static HttpResponse intercept(String method, int status) throws IOException {
+        HttpRequest httpRequest = new BasicHttpRequest(method, ROOT_CONTEXT);
+        httpRequest.setHeader(HttpHeaders.ACCEPT_ENCODING, CompressingEntity.GZIP);
+        HttpCoreContext context = HttpCoreContext.create();
+        context.setAttribute(HttpCoreContext.HTTP_REQUEST, httpRequest);
+        HttpResponse httpResponse = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, null);
+        httpResponse.setEntity(new StringEntity(PAGE));
+        new ResponseCompression(LEVEL).process(httpResponse, context);
+        return httpResponse;
+    }
+
+    private void start(boolean serverCompression, HttpProxyServerBootstrap proxyBootstrap) throws IOException {
+        ServerBootstrap serverBootstrap = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler(ROOT_CONTEXT, (req, resp, context) -> {
+                    acceptEncodings.add(req.containsHeader(HttpHeaders.ACCEPT_ENCODING)
+                            ? req.getFirstHeader(HttpHeaders.ACCEPT_ENCODING).getValue() : null);
+                    resp.setStatusCode(HttpStatus.SC_OK);
+                    resp.setEntity(new StringEntity(PAGE));
+                });
+        httpServer = (serverCompression ? ResponseCompression.configure(serverBootstrap, LEVEL) : serverBootstrap)
+                .create();
+        httpServer.start();
+        proxyHttpServer = proxyBootstrap.withPort(0).plusActivityTracker(tracker).start();
+    }
+
+    private CloseableHttpClient client() {
+        return proxied(HttpClientBuilder.create());
+    }
+
+    private CloseableHttpClient proxied(HttpClientBuilder httpClientBuilder) {
+        return httpClientBuilder.setProxy(new HttpHost(LOCALHOST, proxyHttpServer.getListenAddress().getPort()))
+                .build();
+    }
+
+    private String get(CloseableHttpClient httpClient, String acceptEncoding) throws IOException,
+            URISyntaxException {
+        RequestBuilder requestBuilder = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME)
+                .setHost(LOCALHOST).setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build());
+        if (acceptEncoding != null) {
+            requestBuilder.setHeader(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+        }
+        try (CloseableHttpResponse httpResponse = httpClient.execute(requestBuilder.build())) {
+            Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+            // ResponseContentEncoding inflates while the entity is read and drops the header
+            Assert.assertNull(httpResponse.getFirstHeader(HttpHeaders.CONTENT_ENCODING));
+            Assert.assertEquals(HttpHeaders.ACCEPT_ENCODING, httpResponse.getFirstHeader(HttpHeaders.VARY).getValue());
+            return EntityUtils.toString(httpResponse.getEntity());
+        }
+    }
+
+    private static byte[] read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n = inputStream.read(buffer); n != -1; n = inputStream.read(buffer)) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+
+    private long wireBytes() {
+        return tracker.snapshot().getBytesSentToClients();
+    }
+
+}
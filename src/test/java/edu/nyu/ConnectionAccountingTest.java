@@ -0,0 +1,242 @@
+package edu.nyu;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class ConnectionAccountingTest {
+
+    private static final String HTTP_SCHEME = "http";
+    private static final String LOCALHOST = "localhost";
+    private static final String ROOT_CONTEXT = "/";
+    private static final String CLOSE_CONTEXT = "/close";
+    private static final String SLOW_CONTEXT = "/slow";
+    private static final int REQUESTS = 10;
+    private static final int MAX_PER_ROUTE = 2;
+    private static final int CONCURRENCY = 6;
+    private static final long LATENCY_MILLIS = 100;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionAccountingTest.class);
+
+    private final ConnectionAccounting accounting = new ConnectionAccounting();
+    private HttpServer httpServer;
+    private HttpProxyServer proxyHttpServer;
+
+    @Before
+    public void setup() throws IOException {
+        httpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .setConnectionFactory(accounting.serverConnectionFactory())
+                .registerHandler(ROOT_CONTEXT, (req, resp, context) -> resp.setStatusCode(HttpStatus.SC_OK))
+                .registerHandler(CLOSE_CONTEXT, (req, resp, context) -> {
+                    resp.setStatusCode(HttpStatus.SC_OK);
+                    resp.setHeader(HttpHeaders.CONNECTION, "close");
+                })
+                .registerHandler(SLOW_CONTEXT, (req, resp, context) -> {
+                    try {
+                        Thread.sleep(LATENCY_MILLIS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    resp.setStatusCode(HttpStatus.SC_OK);
+                })
+                .create();
+        httpServer.start();
+        proxyHttpServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0).plusActivityTracker(accounting.proxyTracker()).start();
+    }
+
+    @After
+    public void shutdown() {
+        proxyHttpServer.stop();
+        httpServer.stop();
+    }
+
+    /**
+     * Test confirming sequential requests through the proxy share one connection on every hop
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testKeepAliveOnEveryHop() throws IOException, URISyntaxException {
+        try (CloseableHttpClient httpClient = HttpClientBuilder.create()
+                .setConnectionManager(accounting.newClientConnectionManager())
+                .setProxy(proxy())
+                .build()) {
+            sendRequests(httpClient, ROOT_CONTEXT);
+        }
+
+        ConnectionAccounting.Snapshot snapshot = accounting.snapshot();
+        LOGGER.info("{}", snapshot);
+        assertKeepAlive(snapshot.getClient());
+        assertKeepAlive(snapshot.getProxy());
+        // the proxy keeps its own connection to the server alive too
+        assertKeepAlive(snapshot.getServer());
+    }
+
+    /**
+     * Test confirming a client that closes every connection shows up as a socket per request on the client and proxy
+     * hops, so {@link #assertKeepAlive} catches it
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testSocketPerRequestFromClient() throws IOException, URISyntaxException {
+        try (CloseableHttpClient httpClient = HttpClientBuilder.create()
+                .setConnectionManager(accounting.newClientConnectionManager())
+                .setConnectionReuseStrategy(NoConnectionReuseStrategy.INSTANCE)
+                .setProxy(proxy())
+                .build()) {
+            sendRequests(httpClient, ROOT_CONTEXT);
+        }
+
+        ConnectionAccounting.Snapshot snapshot = accounting.snapshot();
+        Assert.assertEquals(REQUESTS, snapshot.getClient().getConnectionsOpened());
+        Assert.assertEquals(0, snapshot.getClient().getReusedConnectionRequests());
+        Assert.assertEquals(REQUESTS, snapshot.getProxy().getConnectionsOpened());
+        Assert.assertEquals(0.0, snapshot.getProxy().getReuseRatio(), 0.0);
+        assertKeepAliveFails(snapshot.getClient());
+        assertKeepAliveFails(snapshot.getProxy());
+    }
+
+    /**
+     * Test confirming a server that answers {@code Connection: close} shows up as a socket per request on the server
+     * and client hops
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testSocketPerRequestFromServer() throws IOException, URISyntaxException {
+        try (CloseableHttpClient httpClient = HttpClientBuilder.create()
+                .setConnectionManager(accounting.newClientConnectionManager())
+                .build()) {
+            sendRequests(httpClient, CLOSE_CONTEXT);
+        }
+
+        ConnectionAccounting.Snapshot snapshot = accounting.snapshot();
+        Assert.assertEquals(REQUESTS, snapshot.getServer().getConnectionsOpened());
+        Assert.assertEquals(REQUESTS, snapshot.getServer().getNewConnectionRequests());
+        Assert.assertEquals(REQUESTS, snapshot.getClient().getConnectionsOpened());
+        assertKeepAliveFails(snapshot.getServer());
+        assertKeepAliveFails(snapshot.getClient());
+    }
+
+    /**
+     * Test confirming requests beyond the pool's per-route limit wait for a lease, and the pool never holds more than
+     * the limit
+     *
+     * @throws InterruptedException
+     * @throws ExecutionException
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    @Test
+    public void testLeaseWaitAndOccupancy() throws InterruptedException, ExecutionException, URISyntaxException,
+            IOException {
+        PoolingHttpClientConnectionManager connectionManager = accounting.newClientConnectionManager();
+        connectionManager.setDefaultMaxPerRoute(MAX_PER_ROUTE);
+        HttpUriRequest httpUriRequest = RequestBuilder.get(uri(SLOW_CONTEXT)).build();
+        ExecutorService executorService = Executors.newFixedThreadPool(CONCURRENCY);
+        try (CloseableHttpClient httpClient = HttpClientBuilder.create()
+                .setConnectionManager(connectionManager).build()) {
+            List<Future<Integer>> statuses = new ArrayList<>();
+            for (int i = 0; i < CONCURRENCY; i++) {
+                statuses.add(executorService.submit(() -> {
+                    try (CloseableHttpResponse httpResponse = httpClient.execute(httpUriRequest)) {
+                        EntityUtils.consume(httpResponse.getEntity());
+                        return httpResponse.getStatusLine().getStatusCode();
+                    }
+                }));
+            }
+            for (Future<Integer> status : statuses) {
+                Assert.assertEquals(HttpStatus.SC_OK, (int) status.get());
+            }
+
+            ConnectionAccounting.Snapshot snapshot = accounting.snapshot();
+            LOGGER.info("{}", snapshot);
+            Assert.assertEquals(MAX_PER_ROUTE, snapshot.getPeakLeased());
+            Assert.assertEquals(MAX_PER_ROUTE, snapshot.getClient().getConnectionsOpened());
+            Assert.assertEquals(CONCURRENCY - MAX_PER_ROUTE, snapshot.getClient().getReusedConnectionRequests());
+            Assert.assertEquals(0, snapshot.getLeased());
+            Assert.assertEquals(MAX_PER_ROUTE, snapshot.getAvailable());
+            Assert.assertEquals(CONCURRENCY, snapshot.getLeaseWait().getCount());
+            // the last of the six waited for two rounds of the ones ahead of it
+            Assert.assertTrue(snapshot.getLeaseWait().getMax() >= TimeUnit.MILLISECONDS.toNanos(LATENCY_MILLIS));
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * Fails when a hop opened a connection for every request instead of reusing one
+     *
+     * @param hopStats connections and requests of one hop
+     */
+    private static void assertKeepAlive(ConnectionAccounting.HopStats hopStats) {
+        Assert.assertEquals("requests on " + hopStats, REQUESTS, hopStats.getRequests());
+        Assert.assertEquals("connections on " + hopStats, 1, hopStats.getConnectionsOpened());
+        Assert.assertEquals("reused on " + hopStats, REQUESTS - 1, hopStats.getReusedConnectionRequests());
+    }
+
+    private static void assertKeepAliveFails(ConnectionAccounting.HopStats hopStats) {
+        try {
+            assertKeepAlive(hopStats);
+        } catch (AssertionError e) {
+            return;
+        }
+        Assert.fail("keep-alive breakage went unnoticed: " + hopStats);
+    }
+
+    private void sendRequests(CloseableHttpClient httpClient, String path) throws IOException, URISyntaxException {
+        HttpUriRequest httpUriRequest = RequestBuilder.get(uri(path)).build();
+        for (int i = 0; i < REQUESTS; i++) {
+            try (CloseableHttpResponse httpResponse = httpClient.execute(httpUriRequest)) {
+                EntityUtils.consume(httpResponse.getEntity());
+                Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+            }
+        }
+    }
+
+    private URI uri(String path) throws URISyntaxException {
+        return new URIBuilder().setScheme(HTTP_SCHEME).setHost(LOCALHOST).setPort(httpServer.getLocalPort())
+                .setPath(path).build();
+    }
+
+    private HttpHost proxy() {
+        return new HttpHost(LOCALHOST, proxyHttpServer.getListenAddress().getPort());
+    }
+
+}
@@ -0,0 +1,162 @@
+package edu.nyu;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.util.PublicSuffixMatcher;
+import org.apache.http.conn.util.PublicSuffixMatcherLoader;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.cookie.BasicClientCookie;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URISyntaxException;
+import java.util.Date;
+import java.util.List;
+
+public class DomainIndexedCookieStoreTest {
+
+    private static final String HTTP_SCHEME = "http";
+    private static final String GOOD_HOST = "good.localhost.com";
+    private static final String EVIL_HOST = "evil.localhost.com";
+    private static final String OTHER_HOST = "www.example.co.uk";
+    private static final String ROOT_CONTEXT = "/";
+    private static final String EVIL_RESPONSE = "DID SOMETHING EVIL";
+
+    private HttpServer httpServer;
+
+    @Before
+    public void setup() throws IOException {
+        httpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler("*", (req, resp, ctx) -> {
+                    if (req.getFirstHeader("Host").getValue().startsWith(EVIL_HOST)) {
+                        resp.setHeader("Set-Cookie",
+                                "EvilCookie=AuthorizeAll; Domain=localhost.com; Path=/; Max-Age=1000");
+                    } else {
+                        resp.setHeader("Set-Cookie", "Session=1; Path=/account");
+                    }
+                    if (req.getHeaders("Cookie").length > 0
+                            && req.getFirstHeader("Cookie").getValue().contains("EvilCookie=AuthorizeAll")) {
+                        resp.setEntity(new StringEntity(EVIL_RESPONSE));
+                    }
+                    resp.setStatusCode(HttpStatus.SC_OK);
+                })
+                .create();
+        httpServer.start();
+    }
+
+    @After
+    public void shutdown() {
+        httpServer.stop();
+    }
+
+    /**
+     * Test confirming the supercookie still reaches the sibling host when localhost.com is not a public suffix
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testPublicSuffixListFailure() throws IOException, URISyntaxException {
+        DomainIndexedCookieStore cookieStore = new DomainIndexedCookieStore(PublicSuffixMatcherLoader.getDefault());
+        try (CloseableHttpClient httpClient = cookieStore.configure(HttpClientBuilder.create())
+                .setDnsResolver(buildDnsResolver()).build()) {
+            Assert.assertNotEquals(EVIL_RESPONSE, get(httpClient, EVIL_HOST, ROOT_CONTEXT));
+            Assert.assertEquals(EVIL_RESPONSE, get(httpClient, GOOD_HOST, ROOT_CONTEXT));
+        }
+        Assert.assertEquals(1, cookieStore.getDomainCount());
+    }
+
+    /**
+     * Test confirming the supercookie is not sent when localhost.com is a public suffix, and that host-only cookies
+     * still are
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testPublicSuffixListSuccess() throws IOException, URISyntaxException {
+        DomainIndexedCookieStore cookieStore = new DomainIndexedCookieStore(
+                new PublicSuffixMatcher(ImmutableList.of("localhost.com"), null));
+        try (CloseableHttpClient httpClient = cookieStore.configure(HttpClientBuilder.create())
+                .setDnsResolver(buildDnsResolver()).build()) {
+            get(httpClient, EVIL_HOST, ROOT_CONTEXT);
+            Assert.assertNotEquals(EVIL_RESPONSE, get(httpClient, GOOD_HOST, ROOT_CONTEXT));
+            Assert.assertNotEquals(EVIL_RESPONSE, get(httpClient, GOOD_HOST, "/account/settings"));
+        }
+        // the spec only refuses to send the supercookie, it is stored under the public suffix itself
+        Assert.assertEquals(2, cookieStore.getCookies().size());
+        List<Cookie> cookies = cookieStore.getCookies(GOOD_HOST, "/account");
+        Assert.assertEquals(1, cookies.size());
+        Assert.assertEquals("Session", cookies.get(0).getName());
+        Assert.assertEquals(GOOD_HOST, cookies.get(0).getDomain());
+    }
+
+    /**
+     * Test confirming lookups only return the cookies of the registrable domain with a matching path
+     */
+    @Test
+    public void testIndexedLookup() {
+        DomainIndexedCookieStore cookieStore = new DomainIndexedCookieStore(PublicSuffixMatcherLoader.getDefault());
+        cookieStore.addCookie(cookie("a", "example.co.uk", "/"));
+        cookieStore.addCookie(cookie("b", OTHER_HOST, "/docs"));
+        cookieStore.addCookie(cookie("c", "other.co.uk", "/"));
+        for (int i = 0; i < 1000; i++) {
+            cookieStore.addCookie(cookie("n", "site" + i + ".com", "/"));
+        }
+        Assert.assertEquals(1002, cookieStore.getDomainCount());
+
+        Assert.assertEquals(1, cookieStore.getCookies(OTHER_HOST, ROOT_CONTEXT).size());
+        Assert.assertEquals(2, cookieStore.getCookies(OTHER_HOST, "/docs/index.html").size());
+        Assert.assertEquals(0, cookieStore.getCookies("co.uk", ROOT_CONTEXT).size());
+
+        // same name, domain and path replaces, an expired one removes
+        cookieStore.addCookie(cookie("a", "example.co.uk", "/"));
+        Assert.assertEquals(1003, cookieStore.getCookies().size());
+        BasicClientCookie expired = cookie("a", "example.co.uk", "/");
+        expired.setExpiryDate(new Date(0));
+        cookieStore.addCookie(expired);
+        Assert.assertEquals(1, cookieStore.getCookies(OTHER_HOST, "/docs").size());
+    }
+
+    private String get(CloseableHttpClient httpClient, String host, String path) throws IOException,
+            URISyntaxException {
+        HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME)
+                .setHost(host).setPort(httpServer.getLocalPort()).setPath(path).build()).build();
+        HttpResponse httpResponse = httpClient.execute(httpUriRequest);
+        Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+        return httpResponse.getEntity() != null ? EntityUtils.toString(httpResponse.getEntity()) : "";
+    }
+
+    private static BasicClientCookie cookie(String name, String domain, String path) {
+        BasicClientCookie cookie = new BasicClientCookie(name, "value");
+        cookie.setDomain(domain);
+        cookie.setPath(path);
+        return cookie;
+    }
+
+    /**
+     * Resolves the fake good and evil hosts to the loopback address
+     *
+     * @return DnsResolver
+     */
+    private DnsResolver buildDnsResolver() {
+        return host -> new InetAddress[] {InetAddress.getByAddress(new byte[] {127, 0, 0, 1})};
+    }
+
+}
@@ -0,0 +1,346 @@
+package edu.nyu;
+
+import net.jcip.annotations.NotThreadSafe;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the client against a {@link FaultyBackend}, directly and through LittleProxy, and checks which timeout ends
+ * each kind of slowness and how long that takes.
+ */
+// the timeouts it asserts on shift on a loaded machine, so it runs once the parallel classes are done
+@NotThreadSafe
+public class FaultyBackendTest {
+
+    private static final String HTTP_SCHEME = "http";
+    private static final String HTTPS_SCHEME = "https";
+    private static final String LOCALHOST = "localhost";
+    private static final String ROOT_CONTEXT = "/";
+    private static final String KEYSTORE_PASS = "changeit";
+    private static final long SLOW = 2000;
+    private static final int TIMEOUT = 300;
+    // scheduling slack allowed on top of a timeout before a test calls it not enforced
+    private static final long SLACK = 1000;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FaultyBackendTest.class);
+
+    private final FaultyBackend backend = new FaultyBackend();
+    private HttpServer httpServer;
+    private HttpProxyServer proxyHttpServer;
+
+    @Before
+    public void setup() {
+        proxyHttpServer = DefaultHttpProxyServer.bootstrap().withPort(0).start();
+    }
+
+    @After
+    public void shutdown() {
+        proxyHttpServer.stop();
+        // closes the connections of handlers still sleeping instead of waiting for them
+        httpServer.shutdown(0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Test confirming the socket timeout ends a request whose response is late, directly and through the proxy
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testSocketTimeoutOnLatency() throws IOException, URISyntaxException {
+        start(null);
+        backend.setLatency(FaultyBackend.Latency.fixed(SLOW));
+        RequestConfig requestConfig = RequestConfig.custom().setSocketTimeout(TIMEOUT).build();
+        for (boolean proxied : new boolean[]{false, true}) {
+            try (CloseableHttpClient httpClient = client(proxied, requestConfig)) {
+                assertTimesOut(httpClient, request(HTTP_SCHEME), SocketTimeoutException.class);
+            }
+        }
+    }
+
+    /**
+     * Test confirming a throttled body keeps the connection alive past the socket timeout, which only bounds the gap
+     * between two reads, not the whole response
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testThrottledBodyOutlivesSocketTimeout() throws IOException, URISyntaxException {
+        start(null);
+        backend.setBodyLength(32 * 1024).setBandwidth(64 * 1024);
+        RequestConfig requestConfig = RequestConfig.custom().setSocketTimeout(TIMEOUT).build();
+        for (boolean proxied : new boolean[]{false, true}) {
+            try (CloseableHttpClient httpClient = client(proxied, requestConfig)) {
+                long start = System.nanoTime();
+                try (CloseableHttpResponse httpResponse = httpClient.execute(request(HTTP_SCHEME))) {
+                    Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+                    Assert.assertEquals(32 * 1024, GeneratedEntity.consume(httpResponse.getEntity().getContent()));
+                }
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                LOGGER.info("Throttled body (proxied={}) took {} ms", proxied, elapsed);
+                Assert.assertTrue(elapsed > TIMEOUT);
+            }
+        }
+    }
+
+    /**
+     * Test confirming a body stalling halfway fails on the socket timeout after the status line arrived
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testSocketTimeoutOnStalledBody() throws IOException, URISyntaxException {
+        start(null);
+        backend.setBodyLength(256 * 1024).setStall(1, SLOW);
+        RequestConfig requestConfig = RequestConfig.custom().setSocketTimeout(TIMEOUT).build();
+        for (boolean proxied : new boolean[]{false, true}) {
+            try (CloseableHttpClient httpClient = client(proxied, requestConfig);
+                 CloseableHttpResponse httpResponse = httpClient.execute(request(HTTP_SCHEME))) {
+                Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+                long start = System.nanoTime();
+                try {
+                    GeneratedEntity.consume(httpResponse.getEntity().getContent());
+                    Assert.fail("Stalled body was read to the end");
+                } catch (SocketTimeoutException e) {
+                    assertWithinTimeout(start);
+                }
+            }
+        }
+        Assert.assertEquals(2, backend.getStalls());
+    }
+
+    /**
+     * Test confirming HttpClient 4.5 bounds the TLS handshake by the connect timeout when no socket timeout is set,
+     * the read timeout during the handshake is reported as a failed connect
+     *
+     * @throws IOException
+     * @throws GeneralSecurityException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testConnectTimeoutOnSlowHandshake() throws IOException, GeneralSecurityException,
+            URISyntaxException {
+        start(keyStoreSslContext());
+        backend.setHandshakeDelay(SLOW);
+        try (CloseableHttpClient httpClient = HttpClientBuilder.create()
+                .setSSLContext(trustStoreSslContext())
+                .setDefaultRequestConfig(RequestConfig.custom().setConnectTimeout(TIMEOUT).build())
+                .build()) {
+            assertTimesOut(httpClient, request(HTTPS_SCHEME), ConnectTimeoutException.class);
+        }
+        // the handshake delay applies to new connections only
+        backend.setHandshakeDelay(0);
+        try (CloseableHttpClient httpClient = HttpClientBuilder.create()
+                .setSSLContext(trustStoreSslContext()).build();
+             CloseableHttpResponse httpResponse = httpClient.execute(request(HTTPS_SCHEME))) {
+            Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+        }
+    }
+
+    /**
+     * Test confirming a slow handshake through a CONNECT tunnel needs the default socket timeout, the connect timeout
+     * only covers the connection to the proxy
+     *
+     * @throws IOException
+     * @throws GeneralSecurityException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testSocketTimeoutOnSlowTunnelledHandshake() throws IOException, GeneralSecurityException,
+            URISyntaxException {
+        start(keyStoreSslContext());
+        backend.setHandshakeDelay(SLOW);
+        try (CloseableHttpClient httpClient = HttpClientBuilder.create()
+                .setSSLContext(trustStoreSslContext())
+                .setProxy(new HttpHost(LOCALHOST, proxyHttpServer.getListenAddress().getPort()))
+                .setDefaultSocketConfig(SocketConfig.custom().setSoTimeout(TIMEOUT).build())
+                .build()) {
+            assertTimesOut(httpClient, request(HTTPS_SCHEME), SocketTimeoutException.class);
+        }
+    }
+
+    /**
+     * Test confirming a request waiting for a pooled connection held by a slow request fails on the lease timeout
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testLeaseTimeoutOnExhaustedPool() throws Exception {
+        start(null);
+        backend.setLatency(FaultyBackend.Latency.fixed(SLOW));
+        RequestConfig requestConfig = RequestConfig.custom().setConnectionRequestTimeout(TIMEOUT).build();
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            for (boolean proxied : new boolean[]{false, true}) {
+                long requests = backend.getRequests();
+                try (CloseableHttpClient httpClient = client(HttpClientBuilder.create()
+                        .setMaxConnPerRoute(1).setMaxConnTotal(1), proxied, requestConfig)) {
+                    Future<Integer> slow = executorService.submit(() -> {
+                        try (CloseableHttpResponse httpResponse = httpClient.execute(request(HTTP_SCHEME))) {
+                            return httpResponse.getStatusLine().getStatusCode();
+                        }
+                    });
+                    // the only connection is leased once the backend sees the request
+                    while (backend.getRequests() == requests) {
+                        TimeUnit.MILLISECONDS.sleep(10);
+                    }
+                    assertTimesOut(httpClient, request(HTTP_SCHEME), ConnectionPoolTimeoutException.class);
+                    Assert.assertEquals(HttpStatus.SC_OK, (int) slow.get());
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Test confirming a reset surfaces as an exception directly and as an error, never a success, through the proxy
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testConnectionReset() throws IOException, URISyntaxException {
+        start(null);
+        backend.setResetProbability(1);
+        RequestConfig requestConfig = RequestConfig.custom().setSocketTimeout((int) SLOW).build();
+        try (CloseableHttpClient httpClient = client(HttpClientBuilder.create().disableAutomaticRetries(), false,
+                requestConfig)) {
+            httpClient.execute(request(HTTP_SCHEME)).close();
+            Assert.fail("Reset connection answered");
+        } catch (IOException e) {
+            LOGGER.info("Reset seen directly as {}", e.toString());
+        }
+        try (CloseableHttpClient httpClient = client(HttpClientBuilder.create().disableAutomaticRetries(), true,
+                requestConfig);
+             CloseableHttpResponse httpResponse = httpClient.execute(request(HTTP_SCHEME))) {
+            LOGGER.info("Reset seen through the proxy as {}", httpResponse.getStatusLine());
+            Assert.assertTrue(httpResponse.getStatusLine().getStatusCode() >= HttpStatus.SC_INTERNAL_SERVER_ERROR);
+        } catch (IOException e) {
+            LOGGER.info("Reset seen through the proxy as {}", e.toString());
+        }
+        Assert.assertEquals(2, backend.getResets());
+    }
+
+    /**
+     * Test sweeping socket timeouts over a long-tailed backend, showing the timeout trading failed requests for a
+     * bounded tail
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testSocketTimeoutSweepOnLongTail() throws IOException, URISyntaxException {
+        start(null);
+        backend.setLatency(FaultyBackend.Latency.logNormal(10, 1));
+        for (boolean proxied : new boolean[]{false, true}) {
+            for (int socketTimeout : new int[]{25, 100, 1000}) {
+                LatencyHistogram histogram = new LatencyHistogram();
+                int timeouts = 0;
+                try (CloseableHttpClient httpClient = client(proxied,
+                        RequestConfig.custom().setSocketTimeout(socketTimeout).build())) {
+                    for (int i = 0; i < 50; i++) {
+                        long start = System.nanoTime();
+                        try (CloseableHttpResponse httpResponse = httpClient.execute(request(HTTP_SCHEME))) {
+                            Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+                        } catch (SocketTimeoutException e) {
+                            timeouts++;
+                        }
+                        histogram.record(System.nanoTime() - start);
+                    }
+                }
+                LOGGER.info("proxied={} socketTimeout={} ms: {} timeouts, {}", proxied, socketTimeout, timeouts,
+                        histogram.summary(TimeUnit.MILLISECONDS));
+                Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(histogram.getMax()) < socketTimeout + SLACK);
+            }
+        }
+    }
+
+    private void start(SSLContext sslContext) throws IOException {
+        httpServer = backend.configure(ServerBootstrap.bootstrap().setListenerPort(0), sslContext).create();
+        httpServer.start();
+    }
+
+    private CloseableHttpClient client(boolean proxied, RequestConfig requestConfig) {
+        return client(HttpClientBuilder.create(), proxied, requestConfig);
+    }
+
+    private CloseableHttpClient client(HttpClientBuilder httpClientBuilder, boolean proxied,
+                                       RequestConfig requestConfig) {
+        if (proxied) {
+            httpClientBuilder.setProxy(new HttpHost(LOCALHOST, proxyHttpServer.getListenAddress().getPort()));
+        }
+        return httpClientBuilder.setDefaultRequestConfig(requestConfig).build();
+    }
+
+    private HttpUriRequest request(String scheme) throws URISyntaxException {
+        return RequestBuilder.get(new URIBuilder().setScheme(scheme).setHost(LOCALHOST)
+                .setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
+    }
+
+    private void assertTimesOut(CloseableHttpClient httpClient, HttpUriRequest request,
+                                Class<? extends IOException> expected) {
+        long start = System.nanoTime();
+        try {
+            httpClient.execute(request).close();
+            Assert.fail("Request completed despite the timeout");
+        } catch (IOException e) {
+            Assert.assertTrue(e.toString(), expected.isInstance(e));
+            assertWithinTimeout(start);
+        }
+    }
+
+    private void assertWithinTimeout(long start) {
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        LOGGER.info("Timed out after {} ms", elapsed);
+        Assert.assertTrue(elapsed >= TIMEOUT - 50);
+        Assert.assertTrue(elapsed < TIMEOUT + SLACK);
+    }
+
+    private SSLContext keyStoreSslContext() throws IOException, GeneralSecurityException {
+        return SslContextFactory.getDefault().getKeyStoreSslContext(keyStore(), KEYSTORE_PASS.toCharArray(),
+                KEYSTORE_PASS.toCharArray());
+    }
+
+    private SSLContext trustStoreSslContext() throws IOException, GeneralSecurityException {
+        return SslContextFactory.getDefault().getTrustStoreSslContext(keyStore(), KEYSTORE_PASS.toCharArray());
+    }
+
+    private URL keyStore() {
+        return getClass().getResource("/keystore.jks");
+    }
+
+}
@@ -6,6 +6,8 @@ import org.apache.http.HttpStatus;
 import org.apache.http.client.CircularRedirectException;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.methods.RequestBuilder;
 import org.apache.http.client.utils.URIBuilder;
@@ -14,6 +16,7 @@ import org.apache.http.conn.util.PublicSuffixMatcher;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.bootstrap.HttpServer;
 import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.protocol.HttpRequestHandler;
 import org.apache.http.util.EntityUtils;
@@ -24,13 +27,14 @@ import org.junit.Test;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class HttpClientTest {
 
     private static final String HTTP_SCHEME = "http";
     private static final String LOCALHOST = "localhost";
-    private static final int PORT = 12345;
-    private static final int ALT_PORT = 54321;
     private static final String GOOD_HOST = "good.localhost.com";
     private static final String EVIL_HOST = "evil.localhost.com";
     private static final String ROOT_CONTEXT = "/";
@@ -40,10 +44,16 @@ public class HttpClientTest {
     // https://github.com/danielyule/mockingjay
 
     private HttpServer httpServer;
+    private HttpServer altHttpServer;
 
     @After
     public void shutdown() {
-        httpServer.stop();
+        if (httpServer != null) {
+            httpServer.stop();
+        }
+        if (altHttpServer != null) {
+            altHttpServer.stop();
+        }
     }
 
     /**
@@ -54,17 +64,13 @@ public class HttpClientTest {
      */
     @Test
     public void testSimpleHttpGet() throws IOException, URISyntaxException {
-        // setup embedded server
-        httpServer = ServerBootstrap.bootstrap()
-                .setListenerPort(PORT)
-                .registerHandler(ROOT_CONTEXT, (req, resp, context) -> resp.setStatusCode(HttpStatus.SC_OK))
-                .create();
-        httpServer.start();
+        // shared embedded server
+        HttpServer sharedServer = SharedServers.http();
 
         // setup HttpClient
         HttpClient httpClient = HttpClientBuilder.create().build();
         HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME)
-                .setHost(LOCALHOST).setPort(PORT).setPath(ROOT_CONTEXT).build()).build();
+                .setHost(LOCALHOST).setPort(sharedServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
         HttpResponse httpResponse = httpClient.execute(httpUriRequest);
         Assert.assertEquals(httpResponse.getStatusLine().getStatusCode(), HttpStatus.SC_OK);
     }
@@ -79,7 +85,7 @@ public class HttpClientTest {
     public void testPublicSuffixListFailure() throws IOException, URISyntaxException {
         // setup embedded server
         httpServer = ServerBootstrap.bootstrap()
-                .setListenerPort(PORT)
+                .setListenerPort(0)
                 .registerHandler(ROOT_CONTEXT, buildRequestHandlerForEvilCookie())
                 .create();
         httpServer.start();
@@ -88,12 +94,12 @@ public class HttpClientTest {
         HttpClient httpClient = HttpClientBuilder.create().setDnsResolver(buildDnsResolver()).build();
         // request to evil.localhost.com
         HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME)
-                .setHost(EVIL_HOST).setPort(PORT).setPath(ROOT_CONTEXT).build()).build();
+                .setHost(EVIL_HOST).setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
         HttpResponse httpResponse = httpClient.execute(httpUriRequest);
         Assert.assertEquals(httpResponse.getStatusLine().getStatusCode(), HttpStatus.SC_OK);
         // request to good.localhost.com
         httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME)
-                .setHost(GOOD_HOST).setPort(PORT).setPath(ROOT_CONTEXT).build()).build();
+                .setHost(GOOD_HOST).setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
         // note that the associated HTTP WIRE entry indicates that the EvilCookie is sent to the good.localhost.com
         httpResponse = httpClient.execute(httpUriRequest);
         Assert.assertEquals(httpResponse.getStatusLine().getStatusCode(), HttpStatus.SC_OK);
@@ -110,7 +116,7 @@ public class HttpClientTest {
     public void testPublicSuffixListSuccess() throws IOException, URISyntaxException {
         // setup embedded server
         httpServer = ServerBootstrap.bootstrap()
-                .setListenerPort(PORT)
+                .setListenerPort(0)
                 .registerHandler(ROOT_CONTEXT, buildRequestHandlerForEvilCookie())
                 .create();
         httpServer.start();
@@ -121,12 +127,12 @@ public class HttpClientTest {
                 .build();
         // request to evil.localhost.com
         HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME)
-                .setHost(EVIL_HOST).setPort(PORT).setPath(ROOT_CONTEXT).build()).build();
+                .setHost(EVIL_HOST).setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
         HttpResponse httpResponse = httpClient.execute(httpUriRequest);
         Assert.assertEquals(httpResponse.getStatusLine().getStatusCode(), HttpStatus.SC_OK);
         // request to good.localhost.com
         httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME)
-                .setHost(GOOD_HOST).setPort(PORT).setPath(ROOT_CONTEXT).build()).build();
+                .setHost(GOOD_HOST).setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
         // note that the associated HTTP WIRE entry indicates that the EvilCookie is sent to the good.localhost.com
         httpResponse = httpClient.execute(httpUriRequest);
         Assert.assertEquals(httpResponse.getStatusLine().getStatusCode(), HttpStatus.SC_OK);
@@ -143,36 +149,232 @@ public class HttpClientTest {
     public void testCircularRedirects() throws IOException, URISyntaxException {
         // setup embedded server
         httpServer = ServerBootstrap.bootstrap()
-                .setListenerPort(PORT)
+                .setListenerPort(0)
                 .registerHandler(ROOT_CONTEXT, (req, resp, ctx) -> {
                     resp.setStatusCode(HttpStatus.SC_MOVED_PERMANENTLY);
-                    resp.setHeader("Location", "http://localhost:54321/");
+                    resp.setHeader("Location", altUri("/"));
                 }).create();
         httpServer.start();
-        HttpServer altHttpServer = ServerBootstrap.bootstrap()
-                .setListenerPort(ALT_PORT)
+        altHttpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
                 .registerHandler(ROOT_CONTEXT, (req, resp, ctx) -> {
                     resp.setStatusCode(HttpStatus.SC_MOVED_PERMANENTLY);
-                    resp.setHeader("Location", "http://localhost:12345/");
+                    resp.setHeader("Location", "http://localhost:" + httpServer.getLocalPort() + "/");
                 }).create();
         altHttpServer.start();
 
         // setup HttpClient
         HttpClient httpClient = HttpClientBuilder.create().build();
         HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME)
-                .setHost(LOCALHOST).setPort(PORT).setPath(ROOT_CONTEXT).build()).build();
+                .setHost(LOCALHOST).setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
         try {
             httpClient.execute(httpUriRequest);
             Assert.fail();
         } catch (ClientProtocolException e) {
             // assert that we detect circular redirects
             Assert.assertTrue(e.getCause() instanceof CircularRedirectException);
-            Assert.assertEquals("Circular redirect to 'http://localhost:54321/'",
+            Assert.assertEquals("Circular redirect to '" + altUri("/") + "'",
                     e.getCause().getLocalizedMessage());
         }
+    }
+
+    /**
+     * Test confirming a permanent redirect is followed once, later requests go straight to its target
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testPermanentRedirectMemoized() throws IOException, URISyntaxException {
+        // setup embedded servers counting the requests they get
+        AtomicInteger hits = new AtomicInteger();
+        AtomicInteger altHits = new AtomicInteger();
+        httpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler(ROOT_CONTEXT, (req, resp, ctx) -> {
+                    hits.incrementAndGet();
+                    resp.setStatusCode(HttpStatus.SC_MOVED_PERMANENTLY);
+                    resp.setHeader("Location", altUri("/moved"));
+                }).create();
+        httpServer.start();
+        altHttpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler(ROOT_CONTEXT + "*", (req, resp, ctx) -> {
+                    altHits.incrementAndGet();
+                    resp.setStatusCode(HttpStatus.SC_OK);
+                }).create();
+        altHttpServer.start();
 
-        // cleanup
-        altHttpServer.stop();
+        // setup HttpClient
+        MemoizingRedirectStrategy redirectStrategy = new MemoizingRedirectStrategy();
+        try (CloseableHttpClient httpClient = redirectStrategy.builder().build()) {
+            HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME)
+                    .setHost(LOCALHOST).setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
+            for (int i = 0; i < 3; i++) {
+                try (CloseableHttpResponse httpResponse = httpClient.execute(httpUriRequest)) {
+                    Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+                }
+            }
+        }
+        Assert.assertEquals(1, hits.get());
+        Assert.assertEquals(3, altHits.get());
+        Assert.assertEquals(2, redirectStrategy.getHits());
+    }
+
+    /**
+     * Test confirming a request with redirects disabled gets the permanent redirect itself, even once it is remembered
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testPermanentRedirectNotFollowedWhenDisabled() throws IOException, URISyntaxException {
+        // setup embedded servers counting the requests they get
+        AtomicInteger hits = new AtomicInteger();
+        AtomicInteger altHits = new AtomicInteger();
+        httpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler(ROOT_CONTEXT, (req, resp, ctx) -> {
+                    hits.incrementAndGet();
+                    resp.setStatusCode(HttpStatus.SC_MOVED_PERMANENTLY);
+                    resp.setHeader("Location", altUri("/moved"));
+                }).create();
+        httpServer.start();
+        altHttpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler(ROOT_CONTEXT + "*", (req, resp, ctx) -> {
+                    altHits.incrementAndGet();
+                    resp.setStatusCode(HttpStatus.SC_OK);
+                }).create();
+        altHttpServer.start();
+
+        // setup HttpClient, the first request follows the redirect so that it is remembered
+        MemoizingRedirectStrategy redirectStrategy = new MemoizingRedirectStrategy();
+        try (CloseableHttpClient httpClient = redirectStrategy.builder().build()) {
+            HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME)
+                    .setHost(LOCALHOST).setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
+            try (CloseableHttpResponse httpResponse = httpClient.execute(httpUriRequest)) {
+                Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+            }
+            HttpUriRequest notFollowing = RequestBuilder.copy(httpUriRequest)
+                    .setConfig(RequestConfig.custom().setRedirectsEnabled(false).build()).build();
+            try (CloseableHttpResponse httpResponse = httpClient.execute(notFollowing)) {
+                Assert.assertEquals(HttpStatus.SC_MOVED_PERMANENTLY, httpResponse.getStatusLine().getStatusCode());
+                Assert.assertEquals(altUri("/moved"), httpResponse.getFirstHeader("Location").getValue());
+            }
+        }
+        Assert.assertEquals(2, hits.get());
+        Assert.assertEquals(1, altHits.get());
+        Assert.assertEquals(0, redirectStrategy.getHits());
+        Assert.assertEquals(1, redirectStrategy.size());
+    }
+
+    /**
+     * Test confirming a remembered redirect is dropped once its target stops answering, and the original URI is
+     * asked again
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testPermanentRedirectInvalidated() throws IOException, URISyntaxException {
+        // setup embedded servers, the first one redirects until the second one is gone
+        AtomicInteger hits = new AtomicInteger();
+        AtomicBoolean moved = new AtomicBoolean(true);
+        httpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler(ROOT_CONTEXT, (req, resp, ctx) -> {
+                    hits.incrementAndGet();
+                    if (moved.get()) {
+                        resp.setStatusCode(HttpStatus.SC_MOVED_PERMANENTLY);
+                        resp.setHeader("Location", altUri("/"));
+                    } else {
+                        resp.setStatusCode(HttpStatus.SC_OK);
+                    }
+                }).create();
+        httpServer.start();
+        altHttpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler(ROOT_CONTEXT, (req, resp, ctx) -> resp.setStatusCode(HttpStatus.SC_OK))
+                .create();
+        altHttpServer.start();
+
+        // setup HttpClient
+        MemoizingRedirectStrategy redirectStrategy = new MemoizingRedirectStrategy();
+        try (CloseableHttpClient httpClient = redirectStrategy.builder().build()) {
+            HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME)
+                    .setHost(LOCALHOST).setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
+            try (CloseableHttpResponse httpResponse = httpClient.execute(httpUriRequest)) {
+                Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+            }
+            Assert.assertEquals(1, redirectStrategy.size());
+
+            altHttpServer.shutdown(0, TimeUnit.SECONDS);
+            moved.set(false);
+            try (CloseableHttpResponse httpResponse = httpClient.execute(httpUriRequest)) {
+                Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+            }
+        }
+        Assert.assertEquals(2, hits.get());
+        Assert.assertEquals(1, redirectStrategy.getInvalidations());
+        Assert.assertEquals(0, redirectStrategy.size());
+    }
+
+    /**
+     * Test confirming circular redirects are still detected once the hops are remembered, without another round-trip
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testCircularRedirectsMemoized() throws IOException, URISyntaxException {
+        // setup embedded servers counting the requests they get
+        AtomicInteger hits = new AtomicInteger();
+        httpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler(ROOT_CONTEXT, (req, resp, ctx) -> {
+                    hits.incrementAndGet();
+                    resp.setStatusCode(HttpStatus.SC_MOVED_PERMANENTLY);
+                    resp.setHeader("Location", altUri("/"));
+                }).create();
+        httpServer.start();
+        altHttpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler(ROOT_CONTEXT, (req, resp, ctx) -> {
+                    hits.incrementAndGet();
+                    resp.setStatusCode(HttpStatus.SC_MOVED_PERMANENTLY);
+                    resp.setHeader("Location", "http://localhost:" + httpServer.getLocalPort() + "/");
+                }).create();
+        altHttpServer.start();
+
+        // setup HttpClient
+        MemoizingRedirectStrategy redirectStrategy = new MemoizingRedirectStrategy();
+        try (CloseableHttpClient httpClient = redirectStrategy.builder().build()) {
+            HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME)
+                    .setHost(LOCALHOST).setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
+            for (int i = 0; i < 2; i++) {
+                try {
+                    httpClient.execute(httpUriRequest);
+                    Assert.fail();
+                } catch (ClientProtocolException e) {
+                    // assert that we detect circular redirects, the same way on both attempts
+                    Assert.assertTrue(e.getCause() instanceof CircularRedirectException);
+                    Assert.assertEquals("Circular redirect to '" + altUri("/") + "'",
+                            e.getCause().getLocalizedMessage());
+                }
+            }
+        }
+        // server -> alt server, then the remembered hops close the loop before the server is asked again, and nothing
+        // the second time
+        Assert.assertEquals(2, hits.get());
+    }
+
+    /**
+     * @param path
+     * @return absolute URI of the path on the alternate server
+     */
+    private String altUri(String path) {
+        return "http://localhost:" + altHttpServer.getLocalPort() + path;
     }
 
     /**
@@ -200,13 +402,13 @@ public class HttpClientTest {
      * @return DnsResolver
      */
     private DnsResolver buildDnsResolver() {
-        return host -> {
-                if (host.equals(EVIL_HOST) || host.equals(GOOD_HOST)) {
-                    return new InetAddress[] { InetAddress.getByAddress(new byte[] {127, 0, 0, 1}) };
-                } else {
-                    return null;
-                }
-        };
+        return new CachingDnsResolver(host -> {
+            if (host.equals(EVIL_HOST) || host.equals(GOOD_HOST)) {
+                return new InetAddress[]{InetAddress.getByAddress(new byte[]{127, 0, 0, 1})};
+            } else {
+                return null;
+            }
+        }, 60, 5, TimeUnit.SECONDS);
     }
 
 }
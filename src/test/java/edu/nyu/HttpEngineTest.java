@@ -0,0 +1,380 @@
+package edu.nyu;
+
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.URIScheme;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.StringAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.AsyncResponseBuilder;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.http2.ssl.H2ServerTlsStrategy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.ListenerEndpoint;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.ProxyAuthenticator;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+
+import javax.net.ssl.CertPathTrustManagerParameters;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.CertPathBuilder;
+import java.security.cert.PKIXBuilderParameters;
+import java.security.cert.PKIXRevocationChecker;
+import java.security.cert.X509CertSelector;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Runs the client scenarios of {@code HttpClientTest}, {@code ProxyHttpClientTest} and {@code SslHttpClientTest}
+ * unchanged on every {@link HttpEngine.Type}; engines that need a newer JVM are skipped.
+ */
+@RunWith(Parameterized.class)
+public class HttpEngineTest {
+
+    private static final String HTTP_SCHEME = "http";
+    private static final String HTTPS_SCHEME = "https";
+    private static final String LOCALHOST = "localhost";
+    private static final String KEYSTORE_PASS = "changeit";
+    private static final String ROOT_CONTEXT = "/";
+    private static final String USER = "user";
+    private static final String PASS = "pass";
+    private static final String COOKIE = "session=engine";
+
+    // the handlers keep no state, so every engine and test shares the servers
+    private static HttpServer httpServer;
+    private static HttpServer httpsServer;
+
+    @Parameterized.Parameter
+    public HttpEngine.Type type;
+
+    private HttpProxyServer proxyHttpServer;
+    private HttpAsyncServer h2Server;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<HttpEngine.Type> types() {
+        return Arrays.asList(HttpEngine.Type.values());
+    }
+
+    @BeforeClass
+    public static void setupServers() throws IOException, GeneralSecurityException {
+        SharedServers.crl();
+        httpServer = register(ServerBootstrap.bootstrap()).setListenerPort(0).create();
+        httpServer.start();
+        httpsServer = register(ServerBootstrap.bootstrap()).setSslContext(keyStoreSslContext()).setListenerPort(0)
+                .create();
+        httpsServer.start();
+    }
+
+    @AfterClass
+    public static void teardownServers() {
+        httpServer.stop();
+        httpsServer.stop();
+    }
+
+    @Before
+    public void setup() {
+        Assume.assumeTrue(type + " needs a newer JVM", type.isAvailable());
+    }
+
+    @After
+    public void shutdown() {
+        if (proxyHttpServer != null) {
+            proxyHttpServer.stop();
+        }
+        if (h2Server != null) {
+            h2Server.close(CloseMode.IMMEDIATE);
+        }
+    }
+
+    /**
+     * Test confirming a simple GET goes through
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testSimpleGet() throws IOException, URISyntaxException {
+        try (HttpEngine engine = type.create(new HttpEngineConfig())) {
+            HttpEngine.Response response = engine.execute(uri(HTTP_SCHEME, httpServer, ROOT_CONTEXT));
+            Assert.assertEquals(HttpStatus.SC_OK, response.getStatusCode());
+            Assert.assertEquals(HttpEngine.Protocol.HTTP_1_1, response.getProtocol());
+        }
+    }
+
+    /**
+     * Test confirming the request goes through the proxy
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testProxyGet() throws IOException, URISyntaxException {
+        MetricsActivityTracker tracker = new MetricsActivityTracker();
+        proxyHttpServer = DefaultHttpProxyServer.bootstrap().withPort(0).plusActivityTracker(tracker).start();
+        try (HttpEngine engine = type.create(new HttpEngineConfig()
+                .setProxy(LOCALHOST, proxyHttpServer.getListenAddress().getPort()))) {
+            Assert.assertEquals(HttpStatus.SC_OK,
+                    engine.execute(uri(HTTP_SCHEME, httpServer, ROOT_CONTEXT)).getStatusCode());
+        }
+        Assert.assertEquals(1, tracker.snapshot().getRequestsReceived());
+    }
+
+    /**
+     * Test confirming the engine answers the proxy's challenge with the configured credentials, and is rejected
+     * without them
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testProxyAuthentication() throws IOException, URISyntaxException {
+        proxyHttpServer = DefaultHttpProxyServer.bootstrap().withPort(0)
+                .withProxyAuthenticator(new ProxyAuthenticator() {
+                    @Override
+                    public boolean authenticate(String user, String pass) {
+                        return USER.equals(user) && PASS.equals(pass);
+                    }
+
+                    @Override
+                    public String getRealm() {
+                        return null;
+                    }
+                }).start();
+        int proxyPort = proxyHttpServer.getListenAddress().getPort();
+        try (HttpEngine engine = type.create(new HttpEngineConfig().setProxy(LOCALHOST, proxyPort))) {
+            Assert.assertEquals(HttpStatus.SC_PROXY_AUTHENTICATION_REQUIRED,
+                    engine.execute(uri(HTTP_SCHEME, httpServer, ROOT_CONTEXT)).getStatusCode());
+        }
+        try (HttpEngine engine = type.create(new HttpEngineConfig().setProxy(LOCALHOST, proxyPort)
+                .setProxyCredentials(USER, PASS))) {
+            Assert.assertEquals(HttpStatus.SC_OK,
+                    engine.execute(uri(HTTP_SCHEME, httpServer, ROOT_CONTEXT)).getStatusCode());
+        }
+    }
+
+    /**
+     * Test confirming a GET over TLS goes through with the test CA trusted
+     *
+     * @throws IOException
+     * @throws GeneralSecurityException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testHttpsGet() throws IOException, GeneralSecurityException, URISyntaxException {
+        try (HttpEngine engine = type.create(new HttpEngineConfig().setSslContext(trustStoreSslContext()))) {
+            Assert.assertEquals(HttpStatus.SC_OK,
+                    engine.execute(uri(HTTPS_SCHEME, httpsServer, ROOT_CONTEXT)).getStatusCode());
+        }
+    }
+
+    /**
+     * Test confirming the revoked localhost certificate fails the handshake when the CRL is checked
+     *
+     * @throws IOException
+     * @throws GeneralSecurityException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testCrlCheck() throws IOException, GeneralSecurityException, URISyntaxException {
+        try (HttpEngine engine = type.create(new HttpEngineConfig().setSslContext(revocationCheckingSslContext()))) {
+            engine.execute(uri(HTTPS_SCHEME, httpsServer, ROOT_CONTEXT));
+            Assert.fail("Revoked certificate accepted");
+        } catch (IOException e) {
+            Assert.assertTrue(String.valueOf(rootCause(e).getMessage()), String.valueOf(rootCause(e).getMessage())
+                    .startsWith("Certificate has been revoked"));
+        }
+    }
+
+    /**
+     * Test confirming a cookie set by one response is sent with the next request
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testCookies() throws IOException, URISyntaxException {
+        try (HttpEngine engine = type.create(new HttpEngineConfig())) {
+            Assert.assertEquals(HttpStatus.SC_UNAUTHORIZED,
+                    engine.execute(uri(HTTP_SCHEME, httpServer, "/check")).getStatusCode());
+            Assert.assertEquals(HttpStatus.SC_OK, engine.execute(uri(HTTP_SCHEME, httpServer, "/login"))
+                    .getStatusCode());
+            Assert.assertEquals(HttpStatus.SC_OK, engine.execute(uri(HTTP_SCHEME, httpServer, "/check"))
+                    .getStatusCode());
+        }
+    }
+
+    /**
+     * Test confirming redirects are followed, or handed back when disabled
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testRedirects() throws IOException, URISyntaxException {
+        try (HttpEngine engine = type.create(new HttpEngineConfig())) {
+            HttpEngine.Response response = engine.execute(uri(HTTP_SCHEME, httpServer, "/old"));
+            Assert.assertEquals(HttpStatus.SC_OK, response.getStatusCode());
+            Assert.assertEquals("new", new String(response.getBody(), StandardCharsets.UTF_8));
+        }
+        try (HttpEngine engine = type.create(new HttpEngineConfig().setRedirects(false))) {
+            HttpEngine.Response response = engine.execute(uri(HTTP_SCHEME, httpServer, "/old"));
+            Assert.assertEquals(HttpStatus.SC_MOVED_PERMANENTLY, response.getStatusCode());
+            Assert.assertTrue(response.getFirstHeader(HttpHeaders.LOCATION).endsWith("/new"));
+        }
+    }
+
+    /**
+     * Test confirming engines that speak HTTP/2 negotiate it over TLS, and the others fall back to HTTP/1.1
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testHttp2Negotiation() throws Exception {
+        int port = startH2Server();
+        try (HttpEngine engine = type.create(new HttpEngineConfig().setSslContext(trustStoreSslContext())
+                .setProtocol(HttpEngine.Protocol.HTTP_2))) {
+            HttpEngine.Response response = engine.execute(
+                    new URI(HTTPS_SCHEME, null, LOCALHOST, port, ROOT_CONTEXT, null, null));
+            Assert.assertEquals(HttpStatus.SC_OK, response.getStatusCode());
+            Assert.assertEquals(type.supports(HttpEngine.Protocol.HTTP_2) ? HttpEngine.Protocol.HTTP_2
+                    : HttpEngine.Protocol.HTTP_1_1, response.getProtocol());
+        }
+    }
+
+    private static ServerBootstrap register(ServerBootstrap serverBootstrap) {
+        return serverBootstrap
+                .registerHandler(ROOT_CONTEXT, (req, resp, ctx) -> resp.setStatusCode(HttpStatus.SC_OK))
+                .registerHandler("/login", (req, resp, ctx) -> {
+                    resp.setStatusCode(HttpStatus.SC_OK);
+                    resp.setHeader("Set-Cookie", COOKIE + "; Path=/");
+                })
+                .registerHandler("/check", (req, resp, ctx) -> resp.setStatusCode(
+                        req.containsHeader("Cookie") && req.getFirstHeader("Cookie").getValue().contains(COOKIE)
+                                ? HttpStatus.SC_OK : HttpStatus.SC_UNAUTHORIZED))
+                .registerHandler("/old", (req, resp, ctx) -> {
+                    resp.setStatusCode(HttpStatus.SC_MOVED_PERMANENTLY);
+                    resp.setHeader(HttpHeaders.LOCATION, "/new");
+                })
+                .registerHandler("/new", (req, resp, ctx) -> {
+                    resp.setStatusCode(HttpStatus.SC_OK);
+                    resp.setEntity(new StringEntity("new"));
+                });
+    }
+
+    /**
+     * Starts an HttpCore 5 server negotiating HTTP/2 or HTTP/1.1 over TLS, the embedded 4.x servers only do HTTP/1.1
+     *
+     * @return port
+     * @throws IOException
+     * @throws GeneralSecurityException
+     * @throws ExecutionException
+     * @throws InterruptedException
+     */
+    private int startH2Server() throws IOException, GeneralSecurityException, ExecutionException,
+            InterruptedException {
+        h2Server = H2ServerBootstrap.bootstrap()
+                .setVersionPolicy(HttpVersionPolicy.NEGOTIATE)
+                .setTlsStrategy(new H2ServerTlsStrategy(keyStoreSslContext()))
+                .register("*", new AsyncServerRequestHandler<Message<org.apache.hc.core5.http.HttpRequest, String>>() {
+                    @Override
+                    public AsyncRequestConsumer<Message<org.apache.hc.core5.http.HttpRequest, String>> prepare(
+                            org.apache.hc.core5.http.HttpRequest request, EntityDetails entityDetails,
+                            org.apache.hc.core5.http.protocol.HttpContext context) {
+                        return new BasicRequestConsumer<>(entityDetails != null ? new StringAsyncEntityConsumer()
+                                : null);
+                    }
+
+                    @Override
+                    public void handle(Message<org.apache.hc.core5.http.HttpRequest, String> message,
+                                       ResponseTrigger responseTrigger,
+                                       org.apache.hc.core5.http.protocol.HttpContext context)
+                            throws org.apache.hc.core5.http.HttpException, IOException {
+                        responseTrigger.submitResponse(AsyncResponseBuilder.create(HttpStatus.SC_OK).build(),
+                                context);
+                    }
+                })
+                .create();
+        h2Server.start();
+        ListenerEndpoint endpoint = h2Server.listen(new InetSocketAddress(0), URIScheme.HTTPS).get();
+        return ((InetSocketAddress) endpoint.getAddress()).getPort();
+    }
+
+    private URI uri(String scheme, HttpServer server, String path) throws URISyntaxException {
+        return new URI(scheme, null, LOCALHOST, server.getLocalPort(), path, null, null);
+    }
+
+    private static SSLContext keyStoreSslContext() throws IOException, GeneralSecurityException {
+        return SslContextFactory.getDefault().getKeyStoreSslContext(keyStore(), KEYSTORE_PASS.toCharArray(),
+                KEYSTORE_PASS.toCharArray());
+    }
+
+    private SSLContext trustStoreSslContext() throws IOException, GeneralSecurityException {
+        return SslContextFactory.getDefault().getTrustStoreSslContext(keyStore(), KEYSTORE_PASS.toCharArray());
+    }
+
+    /**
+     * Builds a context checking revocation against the CRLs only, failing hard, as {@code SslHttpClientTest} does
+     *
+     * @return SSLContext
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    private SSLContext revocationCheckingSslContext() throws IOException, GeneralSecurityException {
+        KeyStore ts = KeyStore.getInstance("JKS");
+        try (InputStream inputStream = keyStore().openStream()) {
+            ts.load(inputStream, KEYSTORE_PASS.toCharArray());
+        }
+        PKIXRevocationChecker rc = (PKIXRevocationChecker) CertPathBuilder.getInstance("PKIX").getRevocationChecker();
+        rc.setOptions(EnumSet.of(PKIXRevocationChecker.Option.PREFER_CRLS,
+                PKIXRevocationChecker.Option.ONLY_END_ENTITY, PKIXRevocationChecker.Option.NO_FALLBACK));
+        PKIXBuilderParameters pkixParams = new PKIXBuilderParameters(ts, new X509CertSelector());
+        pkixParams.addCertPathChecker(rc);
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(new CertPathTrustManagerParameters(pkixParams));
+        SSLContext ctx = SSLContext.getInstance("TLS");
+        ctx.init(null, tmf.getTrustManagers(), null);
+        return ctx;
+    }
+
+    private static URL keyStore() {
+        return HttpEngineTest.class.getResource("/keystore.jks");
+    }
+
+    private static Throwable rootCause(Throwable throwable) {
+        Throwable cause = throwable;
+        while (cause.getCause() != null && cause.getCause() != cause) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+}
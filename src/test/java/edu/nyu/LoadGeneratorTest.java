@@ -0,0 +1,145 @@
+package edu.nyu;
+
+import net.jcip.annotations.NotThreadSafe;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+
+// checks the request rate the generator achieves, so it runs once the parallel classes are done
+@NotThreadSafe
+public class LoadGeneratorTest {
+
+    private static final String HTTP_SCHEME = "http";
+    private static final String LOCALHOST = "localhost";
+    private static final String ROOT_CONTEXT = "/";
+    private static final String SLOW_CONTEXT = "/slow";
+    private static final long SLOW_MILLIS = 50;
+
+    private HttpServer httpServer;
+    private HttpProxyServer proxyHttpServer;
+
+    @After
+    public void shutdown() {
+        if (proxyHttpServer != null) {
+            proxyHttpServer.stop();
+        }
+        if (httpServer != null) {
+            httpServer.stop();
+        }
+    }
+
+    /**
+     * Test confirming the offered rate is sustained against a fast server, directly and through the proxy
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testSustainsOfferedRate() throws IOException, URISyntaxException, InterruptedException {
+        startServer();
+        proxyHttpServer = DefaultHttpProxyServer.bootstrap().withPort(0).start();
+
+        try (CloseableHttpClient direct = HttpClientBuilder.create().setMaxConnPerRoute(4).build();
+             CloseableHttpClient proxied = HttpClientBuilder.create().setMaxConnPerRoute(4)
+                     .setProxy(new HttpHost(LOCALHOST, proxyHttpServer.getListenAddress().getPort())).build()) {
+            for (CloseableHttpClient httpClient : new CloseableHttpClient[] {direct, proxied}) {
+                LoadGenerator.Result result = new LoadGenerator(httpClient, uri(ROOT_CONTEXT), 4)
+                        .run(200, 1, TimeUnit.SECONDS);
+                Assert.assertEquals(200, result.getCompleted());
+                Assert.assertEquals(0, result.getErrors());
+                Assert.assertEquals(200, result.getResponseTime().getCount());
+                Assert.assertEquals(200, result.getServiceTime().getCount());
+                long perSecond = 0;
+                for (long completed : result.getCompletedPerSecond()) {
+                    perSecond += completed;
+                }
+                Assert.assertEquals(200, perSecond);
+            }
+        }
+    }
+
+    /**
+     * Test confirming queueing behind a saturated worker is charged to response time, not hidden from it
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testCoordinatedOmissionCorrection() throws IOException, URISyntaxException, InterruptedException {
+        startServer();
+
+        // a single worker can do 20 requests/s against the slow handler but is offered 40/s
+        try (CloseableHttpClient httpClient = HttpClientBuilder.create().build()) {
+            LoadGenerator.Result result = new LoadGenerator(httpClient, uri(SLOW_CONTEXT), 1)
+                    .run(40, 1, TimeUnit.SECONDS);
+            Assert.assertEquals(40, result.getCompleted());
+            long serviceP99 = result.getServiceTime().getValueAtPercentile(99);
+            long responseP99 = result.getResponseTime().getValueAtPercentile(99);
+            Assert.assertTrue(serviceP99 >= TimeUnit.MILLISECONDS.toNanos(SLOW_MILLIS));
+            // the last request waited behind roughly half a second of backlog
+            Assert.assertTrue(responseP99 > 5 * serviceP99);
+            Assert.assertTrue(result.getAchievedRate() < 30);
+        }
+    }
+
+    /**
+     * Test confirming rates that are not positive, or above one request per nanosecond, are rejected before anything
+     * is sent
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testInvalidRate() throws IOException, InterruptedException {
+        try (CloseableHttpClient httpClient = HttpClientBuilder.create().build()) {
+            LoadGenerator loadGenerator = new LoadGenerator(httpClient, URI.create("http://localhost/"), 1);
+            for (double requestsPerSecond : new double[]{0, -1, Double.NaN, Math.nextUp(1e9),
+                    Double.POSITIVE_INFINITY}) {
+                try {
+                    loadGenerator.run(requestsPerSecond, 1, TimeUnit.SECONDS);
+                    Assert.fail("Accepted " + requestsPerSecond);
+                } catch (IllegalArgumentException e) {
+                    Assert.assertTrue(e.getMessage().startsWith("requestsPerSecond must be positive and at most 1e9"));
+                }
+            }
+        }
+    }
+
+    private void startServer() throws IOException {
+        httpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler(ROOT_CONTEXT, (req, resp, context) -> resp.setStatusCode(HttpStatus.SC_OK))
+                .registerHandler(SLOW_CONTEXT, (req, resp, context) -> {
+                    try {
+                        Thread.sleep(SLOW_MILLIS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    resp.setStatusCode(HttpStatus.SC_OK);
+                })
+                .create();
+        httpServer.start();
+    }
+
+    private URI uri(String path) throws URISyntaxException {
+        return new URIBuilder().setScheme(HTTP_SCHEME).setHost(LOCALHOST).setPort(httpServer.getLocalPort())
+                .setPath(path).build();
+    }
+
+}
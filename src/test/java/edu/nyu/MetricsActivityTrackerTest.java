@@ -0,0 +1,136 @@
+package edu.nyu;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+
+public class MetricsActivityTrackerTest {
+
+    private static final String HTTP_SCHEME = "http";
+    private static final String LOCALHOST = "localhost";
+    private static final String LOOPBACK = "127.0.0.1";
+    private static final String ROOT_CONTEXT = "/";
+    private static final String BODY = "metrics";
+    private static final int REQUESTS = 3;
+
+    private MetricsActivityTracker activityTracker;
+    private HttpProxyServer proxyHttpServer;
+    private HttpServer httpServer;
+
+    @Before
+    public void setup() throws IOException {
+        activityTracker = new MetricsActivityTracker();
+        // setup proxy server and embedded server on ephemeral ports
+        proxyHttpServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0).plusActivityTracker(activityTracker).start();
+        httpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler(ROOT_CONTEXT, (req, resp, context) -> {
+                    resp.setStatusCode(HttpStatus.SC_OK);
+                    resp.setEntity(new StringEntity(BODY));
+                })
+                .create();
+        httpServer.start();
+    }
+
+    @After
+    public void shutdown() {
+        proxyHttpServer.stop();
+        httpServer.stop();
+    }
+
+    /**
+     * Test confirming per-route counters and latencies reflect the requests sent through the proxy
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testSnapshotAfterProxiedRequests() throws IOException, URISyntaxException {
+        // setup HttpClient
+        HttpClient httpClient = HttpClientBuilder.create().setProxy(
+                new HttpHost(LOCALHOST, proxyHttpServer.getListenAddress().getPort())).build();
+        HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME)
+                .setHost(LOCALHOST).setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
+        for (int i = 0; i < REQUESTS; i++) {
+            HttpResponse httpResponse = httpClient.execute(httpUriRequest);
+            Assert.assertEquals(BODY, EntityUtils.toString(httpResponse.getEntity()));
+        }
+
+        MetricsActivityTracker.Snapshot snapshot = activityTracker.snapshot();
+        Assert.assertEquals(REQUESTS, snapshot.getRequestsReceived());
+        Assert.assertEquals(REQUESTS, snapshot.getResponsesSent());
+        Assert.assertEquals(1, snapshot.getConnectionsOpened());
+
+        MetricsActivityTracker.RouteStats client = snapshot.getClients().get(LOOPBACK);
+        Assert.assertNotNull(client);
+        Assert.assertTrue(client.getBytesReceived() > 0);
+        Assert.assertTrue(client.getBytesSent() > REQUESTS * BODY.length());
+
+        String serverHostAndPort = LOCALHOST + ":" + httpServer.getLocalPort();
+        MetricsActivityTracker.RouteStats server = snapshot.getServers().get(serverHostAndPort);
+        Assert.assertNotNull(server);
+        Assert.assertEquals(REQUESTS, server.getRequests());
+        Assert.assertEquals(REQUESTS, server.getResponses());
+        Assert.assertTrue(server.getBytesReceived() > REQUESTS * BODY.length());
+
+        Assert.assertEquals(REQUESTS, snapshot.getLatency().getCount());
+        Assert.assertEquals(REQUESTS, snapshot.getServerLatencies().get(serverHostAndPort).getCount());
+        Assert.assertTrue(snapshot.getLatency().getValueAtPercentile(50) > 0);
+        Assert.assertTrue(snapshot.getLatency().getMax() < TimeUnit.SECONDS.toNanos(10));
+
+        // snapshots are copies and do not move with later activity
+        activityTracker.reset();
+        Assert.assertEquals(REQUESTS, snapshot.getRequestsReceived());
+        Assert.assertEquals(0, activityTracker.snapshot().getRequestsReceived());
+    }
+
+    /**
+     * Test confirming histogram percentiles stay within the documented relative error
+     */
+    @Test
+    public void testLatencyHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1000);
+        }
+        Assert.assertEquals(100_000, histogram.getCount());
+        assertWithinError(50_000_000, histogram.getValueAtPercentile(50));
+        assertWithinError(99_000_000, histogram.getValueAtPercentile(99));
+        assertWithinError(99_900_000, histogram.getValueAtPercentile(99.9));
+        assertWithinError(100_000_000, histogram.getMax());
+        Assert.assertEquals(50_000_500, histogram.getMean(), 1);
+
+        // small values are exact
+        LatencyHistogram exact = new LatencyHistogram();
+        exact.record(7);
+        exact.record(42, 3);
+        Assert.assertEquals(7, exact.getValueAtPercentile(25));
+        Assert.assertEquals(42, exact.getValueAtPercentile(50));
+        Assert.assertEquals(42, exact.getMax());
+    }
+
+    private static void assertWithinError(long expected, long actual) {
+        Assert.assertEquals(expected, actual, expected / 64.0);
+    }
+
+}
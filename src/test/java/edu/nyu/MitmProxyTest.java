@@ -0,0 +1,288 @@
+package edu.nyu;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class MitmProxyTest {
+
+    private static final String HTTPS_SCHEME = "https";
+    private static final String LOCALHOST = "localhost";
+    private static final String LOOPBACK_ADDRESS = "127.0.0.1";
+    private static final String ROOT_CONTEXT = "/";
+    private static final String KEYSTORE_PASS = "changeit";
+    private static final int REQUESTS = 3;
+    private static final int CONCURRENCY = 16;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MitmProxyTest.class);
+
+    private CertificateAuthority certificateAuthority;
+    private HostCertificateCache certificates;
+
+    @Before
+    public void setup() throws IOException, GeneralSecurityException {
+        certificateAuthority = CertificateAuthority.load(getClass().getResource("/ca/ca.crt"),
+                getClass().getResource("/ca/ca.key"), KEYSTORE_PASS.toCharArray());
+    }
+
+    @After
+    public void shutdown() {
+        if (certificates != null) {
+            certificates.close();
+        }
+    }
+
+    /**
+     * Test confirming the proxy answers a CONNECT with a certificate of our CA for the requested host, sees the
+     * decrypted requests, and issues that certificate only once
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     * @throws GeneralSecurityException
+     */
+    @Test
+    public void testInterceptedRequests() throws IOException, URISyntaxException, GeneralSecurityException {
+        URL keyStore = getClass().getResource("/keystore.jks");
+        SSLContext trustStoreSslContext = SslContextFactory.getDefault().getTrustStoreSslContext(keyStore,
+                KEYSTORE_PASS.toCharArray());
+        certificates = new HostCertificateCache(certificateAuthority);
+        MetricsActivityTracker activityTracker = new MetricsActivityTracker();
+        HttpProxyServer proxyHttpServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .withManInTheMiddle(new CertificateMitmManager(certificates, trustStoreSslContext))
+                .plusActivityTracker(activityTracker)
+                .start();
+        List<X509Certificate> peers = new ArrayList<>();
+        HandshakeTrackingSocketFactory socketFactory = new HandshakeTrackingSocketFactory(trustStoreSslContext) {
+            @Override
+            public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context)
+                    throws IOException {
+                SSLSocket sslSocket = (SSLSocket) super.createLayeredSocket(socket, target, port, context);
+                peers.add((X509Certificate) sslSocket.getSession().getPeerCertificates()[0]);
+                return sslSocket;
+            }
+        };
+        try (CloseableHttpClient httpClient = HttpClientBuilder.create()
+                .setProxy(new HttpHost(LOCALHOST, proxyHttpServer.getListenAddress().getPort()))
+                .setSSLSocketFactory(socketFactory)
+                .build()) {
+            HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTPS_SCHEME)
+                    .setHost(LOCALHOST).setPort(SharedServers.https().getLocalPort()).setPath(ROOT_CONTEXT).build())
+                    .build();
+            for (int i = 0; i < REQUESTS; i++) {
+                try (CloseableHttpResponse httpResponse = httpClient.execute(httpUriRequest)) {
+                    EntityUtils.consume(httpResponse.getEntity());
+                    Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+                }
+            }
+        } finally {
+            proxyHttpServer.stop();
+        }
+
+        // a single tunnel kept alive
+        Assert.assertEquals(1, peers.size());
+        for (X509Certificate peer : peers) {
+            Assert.assertEquals("CN=" + LOCALHOST, peer.getSubjectX500Principal().getName());
+            Assert.assertEquals(certificateAuthority.getCertificate().getSubjectX500Principal(),
+                    peer.getIssuerX500Principal());
+            Assert.assertFalse(serverCertificates(keyStore).contains(peer));
+        }
+
+        // the CONNECT plus every request that went through the tunnel
+        Assert.assertEquals(REQUESTS + 1, activityTracker.snapshot().getRequestsReceived());
+        Assert.assertEquals(1, certificates.getMisses());
+        Assert.assertEquals(1, certificates.size());
+        LOGGER.info("{} client handshakes with the proxy {}", socketFactory.getFullHandshakes(),
+                socketFactory.getFullHandshakeTime().summary(TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Test confirming the proxy refuses a server whose trusted certificate names another host, which the client
+     * can't notice since it only sees the certificate the proxy issued
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     * @throws GeneralSecurityException
+     */
+    @Test
+    public void testUpstreamHostnameMismatch() throws IOException, URISyntaxException, GeneralSecurityException {
+        SSLContext trustStoreSslContext = SslContextFactory.getDefault().getTrustStoreSslContext(
+                getClass().getResource("/keystore.jks"), KEYSTORE_PASS.toCharArray());
+        certificates = new HostCertificateCache(certificateAuthority);
+        HttpProxyServer proxyHttpServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .withManInTheMiddle(new CertificateMitmManager(certificates, trustStoreSslContext))
+                .start();
+        try (CloseableHttpClient httpClient = HttpClientBuilder.create()
+                .setProxy(new HttpHost(LOCALHOST, proxyHttpServer.getListenAddress().getPort()))
+                .setSSLSocketFactory(new HandshakeTrackingSocketFactory(trustStoreSslContext))
+                .build()) {
+            // the server's certificate is for localhost only
+            HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTPS_SCHEME)
+                    .setHost(LOOPBACK_ADDRESS).setPort(SharedServers.https().getLocalPort()).setPath(ROOT_CONTEXT)
+                    .build()).build();
+            try (CloseableHttpResponse httpResponse = httpClient.execute(httpUriRequest)) {
+                EntityUtils.consume(httpResponse.getEntity());
+                Assert.assertEquals(HttpStatus.SC_BAD_GATEWAY, httpResponse.getStatusLine().getStatusCode());
+            }
+        } finally {
+            proxyHttpServer.stop();
+        }
+    }
+
+    /**
+     * Test confirming a host's certificate is issued once, looked up far faster than it is issued, and that the
+     * least recently used hosts are evicted past the bound
+     *
+     * @throws GeneralSecurityException
+     */
+    @Test
+    public void testBoundedCache() throws GeneralSecurityException {
+        certificates = new HostCertificateCache(certificateAuthority, 2, 0, "RSA", 2048);
+        long start = System.nanoTime();
+        SSLContext sslContext = certificates.get("a.localhost.com");
+        long issued = System.nanoTime() - start;
+        start = System.nanoTime();
+        Assert.assertSame(sslContext, certificates.get("a.localhost.com"));
+        long cached = System.nanoTime() - start;
+        LOGGER.info("Issued in {} us, cached in {} us", TimeUnit.NANOSECONDS.toMicros(issued),
+                TimeUnit.NANOSECONDS.toMicros(cached));
+        Assert.assertTrue(cached < issued);
+
+        certificates.get("b.localhost.com");
+        // a was used last, so b goes
+        certificates.get("a.localhost.com");
+        certificates.get("127.0.0.1");
+        Assert.assertEquals(2, certificates.size());
+        Assert.assertEquals(1, certificates.getEvictions());
+        Assert.assertEquals(2, certificates.getHits());
+        certificates.get("b.localhost.com");
+        Assert.assertEquals(4, certificates.getMisses());
+        Assert.assertEquals(4, certificates.getInlineKeyPairs());
+    }
+
+    /**
+     * Test confirming concurrent handshakes for one host wait for a single certificate
+     *
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    @Test
+    public void testConcurrentRequestsCoalesce() throws InterruptedException, ExecutionException {
+        certificates = new HostCertificateCache(certificateAuthority, 16, 0, "RSA", 2048);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newFixedThreadPool(CONCURRENCY);
+        try {
+            List<Future<SSLContext>> contexts = new ArrayList<>();
+            for (int i = 0; i < CONCURRENCY; i++) {
+                contexts.add(executorService.submit(() -> {
+                    start.await();
+                    return certificates.get(LOCALHOST);
+                }));
+            }
+            start.countDown();
+            for (Future<SSLContext> context : contexts) {
+                Assert.assertSame(contexts.get(0).get(), context.get());
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        Assert.assertEquals(1, certificates.getMisses());
+        Assert.assertEquals(CONCURRENCY - 1, certificates.getHits() + certificates.getCoalesced());
+    }
+
+    /**
+     * Test confirming misses take pregenerated key pairs while there are some
+     *
+     * @throws GeneralSecurityException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testPregeneratedKeyPairs() throws GeneralSecurityException, InterruptedException {
+        certificates = new HostCertificateCache(certificateAuthority, 16, 2, "EC", 256);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (certificates.getReadyKeyPairs() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        certificates.get("a.localhost.com");
+        certificates.get("b.localhost.com");
+        Assert.assertEquals(2, certificates.getMisses());
+        Assert.assertEquals(0, certificates.getInlineKeyPairs());
+    }
+
+    /**
+     * Test confirming issued certificates are signed by the CA and name the host, as a DNS name or an IP address
+     *
+     * @throws GeneralSecurityException
+     */
+    @Test
+    public void testIssuedCertificates() throws GeneralSecurityException {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+        keyPairGenerator.initialize(256);
+        for (String host : new String[]{LOCALHOST, "127.0.0.1", "::1"}) {
+            X509Certificate certificate = certificateAuthority.issue(host, keyPairGenerator.generateKeyPair()
+                    .getPublic());
+            certificate.verify(certificateAuthority.getCertificate().getPublicKey());
+            certificate.checkValidity();
+            Assert.assertEquals(-1, certificate.getBasicConstraints());
+            Assert.assertEquals(1, certificate.getSubjectAlternativeNames().size());
+            Assert.assertEquals(host.equals(LOCALHOST) ? 2 : 7,
+                    certificate.getSubjectAlternativeNames().iterator().next().get(0));
+        }
+        Assert.assertEquals(LOCALHOST, CertificateMitmManager.host("localhost:443"));
+        Assert.assertEquals("::1", CertificateMitmManager.host("[::1]:443"));
+        Assert.assertEquals(LOCALHOST, CertificateMitmManager.host(LOCALHOST));
+    }
+
+    private static List<X509Certificate> serverCertificates(URL keyStore) throws IOException,
+            GeneralSecurityException {
+        KeyStore store = KeyStore.getInstance(KeyStore.getDefaultType());
+        try (InputStream inputStream = keyStore.openStream()) {
+            store.load(inputStream, KEYSTORE_PASS.toCharArray());
+        }
+        List<X509Certificate> certificates = new ArrayList<>();
+        for (String alias : Collections.list(store.aliases())) {
+            if (store.getCertificate(alias) instanceof X509Certificate) {
+                certificates.add((X509Certificate) store.getCertificate(alias));
+            }
+        }
+        return certificates;
+    }
+
+}
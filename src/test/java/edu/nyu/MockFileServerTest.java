@@ -0,0 +1,142 @@
+package edu.nyu;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+public class MockFileServerTest {
+
+    private static final String HTTP_SCHEME = "http";
+    private static final String LOCALHOST = "localhost";
+    private static final String FILE_NAME = "data.bin";
+    // large enough that the body usually cannot be written to the socket in one go
+    private static final int FILE_SIZE = 2 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private byte[] content;
+    private MockFileServer mockFileServer;
+    private CloseableHttpClient httpClient;
+
+    @Before
+    public void setup() throws IOException {
+        content = new byte[FILE_SIZE];
+        new Random(42).nextBytes(content);
+        Path root = temporaryFolder.getRoot().toPath();
+        Files.write(root.resolve(FILE_NAME), content);
+        mockFileServer = new MockFileServer(root, 0, 2);
+        mockFileServer.start();
+        httpClient = HttpClientBuilder.create().build();
+    }
+
+    @After
+    public void shutdown() throws IOException {
+        httpClient.close();
+        mockFileServer.close();
+    }
+
+    /**
+     * Test confirming whole files are served and keep-alive connections are reused across requests
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testGetWithKeepAlive() throws IOException, URISyntaxException {
+        for (int i = 0; i < 5; i++) {
+            HttpResponse httpResponse = httpClient.execute(get("/" + FILE_NAME).build());
+            Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+            Assert.assertArrayEquals(content, EntityUtils.toByteArray(httpResponse.getEntity()));
+        }
+        Assert.assertEquals(1, mockFileServer.getAcceptedConnections());
+        Assert.assertEquals(5, mockFileServer.getServedRequests());
+    }
+
+    /**
+     * Test confirming byte ranges, suffix ranges, invalid ranges and unsatisfiable ranges
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testRangeRequests() throws IOException, URISyntaxException {
+        HttpResponse httpResponse = httpClient.execute(get("/" + FILE_NAME)
+                .addHeader(HttpHeaders.RANGE, "bytes=100-199").build());
+        Assert.assertEquals(HttpStatus.SC_PARTIAL_CONTENT, httpResponse.getStatusLine().getStatusCode());
+        Assert.assertEquals("bytes 100-199/" + FILE_SIZE,
+                httpResponse.getFirstHeader(HttpHeaders.CONTENT_RANGE).getValue());
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 100, 200),
+                EntityUtils.toByteArray(httpResponse.getEntity()));
+
+        httpResponse = httpClient.execute(get("/" + FILE_NAME).addHeader(HttpHeaders.RANGE, "bytes=-10").build());
+        Assert.assertEquals(HttpStatus.SC_PARTIAL_CONTENT, httpResponse.getStatusLine().getStatusCode());
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, FILE_SIZE - 10, FILE_SIZE),
+                EntityUtils.toByteArray(httpResponse.getEntity()));
+
+        // the last byte before the first isn't a range at all, the header is ignored
+        httpResponse = httpClient.execute(get("/" + FILE_NAME).addHeader(HttpHeaders.RANGE, "bytes=5-3").build());
+        Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+        Assert.assertArrayEquals(content, EntityUtils.toByteArray(httpResponse.getEntity()));
+
+        httpResponse = httpClient.execute(get("/" + FILE_NAME)
+                .addHeader(HttpHeaders.RANGE, "bytes=" + FILE_SIZE + "-").build());
+        Assert.assertEquals(HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE,
+                httpResponse.getStatusLine().getStatusCode());
+        EntityUtils.consume(httpResponse.getEntity());
+        Assert.assertEquals(1, mockFileServer.getAcceptedConnections());
+    }
+
+    /**
+     * Test confirming missing files are not found
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testNotFound() throws IOException, URISyntaxException {
+        HttpResponse httpResponse = httpClient.execute(get("/missing.bin").build());
+        Assert.assertEquals(HttpStatus.SC_NOT_FOUND, httpResponse.getStatusLine().getStatusCode());
+        EntityUtils.consume(httpResponse.getEntity());
+    }
+
+    /**
+     * Test confirming unsupported or invalid ranges are ignored, and only a valid range past the end of the file
+     * cannot be satisfied
+     */
+    @Test
+    public void testParseRange() {
+        Assert.assertArrayEquals(new long[]{2, 5}, MockFileServer.parseRange("bytes=2-5", FILE_SIZE));
+        Assert.assertArrayEquals(new long[]{FILE_SIZE - 3, FILE_SIZE - 1},
+                MockFileServer.parseRange("bytes=-3", FILE_SIZE));
+        Assert.assertNull(MockFileServer.parseRange("bytes=-0", FILE_SIZE));
+        Assert.assertEquals(0, MockFileServer.parseRange("bytes=0-1,5-6", FILE_SIZE).length);
+        Assert.assertEquals(0, MockFileServer.parseRange("bytes=--3", FILE_SIZE).length);
+        Assert.assertEquals(0, MockFileServer.parseRange("bytes=" + (FILE_SIZE + 5) + "-3", FILE_SIZE).length);
+        Assert.assertNull(MockFileServer.parseRange("bytes=" + FILE_SIZE + "-" + (FILE_SIZE + 5), FILE_SIZE));
+    }
+
+    private RequestBuilder get(String path) throws URISyntaxException {
+        return RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME).setHost(LOCALHOST)
+                .setPort(mockFileServer.getLocalPort()).setPath(path).build());
+    }
+
+}
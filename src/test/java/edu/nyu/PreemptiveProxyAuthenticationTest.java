@@ -0,0 +1,162 @@
+package edu.nyu;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.ProxyAuthenticationStrategy;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.ProxyAuthenticator;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PreemptiveProxyAuthenticationTest {
+
+    private static final String HTTP_SCHEME = "http";
+    private static final String LOCALHOST = "localhost";
+    private static final String ROOT_CONTEXT = "/";
+    private static final String USER = "user";
+    private static final String PASS = "pass";
+    private static final int REQUESTS = 5;
+
+    private final AtomicInteger verifications = new AtomicInteger();
+    private final MetricsActivityTracker metricsActivityTracker = new MetricsActivityTracker();
+    private CachingProxyAuthenticator cachingProxyAuthenticator;
+    private HttpProxyServer proxyHttpServer;
+    private HttpServer httpServer;
+    private HttpHost proxy;
+
+    @Before
+    public void setup() throws IOException {
+        cachingProxyAuthenticator = new CachingProxyAuthenticator(getProxyAuthenticator(), 1, TimeUnit.MINUTES);
+        proxyHttpServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0).plusActivityTracker(metricsActivityTracker)
+                .withProxyAuthenticator(cachingProxyAuthenticator).start();
+        proxy = new HttpHost(LOCALHOST, proxyHttpServer.getListenAddress().getPort());
+        httpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler(ROOT_CONTEXT, (req, resp, context) -> {
+                    Assert.assertEquals(0, req.getHeaders("Proxy-Authorization").length);
+                    resp.setStatusCode(HttpStatus.SC_OK);
+                })
+                .create();
+        httpServer.start();
+    }
+
+    @After
+    public void shutdown() {
+        proxyHttpServer.stop();
+        httpServer.stop();
+    }
+
+    /**
+     * Test confirming that without a shared auth cache every request is challenged before it gets through
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testEveryRequestChallenged() throws IOException, URISyntaxException {
+        try (CloseableHttpClient httpClient = buildHttpClient().build()) {
+            executeRequests(httpClient);
+        }
+        Assert.assertEquals(2 * REQUESTS, metricsActivityTracker.snapshot().getRequestsReceived());
+    }
+
+    /**
+     * Test confirming only the first request is challenged once the realm is cached, and that the proxy verifies the
+     * credentials once
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testPreemptiveAfterFirstChallenge() throws IOException, URISyntaxException {
+        SharedAuthCacheInterceptor sharedAuthCache = new SharedAuthCacheInterceptor();
+        try (CloseableHttpClient httpClient = sharedAuthCache.configure(buildHttpClient()).build()) {
+            executeRequests(httpClient);
+        }
+        Assert.assertEquals(REQUESTS + 1, metricsActivityTracker.snapshot().getRequestsReceived());
+        Assert.assertEquals(1, verifications.get());
+        Assert.assertEquals(1, cachingProxyAuthenticator.getDelegateCalls());
+        Assert.assertEquals(REQUESTS - 1, cachingProxyAuthenticator.getHits());
+    }
+
+    /**
+     * Test confirming a proxy registered up front is never challenged, and wrong credentials still are rejected
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testPreemptiveWithoutChallenge() throws IOException, URISyntaxException {
+        SharedAuthCacheInterceptor sharedAuthCache = new SharedAuthCacheInterceptor();
+        sharedAuthCache.preemptBasic(proxy);
+        try (CloseableHttpClient httpClient = sharedAuthCache.configure(buildHttpClient()).build()) {
+            executeRequests(httpClient);
+        }
+        Assert.assertEquals(REQUESTS, metricsActivityTracker.snapshot().getRequestsReceived());
+        Assert.assertFalse(cachingProxyAuthenticator.authenticate(USER, "wrong"));
+        Assert.assertEquals(2, verifications.get());
+    }
+
+    /**
+     * LittleProxy only challenges the first request of a connection, so every request gets a connection of its own
+     *
+     * @return HttpClientBuilder
+     */
+    private HttpClientBuilder buildHttpClient() {
+        CredentialsProvider credsProvider = new BasicCredentialsProvider();
+        credsProvider.setCredentials(new AuthScope(proxy), new UsernamePasswordCredentials(USER, PASS));
+        return HttpClientBuilder.create().setProxy(proxy)
+                .setConnectionReuseStrategy(NoConnectionReuseStrategy.INSTANCE)
+                .setDefaultCredentialsProvider(credsProvider)
+                .setProxyAuthenticationStrategy(new ProxyAuthenticationStrategy());
+    }
+
+    private void executeRequests(CloseableHttpClient httpClient) throws IOException, URISyntaxException {
+        HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME)
+                .setHost(LOCALHOST).setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
+        for (int i = 0; i < REQUESTS; i++) {
+            try (CloseableHttpResponse httpResponse = httpClient.execute(httpUriRequest)) {
+                Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+                EntityUtils.consume(httpResponse.getEntity());
+            }
+        }
+    }
+
+    private ProxyAuthenticator getProxyAuthenticator() {
+        return new ProxyAuthenticator() {
+            @Override
+            public boolean authenticate(String user, String pass) {
+                verifications.incrementAndGet();
+                return user.equals(USER) && pass.equals(PASS);
+            }
+            @Override
+            public String getRealm() {
+                return null;
+            }
+        };
+    }
+
+}
@@ -1,5 +1,6 @@
 package edu.nyu;
 
+import net.jcip.annotations.NotThreadSafe;
 import org.apache.http.Header;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
@@ -8,16 +9,22 @@ import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.methods.RequestBuilder;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.impl.bootstrap.HttpServer;
 import org.apache.http.impl.bootstrap.ServerBootstrap;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.ProxyAuthenticationStrategy;
-import org.junit.After;
+import org.apache.http.util.EntityUtils;
+import org.junit.AfterClass;
 import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
 import org.junit.Test;
 import org.littleshoot.proxy.HttpProxyServer;
 import org.littleshoot.proxy.ProxyAuthenticator;
@@ -26,27 +33,53 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+// floods a rate-limited proxy and checks the rates clients got, so it runs once the parallel classes are done
+@NotThreadSafe
 public class ProxyHttpClientTest {
 
     private static final String HTTP_SCHEME = "http";
     private static final String LOCALHOST = "localhost";
-    private static final int PORT = 12345;
-    private static final int PROXY_PORT = 54321;
     private static final String ROOT_CONTEXT = "/";
     private static final String USER = "user";
     private static final String PASS = "pass";
+    private static final String NOISY_CLIENT = "127.0.0.2";
+    private static final String QUIET_CLIENT = "127.0.0.3";
+    private static final String SHORT_LIVED_CLIENTS = "127.0.1.";
+    private static final String LOOPBACK_ADDRESS = "127.0.0.1";
+    // HttpCore 4.4 has no constant for it
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final double CLIENT_RATE = 20;
+    private static final int BURST = 5;
+    private static final int NOISY_THREADS = 8;
+    private static final long FLOOD_MILLIS = 2000;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ProxyHttpClientTest.class);
 
-    private HttpProxyServer proxyHttpServer;
-    private HttpServer httpServer;
+    private static HttpProxyServer authenticatingProxyHttpServer;
 
-    @After
-    public void shutdown() {
-        proxyHttpServer.stop();
-        httpServer.stop();
+    @BeforeClass
+    public static void setup() {
+        authenticatingProxyHttpServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0).plusActivityTracker(new LoggingActivityTracker())
+                .withProxyAuthenticator(getProxyAuthenticator()).start();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        authenticatingProxyHttpServer.stop();
     }
 
     /**
@@ -57,20 +90,15 @@ public class ProxyHttpClientTest {
      */
     @Test
     public void testProxySimpleHttpGet() throws IOException, URISyntaxException {
-        // setup proxy server
-        proxyHttpServer = DefaultHttpProxyServer.bootstrap()
-                .withPort(PROXY_PORT).plusActivityTracker(new LoggingActivityTracker()).start();
-        // setup embedded server
-        httpServer = ServerBootstrap.bootstrap()
-                .setListenerPort(PORT)
-                .registerHandler(ROOT_CONTEXT, (req, resp, context) -> resp.setStatusCode(HttpStatus.SC_OK))
-                .create();
-        httpServer.start();
+        // shared proxy and embedded server
+        HttpProxyServer proxyHttpServer = SharedServers.proxy();
+        HttpServer httpServer = SharedServers.http();
 
         // setup HttpClient
-        HttpClient httpClient = HttpClientBuilder.create().setProxy(new HttpHost(LOCALHOST, PROXY_PORT)).build();
+        HttpClient httpClient = HttpClientBuilder.create()
+                .setProxy(new HttpHost(LOCALHOST, proxyHttpServer.getListenAddress().getPort())).build();
         HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME)
-                .setHost(LOCALHOST).setPort(PORT).setPath(ROOT_CONTEXT).build()).build();
+                .setHost(LOCALHOST).setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
         HttpResponse httpResponse = httpClient.execute(httpUriRequest);
         Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
     }
@@ -83,21 +111,13 @@ public class ProxyHttpClientTest {
      */
     @Test
     public void testProxyAuthenticationRequired() throws IOException, URISyntaxException {
-        // setup proxy server
-        proxyHttpServer = DefaultHttpProxyServer.bootstrap()
-                .withPort(PROXY_PORT).plusActivityTracker(new LoggingActivityTracker())
-                .withProxyAuthenticator(getProxyAuthenticator()).start();
-        // setup embedded server
-        httpServer = ServerBootstrap.bootstrap()
-                .setListenerPort(PORT)
-                .registerHandler(ROOT_CONTEXT, (req, resp, context) -> resp.setStatusCode(HttpStatus.SC_OK))
-                .create();
-        httpServer.start();
+        // shared embedded server
+        HttpServer httpServer = SharedServers.http();
 
         // setup HttpClient
-        HttpClient httpClient = HttpClientBuilder.create().setProxy(new HttpHost(LOCALHOST, PROXY_PORT)).build();
+        HttpClient httpClient = HttpClientBuilder.create().setProxy(proxyHost()).build();
         HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME)
-                .setHost(LOCALHOST).setPort(PORT).setPath(ROOT_CONTEXT).build()).build();
+                .setHost(LOCALHOST).setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
         HttpResponse httpResponse = httpClient.execute(httpUriRequest);
         Assert.assertEquals(HttpStatus.SC_PROXY_AUTHENTICATION_REQUIRED, httpResponse.getStatusLine().getStatusCode());
     }
@@ -110,13 +130,9 @@ public class ProxyHttpClientTest {
      */
     @Test
     public void testProxyAuthenticationSuccess() throws IOException, URISyntaxException {
-        // setup proxy server
-        proxyHttpServer = DefaultHttpProxyServer.bootstrap()
-                .withPort(PROXY_PORT).plusActivityTracker(new LoggingActivityTracker())
-                .withProxyAuthenticator(getProxyAuthenticator()).start();
         // setup embedded server
-        httpServer = ServerBootstrap.bootstrap()
-                .setListenerPort(PORT)
+        HttpServer httpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
                 .registerHandler(ROOT_CONTEXT, (req, resp, context) -> {
                     for (Header h : req.getAllHeaders()) {
                         // log the request headers to prove that Proxy-Authorization header isn't leaked
@@ -131,18 +147,242 @@ public class ProxyHttpClientTest {
         // setup HttpClient
         // https://stackoverflow.com/questions/6962047/apache-httpclient-4-1-proxy-authentication
         CredentialsProvider credsProvider = new BasicCredentialsProvider();
-        credsProvider.setCredentials(new AuthScope(LOCALHOST, PROXY_PORT),
-                new UsernamePasswordCredentials(USER, PASS));
-        HttpClient httpClient = HttpClientBuilder.create().setProxy(new HttpHost(LOCALHOST, PROXY_PORT))
+        credsProvider.setCredentials(new AuthScope(proxyHost()), new UsernamePasswordCredentials(USER, PASS));
+        HttpClient httpClient = HttpClientBuilder.create().setProxy(proxyHost())
                 .setDefaultCredentialsProvider(credsProvider)
                 .setProxyAuthenticationStrategy(new ProxyAuthenticationStrategy()).build();
         HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME)
-                .setHost(LOCALHOST).setPort(PORT).setPath(ROOT_CONTEXT).build()).build();
-        HttpResponse httpResponse = httpClient.execute(httpUriRequest);
-        Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+                .setHost(LOCALHOST).setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
+        try {
+            HttpResponse httpResponse = httpClient.execute(httpUriRequest);
+            Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+        } finally {
+            httpServer.stop();
+        }
+    }
+
+    /**
+     * Test confirming a client flooding the proxy over many connections is held to its rate, while a quiet client
+     * behind the same proxy still gets its full share
+     *
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    @Test
+    public void testRateLimitSharesProxyFairly() throws IOException, InterruptedException, ExecutionException {
+        assumeBindable(NOISY_CLIENT);
+        assumeBindable(QUIET_CLIENT);
+        RateLimitingFiltersSource rateLimiter = new RateLimitingFiltersSource(CLIENT_RATE, BURST, 0, 1);
+        HttpProxyServer proxyHttpServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0).withFiltersSource(rateLimiter).start();
+        ExecutorService executorService = Executors.newFixedThreadPool(2);
+        long start = System.nanoTime();
+        try {
+            Future<Integer> noisy = executorService.submit(() -> flood(proxyHttpServer, NOISY_CLIENT, NOISY_THREADS));
+            Future<Integer> quiet = executorService.submit(() -> flood(proxyHttpServer, QUIET_CLIENT, 1));
+            LOGGER.info("Noisy client got {} responses, quiet client {}, {} pauses", noisy.get(), quiet.get(),
+                    rateLimiter.getPaused());
+            // a token per interval, the burst, and what each connection can get ahead of the rate
+            Assert.assertTrue(noisy.get() <= maxResponses(CLIENT_RATE, NOISY_THREADS, start));
+            Assert.assertTrue(quiet.get() >= 0.8 * CLIENT_RATE * FLOOD_MILLIS / 1000);
+            Assert.assertTrue(rateLimiter.getPaused() > 0);
+            Assert.assertEquals(0, rateLimiter.getRejected());
+            Assert.assertEquals(2, rateLimiter.getClientBuckets());
+        } finally {
+            executorService.shutdown();
+            proxyHttpServer.stop();
+        }
+    }
+
+    /**
+     * Test confirming the proxy holds requests to one upstream to its rate, even when the client may send more
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testUpstreamRateLimit() throws IOException, InterruptedException {
+        RateLimitingFiltersSource rateLimiter = new RateLimitingFiltersSource(0, 1, CLIENT_RATE, BURST);
+        HttpProxyServer proxyHttpServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0).withFiltersSource(rateLimiter).start();
+        try {
+            long start = System.nanoTime();
+            int responses = flood(proxyHttpServer, null, NOISY_THREADS);
+            LOGGER.info("Client got {} responses, {} pauses", responses, rateLimiter.getPaused());
+            Assert.assertTrue(responses <= maxResponses(CLIENT_RATE, NOISY_THREADS, start));
+            Assert.assertTrue(responses >= 0.8 * CLIENT_RATE * FLOOD_MILLIS / 1000);
+            Assert.assertEquals(0, rateLimiter.getClientBuckets());
+            Assert.assertEquals(1, rateLimiter.getUpstreamBuckets());
+        } finally {
+            proxyHttpServer.stop();
+        }
+    }
+
+    /**
+     * Test confirming a request the upstream's bucket turns away gives the client its token back
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testUpstreamRejectionRefundsClientToken() throws IOException, URISyntaxException {
+        // a token every 100 s and no waiting, so only the bursts count
+        RateLimitingFiltersSource rateLimiter = new RateLimitingFiltersSource(0.01, 2, 0.01, 1,
+                RateLimitingFiltersSource.DEFAULT_MAX_BUCKETS, 0);
+        HttpProxyServer proxyHttpServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0).withFiltersSource(rateLimiter).start();
+        try (CloseableHttpClient httpClient = rateLimitedClient(proxyHttpServer, null, 1)) {
+            Assert.assertEquals(HttpStatus.SC_OK, status(httpClient, sharedServerRequest()));
+            Assert.assertEquals(TOO_MANY_REQUESTS, status(httpClient, sharedServerRequest()));
+            // the same server under another name is another upstream, the client's second token is still there
+            HttpUriRequest otherUpstream = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME)
+                    .setHost(LOOPBACK_ADDRESS).setPort(SharedServers.http().getLocalPort()).setPath(ROOT_CONTEXT)
+                    .build()).build();
+            Assert.assertEquals(HttpStatus.SC_OK, status(httpClient, otherUpstream));
+            Assert.assertEquals(1, rateLimiter.getRejected());
+        } finally {
+            proxyHttpServer.stop();
+        }
+    }
+
+    /**
+     * Test confirming a flood stays in the client's sockets rather than in the proxy, which only reads the requests
+     * it lets through, and that the buckets of many short-lived clients don't pile up
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testFloodKeepsProxyMemoryBounded() throws IOException, InterruptedException, URISyntaxException {
+        int threads = 32;
+        int maxBuckets = 16;
+        assumeBindable(NOISY_CLIENT);
+        for (int i = 1; i <= 4 * maxBuckets; i++) {
+            assumeBindable(SHORT_LIVED_CLIENTS + i);
+        }
+        RateLimitingFiltersSource rateLimiter = new RateLimitingFiltersSource(CLIENT_RATE, BURST, 0, 1, maxBuckets,
+                RateLimitingFiltersSource.DEFAULT_MAX_WAIT_MILLIS);
+        MetricsActivityTracker activityTracker = new MetricsActivityTracker();
+        HttpProxyServer proxyHttpServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0).withFiltersSource(rateLimiter).plusActivityTracker(activityTracker).start();
+        try {
+            long start = System.nanoTime();
+            int responses = flood(proxyHttpServer, NOISY_CLIENT, threads);
+            long maxResponses = maxResponses(CLIENT_RATE, threads, start);
+            long requestsReceived = activityTracker.snapshot().getRequestsReceived();
+            LOGGER.info("Flood got {} responses, proxy received {} requests, at most {} allowed", responses,
+                    requestsReceived, maxResponses);
+            // the requests received never run ahead of the rate, nothing was queued inside the proxy
+            Assert.assertTrue(requestsReceived <= maxResponses);
+            Assert.assertTrue(responses <= maxResponses);
+
+            // one request from each of many addresses, every bucket is full again a few intervals later
+            for (int i = 1; i <= 4 * maxBuckets; i++) {
+                String localAddress = SHORT_LIVED_CLIENTS + i;
+                try (CloseableHttpClient httpClient = rateLimitedClient(proxyHttpServer, localAddress, 1);
+                     CloseableHttpResponse httpResponse = httpClient.execute(sharedServerRequest())) {
+                    Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+                }
+            }
+            Assert.assertTrue(rateLimiter.getClientBuckets() <= maxBuckets);
+        } finally {
+            proxyHttpServer.stop();
+        }
+    }
+
+    /**
+     * Sends requests to the shared server from {@code threads} connections for {@link #FLOOD_MILLIS}
+     *
+     * @return responses with status 200
+     */
+    private static int flood(HttpProxyServer proxyHttpServer, String localAddress, int threads)
+            throws IOException, InterruptedException {
+        AtomicInteger responses = new AtomicInteger();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLOOD_MILLIS);
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try (CloseableHttpClient httpClient = rateLimitedClient(proxyHttpServer, localAddress, threads)) {
+            HttpUriRequest httpUriRequest = sharedServerRequest();
+            for (int i = 0; i < threads; i++) {
+                executorService.execute(() -> {
+                    while (System.nanoTime() - deadline < 0) {
+                        try (CloseableHttpResponse httpResponse = httpClient.execute(httpUriRequest)) {
+                            EntityUtils.consume(httpResponse.getEntity());
+                            // responses completing past the deadline were sent within it, so they count
+                            if (httpResponse.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
+                                responses.incrementAndGet();
+                            }
+                        } catch (IOException e) {
+                            LOGGER.warn("Flood request failed", e);
+                        }
+                    }
+                });
+            }
+            executorService.shutdown();
+            Assert.assertTrue(executorService.awaitTermination(FLOOD_MILLIS * 5, TimeUnit.MILLISECONDS));
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+        return responses.get();
+    }
+
+    /**
+     * @param localAddress address the proxy tells the client apart by, null to leave it to the system
+     */
+    private static CloseableHttpClient rateLimitedClient(HttpProxyServer proxyHttpServer, String localAddress,
+                                                         int connections) throws UnknownHostException {
+        return HttpClientBuilder.create()
+                .setProxy(new HttpHost(LOCALHOST, proxyHttpServer.getListenAddress().getPort()))
+                .setMaxConnPerRoute(connections).setMaxConnTotal(connections)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setLocalAddress(localAddress == null ? null : InetAddress.getByName(localAddress)).build())
+                .build();
+    }
+
+    /**
+     * Skips the test unless a socket can be bound to the address, only some systems route all of 127.0.0.0/8 to
+     * loopback, on others 127.0.0.1 is the only one
+     */
+    private static void assumeBindable(String localAddress) throws IOException {
+        boolean bound;
+        try (Socket socket = new Socket()) {
+            socket.bind(new InetSocketAddress(InetAddress.getByName(localAddress), 0));
+            bound = true;
+        } catch (BindException e) {
+            bound = false;
+        }
+        Assume.assumeTrue("Cannot bind " + localAddress, bound);
+    }
+
+    private static int status(CloseableHttpClient httpClient, HttpUriRequest httpUriRequest) throws IOException {
+        try (CloseableHttpResponse httpResponse = httpClient.execute(httpUriRequest)) {
+            EntityUtils.consume(httpResponse.getEntity());
+            return httpResponse.getStatusLine().getStatusCode();
+        }
+    }
+
+    private static HttpUriRequest sharedServerRequest() throws IOException, URISyntaxException {
+        return RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME).setHost(LOCALHOST)
+                .setPort(SharedServers.http().getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
+    }
+
+    /**
+     * Each connection may have borrowed a token one interval ahead of the others when the flood ends, and still have
+     * a request in flight that the proxy reads once the pause is over. The bucket refills for as long as the flood
+     * really ran, which on a busy machine is longer than {@link #FLOOD_MILLIS}.
+     *
+     * @param startNanos {@link System#nanoTime()} before the flood started
+     */
+    private static long maxResponses(double rate, int connections, long startNanos) {
+        long elapsedNanos = System.nanoTime() - startNanos;
+        return (long) (rate * elapsedNanos / TimeUnit.SECONDS.toNanos(1)) + BURST + 2 * connections;
+    }
+
+    private static HttpHost proxyHost() {
+        return new HttpHost(LOCALHOST, authenticatingProxyHttpServer.getListenAddress().getPort());
     }
 
-    private ProxyAuthenticator getProxyAuthenticator() {
+    private static ProxyAuthenticator getProxyAuthenticator() {
         return new ProxyAuthenticator() {
             @Override
             public boolean authenticate(String user, String pass) {
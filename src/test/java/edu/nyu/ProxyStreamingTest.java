@@ -0,0 +1,288 @@
+package edu.nyu;
+
+import net.jcip.annotations.NotThreadSafe;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Pushes large request and response bodies through {@link DefaultHttpProxyServer} and checks nothing along the way
+ * holds a whole message.
+ * <p>
+ * Bodies are 256 MB by default, {@code -Dstreaming.size=4g} runs the multi-gigabyte case; pick a size over the heap
+ * to make an aggregating proxy fail outright. Wire logging is switched off for the duration, it would write every
+ * byte twice.
+ */
+// measures heap and direct memory of the whole JVM, so it runs once the parallel classes are done
+@NotThreadSafe
+public class ProxyStreamingTest {
+
+    private static final String HTTP_SCHEME = "http";
+    private static final String LOCALHOST = "localhost";
+    private static final String DOWNLOAD_CONTEXT = "/download/*";
+    private static final String UPLOAD_CONTEXT = "/upload";
+    private static final String CHUNKED = "chunked";
+    private static final String WIRE_LOGGER = "org.apache.http.wire";
+    private static final long SIZE = parseSize(System.getProperty("streaming.size", "256m"));
+    // memory that may be held across the transfer, whatever the body size
+    private static final long MAX_RETAINED = 64L * 1024 * 1024;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyStreamingTest.class);
+
+    private static Level wireLevel;
+
+    private HttpServer httpServer;
+    private HttpProxyServer proxyHttpServer;
+
+    @BeforeClass
+    public static void silenceWire() {
+        wireLevel = LogManager.getLogger(WIRE_LOGGER).getLevel();
+        Configurator.setLevel(WIRE_LOGGER, Level.OFF);
+    }
+
+    @AfterClass
+    public static void restoreWire() {
+        Configurator.setLevel(WIRE_LOGGER, wireLevel);
+    }
+
+    @Before
+    public void setup() throws IOException {
+        // generator server: produces bodies on the fly and reads uploads to their end without keeping them
+        httpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler(DOWNLOAD_CONTEXT, (req, resp, context) -> {
+                    resp.setStatusCode(HttpStatus.SC_OK);
+                    resp.setEntity(new GeneratedEntity(SIZE, req.getRequestLine().getUri().endsWith(CHUNKED)));
+                })
+                .registerHandler(UPLOAD_CONTEXT, (req, resp, context) -> {
+                    long received = GeneratedEntity.consume(((HttpEntityEnclosingRequest) req).getEntity()
+                            .getContent());
+                    resp.setStatusCode(HttpStatus.SC_OK);
+                    resp.setEntity(new StringEntity(Long.toString(received)));
+                })
+                .create();
+        httpServer.start();
+        proxyHttpServer = DefaultHttpProxyServer.bootstrap().withPort(0).start();
+    }
+
+    @After
+    public void shutdown() {
+        proxyHttpServer.stop();
+        httpServer.stop();
+    }
+
+    /**
+     * Test confirming a response with Content-Length is streamed through the proxy
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testDownloadContentLength() throws IOException, URISyntaxException {
+        download("/download/length");
+    }
+
+    /**
+     * Test confirming a chunked response is streamed through the proxy
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testDownloadChunked() throws IOException, URISyntaxException {
+        download("/download/" + CHUNKED);
+    }
+
+    /**
+     * Test confirming a request body with Content-Length is streamed through the proxy
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testUploadContentLength() throws IOException, URISyntaxException {
+        upload(false);
+    }
+
+    /**
+     * Test confirming a chunked request body is streamed through the proxy
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testUploadChunked() throws IOException, URISyntaxException {
+        upload(true);
+    }
+
+    private void download(String path) throws IOException, URISyntaxException {
+        HttpUriRequest httpUriRequest = RequestBuilder.get(uri(path)).build();
+        try (CloseableHttpClient httpClient = client(); MemoryWatermark watermark = new MemoryWatermark()) {
+            long start = System.nanoTime();
+            try (CloseableHttpResponse httpResponse = httpClient.execute(httpUriRequest)) {
+                Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+                Assert.assertEquals(SIZE, GeneratedEntity.consume(httpResponse.getEntity().getContent()));
+            }
+            report(path, System.nanoTime() - start, watermark);
+        }
+    }
+
+    private void upload(boolean chunked) throws IOException, URISyntaxException {
+        HttpUriRequest httpUriRequest = RequestBuilder.post(uri(UPLOAD_CONTEXT))
+                .setEntity(new GeneratedEntity(SIZE, chunked)).build();
+        try (CloseableHttpClient httpClient = client(); MemoryWatermark watermark = new MemoryWatermark()) {
+            long start = System.nanoTime();
+            try (CloseableHttpResponse httpResponse = httpClient.execute(httpUriRequest)) {
+                Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+                Assert.assertEquals(Long.toString(SIZE), EntityUtils.toString(httpResponse.getEntity()));
+            }
+            report(chunked ? "upload chunked" : "upload length", System.nanoTime() - start, watermark);
+        }
+    }
+
+    private CloseableHttpClient client() {
+        return HttpClientBuilder.create()
+                .setProxy(new HttpHost(LOCALHOST, proxyHttpServer.getListenAddress().getPort())).build();
+    }
+
+    private URI uri(String path) throws URISyntaxException {
+        return new URIBuilder().setScheme(HTTP_SCHEME).setHost(LOCALHOST).setPort(httpServer.getLocalPort())
+                .setPath(path).build();
+    }
+
+    private static void report(String name, long elapsedNanos, MemoryWatermark watermark) {
+        double seconds = elapsedNanos / 1e9;
+        LOGGER.info("{}: {} MB in {} s, {} MB/s, heap +{} MB, direct +{} MB", name, SIZE >> 20,
+                String.format("%.2f", seconds), String.format("%.1f", (SIZE >> 20) / seconds),
+                watermark.getHeapGrowth() >> 20, watermark.getDirectGrowth() >> 20);
+        Assert.assertTrue("Heap grew by " + watermark.getHeapGrowth(), watermark.getHeapGrowth() < MAX_RETAINED);
+        Assert.assertTrue("Direct memory grew by " + watermark.getDirectGrowth(),
+                watermark.getDirectGrowth() < MAX_RETAINED);
+    }
+
+    private static long parseSize(String size) {
+        String value = size.trim().toLowerCase();
+        int shift = 0;
+        switch (value.charAt(value.length() - 1)) {
+            case 'g':
+                shift = 30;
+                break;
+            case 'm':
+                shift = 20;
+                break;
+            case 'k':
+                shift = 10;
+                break;
+            default:
+                return Long.parseLong(value);
+        }
+        return Long.parseLong(value.substring(0, value.length() - 1)) << shift;
+    }
+
+    /**
+     * Highest heap and direct memory use seen while open, relative to when it was opened.
+     * <p>
+     * Heap is what the collector left in use after its latest collection of each pool, so it measures what is retained
+     * rather than how much garbage the transfer leaves behind. Only the baseline forces a collection, the transfer runs
+     * with the collections it causes by itself.
+     */
+    private static class MemoryWatermark implements Closeable {
+
+        private static final long INTERVAL_MILLIS = 100;
+
+        private final BufferPoolMXBean directPool = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)
+                .stream().filter(pool -> "direct".equals(pool.getName())).findFirst().get();
+        private final List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP && pool.getCollectionUsage() != null)
+                .collect(Collectors.toList());
+        private final long heapBaseline;
+        private final long directBaseline;
+        private final Thread sampler;
+        private volatile long heapPeak;
+        private volatile long directPeak;
+
+        private MemoryWatermark() {
+            System.gc();
+            heapBaseline = heapAfterGc();
+            directBaseline = directPool.getMemoryUsed();
+            heapPeak = heapBaseline;
+            directPeak = directBaseline;
+            sampler = new Thread(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    sample();
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }, "memory-watermark");
+            sampler.setDaemon(true);
+            sampler.start();
+        }
+
+        private void sample() {
+            heapPeak = Math.max(heapPeak, heapAfterGc());
+            directPeak = Math.max(directPeak, directPool.getMemoryUsed());
+        }
+
+        private long heapAfterGc() {
+            return heapPools.stream().mapToLong(pool -> pool.getCollectionUsage().getUsed()).sum();
+        }
+
+        long getHeapGrowth() {
+            return heapPeak - heapBaseline;
+        }
+
+        long getDirectGrowth() {
+            return directPeak - directBaseline;
+        }
+
+        @Override
+        public void close() {
+            sampler.interrupt();
+            try {
+                sampler.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+    }
+
+}
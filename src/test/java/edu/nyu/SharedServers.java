@@ -0,0 +1,119 @@
+package edu.nyu;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.FileEntity;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Embedded servers shared by every test class in the JVM, started on first use and stopped when the JVM exits.
+ * <p>
+ * Only stateless servers are shared, the HTTP and HTTPS ones answer 200 on every path and the proxy forwards
+ * anything, so test classes running in parallel can't see each other through them. Tests needing handlers of their
+ * own start a server with {@code setListenerPort(0)} and ask it for {@code getLocalPort()}. The CRL server is the one
+ * fixed port left: the localhost certificate bakes {@value #CRL_PORT} into its CRL distribution point.
+ */
+final class SharedServers {
+
+    static final int CRL_PORT = 54321;
+    private static final String KEYSTORE_PASS = "changeit";
+    private static final String ROOT_CONTEXT = "/";
+
+    private static HttpServer httpServer;
+    private static HttpServer httpsServer;
+    private static HttpServer crlServer;
+    private static HttpProxyServer proxyServer;
+    private static final AtomicInteger crlFetches = new AtomicInteger();
+
+    private SharedServers() {
+    }
+
+    /**
+     * @return server answering 200 to any request, on an ephemeral port
+     * @throws IOException
+     */
+    static synchronized HttpServer http() throws IOException {
+        if (httpServer == null) {
+            httpServer = start(ServerBootstrap.bootstrap()
+                    .setListenerPort(0)
+                    .registerHandler(ROOT_CONTEXT + "*", (req, resp, ctx) -> resp.setStatusCode(HttpStatus.SC_OK)));
+        }
+        return httpServer;
+    }
+
+    /**
+     * @return server answering 200 to any request over TLS with the localhost certificate, on an ephemeral port
+     * @throws IOException
+     * @throws GeneralSecurityException
+     */
+    static synchronized HttpServer https() throws IOException, GeneralSecurityException {
+        if (httpsServer == null) {
+            httpsServer = start(ServerBootstrap.bootstrap()
+                    .setSslContext(SslContextFactory.getDefault().getKeyStoreSslContext(
+                            SharedServers.class.getResource("/keystore.jks"),
+                            KEYSTORE_PASS.toCharArray(), KEYSTORE_PASS.toCharArray()))
+                    .setListenerPort(0)
+                    .registerHandler(ROOT_CONTEXT + "*", (req, resp, ctx) -> resp.setStatusCode(HttpStatus.SC_OK)));
+        }
+        return httpsServer;
+    }
+
+    /**
+     * Starts the server for the /ca/ca.crl file where we revoked our localhost cert in src/test/resources
+     *
+     * @return server on {@link #CRL_PORT}
+     * @throws IOException
+     */
+    static synchronized HttpServer crl() throws IOException {
+        if (crlServer == null) {
+            File crlFile;
+            try {
+                crlFile = new File(SharedServers.class.getResource("/ca/ca.crl").toURI());
+            } catch (URISyntaxException e) {
+                throw new IOException("Issue loading /ca/ca.crl file from classpath", e);
+            }
+            crlServer = start(ReusableServerSocketFactory.configure(ServerBootstrap.bootstrap())
+                    .setListenerPort(CRL_PORT)
+                    .registerHandler("/ca.crl", (req, resp, ctx) -> {
+                        crlFetches.incrementAndGet();
+                        resp.setEntity(new FileEntity(crlFile));
+                    }));
+        }
+        return crlServer;
+    }
+
+    /**
+     * @return times the CRL has been downloaded, by any test
+     */
+    static int getCrlFetches() {
+        return crlFetches.get();
+    }
+
+    /**
+     * @return LittleProxy instance without authentication, on an ephemeral port
+     */
+    static synchronized HttpProxyServer proxy() {
+        if (proxyServer == null) {
+            proxyServer = DefaultHttpProxyServer.bootstrap()
+                    .withPort(0).plusActivityTracker(new LoggingActivityTracker()).start();
+            Runtime.getRuntime().addShutdownHook(new Thread(proxyServer::stop));
+        }
+        return proxyServer;
+    }
+
+    private static HttpServer start(ServerBootstrap serverBootstrap) throws IOException {
+        HttpServer server = serverBootstrap.create();
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        return server;
+    }
+
+}
@@ -1,23 +1,17 @@
 package edu.nyu;
 
+import net.jcip.annotations.NotThreadSafe;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.methods.RequestBuilder;
 import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.entity.FileEntity;
 import org.apache.http.impl.bootstrap.HttpServer;
-import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.protocol.HttpRequestHandler;
-import org.apache.http.ssl.SSLContextBuilder;
-import org.junit.After;
-import org.junit.AfterClass;
 import org.junit.Assert;import org.junit.BeforeClass;
 import org.junit.Test;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import sun.security.validator.ValidatorException;
 
 import javax.net.ssl.CertPathTrustManagerParameters;
@@ -29,99 +23,49 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.KeyManagementException;
+import java.security.GeneralSecurityException;
 import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.UnrecoverableKeyException;
 import java.security.cert.CertPathBuilder;
 import java.security.cert.CertPathValidatorException;
-import java.security.cert.CertificateException;
 import java.security.cert.PKIXBuilderParameters;
 import java.security.cert.PKIXRevocationChecker;
 import java.security.cert.X509CertSelector;
 import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
 
+// counts downloads of the CRL every class shares, so it runs once the parallel classes are done
+@NotThreadSafe
 public class SslHttpClientTest {
 
     private static final String HTTPS_SCHEME = "https";
     private static final String LOCALHOST = "localhost";
-    private static final int PORT = 12345;
-    private static final int CRL_PORT = 54321;
     private static final String KEYSTORE_PASS = "changeit";
     private static final String ROOT_CONTEXT = "/";
 
-    private HttpServer httpServer;
-    private static HttpServer crlHttpServer;
-
-    private static final Logger LOGGER = LoggerFactory.getLogger(SslHttpClientTest.class);
-
     @BeforeClass
     public static void setup() throws IOException {
-        crlHttpServer = ServerBootstrap.bootstrap()
-                .setListenerPort(CRL_PORT)
-                .registerHandler("/ca.crl", getCrlRequestHandler()).create();
-        crlHttpServer.start();
-    }
-
-    /**
-     * Returns the content of the /ca/ca.crl file where we revoked our localhost cert in src/test/resources
-     *
-     * @return HttpRequestHandler
-     */
-    private static HttpRequestHandler getCrlRequestHandler() {
-        return (req, resp, ctx) -> {
-            try {
-                LOGGER.info("Request made for /ca/ca.crl file");
-                resp.setEntity(new FileEntity(
-                        new File(SslHttpClientTest.class.getResource("/ca/ca.crl").toURI())));
-            } catch (URISyntaxException e) {
-                LOGGER.error("Issue loading /ca/ca.crl file from classpath", e);
-                Assert.fail();
-            }
-        };
-    }
-
-    @AfterClass
-    public static void teardown() {
-        crlHttpServer.stop();
-    }
-
-    @After
-    public void shutdown() {
-        httpServer.stop();
+        SharedServers.crl();
     }
 
     /**
      * Test confirming simple HTTPS GET goes through
      *
-     * @throws UnrecoverableKeyException
-     * @throws CertificateException
-     * @throws NoSuchAlgorithmException
-     * @throws KeyStoreException
      * @throws IOException
-     * @throws KeyManagementException
+     * @throws GeneralSecurityException
      * @throws URISyntaxException
      */
     // https://stackoverflow.com/questions/32618108/example-of-using-ssl-with-org-apache-http-impl-bootstrap-httpserver-from-apache
     @Test
-    public void testSimpleHttpsGet() throws UnrecoverableKeyException, CertificateException, NoSuchAlgorithmException,
-            KeyStoreException, IOException, KeyManagementException, URISyntaxException {
-        // setup embedded server
-        httpServer = ServerBootstrap.bootstrap()
-                .setSslContext(buildKeyStoreSslContext())
-                .setListenerPort(PORT)
-                .registerHandler(ROOT_CONTEXT, (req, resp, ctx) -> resp.setStatusCode(HttpStatus.SC_OK))
-                .create();
-        httpServer.start();
+    public void testSimpleHttpsGet() throws IOException, GeneralSecurityException, URISyntaxException {
+        // shared embedded server
+        HttpServer httpServer = SharedServers.https();
 
         // setup HttpClient
         HttpClient httpClient = HttpClientBuilder.create()
                 .setSSLContext(buildTrustStoreSslContext())
                 .build();
         HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTPS_SCHEME)
-                .setHost(LOCALHOST).setPort(PORT).setPath(ROOT_CONTEXT).build()).build();
+                .setHost(LOCALHOST).setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
         HttpResponse httpResponse = httpClient.execute(httpUriRequest);
         Assert.assertEquals(httpResponse.getStatusLine().getStatusCode(), HttpStatus.SC_OK);
     }
@@ -129,27 +73,15 @@ public class SslHttpClientTest {
     /**
      * Test confirming that CRL is checked correctly when enabled
      *
-     * @throws UnrecoverableKeyException
-     * @throws CertificateException
-     * @throws NoSuchAlgorithmException
-     * @throws KeyStoreException
      * @throws IOException
-     * @throws KeyManagementException
+     * @throws GeneralSecurityException
      * @throws URISyntaxException
-     * @throws InvalidAlgorithmParameterException
      */
     // TODO find a better way to run this with -Djavax.net.debug=all
     @Test
-    public void testCrlCheck() throws UnrecoverableKeyException, CertificateException, NoSuchAlgorithmException,
-            KeyStoreException, IOException, KeyManagementException, URISyntaxException,
-            InvalidAlgorithmParameterException {
-        // setup embedded server
-        httpServer = ServerBootstrap.bootstrap()
-                .setSslContext(buildKeyStoreSslContext())
-                .setListenerPort(PORT)
-                .registerHandler(ROOT_CONTEXT, (req, resp, ctx) -> resp.setStatusCode(HttpStatus.SC_OK))
-                .create();
-        httpServer.start();
+    public void testCrlCheck() throws IOException, GeneralSecurityException, URISyntaxException {
+        // shared embedded server
+        HttpServer httpServer = SharedServers.https();
 
         // SSLContext setup from https://stackoverflow.com/questions/38301283/java-ssl-certificate-revocation-checking
         KeyStore ts = KeyStore.getInstance("JKS");
@@ -177,7 +109,7 @@ public class SslHttpClientTest {
                 .setSSLContext(ctx)
                 .build();
         HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTPS_SCHEME)
-                .setHost(LOCALHOST).setPort(PORT).setPath(ROOT_CONTEXT).build()).build();
+                .setHost(LOCALHOST).setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
         try {
             httpClient.execute(httpUriRequest);
             Assert.fail();
@@ -192,38 +124,117 @@ public class SslHttpClientTest {
     }
 
     /**
-     * Builds the keystore which is used by the mock server
+     * Test confirming the caching revocation checker downloads the CRL once for any number of handshakes
      *
-     * @return SSLContext
-     * @throws UnrecoverableKeyException
-     * @throws CertificateException
-     * @throws NoSuchAlgorithmException
-     * @throws KeyStoreException
      * @throws IOException
-     * @throws KeyManagementException
+     * @throws GeneralSecurityException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testCrlCachedAcrossHandshakes() throws IOException, GeneralSecurityException, URISyntaxException {
+        int fetchesBefore = SharedServers.getCrlFetches();
+        try (CachingCrlRevocationChecker checker = newCachingChecker(1, TimeUnit.HOURS)) {
+            for (int i = 0; i < 5; i++) {
+                assertRevoked(checker);
+            }
+            Assert.assertEquals(1, checker.getFetches());
+        }
+        Assert.assertEquals(1, SharedServers.getCrlFetches() - fetchesBefore);
+    }
+
+    /**
+     * Test confirming the cached CRL is refreshed in the background and keeps being used in the meantime
+     *
+     * @throws IOException
+     * @throws GeneralSecurityException
+     * @throws URISyntaxException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testCrlRefreshedInBackground() throws IOException, GeneralSecurityException, URISyntaxException,
+            InterruptedException {
+        int fetchesBefore = SharedServers.getCrlFetches();
+        try (CachingCrlRevocationChecker checker = newCachingChecker(300, TimeUnit.MILLISECONDS)) {
+            assertRevoked(checker);
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while (checker.getFetches() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            Assert.assertTrue(checker.getFetches() >= 3);
+            assertRevoked(checker);
+        }
+        Assert.assertTrue(SharedServers.getCrlFetches() - fetchesBefore >= 3);
+    }
+
+    /**
+     * Creates a hard failing caching checker trusting the CA of the keystore
+     *
+     * @param maxAge
+     * @param unit
+     * @return CachingCrlRevocationChecker
+     * @throws IOException
+     * @throws GeneralSecurityException
+     * @throws URISyntaxException
+     */
+    private CachingCrlRevocationChecker newCachingChecker(long maxAge, TimeUnit unit) throws IOException,
+            GeneralSecurityException, URISyntaxException {
+        KeyStore ts = KeyStore.getInstance("JKS");
+        try (FileInputStream tfis = new FileInputStream(
+                new File(this.getClass().getResource("/keystore.jks").toURI()))) {
+            ts.load(tfis, KEYSTORE_PASS.toCharArray());
+        }
+        PKIXBuilderParameters pkixParams = new PKIXBuilderParameters(ts, new X509CertSelector());
+        return new CachingCrlRevocationChecker(pkixParams.getTrustAnchors(), false, maxAge, unit);
+    }
+
+    /**
+     * Runs a handshake with a new client and context that checks revocation with the given checker
+     *
+     * @param checker
+     * @throws IOException
+     * @throws GeneralSecurityException
+     * @throws URISyntaxException
      */
-    private SSLContext buildKeyStoreSslContext() throws UnrecoverableKeyException, CertificateException,
-            NoSuchAlgorithmException, KeyStoreException, IOException, KeyManagementException {
-        return SSLContextBuilder.create()
-                .loadKeyMaterial(this.getClass().getResource("/keystore.jks"),
-                        KEYSTORE_PASS.toCharArray(), KEYSTORE_PASS.toCharArray()).build();
+    private void assertRevoked(CachingCrlRevocationChecker checker) throws IOException, GeneralSecurityException,
+            URISyntaxException {
+        KeyStore ts = KeyStore.getInstance("JKS");
+        try (FileInputStream tfis = new FileInputStream(
+                new File(this.getClass().getResource("/keystore.jks").toURI()))) {
+            ts.load(tfis, KEYSTORE_PASS.toCharArray());
+        }
+        PKIXBuilderParameters pkixParams = new PKIXBuilderParameters(ts, new X509CertSelector());
+        pkixParams.setRevocationEnabled(false);
+        pkixParams.addCertPathChecker(checker);
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(new CertPathTrustManagerParameters(pkixParams));
+        SSLContext ctx = SSLContext.getInstance("TLS");
+        ctx.init(null, tmf.getTrustManagers(), null);
+
+        try (CloseableHttpClient httpClient = HttpClientBuilder.create().setSSLContext(ctx).build()) {
+            HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTPS_SCHEME)
+                    .setHost(LOCALHOST).setPort(SharedServers.https().getLocalPort()).setPath(ROOT_CONTEXT).build())
+                    .build();
+            httpClient.execute(httpUriRequest);
+            Assert.fail();
+        } catch (SSLHandshakeException e) {
+            Assert.assertTrue(e.getCause() instanceof ValidatorException);
+            Assert.assertTrue(e.getCause().getCause() instanceof CertPathValidatorException);
+            CertPathValidatorException cause = (CertPathValidatorException) e.getCause().getCause();
+            Assert.assertEquals(CertPathValidatorException.BasicReason.REVOKED, cause.getReason());
+            Assert.assertTrue(cause.getLocalizedMessage().startsWith("Certificate has been revoked,"));
+        }
     }
 
     /**
-     * Builds the truststore which is used by the client
+     * Returns the truststore which is used by the client, shared so that its TLS sessions can be resumed
      *
      * @return SSLContext
-     * @throws NoSuchAlgorithmException
-     * @throws KeyStoreException
-     * @throws CertificateException
      * @throws IOException
-     * @throws KeyManagementException
+     * @throws GeneralSecurityException
      */
-    private SSLContext buildTrustStoreSslContext() throws NoSuchAlgorithmException, KeyStoreException,
-            CertificateException, IOException, KeyManagementException {
-        return SSLContextBuilder.create()
-                .loadTrustMaterial(this.getClass().getResource("/keystore.jks"),
-                        KEYSTORE_PASS.toCharArray()).build();
+    private SSLContext buildTrustStoreSslContext() throws IOException, GeneralSecurityException {
+        return SslContextFactory.getDefault().getTrustStoreSslContext(this.getClass().getResource("/keystore.jks"),
+                KEYSTORE_PASS.toCharArray());
     }
 
 }
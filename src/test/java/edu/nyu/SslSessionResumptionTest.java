@@ -0,0 +1,153 @@
+package edu.nyu;
+
+import net.jcip.annotations.NotThreadSafe;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.ssl.SSLContextBuilder;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+// counts the handshakes of one server, so it runs once the parallel classes are done
+@NotThreadSafe
+public class SslSessionResumptionTest {
+
+    private static final String HTTPS_SCHEME = "https";
+    private static final String LOCALHOST = "localhost";
+    private static final String KEYSTORE_PASS = "changeit";
+    private static final String ROOT_CONTEXT = "/";
+    private static final int CONNECTIONS = 10;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SslSessionResumptionTest.class);
+
+    private URL keyStore;
+    private HttpServer httpServer;
+
+    @Before
+    public void setup() throws IOException, GeneralSecurityException {
+        keyStore = this.getClass().getResource("/keystore.jks");
+        httpServer = ServerBootstrap.bootstrap()
+                .setSslContext(SslContextFactory.getDefault().getKeyStoreSslContext(keyStore,
+                        KEYSTORE_PASS.toCharArray(), KEYSTORE_PASS.toCharArray()))
+                .setListenerPort(0)
+                .registerHandler(ROOT_CONTEXT, (req, resp, ctx) -> resp.setStatusCode(HttpStatus.SC_OK))
+                .create();
+        httpServer.start();
+    }
+
+    @After
+    public void shutdown() {
+        httpServer.stop();
+    }
+
+    /**
+     * Test confirming new connections from a shared context resume the session of the first one
+     *
+     * @throws IOException
+     * @throws GeneralSecurityException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testSharedContextResumesSessions() throws IOException, GeneralSecurityException, URISyntaxException {
+        SslContextFactory sslContextFactory = new SslContextFactory(16, 60);
+        HandshakeTrackingSocketFactory socketFactory = new HandshakeTrackingSocketFactory(
+                sslContextFactory.getTrustStoreSslContext(keyStore, KEYSTORE_PASS.toCharArray()));
+        for (int i = 0; i < CONNECTIONS; i++) {
+            execute(socketFactory);
+        }
+        Assert.assertEquals(1, socketFactory.getFullHandshakes());
+        Assert.assertEquals(CONNECTIONS - 1, socketFactory.getResumedHandshakes());
+        // the same keystore has to come back as the same context, otherwise its sessions are lost
+        Assert.assertSame(sslContextFactory.getTrustStoreSslContext(keyStore, KEYSTORE_PASS.toCharArray()),
+                sslContextFactory.getTrustStoreSslContext(keyStore, KEYSTORE_PASS.toCharArray()));
+
+        // every handshake is timed as the kind it was counted as, the times themselves are only logged
+        Assert.assertEquals(1, socketFactory.getFullHandshakeTime().getCount());
+        Assert.assertEquals(CONNECTIONS - 1, socketFactory.getResumedHandshakeTime().getCount());
+        LOGGER.info("Full handshake {}, resumed handshakes {}",
+                socketFactory.getFullHandshakeTime().summary(TimeUnit.MICROSECONDS),
+                socketFactory.getResumedHandshakeTime().summary(TimeUnit.MICROSECONDS));
+    }
+
+    /**
+     * Test confirming a context per client, as the old test helpers built them, never resumes anything
+     *
+     * @throws IOException
+     * @throws GeneralSecurityException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testFreshContextsDoFullHandshakes() throws IOException, GeneralSecurityException,
+            URISyntaxException {
+        long full = 0;
+        long resumed = 0;
+        for (int i = 0; i < CONNECTIONS; i++) {
+            SSLContext sslContext = SSLContextBuilder.create()
+                    .loadTrustMaterial(keyStore, KEYSTORE_PASS.toCharArray()).build();
+            HandshakeTrackingSocketFactory socketFactory = new HandshakeTrackingSocketFactory(sslContext);
+            execute(socketFactory);
+            full += socketFactory.getFullHandshakes();
+            resumed += socketFactory.getResumedHandshakes();
+        }
+        Assert.assertEquals(CONNECTIONS, full);
+        Assert.assertEquals(0, resumed);
+    }
+
+    /**
+     * Test confirming cached sessions stop being offered once the configured timeout has passed
+     *
+     * @throws IOException
+     * @throws GeneralSecurityException
+     * @throws URISyntaxException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testSessionTimeout() throws IOException, GeneralSecurityException, URISyntaxException,
+            InterruptedException {
+        HandshakeTrackingSocketFactory socketFactory = new HandshakeTrackingSocketFactory(new SslContextFactory(16, 1)
+                .getTrustStoreSslContext(keyStore, KEYSTORE_PASS.toCharArray()));
+        execute(socketFactory);
+        execute(socketFactory);
+        Assert.assertEquals(1, socketFactory.getResumedHandshakes());
+        Thread.sleep(2000);
+        execute(socketFactory);
+        Assert.assertEquals(2, socketFactory.getFullHandshakes());
+        Assert.assertEquals(1, socketFactory.getResumedHandshakes());
+    }
+
+    /**
+     * Executes a single GET on a connection that is closed afterwards, so the next call has to handshake again
+     */
+    private void execute(HandshakeTrackingSocketFactory socketFactory) throws IOException, URISyntaxException {
+        try (CloseableHttpClient httpClient = HttpClientBuilder.create()
+                .setSSLSocketFactory(socketFactory)
+                .setConnectionReuseStrategy(NoConnectionReuseStrategy.INSTANCE)
+                .build()) {
+            HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTPS_SCHEME)
+                    .setHost(LOCALHOST).setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
+            HttpResponse httpResponse = httpClient.execute(httpUriRequest);
+            Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+            EntityUtils.consume(httpResponse.getEntity());
+        }
+    }
+
+}
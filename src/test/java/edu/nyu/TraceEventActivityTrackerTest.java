@@ -0,0 +1,175 @@
+package edu.nyu;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.SslEngineSource;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+public class TraceEventActivityTrackerTest {
+
+    private static final String HTTP_SCHEME = "http";
+    private static final String HTTPS_SCHEME = "https";
+    private static final String LOCALHOST = "localhost";
+    private static final String ROOT_CONTEXT = "/";
+    private static final String KEYSTORE_PASS = "changeit";
+    private static final long LATENCY_MILLIS = 100;
+    private static final int REQUESTS = 3;
+    private static final Pattern DURATION = Pattern.compile("\"dur\":([0-9.]+)");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final FaultyBackend backend = new FaultyBackend();
+    private HttpServer httpServer;
+    private Path trace;
+    private TraceEventActivityTracker activityTracker;
+
+    @Before
+    public void setup() throws IOException {
+        backend.setLatency(FaultyBackend.Latency.fixed(LATENCY_MILLIS)).setBodyLength(1024);
+        httpServer = backend.configure(ServerBootstrap.bootstrap().setListenerPort(0), null).create();
+        httpServer.start();
+        trace = temporaryFolder.newFile("trace.json").toPath();
+        activityTracker = new TraceEventActivityTracker(trace);
+    }
+
+    @After
+    public void shutdown() {
+        activityTracker.close();
+        httpServer.stop();
+    }
+
+    /**
+     * Test confirming each proxied exchange on a keep-alive connection gets its phases, and the upstream wait shows
+     * in the upstream span rather than in the proxy's
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     * @throws GeneralSecurityException
+     */
+    @Test
+    public void testPhasesOfProxiedExchanges() throws IOException, URISyntaxException, GeneralSecurityException {
+        HttpProxyServer proxyHttpServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0).plusActivityTracker(activityTracker).start();
+        try {
+            sendRequests(new HttpHost(LOCALHOST, proxyHttpServer.getListenAddress().getPort()));
+        } finally {
+            proxyHttpServer.stop();
+        }
+        activityTracker.close();
+
+        String json = new String(Files.readAllBytes(trace), StandardCharsets.UTF_8).trim();
+        Assert.assertTrue(json.startsWith("[") && json.endsWith("]"));
+        Assert.assertEquals(REQUESTS, activityTracker.getExchanges());
+        Assert.assertEquals(0, activityTracker.getDroppedTimelines());
+        Assert.assertEquals(REQUESTS, events(json, "exchange").size());
+        Assert.assertEquals(1, events(json, "connection").size());
+        Assert.assertEquals(0, events(json, "tls handshake").size());
+        Assert.assertTrue(json.contains("\"ph\":\"M\""));
+        for (String upstream : events(json, "upstream: first byte")) {
+            Assert.assertTrue(upstream, duration(upstream) >= TimeUnit.MILLISECONDS.toMicros(LATENCY_MILLIS));
+        }
+        for (String proxy : events(json, "proxy: response")) {
+            Assert.assertTrue(proxy, duration(proxy) < TimeUnit.MILLISECONDS.toMicros(LATENCY_MILLIS));
+        }
+        Assert.assertEquals(REQUESTS, events(json, "proxy: request").size());
+        Assert.assertTrue(events(json, "exchange").get(0).contains("\"status\":200"));
+    }
+
+    /**
+     * Test confirming the TLS handshake of a client talking to the proxy over TLS is timed
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     * @throws GeneralSecurityException
+     */
+    @Test
+    public void testTlsHandshakeSpan() throws IOException, URISyntaxException, GeneralSecurityException {
+        SSLContext serverSslContext = SslContextFactory.getDefault().getKeyStoreSslContext(
+                getClass().getResource("/keystore.jks"), KEYSTORE_PASS.toCharArray(), KEYSTORE_PASS.toCharArray());
+        HttpProxyServer proxyHttpServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0)
+                .withSslEngineSource(new SslEngineSource() {
+                    @Override
+                    public SSLEngine newSslEngine() {
+                        return serverSslContext.createSSLEngine();
+                    }
+
+                    @Override
+                    public SSLEngine newSslEngine(String peerHost, int peerPort) {
+                        return serverSslContext.createSSLEngine(peerHost, peerPort);
+                    }
+                })
+                .withAuthenticateSslClients(false)
+                .plusActivityTracker(activityTracker).start();
+        try {
+            sendRequests(new HttpHost(LOCALHOST, proxyHttpServer.getListenAddress().getPort(), HTTPS_SCHEME));
+        } finally {
+            proxyHttpServer.stop();
+        }
+        activityTracker.close();
+
+        String json = new String(Files.readAllBytes(trace), StandardCharsets.UTF_8);
+        Assert.assertEquals(1, events(json, "tls handshake").size());
+        Assert.assertEquals(REQUESTS, events(json, "exchange").size());
+    }
+
+    private void sendRequests(HttpHost proxy) throws IOException, URISyntaxException, GeneralSecurityException {
+        try (CloseableHttpClient httpClient = HttpClientBuilder.create().setProxy(proxy)
+                .setSSLContext(SslContextFactory.getDefault().getTrustStoreSslContext(
+                        getClass().getResource("/keystore.jks"), KEYSTORE_PASS.toCharArray()))
+                .build()) {
+            HttpUriRequest httpUriRequest = RequestBuilder.get(new URIBuilder().setScheme(HTTP_SCHEME)
+                    .setHost(LOCALHOST).setPort(httpServer.getLocalPort()).setPath(ROOT_CONTEXT).build()).build();
+            for (int i = 0; i < REQUESTS; i++) {
+                try (CloseableHttpResponse httpResponse = httpClient.execute(httpUriRequest)) {
+                    EntityUtils.consume(httpResponse.getEntity());
+                    Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+                }
+            }
+        }
+    }
+
+    private static List<String> events(String json, String name) {
+        return Arrays.stream(json.split("\n")).filter(line -> line.contains("\"name\":\"" + name + "\""))
+                .collect(Collectors.toList());
+    }
+
+    private static double duration(String event) {
+        Matcher matcher = DURATION.matcher(event);
+        Assert.assertTrue(event, matcher.find());
+        return Double.parseDouble(matcher.group(1));
+    }
+
+}
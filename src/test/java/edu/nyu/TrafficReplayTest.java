@@ -0,0 +1,178 @@
+package edu.nyu;
+
+import net.jcip.annotations.NotThreadSafe;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.littleshoot.proxy.HttpProxyServer;
+import org.littleshoot.proxy.impl.DefaultHttpProxyServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// checks the replayed pacing against the recorded one, so it runs once the parallel classes are done
+@NotThreadSafe
+public class TrafficReplayTest {
+
+    private static final String HTTP_SCHEME = "http";
+    private static final String LOCALHOST = "localhost";
+    private static final String PAGE_CONTEXT = "/page";
+    private static final String UPLOAD_CONTEXT = "/upload";
+    private static final String PAGE = "<html>recorded</html>";
+    private static final int UPLOAD_SIZE = 20_000;
+    private static final int ROUNDS = 5;
+    private static final long PAUSE_MILLIS = 100;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TrafficReplayTest.class);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private HttpServer httpServer;
+    private HttpProxyServer proxyHttpServer;
+    private TrafficRecorder trafficRecorder;
+    private Path recordingFile;
+
+    @Before
+    public void setup() throws IOException {
+        httpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler(PAGE_CONTEXT, (req, resp, context) -> {
+                    resp.setStatusCode(HttpStatus.SC_OK);
+                    resp.setHeader("X-Origin", "yes");
+                    resp.setEntity(new StringEntity(PAGE));
+                })
+                .registerHandler(UPLOAD_CONTEXT, (req, resp, context) -> resp.setStatusCode(HttpStatus.SC_CREATED))
+                .create();
+        httpServer.start();
+        recordingFile = temporaryFolder.getRoot().toPath().resolve("traffic.bin");
+        trafficRecorder = new TrafficRecorder(recordingFile);
+        proxyHttpServer = DefaultHttpProxyServer.bootstrap()
+                .withPort(0).plusActivityTracker(trafficRecorder).start();
+    }
+
+    @After
+    public void shutdown() throws IOException {
+        proxyHttpServer.stop();
+        httpServer.stop();
+        trafficRecorder.close();
+    }
+
+    /**
+     * Test confirming proxied exchanges are recorded in start order with their headers and body lengths
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testRecord() throws IOException, URISyntaxException, InterruptedException {
+        record();
+        try (TrafficRecording recording = new TrafficRecording(recordingFile)) {
+            Assert.assertEquals(3 * ROUNDS, recording.size());
+            Assert.assertTrue(recording.getSpanMicros()
+                    >= TimeUnit.MILLISECONDS.toMicros(PAUSE_MILLIS * (ROUNDS - 1)));
+            long previousStart = -1;
+            for (int i = 0; i < recording.size(); i++) {
+                TrafficRecording.Exchange exchange = recording.get(i);
+                Assert.assertTrue(exchange.getStartMicros() >= previousStart);
+                previousStart = exchange.getStartMicros();
+            }
+            TrafficRecording.Exchange page = recording.get(0);
+            Assert.assertEquals("GET", page.getMethod());
+            Assert.assertTrue(page.getUri().endsWith(PAGE_CONTEXT));
+            Assert.assertEquals(HttpStatus.SC_OK, page.getStatus());
+            Assert.assertEquals(PAGE.length(), page.getResponseBodyLength());
+            Assert.assertTrue(page.getResponseHeaders().stream().anyMatch(h -> h.getKey().equals("X-Origin")));
+            TrafficRecording.Exchange upload = recording.get(1);
+            Assert.assertEquals("POST", upload.getMethod());
+            Assert.assertEquals(UPLOAD_SIZE, upload.getRequestBodyLength());
+            Assert.assertEquals(HttpStatus.SC_CREATED, upload.getStatus());
+            // no handler registered, HttpCore's answer to that
+            Assert.assertEquals(HttpStatus.SC_NOT_IMPLEMENTED, recording.get(2).getStatus());
+        }
+    }
+
+    /**
+     * Test confirming a replay against the stand-in reproduces every response, keeps the recorded pacing, and runs
+     * faster when sped up
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     * @throws InterruptedException
+     */
+    @Test
+    public void testReplay() throws IOException, URISyntaxException, InterruptedException {
+        record();
+        try (TrafficRecording recording = new TrafficRecording(recordingFile);
+             CloseableHttpClient httpClient = HttpClientBuilder.create().build()) {
+            HttpServer standIn = TrafficReplayer.startStandIn(recording);
+            try {
+                HttpHost target = new HttpHost(LOCALHOST, standIn.getLocalPort());
+                TrafficReplayer trafficReplayer = new TrafficReplayer(recording, httpClient, 4);
+                TrafficReplayer.Result original = trafficReplayer.replay(target, 1);
+                LOGGER.info("Original pacing: {}", original);
+                Assert.assertEquals(recording.size(), original.getCompleted());
+                Assert.assertEquals(0, original.getErrors());
+                Assert.assertEquals(0, original.getMismatches());
+                Assert.assertTrue(original.getElapsedNanos()
+                        >= TimeUnit.MICROSECONDS.toNanos(recording.getSpanMicros()));
+
+                TrafficReplayer.Result unpaced = trafficReplayer.replay(target, Double.POSITIVE_INFINITY);
+                LOGGER.info("Unpaced: {}", unpaced);
+                Assert.assertEquals(0, unpaced.getMismatches());
+                Assert.assertTrue(unpaced.getElapsedNanos() < original.getElapsedNanos());
+            } finally {
+                standIn.stop();
+            }
+        }
+    }
+
+    private void record() throws IOException, URISyntaxException, InterruptedException {
+        try (CloseableHttpClient httpClient = HttpClientBuilder.create()
+                .setProxy(new HttpHost(LOCALHOST, proxyHttpServer.getListenAddress().getPort())).build()) {
+            for (int i = 0; i < ROUNDS; i++) {
+                execute(httpClient, RequestBuilder.get(uri(PAGE_CONTEXT)).build());
+                execute(httpClient, RequestBuilder.post(uri(UPLOAD_CONTEXT))
+                        .setEntity(new ByteArrayEntity(new byte[UPLOAD_SIZE])).build());
+                execute(httpClient, RequestBuilder.get(uri("/missing")).build());
+                Thread.sleep(PAUSE_MILLIS);
+            }
+        }
+        trafficRecorder.close();
+        Assert.assertEquals(3 * ROUNDS, trafficRecorder.getRecorded());
+    }
+
+    private void execute(CloseableHttpClient httpClient, HttpUriRequest httpUriRequest) throws IOException {
+        try (CloseableHttpResponse httpResponse = httpClient.execute(httpUriRequest)) {
+            EntityUtils.consume(httpResponse.getEntity());
+        }
+    }
+
+    private URI uri(String path) throws URISyntaxException {
+        return new URIBuilder().setScheme(HTTP_SCHEME).setHost(LOCALHOST).setPort(httpServer.getLocalPort())
+                .setPath(path).build();
+    }
+
+}
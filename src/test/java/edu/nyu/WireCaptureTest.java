@@ -0,0 +1,134 @@
+package edu.nyu;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.bootstrap.HttpServer;
+import org.apache.http.impl.bootstrap.ServerBootstrap;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class WireCaptureTest {
+
+    private static final String HTTP_SCHEME = "http";
+    private static final String LOCALHOST = "localhost";
+    private static final String ECHO_CONTEXT = "/echo";
+    private static final String BODY = "hello wire";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private HttpServer httpServer;
+    private Path captureFile;
+
+    @Before
+    public void setup() throws IOException {
+        httpServer = ServerBootstrap.bootstrap()
+                .setListenerPort(0)
+                .registerHandler(ECHO_CONTEXT, (req, resp, context) -> {
+                    resp.setStatusCode(HttpStatus.SC_OK);
+                    resp.setEntity(new StringEntity(BODY));
+                })
+                .create();
+        httpServer.start();
+        captureFile = temporaryFolder.getRoot().toPath().resolve("wire.bin");
+    }
+
+    @After
+    public void shutdown() {
+        httpServer.stop();
+    }
+
+    /**
+     * Test confirming requests and responses end up in the capture and render like the wire log
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testCaptureAndRender() throws IOException, URISyntaxException {
+        try (WireCapture wireCapture = new WireCapture(captureFile, 1 << 20)) {
+            executeRequests(wireCapture, 2);
+            Assert.assertEquals(0, wireCapture.getDroppedRecords());
+        }
+
+        List<WireCaptureReader.Record> records = WireCaptureReader.read(captureFile);
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        Set<Long> connectionIds = new HashSet<>();
+        for (WireCaptureReader.Record record : records) {
+            (record.getDirection() == WireCapture.SENT ? sent : received).write(record.getData());
+            connectionIds.add(record.getConnectionId());
+        }
+        // the connection is kept alive, both requests go over it
+        Assert.assertEquals(1, connectionIds.size());
+        String sentText = new String(sent.toByteArray(), StandardCharsets.ISO_8859_1);
+        String receivedText = new String(received.toByteArray(), StandardCharsets.ISO_8859_1);
+        Assert.assertEquals(2, sentText.split("POST /echo HTTP/1.1", -1).length - 1);
+        Assert.assertTrue(sentText.endsWith("\r\n\r\n" + BODY));
+        Assert.assertEquals(2, receivedText.split("HTTP/1.1 200 OK", -1).length - 1);
+
+        ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+        WireCaptureReader.render(captureFile, new PrintStream(rendered, true, "UTF-8"));
+        String renderedText = rendered.toString("UTF-8");
+        Assert.assertTrue(renderedText.contains(" wire-0 >> \"POST /echo HTTP/1.1[\\r][\\n]\""));
+        Assert.assertTrue(renderedText.contains(" wire-0 << \"HTTP/1.1 200 OK[\\r][\\n]\""));
+        Assert.assertTrue(renderedText.contains(" wire-0 >> \"" + BODY + "\""));
+    }
+
+    /**
+     * Test confirming a full capture drops records instead of failing requests, and what fit is still readable
+     *
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testFullCapture() throws IOException, URISyntaxException {
+        try (WireCapture wireCapture = new WireCapture(captureFile, 1024)) {
+            executeRequests(wireCapture, 10);
+            Assert.assertTrue(wireCapture.getDroppedRecords() > 0);
+        }
+        List<WireCaptureReader.Record> records = WireCaptureReader.read(captureFile);
+        Assert.assertFalse(records.isEmpty());
+        Assert.assertTrue(new String(records.get(0).getData(), StandardCharsets.ISO_8859_1)
+                .startsWith("POST /echo HTTP/1.1"));
+    }
+
+    private void executeRequests(WireCapture wireCapture, int requests) throws IOException, URISyntaxException {
+        HttpClientBuilder httpClientBuilder = HttpClientBuilder.create().setConnectionManager(
+                new PoolingHttpClientConnectionManager(new WireCaptureConnectionFactory(wireCapture)));
+        try (CloseableHttpClient httpClient = httpClientBuilder.build()) {
+            for (int i = 0; i < requests; i++) {
+                HttpUriRequest httpUriRequest = RequestBuilder.post(new URIBuilder().setScheme(HTTP_SCHEME)
+                        .setHost(LOCALHOST).setPort(httpServer.getLocalPort()).setPath(ECHO_CONTEXT).build())
+                        .setEntity(new StringEntity(BODY)).build();
+                try (CloseableHttpResponse httpResponse = httpClient.execute(httpUriRequest)) {
+                    Assert.assertEquals(HttpStatus.SC_OK, httpResponse.getStatusLine().getStatusCode());
+                    Assert.assertEquals(BODY, EntityUtils.toString(httpResponse.getEntity()));
+                }
+            }
+        }
+    }
+
+}